@@ -49,13 +49,17 @@ public class CorsConfig implements WebMvcConfigurer {
             "Accept", 
             "Origin", 
             "Access-Control-Request-Method", 
-            "Access-Control-Request-Headers"
+            "Access-Control-Request-Headers",
+            "Idempotency-Key",
+            "If-None-Match"
         ));
         
         // Expose specific headers
         configuration.setExposedHeaders(Arrays.asList(
             "Access-Control-Allow-Origin", 
-            "Access-Control-Allow-Credentials"
+            "Access-Control-Allow-Credentials",
+            "Idempotent-Replayed",
+            "ETag"
         ));
         
         // Disable credentials for testing
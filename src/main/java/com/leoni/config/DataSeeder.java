@@ -2,20 +2,39 @@ package com.leoni.config;
 
 import com.leoni.models.Department;
 import com.leoni.models.DocumentType;
+import com.leoni.models.User;
 import com.leoni.services.SuperAdminService;
+import com.leoni.services.TaxonomyService;
 import com.leoni.repositories.DepartmentRepository;
 import com.leoni.repositories.DocumentTypeRepository;
+import com.leoni.utils.TextNormalizer;
+import jakarta.annotation.PostConstruct;
+import org.bson.types.Binary;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.mongodb.core.BulkOperations;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Component;
 
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 @Component
 public class DataSeeder {
+    
+    // Documents updated per bulkWrite during the normalized key backfill
+    private static final int KEY_BACKFILL_BATCH_SIZE = 1000;
 
     @Autowired
     private DocumentTypeRepository documentTypeRepository;
@@ -28,17 +47,178 @@ public class DataSeeder {
     
     @Autowired
     private SuperAdminService superAdminService;
+    
+    @Autowired
+    private TaxonomyService taxonomyService;
 
+    /**
+     * Initialize the version fields while the context starts, before the web server accepts requests
+     * (updates require the version, and a document without one could not be updated)
+     */
+    @PostConstruct
+    public void prepareVersions() {
+        backfillVersionFields();
+    }
+    
     /**
      * Seed initial data after application is ready
+     * Runs before the other ready listeners so the in-memory indexes are built from backfilled documents
      */
     @EventListener(ApplicationReadyEvent.class)
+    @Order(Ordered.HIGHEST_PRECEDENCE)
     public void seedInitialData() {
+        backfillNormalizedKeys("users", Map.of("status", "statusKey"),
+                Map.of("status", "approved")); // Missing status is read as "approved" by the User model
+        backfillNormalizedKeys("news", Map.of("targetLocation", "targetLocationKey", "targetDepartment", "targetDepartmentKey"),
+                Map.of());
+        backfillSearchKeys();
         seedDocumentTypes();
         seedDepartmentHierarchy();
+        backfillEffectiveLocations();
         seedDefaultSuperAdmin();
     }
     
+    /**
+     * Initialize the @Version field on documents written before optimistic locking was added
+     * (a null version makes save() insert instead of update, which fails on the existing _id)
+     */
+    private void backfillVersionFields() {
+        for (String collection : Arrays.asList("users", "document_requests", "news", "admins")) {
+            try {
+                long updated = mongoTemplate.updateMulti(
+                        new Query(Criteria.where("version").exists(false)),
+                        new Update().set("version", 0L),
+                        collection).getModifiedCount();
+                if (updated > 0) {
+                    System.out.println("Initialized version field on " + updated + " documents in " + collection);
+                }
+            } catch (Exception e) {
+                System.err.println("Error initializing version field in " + collection + ": " + e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Compute the normalized filter keys (see TextNormalizer) on documents written before they existed
+     * New writes maintain the keys themselves, so only documents missing a key are visited
+     * @param collection the collection name
+     * @param keyFields source field to key field
+     * @param defaults value assumed for a missing source field
+     */
+    private void backfillNormalizedKeys(String collection, Map<String, String> keyFields, Map<String, String> defaults) {
+        Query query = new Query(new Criteria().orOperator(keyFields.values().stream()
+                .map(key -> Criteria.where(key).exists(false))
+                .toArray(Criteria[]::new)));
+        keyFields.keySet().forEach(field -> query.fields().include(field));
+        
+        backfillDocuments(collection, "normalized keys", query, document -> {
+            Update update = new Update();
+            keyFields.forEach((field, key) -> {
+                String text = stringValue(document, field);
+                update.set(key, TextNormalizer.key(text != null ? text : defaults.get(field)));
+            });
+            return update;
+        });
+    }
+    
+    /**
+     * Resolve the effective location/department of users written before they were stored
+     * (same rule as User.applyEffectiveLocation: the referenced department, else the user's own fields)
+     */
+    private void backfillEffectiveLocations() {
+        Map<String, Department> departments = new HashMap<>();
+        departmentRepository.findAll().forEach(department -> departments.put(department.getId(), department));
+        
+        Query query = new Query(new Criteria().andOperator(
+                Criteria.where("effectiveLocation").exists(false),
+                Criteria.where("effectiveDepartment").exists(false)));
+        query.fields().include("location").include("department").include("departmentId").include("departmentRef");
+        
+        backfillDocuments("users", "effective locations", query, document -> {
+            User user = new User();
+            user.setLocation(stringValue(document, "location"));
+            user.setDepartment(stringValue(document, "department"));
+            String departmentId = stringValue(document, "departmentId") != null
+                    ? stringValue(document, "departmentId")
+                    : stringValue(document, "departmentRef");
+            user.applyEffectiveLocation(departmentId != null ? departments.get(departmentId) : null);
+            return new Update()
+                    .set("effectiveLocation", user.getEffectiveLocation())
+                    .set("effectiveDepartment", user.getEffectiveDepartment())
+                    .set("effectiveLocationKey", TextNormalizer.key(user.getEffectiveLocation()))
+                    .set("effectiveDepartmentKey", TextNormalizer.key(user.getEffectiveDepartment()))
+                    .unset("locationKey")
+                    .unset("departmentKey");
+        });
+    }
+    
+    /**
+     * Compute the employee search fields (searchTokens/searchKeys) on users written before they existed
+     */
+    private void backfillSearchKeys() {
+        Query query = new Query(Criteria.where("searchKeys").exists(false));
+        query.fields().include("firstName").include("lastName").include("employeeId").include("adresse1").include("email");
+        
+        backfillDocuments("users", "search keys", query, document -> {
+            String email = stringValue(document, "adresse1") != null
+                    ? stringValue(document, "adresse1")
+                    : stringValue(document, "email");
+            List<String> searchTokens = User.buildSearchTokens(stringValue(document, "firstName"),
+                    stringValue(document, "lastName"), stringValue(document, "employeeId"), email);
+            return new Update()
+                    .set("searchTokens", searchTokens)
+                    .set("searchKeys", TextNormalizer.prefixes(searchTokens, User.SEARCH_PREFIX_MAX_LENGTH));
+        });
+    }
+    
+    /**
+     * Stream the documents matching the query and apply the computed update to each, in unordered bulk batches
+     * @param collection the collection name
+     * @param description what is initialized (for logging)
+     * @param query the documents to update, with the fields needed to compute the update
+     * @param updateBuilder computes the update of one document
+     */
+    private void backfillDocuments(String collection, String description, Query query,
+                                   Function<org.bson.Document, Update> updateBuilder) {
+        try {
+            BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, collection);
+            int batched = 0;
+            long updated = 0;
+            try (Stream<org.bson.Document> documents = mongoTemplate.stream(query, org.bson.Document.class, collection)) {
+                Iterator<org.bson.Document> iterator = documents.iterator();
+                while (iterator.hasNext()) {
+                    org.bson.Document document = iterator.next();
+                    bulk.updateOne(new Query(Criteria.where("_id").is(document.get("_id"))), updateBuilder.apply(document));
+                    
+                    if (++batched == KEY_BACKFILL_BATCH_SIZE) {
+                        updated += bulk.execute().getModifiedCount();
+                        bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, collection);
+                        batched = 0;
+                    }
+                }
+            }
+            if (batched > 0) {
+                updated += bulk.execute().getModifiedCount();
+            }
+            if (updated > 0) {
+                System.out.println("Initialized " + description + " on " + updated + " documents in " + collection);
+            }
+        } catch (Exception e) {
+            System.err.println("Error initializing " + description + " in " + collection + ": " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Read a string field of a raw document (legacy documents may store strings as binary)
+     */
+    private String stringValue(org.bson.Document document, String field) {
+        Object value = document.get(field);
+        if (value instanceof Binary binary) {
+            return new String(binary.getData());
+        }
+        return value instanceof String string ? string : null;
+    }
+    
     /**
      * Seed initial document types
      */
@@ -128,6 +308,8 @@ public class DataSeeder {
             }
         } catch (Exception e) {
             System.err.println("Error seeding department hierarchy: " + e.getMessage());
+        } finally {
+            taxonomyService.invalidate();
         }
     }
     
@@ -3,8 +3,13 @@ package com.leoni.config;
 import com.leoni.exceptions.AdminServiceException;
 import com.leoni.exceptions.DocumentRequestNotFoundException;
 import com.leoni.exceptions.DuplicateUserException;
+import com.leoni.exceptions.IdempotencyKeyInProgressException;
+import com.leoni.exceptions.IdempotencyKeyMismatchException;
 import com.leoni.exceptions.InvalidStatusException;
 import com.leoni.exceptions.UserNotFoundException;
+import com.leoni.exceptions.VersionConflictException;
+import com.leoni.exceptions.VersionRequiredException;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ExceptionHandler;
@@ -86,6 +91,91 @@ public class GlobalExceptionHandler {
         return new ResponseEntity<>(errorDetails, HttpStatus.BAD_REQUEST);
     }
     
+    /**
+     * Handle VersionConflictException (document modified by someone else since it was read)
+     */
+    @ExceptionHandler(VersionConflictException.class)
+    public ResponseEntity<Map<String, Object>> handleVersionConflictException(
+            VersionConflictException ex, WebRequest request) {
+        
+        Map<String, Object> errorDetails = createErrorResponse(
+            HttpStatus.CONFLICT.value(),
+            ex.getMessage(),
+            ex.getErrorCode(),
+            request.getDescription(false)
+        );
+        
+        return new ResponseEntity<>(errorDetails, HttpStatus.CONFLICT);
+    }
+    
+    /**
+     * Handle VersionRequiredException (update sent without the version it was made on)
+     */
+    @ExceptionHandler(VersionRequiredException.class)
+    public ResponseEntity<Map<String, Object>> handleVersionRequiredException(
+            VersionRequiredException ex, WebRequest request) {
+        
+        Map<String, Object> errorDetails = createErrorResponse(
+            HttpStatus.PRECONDITION_REQUIRED.value(),
+            ex.getMessage(),
+            ex.getErrorCode(),
+            request.getDescription(false)
+        );
+        
+        return new ResponseEntity<>(errorDetails, HttpStatus.PRECONDITION_REQUIRED);
+    }
+    
+    /**
+     * Handle OptimisticLockingFailureException (version-checked save lost a race)
+     */
+    @ExceptionHandler(OptimisticLockingFailureException.class)
+    public ResponseEntity<Map<String, Object>> handleOptimisticLockingFailureException(
+            OptimisticLockingFailureException ex, WebRequest request) {
+        
+        Map<String, Object> errorDetails = createErrorResponse(
+            HttpStatus.CONFLICT.value(),
+            "Le document a été modifié par un autre utilisateur, veuillez recharger et réessayer",
+            "VERSION_CONFLICT",
+            request.getDescription(false)
+        );
+        
+        return new ResponseEntity<>(errorDetails, HttpStatus.CONFLICT);
+    }
+    
+    /**
+     * Handle IdempotencyKeyInProgressException (retry arrived while the first attempt is still running)
+     */
+    @ExceptionHandler(IdempotencyKeyInProgressException.class)
+    public ResponseEntity<Map<String, Object>> handleIdempotencyKeyInProgressException(
+            IdempotencyKeyInProgressException ex, WebRequest request) {
+        
+        Map<String, Object> errorDetails = createErrorResponse(
+            HttpStatus.CONFLICT.value(),
+            ex.getMessage(),
+            ex.getErrorCode(),
+            request.getDescription(false)
+        );
+        
+        return new ResponseEntity<>(errorDetails, HttpStatus.CONFLICT);
+    }
+    
+    /**
+     * Handle IdempotencyKeyMismatchException (key reused by another caller or for another request)
+     */
+    @ExceptionHandler(IdempotencyKeyMismatchException.class)
+    public ResponseEntity<Map<String, Object>> handleIdempotencyKeyMismatchException(
+            IdempotencyKeyMismatchException ex, WebRequest request) {
+        
+        Map<String, Object> errorDetails = createErrorResponse(
+            HttpStatus.UNPROCESSABLE_ENTITY.value(),
+            ex.getMessage(),
+            ex.getErrorCode(),
+            request.getDescription(false)
+        );
+        
+        return new ResponseEntity<>(errorDetails, HttpStatus.UNPROCESSABLE_ENTITY);
+    }
+    
     /**
      * Handle general AdminServiceException
      */
@@ -181,6 +271,8 @@ public class GlobalExceptionHandler {
             case 403: return "Forbidden";
             case 404: return "Not Found";
             case 409: return "Conflict";
+            case 422: return "Unprocessable Entity";
+            case 428: return "Precondition Required";
             case 500: return "Internal Server Error";
             default: return "Unknown Error";
         }
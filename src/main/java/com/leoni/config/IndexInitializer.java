@@ -0,0 +1,221 @@
+package com.leoni.config;
+
+import com.leoni.services.BlobCache;
+import com.leoni.services.DocumentRequestService;
+import com.leoni.services.EscalationService;
+import com.leoni.services.IdempotencyService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.index.PartialIndexFilter;
+import org.springframework.data.mongodb.core.index.TextIndexDefinition;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Create the indexes the services rely on
+ * Each index is created independently so one failure does not prevent the others
+ */
+@Component
+public class IndexInitializer {
+    
+    private static final Logger logger = LoggerFactory.getLogger(IndexInitializer.class);
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    @Value("${app.events.retention-days:90}")
+    private int eventRetentionDays;
+    
+    @Value("${app.sync.tombstone-retention-days:30}")
+    private int tombstoneRetentionDays;
+    
+    /**
+     * Ensure indexes after application is ready
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void createIndexes() {
+        // Idempotency keys are only needed while clients may still retry
+        ensureIndex("idempotency_keys", new Index()
+                .on("createdAt", Sort.Direction.ASC)
+                .expire(IdempotencyService.RECORD_TTL)
+                .named("createdAt_ttl"));
+        
+        // Normalized filter keys: every location/department/status combination is an index lookup
+        // (the filters moved from the user's own keys to the effective ones)
+        dropIndex("users", "location_department_status_keys");
+        dropIndex("users", "department_status_keys");
+        ensureIndex("users", new Index()
+                .on("effectiveLocationKey", Sort.Direction.ASC)
+                .on("effectiveDepartmentKey", Sort.Direction.ASC)
+                .on("statusKey", Sort.Direction.ASC)
+                .named("effective_location_department_status_keys"));
+        ensureIndex("users", new Index()
+                .on("effectiveDepartmentKey", Sort.Direction.ASC)
+                .on("statusKey", Sort.Direction.ASC)
+                .named("effective_department_status_keys"));
+        ensureIndex("users", new Index()
+                .on("statusKey", Sort.Direction.ASC)
+                .named("status_key"));
+        // Department rename cascade
+        ensureIndex("users", new Index()
+                .on("departmentId", Sort.Direction.ASC)
+                .named("departmentId"));
+        ensureIndex("users", new Index()
+                .on("departmentRef", Sort.Direction.ASC)
+                .named("departmentRef"));
+        // Employee directory refresh: users changed since the last refresh
+        ensureIndex("users", new Index()
+                .on("updatedAt", Sort.Direction.ASC)
+                .named("updatedAt"));
+        
+        // Employee search: prefixes of the folded name, employee ID and email tokens (multikey)
+        ensureIndex("users", new Index()
+                .on("searchKeys", Sort.Direction.ASC)
+                .named("search_keys"));
+        
+        // Document request pages: keyset on (createdAt, _id), newest first, behind each equality filter
+        ensureIndex("document_requests", new Index()
+                .on("createdAt", Sort.Direction.DESC)
+                .on("_id", Sort.Direction.DESC)
+                .named("createdAt_id"));
+        ensureIndex("document_requests", new Index()
+                .on("status.current", Sort.Direction.ASC)
+                .on("createdAt", Sort.Direction.DESC)
+                .on("_id", Sort.Direction.DESC)
+                .named("status_createdAt_id"));
+        ensureIndex("document_requests", new Index()
+                .on("userId", Sort.Direction.ASC)
+                .on("createdAt", Sort.Direction.DESC)
+                .on("_id", Sort.Direction.DESC)
+                .named("userId_createdAt_id"));
+        ensureIndex("document_requests", new Index()
+                .on("documentTypes", Sort.Direction.ASC)
+                .on("createdAt", Sort.Direction.DESC)
+                .on("_id", Sort.Direction.DESC)
+                .named("documentTypes_createdAt_id"));
+        
+        // Rollup job: requests changed since the watermark, and decisions by day
+        ensureIndex("document_requests", new Index()
+                .on("updatedAt", Sort.Direction.ASC)
+                .named("updatedAt"));
+        ensureIndex("document_requests", new Index()
+                .on("status.progress.step", Sort.Direction.ASC)
+                .on("status.progress.date", Sort.Direction.ASC)
+                .named("progress_step_date"));
+        ensureIndex("document_rollups", new Index()
+                .on("day", Sort.Direction.ASC)
+                .named("day"));
+        
+        // Escalation job: only open requests are indexed by age, only flagged requests by level
+        ensureIndex("document_requests", new Index()
+                .on("status.current", Sort.Direction.ASC)
+                .on("updatedAt", Sort.Direction.ASC)
+                .partial(PartialIndexFilter.of(Criteria.where("status.current").in(EscalationService.OPEN_STATUSES)))
+                .named("open_status_updatedAt"));
+        ensureIndex("document_requests", new Index()
+                .on("escalationLevel", Sort.Direction.ASC)
+                .partial(PartialIndexFilter.of(Criteria.where("escalationLevel").exists(true)))
+                .named("escalationLevel"));
+        
+        // Change feed: outbox drained by the relay, events read in seq order and expired after the retention
+        ensureIndex("document_requests", new Index()
+                .on("pendingEvents._id", Sort.Direction.ASC)
+                .sparse()
+                .named("pending_events"));
+        ensureIndex("document_events", new Index()
+                .on("seq", Sort.Direction.ASC)
+                .unique()
+                .named("seq"));
+        ensureIndex("document_events", new Index()
+                .on("userId", Sort.Direction.ASC)
+                .on("seq", Sort.Direction.ASC)
+                .named("userId_seq"));
+        ensureIndex("document_events", new Index()
+                .on("at", Sort.Direction.ASC)
+                .expire(Duration.ofDays(eventRetentionDays))
+                .named("at_ttl"));
+        
+        // Delta sync: changes by owner and time, tombstones expire with the sync window
+        ensureIndex("document_requests", new Index()
+                .on("userId", Sort.Direction.ASC)
+                .on("updatedAt", Sort.Direction.ASC)
+                .named("userId_updatedAt"));
+        ensureIndex("news", new Index()
+                .on("updatedAt", Sort.Direction.ASC)
+                .named("updatedAt"));
+        ensureIndex("deletion_log", new Index()
+                .on("collection", Sort.Direction.ASC)
+                .on("userId", Sort.Direction.ASC)
+                .on("deletedAt", Sort.Direction.ASC)
+                .named("collection_userId_deletedAt"));
+        ensureIndex("deletion_log", new Index()
+                .on("deletedAt", Sort.Direction.ASC)
+                .expire(Duration.ofDays(tombstoneRetentionDays))
+                .named("deletedAt_ttl"));
+        
+        // Upload reaper: images uploaded since the last marking (news by updatedAt above)
+        ensureIndex("stored_images", new Index()
+                .on("lastUploadedAt", Sort.Direction.ASC)
+                .named("lastUploadedAt"));
+        // Files removed from the store, read by every node to drop its cached copies
+        ensureIndex(BlobCache.EVICTIONS_COLLECTION, new Index()
+                .on("at", Sort.Direction.ASC)
+                .expire(BlobCache.EVICTION_RETENTION)
+                .named("at_ttl"));
+        
+        // Description search: French stemming, the document types count for less
+        ensureIndex("document_requests", new TextIndexDefinition.TextIndexDefinitionBuilder()
+                .onField("description", 3F)
+                .onField("documentTypes")
+                .withDefaultLanguage(DocumentRequestService.TEXT_SEARCH_LANGUAGE)
+                .named("description_text")
+                .build());
+        
+        ensureIndex("departments", new Index()
+                .on("locationKey", Sort.Direction.ASC)
+                .on("nameKey", Sort.Direction.ASC)
+                .named("location_name_keys"));
+        ensureIndex("news", new Index()
+                .on("isActive", Sort.Direction.ASC)
+                .on("targetLocationKey", Sort.Direction.ASC)
+                .on("targetDepartmentKey", Sort.Direction.ASC)
+                .named("active_target_keys"));
+        ensureIndex("news", new Index()
+                .on("isActive", Sort.Direction.ASC)
+                .on("targetDepartmentKey", Sort.Direction.ASC)
+                .named("active_department_key"));
+    }
+    
+    // Drop a replaced index, if still there: nothing to do (nor log) on the following startups
+    private void dropIndex(String collection, String name) {
+        try {
+            IndexOperations indexOps = mongoTemplate.indexOps(collection);
+            if (indexOps.getIndexInfo().stream().map(IndexInfo::getName).anyMatch(name::equals)) {
+                indexOps.dropIndex(name);
+                logger.info("Dropped index {} on {}", name, collection);
+            }
+        } catch (Exception e) {
+            logger.warn("Error dropping index {} on {}: {}", name, collection, e.getMessage());
+        }
+    }
+    
+    private void ensureIndex(String collection, IndexDefinition index) {
+        try {
+            mongoTemplate.indexOps(collection).createIndex(index);
+        } catch (Exception e) {
+            logger.error("Error creating index on {}: {}", collection, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.leoni.config;
+
+import com.leoni.models.Department;
+import com.leoni.models.News;
+import com.leoni.models.User;
+import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
+import org.springframework.data.mongodb.core.mapping.event.BeforeConvertEvent;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps the normalized filter keys (locationKey, departmentKey, ...) in sync on save() and insert()
+ * Partial updates ($set) of the source fields set the matching key themselves
+ */
+@Component
+public class NormalizedKeyListener extends AbstractMongoEventListener<Object> {
+    
+    @Override
+    public void onBeforeConvert(BeforeConvertEvent<Object> event) {
+        Object source = event.getSource();
+        if (source instanceof User user) {
+            user.refreshNormalizedKeys();
+        } else if (source instanceof Department department) {
+            department.refreshNormalizedKeys();
+        } else if (source instanceof News news) {
+            news.refreshNormalizedKeys();
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.leoni.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Enable the @Scheduled background jobs (analytics rollups)
+ */
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+}
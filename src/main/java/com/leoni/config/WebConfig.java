@@ -9,9 +9,7 @@ public class WebConfig implements WebMvcConfigurer {
 
     @Override
     public void addResourceHandlers(ResourceHandlerRegistry registry) {
-        // Configure static resource handler for uploaded files
-        registry.addResourceHandler("/uploads/**")
-                .addResourceLocations("file:uploads/");
+        // Uploaded files are served by UploadsController (caching headers, ranges, sendfile)
         
         // Keep existing static resources configuration
         registry.addResourceHandler("/static/**")
@@ -1,9 +1,12 @@
 package com.leoni.controllers;
 
+import com.leoni.dto.AdminSearchHit;
+import com.leoni.exceptions.AdminServiceException;
 import com.leoni.models.Admin;
-import com.leoni.models.Department;
-import com.leoni.repositories.DepartmentRepository;
+import com.leoni.services.AdminSearchIndexService;
 import com.leoni.services.AdminService;
+import com.leoni.services.AuthService;
+import com.leoni.services.TaxonomyService;
 import com.leoni.services.UserService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
@@ -11,7 +14,6 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.*;
-import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/api/admin")
@@ -25,7 +27,13 @@ public class AdminController {
     private UserService userService;
     
     @Autowired
-    private DepartmentRepository departmentRepository;
+    private AuthService authService;
+    
+    @Autowired
+    private AdminSearchIndexService adminSearchIndexService;
+    
+    @Autowired
+    private TaxonomyService taxonomyService;
     
     @PostMapping("/create")
     public ResponseEntity<?> createAdmin(@RequestBody Map<String, String> request) {
@@ -187,30 +195,14 @@ public class AdminController {
     @GetMapping("/creation-options")
     public ResponseEntity<?> getAdminCreationOptions() {
         try {
-            // Get all unique locations
-            List<String> locations = departmentRepository.findAll().stream()
-                    .map(Department::getLocation)
-                    .filter(location -> location != null && !location.trim().isEmpty())
-                    .distinct()
-                    .sorted()
-                    .collect(Collectors.toList());
-            
-            // Get departments grouped by location
-            Map<String, List<String>> departmentsByLocation = new HashMap<>();
-            for (String location : locations) {
-                List<String> departments = departmentRepository.findByLocation(location).stream()
-                        .map(Department::getName)
-                        .filter(name -> name != null && !name.trim().isEmpty())
-                        .distinct()
-                        .sorted()
-                        .collect(Collectors.toList());
-                departmentsByLocation.put(location, departments);
-            }
+            // Locations and departments grouped by location, from the cached taxonomy
+            TaxonomyService.Taxonomy taxonomy = taxonomyService.current();
             
             return ResponseEntity.ok(Map.of(
                 "success", true,
-                "locations", locations,
-                "departmentsByLocation", departmentsByLocation
+                "locations", taxonomy.getLocations(),
+                "departmentsByLocation", taxonomy.getDepartmentNamesByLocation(),
+                "version", taxonomy.getVersion()
             ));
             
         } catch (Exception e) {
@@ -219,4 +211,49 @@ public class AdminController {
             );
         }
     }
+    
+    /**
+     * Search employees, document requests and news at once, within the caller's scope
+     * @param q the search text (names, employee ID, email, document types or description, news title)
+     * @param types comma-separated types to return: EMPLOYEE, DOCUMENT, NEWS (optional, default all)
+     * @param limit maximum number of hits (default 20, at most 50)
+     */
+    @GetMapping("/search")
+    public ResponseEntity<?> search(
+            @RequestParam String q,
+            @RequestParam(required = false) List<String> types,
+            @RequestParam(defaultValue = "20") int limit,
+            @RequestHeader(value = "Authorization", required = false) String authHeader) {
+        try {
+            String token = authHeader != null && authHeader.startsWith("Bearer ") ? authHeader.substring(7) : authHeader;
+            if (token == null || !authService.validateToken(token)) {
+                return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(
+                    Map.of("success", false, "message", "Authentication token required")
+                );
+            }
+            String userRole = authService.getRoleFromToken(token);
+            String userId = authService.getUserIdFromToken(token);
+            
+            long start = System.nanoTime();
+            List<AdminSearchHit> hits = adminSearchIndexService.search(q, types, limit, userRole, userId);
+            long tookMicros = (System.nanoTime() - start) / 1000;
+            
+            return ResponseEntity.ok(Map.of(
+                "success", true,
+                "query", q,
+                "hits", hits,
+                "count", hits.size(),
+                "tookMicros", tookMicros
+            ));
+            
+        } catch (AdminServiceException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(
+                Map.of("success", false, "message", e.getMessage())
+            );
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(
+                Map.of("success", false, "message", "Error searching: " + e.getMessage())
+            );
+        }
+    }
 }
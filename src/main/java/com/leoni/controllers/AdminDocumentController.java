@@ -1,11 +1,23 @@
 package com.leoni.controllers;
 
+import com.leoni.dto.DocumentRequestDTO;
+import com.leoni.dto.DocumentRequestPage;
+import com.leoni.exceptions.AdminServiceException;
+import com.leoni.exceptions.DocumentRequestNotFoundException;
+import com.leoni.exceptions.InvalidStatusException;
+import com.leoni.exceptions.UserNotFoundException;
+import com.leoni.exceptions.VersionConflictException;
 import com.leoni.models.DocumentRequest;
 import com.leoni.repositories.DocumentRequestRepository;
+import com.leoni.services.AuthService;
+import com.leoni.services.DocumentRequestService;
+import com.leoni.services.EscalationService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.time.LocalDate;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
@@ -19,6 +31,15 @@ public class AdminDocumentController {
     @Autowired
     private DocumentRequestRepository documentRequestRepository;
 
+    @Autowired
+    private DocumentRequestService documentRequestService;
+
+    @Autowired
+    private EscalationService escalationService;
+
+    @Autowired
+    private AuthService authService;
+
     /**
      * Get all documents for admin panel
      */
@@ -32,6 +53,29 @@ public class AdminDocumentController {
         }
     }
 
+    /**
+     * Get one page of documents for the admin panel, newest first
+     * Filters are optional; pass the returned nextCursor to get the following page
+     */
+    @GetMapping("/page")
+    public ResponseEntity<DocumentRequestPage> getDocumentPage(
+            @RequestParam(required = false) String status,
+            @RequestParam(required = false) String type,
+            @RequestParam(required = false) String userId,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "20") int size) {
+        try {
+            return ResponseEntity.ok(documentRequestService.getDocumentRequestPage(
+                    status, type, userId, from, to, cursor, size));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        } catch (Exception e) {
+            return ResponseEntity.status(500).body(null);
+        }
+    }
+
     /**
      * Get document by ID
      */
@@ -58,6 +102,24 @@ public class AdminDocumentController {
         }
     }
 
+    /**
+     * Get one page of documents with a status, newest first
+     */
+    @GetMapping("/status/{status}/page")
+    public ResponseEntity<DocumentRequestPage> getDocumentPageByStatus(
+            @PathVariable String status,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "20") int size) {
+        try {
+            return ResponseEntity.ok(documentRequestService.getDocumentRequestPage(
+                    status, null, null, null, null, cursor, size));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        } catch (Exception e) {
+            return ResponseEntity.status(500).body(null);
+        }
+    }
+
     /**
      * Update document status
      */
@@ -66,34 +128,22 @@ public class AdminDocumentController {
             @PathVariable String id,
             @RequestBody Map<String, String> statusUpdate) {
         try {
-            Optional<DocumentRequest> optionalDocument = documentRequestRepository.findById(id);
-            if (!optionalDocument.isPresent()) {
-                return ResponseEntity.notFound().build();
-            }
-            
-            DocumentRequest document = optionalDocument.get();
             String newStatus = statusUpdate.get("status");
-            
-            if (newStatus != null) {
-                document.getStatus().setCurrent(newStatus);
-                document.setUpdatedAt(new java.util.Date());
-                
-                // Update progress steps
-                document.getStatus().getProgress().forEach(step -> {
-                    if (step.getStep().equals(newStatus)) {
-                        step.setCompleted(true);
-                        step.setDate(new java.util.Date());
-                    }
-                });
-                
-                documentRequestRepository.save(document);
-            }
+            DocumentRequest document = newStatus != null
+                    ? documentRequestService.setDocumentStatus(id, newStatus)
+                    : documentRequestRepository.findById(id).orElseThrow(() -> new DocumentRequestNotFoundException(id));
             
             Map<String, Object> response = new HashMap<>();
             response.put("success", true);
             response.put("message", "Document status updated successfully");
             response.put("document", document);
             return ResponseEntity.ok(response);
+        } catch (DocumentRequestNotFoundException e) {
+            return ResponseEntity.notFound().build();
+        } catch (InvalidStatusException e) {
+            return ResponseEntity.badRequest().body(createErrorResponse(e.getMessage()));
+        } catch (VersionConflictException e) {
+            throw e; // Concurrent updates, reported as 409 by GlobalExceptionHandler
         } catch (Exception e) {
             return ResponseEntity.status(500).body(createErrorResponse("Error updating document status: " + e.getMessage()));
         }
@@ -101,25 +151,20 @@ public class AdminDocumentController {
 
     /**
      * Create new document request
+     * Same path as the employee endpoint: linked to the user, indexed, with its creation event
      */
     @PostMapping
-    public ResponseEntity<Map<String, Object>> createDocument(@RequestBody DocumentRequest documentRequest) {
+    public ResponseEntity<Map<String, Object>> createDocument(@RequestBody DocumentRequestDTO documentRequestDTO) {
         try {
-            documentRequest.setCreatedAt(new java.util.Date());
-            documentRequest.setUpdatedAt(new java.util.Date());
-            
-            // Initialize status if not provided
-            if (documentRequest.getStatus() == null) {
-                documentRequest.setStatus(new DocumentRequest.Status());
-            }
-            
-            DocumentRequest savedDocument = documentRequestRepository.save(documentRequest);
+            DocumentRequestDTO savedDocument = documentRequestService.createDocumentRequest(documentRequestDTO);
             
             Map<String, Object> response = new HashMap<>();
             response.put("success", true);
             response.put("message", "Document created successfully");
             response.put("document", savedDocument);
             return ResponseEntity.ok(response);
+        } catch (UserNotFoundException e) {
+            return ResponseEntity.badRequest().body(createErrorResponse(e.getMessage()));
         } catch (Exception e) {
             return ResponseEntity.status(500).body(createErrorResponse("Error creating document: " + e.getMessage()));
         }
@@ -133,23 +178,18 @@ public class AdminDocumentController {
             @PathVariable String id,
             @RequestBody DocumentRequest documentRequest) {
         try {
-            Optional<DocumentRequest> optionalDocument = documentRequestRepository.findById(id);
-            if (!optionalDocument.isPresent()) {
-                return ResponseEntity.notFound().build();
-            }
-            
-            DocumentRequest existingDocument = optionalDocument.get();
-            existingDocument.setDocumentTypes(documentRequest.getDocumentTypes());
-            existingDocument.setDescription(documentRequest.getDescription());
-            existingDocument.setUpdatedAt(new java.util.Date());
-            
-            DocumentRequest updatedDocument = documentRequestRepository.save(existingDocument);
+            DocumentRequest updatedDocument = documentRequestService.updateDocumentDetails(id,
+                    documentRequest.getDocumentTypes(), documentRequest.getDescription(), documentRequest.getVersion());
             
             Map<String, Object> response = new HashMap<>();
             response.put("success", true);
             response.put("message", "Document updated successfully");
             response.put("document", updatedDocument);
             return ResponseEntity.ok(response);
+        } catch (DocumentRequestNotFoundException e) {
+            return ResponseEntity.notFound().build();
+        } catch (VersionConflictException e) {
+            throw e; // Reported as 409 by GlobalExceptionHandler
         } catch (Exception e) {
             return ResponseEntity.status(500).body(createErrorResponse("Error updating document: " + e.getMessage()));
         }
@@ -161,22 +201,44 @@ public class AdminDocumentController {
     @DeleteMapping("/{id}")
     public ResponseEntity<Map<String, Object>> deleteDocument(@PathVariable String id) {
         try {
-            Optional<DocumentRequest> document = documentRequestRepository.findById(id);
-            if (!document.isPresent()) {
-                return ResponseEntity.notFound().build();
-            }
-            
-            documentRequestRepository.deleteById(id);
+            documentRequestService.deleteDocumentRequest(id);
             
             Map<String, Object> response = new HashMap<>();
             response.put("success", true);
             response.put("message", "Document deleted successfully");
             return ResponseEntity.ok(response);
+        } catch (DocumentRequestNotFoundException e) {
+            return ResponseEntity.notFound().build();
         } catch (Exception e) {
             return ResponseEntity.status(500).body(createErrorResponse("Error deleting document: " + e.getMessage()));
         }
     }
 
+    /**
+     * Overdue (escalated) request counts per admin scope, by escalation level
+     * Super admins get every admin; an admin gets their own counts
+     */
+    @GetMapping("/overdue/counts")
+    public ResponseEntity<Map<String, Object>> getOverdueCounts(
+            @RequestHeader(value = "Authorization", required = false) String authHeader) {
+        try {
+            String token = authHeader != null && authHeader.startsWith("Bearer ") ? authHeader.substring(7) : authHeader;
+            if (token == null || !authService.validateToken(token)) {
+                return ResponseEntity.status(401).body(createErrorResponse("Authentication token required"));
+            }
+            String userRole = authService.getRoleFromToken(token);
+            String userId = authService.getUserIdFromToken(token);
+            
+            Map<String, Object> response = new HashMap<>(escalationService.getOverdueCounts(userRole, userId));
+            response.put("success", true);
+            return ResponseEntity.ok(response);
+        } catch (AdminServiceException e) {
+            return ResponseEntity.status(403).body(createErrorResponse(e.getMessage()));
+        } catch (Exception e) {
+            return ResponseEntity.status(500).body(createErrorResponse("Error counting overdue documents: " + e.getMessage()));
+        }
+    }
+
     /**
      * Get documents statistics
      */
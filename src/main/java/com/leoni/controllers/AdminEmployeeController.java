@@ -1,16 +1,25 @@
 package com.leoni.controllers;
 
+import com.leoni.dto.BulkUserActionRequest;
+import com.leoni.dto.BulkUserActionResult;
 import com.leoni.dto.UserDTO;
 import com.leoni.models.Admin;
 import com.leoni.models.Department;
 import com.leoni.models.DocumentRequest;
+import com.leoni.services.DocumentRequestService;
 import com.leoni.services.AdminService;
 import com.leoni.services.AuthService;
+import com.leoni.services.IdempotencyService;
 import com.leoni.services.UserService;
 import com.leoni.repositories.DepartmentRepository;
 import com.leoni.repositories.DocumentRequestRepository;
+import com.leoni.exceptions.AdminServiceException;
 import com.leoni.exceptions.UserNotFoundException;
 import com.leoni.exceptions.DuplicateUserException;
+import com.leoni.exceptions.DocumentRequestNotFoundException;
+import com.leoni.exceptions.InvalidStatusException;
+import com.leoni.exceptions.VersionConflictException;
+import com.leoni.exceptions.VersionRequiredException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -40,6 +49,12 @@ public class AdminEmployeeController {
     @Autowired
     private AuthService authService;
 
+    @Autowired
+    private IdempotencyService idempotencyService;
+
+    @Autowired
+    private DocumentRequestService documentRequestService;
+
     @Autowired
     private DocumentRequestRepository documentRequestRepository;
 
@@ -267,6 +282,8 @@ public class AdminEmployeeController {
             return ResponseEntity.ok(response);
         } catch (UserNotFoundException e) {
             return ResponseEntity.notFound().build();
+        } catch (VersionConflictException | VersionRequiredException e) {
+            throw e; // Reported as 409/428 by GlobalExceptionHandler
         } catch (Exception e) {
             return ResponseEntity.status(500).body(createErrorResponse("Error updating employee: " + e.getMessage()));
         }
@@ -314,32 +331,22 @@ public class AdminEmployeeController {
             @PathVariable String documentId,
             @RequestBody Map<String, String> statusUpdate) {
         try {
-            DocumentRequest document = documentRequestRepository.findById(documentId).orElse(null);
-            if (document == null) {
-                return ResponseEntity.notFound().build();
-            }
-            
             String newStatus = statusUpdate.get("status");
-            if (newStatus != null) {
-                document.getStatus().setCurrent(newStatus);
-                document.setUpdatedAt(new java.util.Date());
-                
-                // Update progress steps
-                document.getStatus().getProgress().forEach(step -> {
-                    if (step.getStep().equals(newStatus)) {
-                        step.setCompleted(true);
-                        step.setDate(new java.util.Date());
-                    }
-                });
-                
-                documentRequestRepository.save(document);
-            }
+            DocumentRequest document = newStatus != null
+                    ? documentRequestService.setDocumentStatus(documentId, newStatus)
+                    : documentRequestRepository.findById(documentId).orElseThrow(() -> new DocumentRequestNotFoundException(documentId));
             
             Map<String, Object> response = new HashMap<>();
             response.put("success", true);
             response.put("message", "Document status updated successfully");
             response.put("document", document);
             return ResponseEntity.ok(response);
+        } catch (DocumentRequestNotFoundException e) {
+            return ResponseEntity.notFound().build();
+        } catch (InvalidStatusException e) {
+            return ResponseEntity.badRequest().body(createErrorResponse(e.getMessage()));
+        } catch (VersionConflictException e) {
+            throw e; // Concurrent updates, reported as 409 by GlobalExceptionHandler
         } catch (Exception e) {
             return ResponseEntity.status(500).body(createErrorResponse("Error updating document status: " + e.getMessage()));
         }
@@ -367,19 +374,8 @@ public class AdminEmployeeController {
                 return ResponseEntity.status(403).body(response);
             }
             
-            // Delete the document
-            documentRequestRepository.deleteById(documentId);
-            
-            // Remove document ID from user's documentRequestIds list
-            try {
-                UserDTO user = userService.getUserById(userId);
-                if (user.getDocumentRequestIds() != null) {
-                    user.getDocumentRequestIds().remove(documentId);
-                    userService.updateUser(userId, user);
-                }
-            } catch (Exception e) {
-                System.err.println("Warning: Could not update user's document list: " + e.getMessage());
-            }
+            // Delete the document (also removes it from the user's documentRequestIds list)
+            documentRequestService.deleteDocumentRequest(documentId);
             
             Map<String, Object> response = new HashMap<>();
             response.put("success", true);
@@ -442,6 +438,7 @@ public class AdminEmployeeController {
         response.put("position", user.getPosition() != null ? user.getPosition() : "");
         response.put("createdAt", user.getCreatedAt() != null ? user.getCreatedAt().getTime() : null);
         response.put("updatedAt", user.getUpdatedAt() != null ? user.getUpdatedAt().getTime() : null);
+        response.put("version", user.getVersion()); // Sent back on update for the version check
         
         // Get user's documents - handle null documentRequestIds
         List<DocumentRequest> rawDocuments = new ArrayList<>();
@@ -498,32 +495,20 @@ public class AdminEmployeeController {
             @PathVariable String documentId,
             @RequestBody Map<String, String> statusUpdate) {
         try {
-            DocumentRequest document = documentRequestRepository.findById(documentId).orElse(null);
-            if (document == null) {
-                return ResponseEntity.notFound().build();
-            }
-            
             String newStatus = statusUpdate.get("newStatus");
-            if (newStatus != null) {
-                document.getStatus().setCurrent(newStatus);
-                document.setUpdatedAt(new java.util.Date());
-                
-                // Update progress steps
-                document.getStatus().getProgress().forEach(step -> {
-                    if (step.getStep().equals(newStatus)) {
-                        step.setCompleted(true);
-                        step.setDate(new java.util.Date());
-                    }
-                });
-                
-                documentRequestRepository.save(document);
-            }
+            DocumentRequest document = newStatus != null
+                    ? documentRequestService.setDocumentStatus(documentId, newStatus)
+                    : documentRequestRepository.findById(documentId).orElseThrow(() -> new DocumentRequestNotFoundException(documentId));
             
             Map<String, Object> response = new HashMap<>();
             response.put("success", true);
             response.put("message", "Document status updated successfully");
             response.put("document", document);
             return ResponseEntity.ok(response);
+        } catch (DocumentRequestNotFoundException e) {
+            return ResponseEntity.notFound().build();
+        } catch (InvalidStatusException e) {
+            return ResponseEntity.badRequest().body(createErrorResponse(e.getMessage()));
         } catch (Exception e) {
             System.err.println("Error updating document status: " + e.getMessage());
             e.printStackTrace();
@@ -590,6 +575,87 @@ public class AdminEmployeeController {
         }
     }
 
+    /**
+     * Approve pending users in bulk (by IDs and/or location, department, createdAt filter)
+     */
+    @PostMapping("/bulk/approve")
+    public ResponseEntity<Map<String, Object>> bulkApproveUsers(
+            @RequestBody BulkUserActionRequest request,
+            @RequestHeader(value = "Authorization", required = false) String authHeader) {
+        return applyBulkAction(request, authHeader, true);
+    }
+
+    /**
+     * Reject pending users in bulk (by IDs and/or location, department, createdAt filter)
+     */
+    @PostMapping("/bulk/reject")
+    public ResponseEntity<Map<String, Object>> bulkRejectUsers(
+            @RequestBody BulkUserActionRequest request,
+            @RequestHeader(value = "Authorization", required = false) String authHeader) {
+        return applyBulkAction(request, authHeader, false);
+    }
+
+    private ResponseEntity<Map<String, Object>> applyBulkAction(BulkUserActionRequest request, String authHeader, boolean approve) {
+        try {
+            String token = authHeader != null && authHeader.startsWith("Bearer ") ? authHeader.substring(7) : authHeader;
+            if (token == null || !authService.validateToken(token)) {
+                return ResponseEntity.status(401).body(createErrorResponse("Authentication token required"));
+            }
+            String userRole = authService.getRoleFromToken(token);
+            String userId = authService.getUserIdFromToken(token);
+            
+            BulkUserActionResult result = approve
+                    ? userService.bulkApproveUsers(request, userRole, userId)
+                    : userService.bulkRejectUsers(request, userRole, userId);
+            
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("message", (approve ? "Users approved: " : "Users rejected: ") + result.getProcessed());
+            response.put("action", result.getAction());
+            response.put("matched", result.getMatched());
+            response.put("processed", result.getProcessed());
+            response.put("results", result.getResults());
+            response.put("pendingCount", result.getPendingCount());
+            return ResponseEntity.ok(response);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(createErrorResponse(e.getMessage()));
+        } catch (AdminServiceException e) {
+            return ResponseEntity.status(403).body(createErrorResponse(e.getMessage()));
+        } catch (Exception e) {
+            logger.error("Error applying bulk user action", e);
+            return ResponseEntity.status(500).body(createErrorResponse("Failed to apply bulk action: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Employee counts per location, department and status for the filter dropdowns
+     * Each dimension is counted with the other selections applied; admins are limited to their own scope
+     */
+    @GetMapping("/facets")
+    public ResponseEntity<Map<String, Object>> getEmployeeFacets(
+            @RequestParam(value = "location", required = false) List<String> location,
+            @RequestParam(value = "department", required = false) List<String> department,
+            @RequestParam(value = "status", required = false) List<String> status,
+            @RequestHeader(value = "Authorization", required = false) String authHeader) {
+        try {
+            String token = authHeader != null && authHeader.startsWith("Bearer ") ? authHeader.substring(7) : authHeader;
+            if (token == null || !authService.validateToken(token)) {
+                return ResponseEntity.status(401).body(createErrorResponse("Authentication token required"));
+            }
+            String userRole = authService.getRoleFromToken(token);
+            String userId = authService.getUserIdFromToken(token);
+            
+            Map<String, Object> response = new HashMap<>(userService.getEmployeeFacets(userRole, userId, location, department, status));
+            response.put("success", true);
+            return ResponseEntity.ok(response);
+        } catch (AdminServiceException e) {
+            return ResponseEntity.status(403).body(createErrorResponse(e.getMessage()));
+        } catch (Exception e) {
+            logger.error("Error computing employee facets", e);
+            return ResponseEntity.status(500).body(createErrorResponse("Failed to compute facets: " + e.getMessage()));
+        }
+    }
+
     /**
      * Update admin location and department for testing
      */
@@ -632,9 +698,20 @@ public class AdminEmployeeController {
     
     /**
      * Create a simple admin for testing purposes
+     * A retry with the same Idempotency-Key header returns the first response instead of creating a duplicate
      */
     @PostMapping("/admin/create-simple")
-    public ResponseEntity<?> createSimpleAdmin(@RequestBody Map<String, String> request) {
+    public ResponseEntity<?> createSimpleAdmin(
+            @RequestBody Map<String, String> request,
+            @RequestHeader(value = IdempotencyService.HEADER, required = false) String idempotencyKey) {
+        return idempotencyService.execute("admins:create-simple", idempotencyKey, null, request,
+                () -> doCreateSimpleAdmin(request));
+    }
+
+    /**
+     * Create a simple admin (executed at most once per Idempotency-Key)
+     */
+    private ResponseEntity<?> doCreateSimpleAdmin(Map<String, String> request) {
         try {
             String username = request.get("username");
             String password = request.get("password");
@@ -0,0 +1,149 @@
+package com.leoni.controllers;
+
+import com.leoni.exceptions.AdminServiceException;
+import com.leoni.services.AuthService;
+import com.leoni.services.DocumentRollupService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/analytics")
+@CrossOrigin(origins = "*")
+public class AnalyticsController {
+    
+    @Autowired
+    private AuthService authService;
+    
+    @Autowired
+    private DocumentRollupService documentRollupService;
+    
+    /**
+     * Document requests created, accepted and refused per period, read from the daily rollups
+     * Admins only see their own location (and department)
+     * @param from first day, yyyy-MM-dd
+     * @param to last day, yyyy-MM-dd
+     * @param granularity DAY, WEEK or MONTH (default DAY)
+     * @param groupBy location, department or type (optional)
+     * @param location owner location filter (optional)
+     * @param department owner department filter (optional)
+     * @param type document type filter (optional)
+     */
+    @GetMapping("/documents/trends")
+    public ResponseEntity<Map<String, Object>> getDocumentTrends(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @RequestParam(defaultValue = DocumentRollupService.DAY) String granularity,
+            @RequestParam(required = false) String groupBy,
+            @RequestParam(required = false) String location,
+            @RequestParam(required = false) String department,
+            @RequestParam(required = false) String type,
+            @RequestHeader(value = "Authorization", required = false) String authHeader) {
+        try {
+            String token = authHeader != null && authHeader.startsWith("Bearer ") ? authHeader.substring(7) : authHeader;
+            if (token == null || !authService.validateToken(token)) {
+                return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(createErrorResponse("Authentication token required"));
+            }
+            String userRole = authService.getRoleFromToken(token);
+            String userId = authService.getUserIdFromToken(token);
+            
+            Map<String, Object> response = new LinkedHashMap<>();
+            response.put("success", true);
+            response.putAll(documentRollupService.getTrends(userRole, userId, from, to, granularity, groupBy,
+                    location, department, type));
+            return ResponseEntity.ok(response);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(createErrorResponse(e.getMessage()));
+        } catch (AdminServiceException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(createErrorResponse(e.getMessage()));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(createErrorResponse("Error computing trends: " + e.getMessage()));
+        }
+    }
+    
+    /**
+     * p50/p90/p99 time in "en attente", time in "en cours" and end-to-end turnaround (hours) of the
+     * requests decided in the range, slowest group first
+     * @param from first decision day, yyyy-MM-dd
+     * @param to last decision day, yyyy-MM-dd
+     * @param groupBy location, department or type (optional)
+     * @param location owner location filter (optional)
+     * @param department owner department filter (optional)
+     * @param type document type filter (optional)
+     */
+    @GetMapping("/documents/turnaround")
+    public ResponseEntity<Map<String, Object>> getDocumentTurnaround(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @RequestParam(required = false) String groupBy,
+            @RequestParam(required = false) String location,
+            @RequestParam(required = false) String department,
+            @RequestParam(required = false) String type,
+            @RequestHeader(value = "Authorization", required = false) String authHeader) {
+        try {
+            String token = authHeader != null && authHeader.startsWith("Bearer ") ? authHeader.substring(7) : authHeader;
+            if (token == null || !authService.validateToken(token)) {
+                return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(createErrorResponse("Authentication token required"));
+            }
+            String userRole = authService.getRoleFromToken(token);
+            String userId = authService.getUserIdFromToken(token);
+            
+            Map<String, Object> response = new LinkedHashMap<>();
+            response.put("success", true);
+            response.putAll(documentRollupService.getTurnaround(userRole, userId, from, to, groupBy,
+                    location, department, type));
+            return ResponseEntity.ok(response);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(createErrorResponse(e.getMessage()));
+        } catch (AdminServiceException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(createErrorResponse(e.getMessage()));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(createErrorResponse("Error computing turnaround: " + e.getMessage()));
+        }
+    }
+    
+    /**
+     * Roll up the whole request history again (super admin only)
+     */
+    @PostMapping("/documents/rollups/rebuild")
+    public ResponseEntity<Map<String, Object>> rebuildDocumentRollups(
+            @RequestHeader(value = "Authorization", required = false) String authHeader) {
+        try {
+            String token = authHeader != null && authHeader.startsWith("Bearer ") ? authHeader.substring(7) : authHeader;
+            if (token == null || !authService.validateToken(token)) {
+                return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(createErrorResponse("Authentication token required"));
+            }
+            if (!"SUPERADMIN".equals(authService.getRoleFromToken(token))) {
+                return ResponseEntity.status(HttpStatus.FORBIDDEN).body(createErrorResponse("Super admin access required"));
+            }
+            
+            long start = System.currentTimeMillis();
+            if (!documentRollupService.rebuild()) {
+                return ResponseEntity.status(HttpStatus.CONFLICT)
+                        .body(createErrorResponse("A rollup refresh is already running, retry in a moment"));
+            }
+            
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("message", "Document rollups rebuilt");
+            response.put("tookMs", System.currentTimeMillis() - start);
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(createErrorResponse("Error rebuilding rollups: " + e.getMessage()));
+        }
+    }
+    
+    private Map<String, Object> createErrorResponse(String message) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", false);
+        response.put("message", message);
+        return response;
+    }
+}
@@ -1,5 +1,8 @@
 package com.leoni.controllers;
 
+import com.leoni.services.AuthService;
+import com.leoni.services.UploadMigrationService;
+import com.leoni.services.UploadReaperService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.http.ResponseEntity;
@@ -16,6 +19,15 @@ public class DatabaseMaintenanceController {
     @Autowired
     private MongoTemplate mongoTemplate;
 
+    @Autowired
+    private UploadMigrationService uploadMigrationService;
+
+    @Autowired
+    private AuthService authService;
+
+    @Autowired
+    private UploadReaperService uploadReaperService;
+
     /**
      * Drop the unique index on parentalEmail field
      */
@@ -55,4 +67,71 @@ public class DatabaseMaintenanceController {
             return ResponseEntity.status(500).body(response);
         }
     }
+
+    /**
+     * Copy the news images stored on this node's disk into the configured storage (run on each node)
+     */
+    @PostMapping("/migrate-uploads")
+    public ResponseEntity<Map<String, Object>> migrateUploads(
+            @RequestHeader(value = "Authorization", required = false) String authHeader) {
+        try {
+            String token = authHeader != null && authHeader.startsWith("Bearer ") ? authHeader.substring(7) : authHeader;
+            if (token == null || !authService.validateToken(token)) {
+                return ResponseEntity.status(401).body(createErrorResponse("Authentication token required"));
+            }
+            if (!"SUPERADMIN".equals(authService.getRoleFromToken(token))) {
+                return ResponseEntity.status(403).body(createErrorResponse("Super admin access required"));
+            }
+            
+            Map<String, Object> response = new HashMap<>(uploadMigrationService.migrateLocalUploads());
+            response.put("success", true);
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", false);
+            response.put("message", "Error migrating uploads: " + e.getMessage());
+            return ResponseEntity.status(500).body(response);
+        }
+    }
+
+    /**
+     * Remove the uploaded images no news uses any more (also run daily); dryRun only reports them
+     */
+    @PostMapping("/reap-uploads")
+    public ResponseEntity<Map<String, Object>> reapUploads(
+            @RequestParam(defaultValue = "false") boolean dryRun,
+            @RequestHeader(value = "Authorization", required = false) String authHeader) {
+        try {
+            String token = authHeader != null && authHeader.startsWith("Bearer ") ? authHeader.substring(7) : authHeader;
+            if (token == null || !authService.validateToken(token)) {
+                return ResponseEntity.status(401).body(createErrorResponse("Authentication token required"));
+            }
+            if (!"SUPERADMIN".equals(authService.getRoleFromToken(token))) {
+                return ResponseEntity.status(403).body(createErrorResponse("Super admin access required"));
+            }
+            
+            Map<String, Object> report = uploadReaperService.reap(dryRun);
+            if (report == null) {
+                Map<String, Object> response = new HashMap<>();
+                response.put("success", false);
+                response.put("message", "Un nettoyage des fichiers est déjà en cours");
+                return ResponseEntity.status(409).body(response);
+            }
+            Map<String, Object> response = new HashMap<>(report);
+            response.put("success", true);
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", false);
+            response.put("message", "Error reaping uploads: " + e.getMessage());
+            return ResponseEntity.status(500).body(response);
+        }
+    }
+
+    private Map<String, Object> createErrorResponse(String message) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", false);
+        response.put("message", message);
+        return response;
+    }
 }
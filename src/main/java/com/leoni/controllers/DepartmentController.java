@@ -2,10 +2,13 @@ package com.leoni.controllers;
 
 import com.leoni.models.Department;
 import com.leoni.repositories.DepartmentRepository;
+import com.leoni.services.TaxonomyService;
+import com.leoni.services.UserService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
 import java.util.*;
 import java.util.stream.Collectors;
@@ -18,14 +21,23 @@ public class DepartmentController {
     @Autowired
     private DepartmentRepository departmentRepository;
 
+    @Autowired
+    private TaxonomyService taxonomyService;
+
+    @Autowired
+    private UserService userService;
+
     /**
      * Get all departments
      */
     @GetMapping
-    public ResponseEntity<List<Department>> getAllDepartments() {
+    public ResponseEntity<List<Department>> getAllDepartments(WebRequest request) {
         try {
-            List<Department> departments = departmentRepository.findAll();
-            return ResponseEntity.ok(departments);
+            TaxonomyService.Taxonomy taxonomy = taxonomyService.current();
+            if (request.checkNotModified(taxonomy.getETag())) {
+                return null;
+            }
+            return ResponseEntity.ok().eTag(taxonomy.getETag()).body(taxonomy.getDepartments());
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
         }
@@ -35,10 +47,13 @@ public class DepartmentController {
      * Get departments by location (replaces level-based filtering)
      */
     @GetMapping("/location/{location}")
-    public ResponseEntity<List<Department>> getDepartmentsByLocationEndpoint(@PathVariable String location) {
+    public ResponseEntity<List<Department>> getDepartmentsByLocationEndpoint(@PathVariable String location, WebRequest request) {
         try {
-            List<Department> departments = departmentRepository.findByLocation(location);
-            return ResponseEntity.ok(departments);
+            TaxonomyService.Taxonomy taxonomy = taxonomyService.current();
+            if (request.checkNotModified(taxonomy.getETag())) {
+                return null;
+            }
+            return ResponseEntity.ok().eTag(taxonomy.getETag()).body(taxonomy.getDepartmentsByLocation(location));
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
         }
@@ -48,22 +63,27 @@ public class DepartmentController {
      * Get simplified department structure grouped by location
      */
     @GetMapping("/structure")
-    public ResponseEntity<Map<String, Object>> getDepartmentStructure() {
+    public ResponseEntity<Map<String, Object>> getDepartmentStructure(WebRequest request) {
         try {
-            List<Department> allDepartments = departmentRepository.findAll();
+            TaxonomyService.Taxonomy taxonomy = taxonomyService.current();
+            if (request.checkNotModified(taxonomy.getETag())) {
+                return null;
+            }
             
             // Group departments by location
-            Map<String, List<Map<String, Object>>> departmentsByLocation = allDepartments.stream()
-                    .collect(Collectors.groupingBy(
-                            Department::getLocation,
-                            Collectors.mapping(this::departmentToMap, Collectors.toList())
-                    ));
+            Map<String, List<Map<String, Object>>> departmentsByLocation = new LinkedHashMap<>();
+            for (String location : taxonomy.getLocations()) {
+                departmentsByLocation.put(location, taxonomy.getDepartmentsByLocation(location).stream()
+                        .map(this::departmentToMap)
+                        .collect(Collectors.toList()));
+            }
             
-            return ResponseEntity.ok(Map.of(
+            return ResponseEntity.ok().eTag(taxonomy.getETag()).body(Map.of(
                 "success", true,
                 "departmentsByLocation", departmentsByLocation,
-                "totalDepartments", allDepartments.size(),
-                "locations", departmentsByLocation.keySet().stream().sorted().collect(Collectors.toList())
+                "totalDepartments", taxonomy.getDepartments().size(),
+                "locations", taxonomy.getLocations(),
+                "version", taxonomy.getVersion()
             ));
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(
@@ -84,6 +104,7 @@ public class DepartmentController {
             }
 
             Department savedDepartment = departmentRepository.save(department);
+            taxonomyService.invalidate();
             return ResponseEntity.ok(savedDepartment);
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Error creating department");
@@ -92,6 +113,7 @@ public class DepartmentController {
 
     /**
      * Update a department
+     * A rename or move is propagated to the effective location/department of its users
      */
     @PutMapping("/{id}")
     public ResponseEntity<?> updateDepartment(@PathVariable String id, @RequestBody Department department) {
@@ -102,10 +124,16 @@ public class DepartmentController {
             }
 
             Department existing = existingDept.get();
+            boolean moved = !Objects.equals(existing.getName(), department.getName())
+                    || !Objects.equals(existing.getLocation(), department.getLocation());
             existing.setName(department.getName());
             existing.setLocation(department.getLocation());
 
             Department savedDepartment = departmentRepository.save(existing);
+            taxonomyService.invalidate();
+            if (moved) {
+                userService.applyDepartmentChange(savedDepartment);
+            }
             return ResponseEntity.ok(savedDepartment);
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Error updating department");
@@ -113,7 +141,7 @@ public class DepartmentController {
     }
 
     /**
-     * Delete a department
+     * Delete a department, its users falling back to their own department and location
      */
     @DeleteMapping("/{id}")
     public ResponseEntity<?> deleteDepartment(@PathVariable String id) {
@@ -124,6 +152,8 @@ public class DepartmentController {
             }
 
             departmentRepository.deleteById(id);
+            taxonomyService.invalidate();
+            userService.applyDepartmentRemoval(id);
             return ResponseEntity.ok().build();
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Error deleting department");
@@ -142,16 +172,13 @@ public class DepartmentController {
      * Get all unique locations (for new simplified structure)
      */
     @GetMapping("/locations")
-    public ResponseEntity<List<String>> getAllLocations() {
+    public ResponseEntity<List<String>> getAllLocations(WebRequest request) {
         try {
-            List<String> locations = departmentRepository.findAll().stream()
-                    .map(Department::getLocation)
-                    .filter(location -> location != null && !location.trim().isEmpty())
-                    .distinct()
-                    .sorted()
-                    .collect(Collectors.toList());
-            
-            return ResponseEntity.ok(locations);
+            TaxonomyService.Taxonomy taxonomy = taxonomyService.current();
+            if (request.checkNotModified(taxonomy.getETag())) {
+                return null;
+            }
+            return ResponseEntity.ok().eTag(taxonomy.getETag()).body(taxonomy.getLocations());
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
         }
@@ -161,13 +188,13 @@ public class DepartmentController {
      * Get departments by location (for new simplified structure)
      */
     @GetMapping("/by-location/{location}")
-    public ResponseEntity<List<Department>> getDepartmentsByLocation(@PathVariable String location) {
+    public ResponseEntity<List<Department>> getDepartmentsByLocation(@PathVariable String location, WebRequest request) {
         try {
-            List<Department> departments = departmentRepository.findAll().stream()
-                    .filter(dept -> location.equalsIgnoreCase(dept.getLocation()))
-                    .collect(Collectors.toList());
-            
-            return ResponseEntity.ok(departments);
+            TaxonomyService.Taxonomy taxonomy = taxonomyService.current();
+            if (request.checkNotModified(taxonomy.getETag())) {
+                return null;
+            }
+            return ResponseEntity.ok().eTag(taxonomy.getETag()).body(taxonomy.getDepartmentsByLocation(location));
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
         }
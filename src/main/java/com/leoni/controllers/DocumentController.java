@@ -1,16 +1,29 @@
 package com.leoni.controllers;
 
+import com.leoni.dto.DocumentCampaignRequest;
+import com.leoni.dto.DocumentCampaignResult;
 import com.leoni.dto.DocumentRequestDTO;
+import com.leoni.dto.DocumentRequestPage;
 import com.leoni.dto.UpdateStatusRequest;
+import com.leoni.exceptions.AdminServiceException;
 import com.leoni.exceptions.DocumentRequestNotFoundException;
 import com.leoni.exceptions.InvalidStatusException;
 import com.leoni.exceptions.UserNotFoundException;
+import com.leoni.exceptions.VersionConflictException;
+import com.leoni.services.AuthService;
+import com.leoni.services.DocumentEventService;
 import com.leoni.services.DocumentRequestService;
+import com.leoni.services.IdempotencyService;
+import com.leoni.services.SseConnectionRegistry;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.time.LocalDate;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -23,6 +36,18 @@ public class DocumentController {
     @Autowired
     private DocumentRequestService documentRequestService;
     
+    @Autowired
+    private AuthService authService;
+    
+    @Autowired
+    private IdempotencyService idempotencyService;
+    
+    @Autowired
+    private DocumentEventService documentEventService;
+    
+    @Autowired
+    private SseConnectionRegistry sseConnectionRegistry;
+    
     /**
      * Get all document requests
      * @return List of all document requests
@@ -37,6 +62,36 @@ public class DocumentController {
         }
     }
     
+    /**
+     * Get one page of document requests, newest first
+     * @param status the current status (optional)
+     * @param type a document type the request must contain (optional)
+     * @param userId the owner (optional)
+     * @param from first creation day, yyyy-MM-dd (optional)
+     * @param to last creation day, yyyy-MM-dd (optional)
+     * @param cursor the nextCursor of the previous page (omit for the first page)
+     * @param size the page size (max 100)
+     * @return the page with the cursor of the next one
+     */
+    @GetMapping("/page")
+    public ResponseEntity<DocumentRequestPage> getDocumentRequestPage(
+            @RequestParam(required = false) String status,
+            @RequestParam(required = false) String type,
+            @RequestParam(required = false) String userId,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "20") int size) {
+        try {
+            return ResponseEntity.ok(documentRequestService.getDocumentRequestPage(
+                    status, type, userId, from, to, cursor, size));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+    
     /**
      * Get document request by ID
      * @param id the document request ID
@@ -69,6 +124,20 @@ public class DocumentController {
         }
     }
     
+    /**
+     * Stream the changes of a user's document requests as Server-Sent Events
+     * Each event is named after its type (CREATED, STATUS_CHANGED) and carries its seq as id, so a reconnecting
+     * EventSource gets what it missed. A "resync" event means some were dropped: reload with the delta sync.
+     * @param userId the user ID
+     * @param lastEventId the id of the last event received (sent by EventSource when reconnecting)
+     */
+    @GetMapping(value = "/user/{userId}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamDocumentEvents(
+            @PathVariable String userId,
+            @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId) {
+        return sseConnectionRegistry.open(userId, lastEventId);
+    }
+    
     /**
      * Get document requests by status
      * @param status the status to filter by
@@ -101,11 +170,26 @@ public class DocumentController {
     
     /**
      * Create a new document request
+     * A retry with the same Idempotency-Key header returns the first response instead of creating a duplicate
      * @param documentRequestDTO the document request data
+     * @param idempotencyKey client-generated key identifying this creation (optional)
      * @return created DocumentRequestDTO
      */
     @PostMapping
-    public ResponseEntity<Map<String, Object>> createDocumentRequest(@RequestBody DocumentRequestDTO documentRequestDTO) {
+    public ResponseEntity<Map<String, Object>> createDocumentRequest(
+            @RequestBody DocumentRequestDTO documentRequestDTO,
+            @RequestHeader(value = IdempotencyService.HEADER, required = false) String idempotencyKey) {
+        // Created by the employee the request is for
+        return idempotencyService.execute("documents:create", idempotencyKey, documentRequestDTO.getUserId(),
+                documentRequestDTO, () -> doCreateDocumentRequest(documentRequestDTO));
+    }
+    
+    /**
+     * Create a new document request (executed at most once per Idempotency-Key)
+     * @param documentRequestDTO the document request data
+     * @return created DocumentRequestDTO
+     */
+    private ResponseEntity<Map<String, Object>> doCreateDocumentRequest(DocumentRequestDTO documentRequestDTO) {
         Map<String, Object> response = new HashMap<>();
         
         try {
@@ -126,6 +210,50 @@ public class DocumentController {
         }
     }
     
+    /**
+     * Create the same document request for every employee of a location and/or department (HR campaign)
+     * Admins only, limited to the employees of their own location and department
+     * @param campaignRequest the target filters and document types
+     * @param authHeader the admin's Bearer token
+     * @return campaign summary
+     */
+    @PostMapping("/campaigns")
+    public ResponseEntity<Map<String, Object>> createDocumentRequestCampaign(
+            @RequestBody DocumentCampaignRequest campaignRequest,
+            @RequestHeader(value = "Authorization", required = false) String authHeader) {
+        Map<String, Object> response = new HashMap<>();
+        
+        try {
+            String token = authHeader != null && authHeader.startsWith("Bearer ") ? authHeader.substring(7) : authHeader;
+            if (token == null || !authService.validateToken(token)) {
+                response.put("success", false);
+                response.put("message", "Token d'authentification requis");
+                return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(response);
+            }
+            
+            DocumentCampaignResult result = documentRequestService.createDocumentRequestCampaign(campaignRequest,
+                    authService.getRoleFromToken(token), authService.getUserIdFromToken(token));
+            response.put("success", true);
+            response.put("message", result.getCreatedRequests() + " demandes de document créées");
+            response.put("campaign", result);
+            return ResponseEntity.status(HttpStatus.CREATED).body(response);
+        } catch (IllegalArgumentException e) {
+            response.put("success", false);
+            response.put("message", e.getMessage());
+            response.put("errorCode", "INVALID_ARGUMENT");
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(response);
+        } catch (AdminServiceException e) {
+            response.put("success", false);
+            response.put("message", e.getMessage());
+            response.put("errorCode", e.getErrorCode());
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(response);
+        } catch (Exception e) {
+            response.put("success", false);
+            response.put("message", "Erreur lors de la création de la campagne: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
+        }
+    }
+    
     /**
      * Update document request status
      * @param updateStatusRequest the status update request
@@ -159,6 +287,8 @@ public class DocumentController {
             response.put("message", e.getMessage());
             response.put("errorCode", e.getErrorCode());
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(response);
+        } catch (VersionConflictException e) {
+            throw e; // Reported as 409 by GlobalExceptionHandler
         } catch (Exception e) {
             response.put("success", false);
             response.put("message", "Erreur lors de la mise à jour du statut: " + e.getMessage());
@@ -195,18 +325,42 @@ public class DocumentController {
     /**
      * Search document requests by description
      * @param searchTerm the search term
-     * @return List of matching document requests
+     * @param page the page number (0-based)
+     * @param size the page size (max 100)
+     * @return matching document requests, best matches first
      */
     @GetMapping("/search")
-    public ResponseEntity<List<DocumentRequestDTO>> searchDocumentRequests(@RequestParam String searchTerm) {
+    public ResponseEntity<List<DocumentRequestDTO>> searchDocumentRequests(
+            @RequestParam String searchTerm,
+            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(defaultValue = "20") int size) {
         try {
-            List<DocumentRequestDTO> documents = documentRequestService.searchDocumentRequestsByDescription(searchTerm);
+            List<DocumentRequestDTO> documents = documentRequestService.searchDocumentRequestsByDescription(searchTerm, page, size);
             return ResponseEntity.ok(documents);
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
         }
     }
     
+    /**
+     * Read the change feed (creations and status changes, in order)
+     * @param since the nextSince of the previous call (0 for the oldest retained change)
+     * @param userId only the changes of this employee's requests (optional)
+     * @param limit maximum number of changes (max 500)
+     * @return events, nextSince and hasMore
+     */
+    @GetMapping("/changes")
+    public ResponseEntity<Map<String, Object>> getChanges(
+            @RequestParam(defaultValue = "0") long since,
+            @RequestParam(required = false) String userId,
+            @RequestParam(defaultValue = "100") int limit) {
+        try {
+            return ResponseEntity.ok(documentEventService.getChanges(since, userId, limit));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+    
     /**
      * Get document requests statistics
      * @return Statistics about document requests
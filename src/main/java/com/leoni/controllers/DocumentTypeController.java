@@ -79,6 +79,7 @@ public class DocumentTypeController {
             docTypeToUpdate.setName(documentType.getName());
             docTypeToUpdate.setDescription(documentType.getDescription());
             docTypeToUpdate.setActive(documentType.isActive());
+            docTypeToUpdate.setEscalationThresholdDays(documentType.getEscalationThresholdDays());
             docTypeToUpdate.setUpdatedAt(new Date());
 
             DocumentType updatedDocumentType = documentTypeRepository.save(docTypeToUpdate);
@@ -1,15 +1,26 @@
 package com.leoni.controllers;
 
+import com.leoni.exceptions.InvalidImageException;
+import com.leoni.exceptions.VersionConflictException;
+import com.leoni.exceptions.VersionRequiredException;
 import com.leoni.models.Admin;
 import com.leoni.models.News;
+import com.leoni.models.StoredImage;
 import com.leoni.services.AdminService;
 import com.leoni.services.NewsService;
 import com.leoni.services.AuthService;
+import com.leoni.services.IdempotencyService;
+import com.leoni.services.ImageStorageService;
+import com.leoni.services.ImageVariantService;
+import com.leoni.services.NewsBroadcastService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.util.List;
 import java.util.Map;
@@ -31,6 +42,18 @@ public class NewsController {
     @Autowired
     private AdminService adminService;
     
+    @Autowired
+    private IdempotencyService idempotencyService;
+    
+    @Autowired
+    private NewsBroadcastService newsBroadcastService;
+    
+    @Autowired
+    private ImageStorageService imageStorageService;
+    
+    @Autowired
+    private ImageVariantService imageVariantService;
+    
     /**
      * Helper method to extract token from Authorization header
      */
@@ -47,8 +70,19 @@ public class NewsController {
     @PostMapping("/create")
     public ResponseEntity<Map<String, Object>> createNews(
             @RequestBody Map<String, Object> request,
-            @RequestHeader(value = "Authorization", required = false) String authToken) {
-        
+            @RequestHeader(value = "Authorization", required = false) String authToken,
+            @RequestHeader(value = IdempotencyService.HEADER, required = false) String idempotencyKey) {
+        // Both create endpoints share the key scope so a retry on either one is deduplicated
+        String token = extractToken(authToken);
+        String caller = token != null ? authService.getUserIdFromToken(token) : null;
+        return idempotencyService.execute("news:create", idempotencyKey, caller, request,
+                () -> doCreateNews(request, authToken));
+    }
+    
+    /**
+     * Create news (executed at most once per Idempotency-Key)
+     */
+    private ResponseEntity<Map<String, Object>> doCreateNews(Map<String, Object> request, String authToken) {
         try {
             // Extract and validate token
             String token = extractToken(authToken);
@@ -145,9 +179,10 @@ public class NewsController {
     @PostMapping
     public ResponseEntity<Map<String, Object>> createNewsAlternative(
             @RequestBody Map<String, Object> request,
-            @RequestHeader(value = "Authorization", required = false) String authToken) {
+            @RequestHeader(value = "Authorization", required = false) String authToken,
+            @RequestHeader(value = IdempotencyService.HEADER, required = false) String idempotencyKey) {
         // Redirect to the main create method
-        return createNews(request, authToken);
+        return createNews(request, authToken, idempotencyKey);
     }
     
     /**
@@ -231,6 +266,34 @@ public class NewsController {
         }
     }
     
+    /**
+     * Stream the news published for a location and department (Server-Sent Events, one "news" event per item)
+     * Urgent news overtake the normal ones still queued; a "resync" event means some were missed: reload /public.
+     */
+    @GetMapping(value = "/public/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamPublicNews(
+            @RequestParam(value = "location", required = false) String location,
+            @RequestParam(value = "department", required = false) String department,
+            @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId) {
+        return newsBroadcastService.subscribe(location, department, lastEventId);
+    }
+    
+    /**
+     * Long poll for devices that cannot keep a stream open
+     * Returns at once the news changed after since (urgent first), otherwise waits for the next publication
+     * @param since the since returned by the previous poll (omit on the first one)
+     * @param timeout maximum wait in milliseconds (max 30000)
+     * @return news and the since to pass next time
+     */
+    @GetMapping("/public/poll")
+    public DeferredResult<Map<String, Object>> pollPublicNews(
+            @RequestParam(value = "location", required = false) String location,
+            @RequestParam(value = "department", required = false) String department,
+            @RequestParam(value = "since", required = false) Long since,
+            @RequestParam(value = "timeout", defaultValue = "25000") long timeout) {
+        return newsBroadcastService.poll(location, department, since, timeout);
+    }
+    
     /**
      * Get news by ID
      */
@@ -278,6 +341,8 @@ public class NewsController {
                 return ResponseEntity.notFound().build();
             }
             
+        } catch (VersionConflictException | VersionRequiredException e) {
+            throw e; // Reported as 409/428 by GlobalExceptionHandler
         } catch (Exception e) {
             logger.error("Error updating news", e);
             return ResponseEntity.status(500).body(
@@ -416,51 +481,29 @@ public class NewsController {
                 );
             }
             
-            // Check file type
-            String contentType = file.getContentType();
-            if (contentType == null || !contentType.startsWith("image/")) {
-                return ResponseEntity.badRequest().body(
-                    Map.of("success", false, "message", "Le fichier doit être une image")
-                );
-            }
-            
-            // Check file size (max 5MB)
-            if (file.getSize() > 5 * 1024 * 1024) {
+            // Check file size (max 5MB) before reading it; the type is checked on the content
+            if (file.getSize() > ImageStorageService.MAX_SIZE_BYTES) {
                 return ResponseEntity.badRequest().body(
                     Map.of("success", false, "message", "La taille du fichier ne doit pas dépasser 5MB")
                 );
             }
             
-            // Create uploads directory if it doesn't exist
-            String uploadDir = System.getProperty("user.dir") + "/uploads/news-images/";
-            java.io.File dir = new java.io.File(uploadDir);
-            if (!dir.exists()) {
-                boolean created = dir.mkdirs();
-                logger.info("Created upload directory: " + uploadDir + " - " + created);
-            }
-            
-            // Generate unique filename
+            // Stored by content hash: an identical image already uploaded gets the same URL
+            StoredImage image = imageStorageService.store(file);
+            imageVariantService.generateAsync(image);
             String originalFilename = file.getOriginalFilename();
-            String extension = "";
-            if (originalFilename != null && originalFilename.contains(".")) {
-                extension = originalFilename.substring(originalFilename.lastIndexOf("."));
-            }
-            String filename = System.currentTimeMillis() + "_" + java.util.UUID.randomUUID().toString() + extension;
-            String filePath = uploadDir + filename;
-            
-            // Save file
-            file.transferTo(new java.io.File(filePath));
-            
-            // Return file URL
-            String fileUrl = "/uploads/news-images/" + filename;
             
             return ResponseEntity.ok(Map.of(
                 "success", true,
                 "message", "Image uploadée avec succès",
-                "imageUrl", fileUrl,
-                "imageName", originalFilename
+                "imageUrl", image.getUrl(),
+                "imageName", originalFilename != null ? originalFilename : image.getId()
             ));
             
+        } catch (InvalidImageException e) {
+            return ResponseEntity.badRequest().body(
+                Map.of("success", false, "message", e.getMessage())
+            );
         } catch (Exception e) {
             logger.error("Error uploading image", e);
             return ResponseEntity.status(500).body(
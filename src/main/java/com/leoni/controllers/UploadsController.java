@@ -0,0 +1,294 @@
+package com.leoni.controllers;
+
+import com.leoni.services.BlobCache;
+import com.leoni.services.BlobStore;
+import com.leoni.services.ImageStorageService;
+import com.leoni.services.UploadCache;
+import com.leoni.services.UploadReaperService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.util.UriUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Uploaded files (news images and their variants)
+ * The files never change once written (content-addressed, or unique names for the older uploads), so they are
+ * served with a one-year immutable Cache-Control and a strong ETag: the content hash when the name has one.
+ * Conditional requests get a 304, a single byte range a 206. Files are read from this node's copy (BlobCache)
+ * and go out through Tomcat's sendfile when the connector supports it, otherwise with FileChannel.transferTo;
+ * small files (thumbnails) are also kept in memory (UploadCache).
+ * Images are already compressed, so nothing is gzipped.
+ */
+@Controller
+@RequestMapping("/uploads")
+@CrossOrigin(origins = "*")
+public class UploadsController {
+    
+    private static final String CACHE_CONTROL = "public, max-age=31536000, immutable";
+    
+    // {sha256}.ext or {sha256}_w{width}.ext
+    private static final Pattern HASHED_NAME = Pattern.compile("^([0-9a-f]{64}(?:_w\\d+)?)\\.[a-z0-9]+$");
+    
+    private static final Pattern RANGE = Pattern.compile("^bytes=(\\d*)-(\\d*)$");
+    
+    // Below this, a copy through the response buffer costs less than handing the file to the poller
+    private static final long SENDFILE_MIN_BYTES = 48 * 1024;
+    
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+    
+    /**
+     * A single byte range, both ends included
+     */
+    record ByteRange(long start, long end) {
+    }
+    
+    // Range starting past the end of the file (416)
+    static final ByteRange UNSATISFIABLE = new ByteRange(-1, -1);
+    
+    @Autowired
+    private BlobCache blobCache;
+    
+    @Autowired
+    private UploadCache uploadCache;
+    
+    @RequestMapping(value = "/**", method = {RequestMethod.GET, RequestMethod.HEAD})
+    public void serve(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String prefix = request.getContextPath() + "/uploads/";
+        String uri = request.getRequestURI();
+        String relativePath = uri.startsWith(prefix) ? UriUtils.decode(uri.substring(prefix.length()), StandardCharsets.UTF_8) : null;
+        if (!BlobStore.isValidKey(relativePath) || relativePath.startsWith(UploadReaperService.QUARANTINE + "/")
+                || relativePath.startsWith(ImageStorageService.INCOMING + "/")) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        
+        UploadCache.Entry cached = uploadCache.get(relativePath);
+        Path file = null;
+        long length;
+        long lastModified;
+        String etag;
+        if (cached != null) {
+            length = cached.content().length;
+            lastModified = cached.lastModified();
+            etag = cached.etag();
+        } else {
+            file = blobCache.resolve(relativePath);
+            if (file == null) {
+                response.sendError(HttpServletResponse.SC_NOT_FOUND);
+                return;
+            }
+            BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            } catch (IOException e) {
+                response.sendError(HttpServletResponse.SC_NOT_FOUND);
+                return;
+            }
+            if (!attributes.isRegularFile()) {
+                response.sendError(HttpServletResponse.SC_NOT_FOUND);
+                return;
+            }
+            length = attributes.size();
+            lastModified = attributes.lastModifiedTime().toMillis();
+            etag = etag(file, length, lastModified);
+        }
+        
+        response.setHeader(HttpHeaders.CACHE_CONTROL, CACHE_CONTROL);
+        response.setHeader(HttpHeaders.ETAG, etag);
+        response.setDateHeader(HttpHeaders.LAST_MODIFIED, lastModified);
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setHeader("X-Content-Type-Options", "nosniff");
+        
+        if (notModified(request.getHeader(HttpHeaders.IF_NONE_MATCH),
+                dateHeader(request, HttpHeaders.IF_MODIFIED_SINCE), etag, lastModified)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        
+        String contentType = cached != null ? cached.contentType() : request.getServletContext().getMimeType(file.getFileName().toString());
+        response.setContentType(contentType != null ? contentType : "application/octet-stream");
+        
+        long start = 0;
+        long end = length - 1;
+        String range = request.getHeader(HttpHeaders.RANGE);
+        if (range != null && ifRangeMatches(request.getHeader(HttpHeaders.IF_RANGE),
+                dateHeader(request, HttpHeaders.IF_RANGE), etag, lastModified)) {
+            ByteRange byteRange = parseRange(range, length);
+            if (byteRange == UNSATISFIABLE) {
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            }
+            if (byteRange != null) {
+                start = byteRange.start();
+                end = byteRange.end();
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+            }
+        }
+        long count = end - start + 1;
+        response.setContentLengthLong(count);
+        if (RequestMethod.HEAD.name().equals(request.getMethod()) || count == 0) {
+            return;
+        }
+        
+        if (cached == null && length <= UploadCache.MAX_ENTRY_BYTES) {
+            byte[] content;
+            try {
+                content = Files.readAllBytes(file);
+            } catch (IOException e) {
+                response.reset();
+                response.sendError(HttpServletResponse.SC_NOT_FOUND);
+                return;
+            }
+            if (content.length == length) {
+                cached = new UploadCache.Entry(content, etag, response.getContentType(), lastModified);
+                uploadCache.put(relativePath, cached);
+            }
+        }
+        if (cached != null) {
+            response.getOutputStream().write(cached.content(), (int) start, (int) count);
+            return;
+        }
+        
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT)) && count >= SENDFILE_MIN_BYTES) {
+            // Written by the connector from the file descriptor once this method returns
+            request.setAttribute(SENDFILE_FILENAME, file.toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, end + 1);
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            OutputStream out = response.getOutputStream();
+            WritableByteChannel target = Channels.newChannel(out);
+            long position = start;
+            long remaining = count;
+            while (remaining > 0) {
+                long sent = channel.transferTo(position, remaining, target);
+                if (sent <= 0) {
+                    break; // Truncated meanwhile
+                }
+                position += sent;
+                remaining -= sent;
+            }
+        }
+    }
+    
+    private String etag(Path file, long length, long lastModified) {
+        Matcher matcher = HASHED_NAME.matcher(file.getFileName().toString());
+        if (matcher.matches()) {
+            return "\"" + matcher.group(1) + "\"";
+        }
+        return "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+    }
+    
+    /**
+     * The range of a Range header: a single range, clipped to the file
+     * Several ranges (multipart/byteranges) or an invalid header (unreadable, last byte before the first)
+     * are ignored and the whole file is sent
+     * @param header the Range header value
+     * @param length the file length
+     * @return the range, UNSATISFIABLE, or null to send the whole file
+     */
+    static ByteRange parseRange(String header, long length) {
+        Matcher matcher = header != null ? RANGE.matcher(header.trim()) : null;
+        if (matcher == null || !matcher.matches() || (matcher.group(1).isEmpty() && matcher.group(2).isEmpty())) {
+            return null;
+        }
+        long start;
+        long end = length - 1;
+        if (matcher.group(1).isEmpty()) {
+            long suffixLength = parseLength(matcher.group(2));
+            if (suffixLength == 0) {
+                return UNSATISFIABLE;
+            }
+            start = Math.max(0, length - suffixLength);
+        } else {
+            start = parseLength(matcher.group(1));
+            if (!matcher.group(2).isEmpty()) {
+                long last = parseLength(matcher.group(2));
+                if (last < start) {
+                    return null;
+                }
+                end = Math.min(end, last);
+            }
+        }
+        return start >= length ? UNSATISFIABLE : new ByteRange(start, end);
+    }
+    
+    /**
+     * Digits of a range bound (beyond a long is beyond any file)
+     */
+    private static long parseLength(String digits) {
+        try {
+            return Long.parseLong(digits);
+        } catch (NumberFormatException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+    
+    /**
+     * If-None-Match when present (weak comparison), otherwise If-Modified-Since
+     * @param ifNoneMatch the If-None-Match header (optional)
+     * @param ifModifiedSince the If-Modified-Since date, -1 when absent or unreadable
+     */
+    static boolean notModified(String ifNoneMatch, long ifModifiedSince, String etag, long lastModified) {
+        if (ifNoneMatch != null) {
+            for (String candidate : ifNoneMatch.split(",")) {
+                String tag = candidate.trim();
+                if (tag.startsWith("W/")) {
+                    tag = tag.substring(2);
+                }
+                if (tag.equals("*") || tag.equals(etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return ifModifiedSince >= 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+    }
+    
+    /**
+     * Whether a Range applies: no If-Range, or one naming the current version (strong comparison)
+     * @param ifRange the If-Range header (optional)
+     * @param ifRangeDate the If-Range header read as a date, -1 when it is not one
+     */
+    static boolean ifRangeMatches(String ifRange, long ifRangeDate, String etag, long lastModified) {
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.trim().startsWith("\"")) {
+            return ifRange.trim().equals(etag);
+        }
+        return ifRangeDate >= 0 && lastModified / 1000 == ifRangeDate / 1000;
+    }
+    
+    private long dateHeader(HttpServletRequest request, String name) {
+        try {
+            return request.getDateHeader(name);
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+    }
+}
@@ -1,13 +1,20 @@
 package com.leoni.controllers;
 
+import com.leoni.dto.DeltaSyncResponse;
+import com.leoni.dto.EmployeeSearchResult;
 import com.leoni.dto.UserDTO;
 import com.leoni.exceptions.DuplicateUserException;
 import com.leoni.exceptions.UserNotFoundException;
+import com.leoni.exceptions.VersionConflictException;
+import com.leoni.exceptions.VersionRequiredException;
+import com.leoni.services.DeltaSyncService;
+import com.leoni.services.TaxonomyService;
 import com.leoni.services.UserService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
 import java.util.HashMap;
 import java.util.List;
@@ -21,6 +28,12 @@ public class UserController {
     @Autowired
     private UserService userService;
     
+    @Autowired
+    private TaxonomyService taxonomyService;
+    
+    @Autowired
+    private DeltaSyncService deltaSyncService;
+    
     /**
      * Get all users
      * @return List of all users
@@ -52,6 +65,27 @@ public class UserController {
         }
     }
     
+    /**
+     * Delta sync for the employee app: news and document requests changed or deleted since the last sync
+     * @param id the user ID
+     * @param token the token returned by the previous sync (omit for the first sync)
+     * @return the changes, removed IDs and the token to pass next time
+     */
+    @GetMapping("/{id}/sync")
+    public ResponseEntity<DeltaSyncResponse> sync(
+            @PathVariable String id,
+            @RequestParam(required = false) String token) {
+        try {
+            return ResponseEntity.ok(deltaSyncService.sync(id, token));
+        } catch (UserNotFoundException e) {
+            return ResponseEntity.notFound().build();
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+    
     /**
      * Get user by primary email (adresse1)
      * @param adresse1 the primary email address
@@ -139,6 +173,8 @@ public class UserController {
             response.put("message", e.getMessage());
             response.put("errorCode", e.getErrorCode());
             return ResponseEntity.status(HttpStatus.CONFLICT).body(response);
+        } catch (VersionConflictException | VersionRequiredException e) {
+            throw e; // Reported as 409/428 by GlobalExceptionHandler
         } catch (Exception e) {
             response.put("success", false);
             response.put("message", "Erreur lors de la mise à jour de l'utilisateur: " + e.getMessage());
@@ -175,7 +211,7 @@ public class UserController {
     /**
      * Search users by name
      * @param searchTerm the search term
-     * @return List of matching users
+     * @return List of matching users (best matches first, first page only)
      */
     @GetMapping("/search")
     public ResponseEntity<List<UserDTO>> searchUsers(@RequestParam String searchTerm) {
@@ -187,6 +223,42 @@ public class UserController {
         }
     }
     
+    /**
+     * Search employees by name, employee ID or email, ranked and paginated
+     * @param q the search text
+     * @param page the page number (0-based)
+     * @param size the page size (max 100)
+     * @return the page of results with the total number of matches
+     */
+    @GetMapping("/search/page")
+    public ResponseEntity<EmployeeSearchResult> searchEmployees(
+            @RequestParam String q,
+            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(defaultValue = "20") int size) {
+        try {
+            return ResponseEntity.ok(userService.searchEmployees(q, page, size));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+    
+    /**
+     * Suggest employees while typing
+     * @param q the text typed so far
+     * @param limit maximum number of suggestions (max 20)
+     * @return suggestions (id, fullName, employeeId, location, department)
+     */
+    @GetMapping("/autocomplete")
+    public ResponseEntity<List<Map<String, Object>>> autocompleteEmployees(
+            @RequestParam String q,
+            @RequestParam(defaultValue = "10") int limit) {
+        try {
+            return ResponseEntity.ok(userService.autocompleteEmployees(q, limit));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+    
     /**
      * Get users by department ID
      * @param departmentId the department ID
@@ -250,13 +322,17 @@ public class UserController {
     
     /**
      * Get all distinct locations
+     * Served from the cached taxonomy; answers 304 when the client's ETag is still current
      * @return List of locations
      */
     @GetMapping("/locations")
-    public ResponseEntity<List<String>> getAllLocations() {
+    public ResponseEntity<List<String>> getAllLocations(WebRequest request) {
         try {
-            List<String> locations = userService.getAllLocations();
-            return ResponseEntity.ok(locations);
+            TaxonomyService.Taxonomy taxonomy = taxonomyService.current();
+            if (request.checkNotModified(taxonomy.getETag())) {
+                return null;
+            }
+            return ResponseEntity.ok().eTag(taxonomy.getETag()).body(taxonomy.getLocations());
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
         }
@@ -264,13 +340,17 @@ public class UserController {
     
     /**
      * Get all distinct departments
+     * Served from the cached taxonomy; answers 304 when the client's ETag is still current
      * @return List of departments
      */
     @GetMapping("/departments")
-    public ResponseEntity<List<String>> getAllDepartments() {
+    public ResponseEntity<List<String>> getAllDepartments(WebRequest request) {
         try {
-            List<String> departments = userService.getAllDepartments();
-            return ResponseEntity.ok(departments);
+            TaxonomyService.Taxonomy taxonomy = taxonomyService.current();
+            if (request.checkNotModified(taxonomy.getETag())) {
+                return null;
+            }
+            return ResponseEntity.ok().eTag(taxonomy.getETag()).body(taxonomy.getDepartmentNames());
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
         }
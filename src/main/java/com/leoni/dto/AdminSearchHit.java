@@ -0,0 +1,17 @@
+package com.leoni.dto;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class AdminSearchHit {
+    
+    private String type; // EMPLOYEE, DOCUMENT or NEWS
+    private String id;
+    private String title; // Employee name, document types or news title
+    private String subtitle; // Employee ID and location, document owner and status or news status
+    private int score; // Higher is better
+}
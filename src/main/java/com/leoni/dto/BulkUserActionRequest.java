@@ -0,0 +1,38 @@
+package com.leoni.dto;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Date;
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+public class BulkUserActionRequest {
+    
+    private List<String> userIds; // Explicit user IDs (optional if a filter is given)
+    
+    // Optional filter, combined with userIds when both are provided
+    private String location;
+    private String department;
+    
+    @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+    private Date createdFrom;
+    
+    @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+    private Date createdTo;
+    
+    // Helper method to check if at least one filter field is set
+    public boolean hasFilter() {
+        return (location != null && !location.trim().isEmpty())
+                || (department != null && !department.trim().isEmpty())
+                || createdFrom != null
+                || createdTo != null;
+    }
+    
+    // Helper method to check if explicit IDs were provided
+    public boolean hasUserIds() {
+        return userIds != null && !userIds.isEmpty();
+    }
+}
@@ -0,0 +1,30 @@
+package com.leoni.dto;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@Data
+@NoArgsConstructor
+public class BulkUserActionResult {
+    
+    public static final String APPROVED = "approved";
+    public static final String REJECTED = "rejected";
+    public static final String NOT_FOUND = "not_found";
+    public static final String NOT_PENDING = "not_pending";
+    public static final String OUT_OF_SCOPE = "out_of_scope";
+    
+    private String action; // approve or reject
+    private int matched; // Users selected for the action
+    private long processed; // Users actually updated or deleted
+    private long pendingCount; // Pending users remaining in the caller's scope
+    
+    // Per-ID outcome (approved, rejected, not_found, not_pending, out_of_scope)
+    private Map<String, String> results = new LinkedHashMap<>();
+    
+    public BulkUserActionResult(String action) {
+        this.action = action;
+    }
+}
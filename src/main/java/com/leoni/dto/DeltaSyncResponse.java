@@ -0,0 +1,22 @@
+package com.leoni.dto;
+
+import com.leoni.models.News;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+public class DeltaSyncResponse {
+    
+    private String token; // Pass back as token on the next sync
+    private boolean fullResync; // The lists hold everything: the client replaces its copy instead of merging
+    
+    private List<News> news = new ArrayList<>(); // Visible news created or changed since the token
+    private List<String> removedNewsIds = new ArrayList<>(); // News deleted, unpublished or retargeted away
+    
+    private List<DocumentRequestDTO> documents = new ArrayList<>(); // Requests created or changed since the token
+    private List<String> removedDocumentIds = new ArrayList<>(); // Requests deleted since the token
+}
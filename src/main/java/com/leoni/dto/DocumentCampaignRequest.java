@@ -0,0 +1,24 @@
+package com.leoni.dto;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+public class DocumentCampaignRequest {
+    
+    // Target filters - employees matching both are targeted
+    private String location;
+    private String department;
+    
+    private List<String> documentTypes; // Document types requested from every targeted employee
+    private String description;
+    
+    // Helper method to check if at least one target filter is set
+    public boolean hasTarget() {
+        return (location != null && !location.trim().isEmpty())
+                || (department != null && !department.trim().isEmpty());
+    }
+}
@@ -0,0 +1,19 @@
+package com.leoni.dto;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class DocumentCampaignResult {
+    
+    private String location;
+    private String department;
+    private List<String> documentTypes;
+    private int targetedUsers; // Employees matching the target filters
+    private int createdRequests; // Document requests inserted
+}
@@ -25,6 +25,10 @@ public class DocumentRequestDTO {
     @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
     private Date updatedAt;
     
+    private Long version; // Version that was read, sent back on update to detect concurrent edits
+    
+    private Integer escalationLevel; // Null unless the request is overdue
+    
     // User information for display purposes
     private String userFullName;
     private String userEmail;
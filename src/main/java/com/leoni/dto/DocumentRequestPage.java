@@ -0,0 +1,20 @@
+package com.leoni.dto;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class DocumentRequestPage {
+    
+    private List<DocumentRequestDTO> items; // Newest first
+    private int size; // Page size actually used
+    private boolean hasMore; // Whether another page follows
+    private String nextCursor; // Pass as cursor to get the next page, null on the last page
+    private Long estimatedTotal; // Number of matching requests (capped), only computed for the first page
+    private boolean totalCapped; // Whether estimatedTotal stopped at the cap
+}
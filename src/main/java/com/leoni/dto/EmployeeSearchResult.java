@@ -0,0 +1,19 @@
+package com.leoni.dto;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class EmployeeSearchResult {
+    
+    private String query;
+    private int page; // 0-based page number
+    private int size; // Page size actually used
+    private long total; // Number of matching employees
+    private List<UserDTO> results; // Best matches first
+}
@@ -0,0 +1,17 @@
+package com.leoni.dto;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TrendPoint {
+    
+    private String period; // First day of the period, yyyy-MM-dd
+    private String group; // Location, department or document type (null when not grouped)
+    private long created;
+    private long accepted;
+    private long refused;
+}
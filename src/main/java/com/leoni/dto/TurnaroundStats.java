@@ -0,0 +1,27 @@
+package com.leoni.dto;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TurnaroundStats {
+    
+    private String group; // Location, department or document type (null when not grouped)
+    private long decided; // Requests accepted or refused in the range
+    private Percentiles pending; // "en attente" until "en cours" (or until the decision when never in progress)
+    private Percentiles inProgress; // "en cours" until the decision
+    private Percentiles turnaround; // Creation until the decision
+    
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Percentiles {
+        private long count;
+        private Double p50Hours;
+        private Double p90Hours;
+        private Double p99Hours;
+    }
+}
@@ -12,6 +12,7 @@ public class UpdateStatusRequest {
     private String documentId;
     private String newStatus;
     private String comment; // Optional comment for status change
+    private Long version; // Optional version the client read, to detect concurrent edits
     
     // Constructor without comment
     public UpdateStatusRequest(String documentId, String newStatus) {
@@ -19,6 +20,13 @@ public class UpdateStatusRequest {
         this.newStatus = newStatus;
     }
     
+    // Constructor without version
+    public UpdateStatusRequest(String documentId, String newStatus, String comment) {
+        this.documentId = documentId;
+        this.newStatus = newStatus;
+        this.comment = comment;
+    }
+    
     // Validation method to check if status is valid
     public boolean isValidStatus() {
         if (newStatus == null) {
@@ -43,6 +43,8 @@ public class UserDTO {
     @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
     private Date updatedAt;
     
+    private Long version; // Version that was read, sent back on update to detect concurrent edits
+    
     
     // Helper method to get full name
     public String getFullName() {
@@ -0,0 +1,11 @@
+package com.leoni.exceptions;
+
+/**
+ * Exception thrown when a request is retried with an Idempotency-Key whose first attempt is still running
+ */
+public class IdempotencyKeyInProgressException extends AdminServiceException {
+    
+    public IdempotencyKeyInProgressException(String key) {
+        super("Une requête avec la clé d'idempotence '" + key + "' est déjà en cours de traitement", "IDEMPOTENCY_KEY_IN_PROGRESS");
+    }
+}
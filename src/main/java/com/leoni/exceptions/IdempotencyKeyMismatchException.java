@@ -0,0 +1,11 @@
+package com.leoni.exceptions;
+
+/**
+ * Exception thrown when an Idempotency-Key is reused by another caller or with a different request body
+ */
+public class IdempotencyKeyMismatchException extends AdminServiceException {
+    
+    public IdempotencyKeyMismatchException(String key) {
+        super("La clé d'idempotence '" + key + "' a déjà été utilisée pour une autre requête", "IDEMPOTENCY_KEY_MISMATCH");
+    }
+}
@@ -0,0 +1,19 @@
+package com.leoni.exceptions;
+
+/**
+ * Exception thrown when an uploaded image is rejected
+ */
+public class InvalidImageException extends AdminServiceException {
+    
+    public InvalidImageException(String message) {
+        super(message, "INVALID_IMAGE");
+    }
+    
+    public static InvalidImageException unsupportedFormat() {
+        return new InvalidImageException("Le fichier doit être une image JPEG, PNG, GIF ou WebP");
+    }
+    
+    public static InvalidImageException tooLarge(long maxBytes) {
+        return new InvalidImageException("La taille du fichier ne doit pas dépasser " + (maxBytes / (1024 * 1024)) + "MB");
+    }
+}
@@ -0,0 +1,16 @@
+package com.leoni.exceptions;
+
+/**
+ * Exception thrown when a document was modified by someone else since it was read
+ */
+public class VersionConflictException extends AdminServiceException {
+    
+    public VersionConflictException(String entity, String id) {
+        super(entity + " '" + id + "' a été modifié par un autre utilisateur, veuillez recharger et réessayer", "VERSION_CONFLICT");
+    }
+    
+    public VersionConflictException(String entity, String id, Long expectedVersion, Long currentVersion) {
+        super(entity + " '" + id + "' a été modifié par un autre utilisateur (version attendue " + expectedVersion
+                + ", version actuelle " + currentVersion + ")", "VERSION_CONFLICT");
+    }
+}
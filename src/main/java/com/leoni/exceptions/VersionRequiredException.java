@@ -0,0 +1,12 @@
+package com.leoni.exceptions;
+
+/**
+ * Exception thrown when an update does not carry the version it was made on
+ */
+public class VersionRequiredException extends AdminServiceException {
+    
+    public VersionRequiredException(String entity, String id) {
+        super("La version de " + entity + " '" + id + "' est requise pour la mise à jour, veuillez recharger et réessayer",
+                "VERSION_REQUIRED");
+    }
+}
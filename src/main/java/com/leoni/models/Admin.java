@@ -1,6 +1,7 @@
 package com.leoni.models;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Version;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.data.mongodb.core.index.Indexed;
 
@@ -30,6 +31,9 @@ public class Admin {
     
     private LocalDateTime updatedAt;
     
+    @Version
+    private Long version; // Optimistic locking, incremented on every write
+    
     // Constructors
     public Admin() {
         this.createdAt = LocalDateTime.now();
@@ -124,6 +128,14 @@ public class Admin {
         this.updatedAt = updatedAt;
     }
     
+    public Long getVersion() {
+        return version;
+    }
+    
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+    
     @Override
     public String toString() {
         return "Admin{" +
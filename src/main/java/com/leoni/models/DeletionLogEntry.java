@@ -0,0 +1,30 @@
+package com.leoni.models;
+
+import lombok.Data;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+
+@Data
+@Document(collection = "deletion_log")
+public class DeletionLogEntry {
+    @Id
+    private String id;
+    
+    private String collection; // news or document_requests
+    private String entityId; // ID of the deleted news or document request
+    private String userId; // Owner of a deleted document request, null for news
+    
+    private Date deletedAt; // TTL index: older deletions force a full resync
+    
+    public DeletionLogEntry() {
+    }
+    
+    public DeletionLogEntry(String collection, String entityId, String userId) {
+        this.collection = collection;
+        this.entityId = entityId;
+        this.userId = userId;
+        this.deletedAt = new Date();
+    }
+}
@@ -1,5 +1,6 @@
 package com.leoni.models;
 
+import com.leoni.utils.TextNormalizer;
 import lombok.Data;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
@@ -13,6 +14,10 @@ public class Department {
     private String name;
     private String location;
     
+    // Normalized filter keys (see TextNormalizer), maintained on every write
+    private String nameKey;
+    private String locationKey;
+    
     public Department() {
     }
     
@@ -20,4 +25,10 @@ public class Department {
         this.name = name;
         this.location = location;
     }
+    
+    // Recompute the normalized filter keys from the current field values
+    public void refreshNormalizedKeys() {
+        this.nameKey = TextNormalizer.key(name);
+        this.locationKey = TextNormalizer.key(location);
+    }
 }
@@ -0,0 +1,46 @@
+package com.leoni.models;
+
+import lombok.Data;
+import org.bson.types.ObjectId;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+import java.util.List;
+
+@Data
+@Document(collection = "document_events")
+public class DocumentEvent {
+    @Id
+    private String id; // Generated with the change, so relaying the same event twice is detected
+    
+    private Long seq; // Position in the change feed, assigned when relayed (null while pending on the request)
+    
+    private String type; // CREATED or STATUS_CHANGED
+    private String documentRequestId;
+    private String userId; // Owner of the request
+    private List<String> documentTypes;
+    private String fromStatus; // STATUS_CHANGED only
+    private String toStatus;
+    private String comment; // Optional comment given with the status change
+    
+    private Date at; // Time of the change (TTL index)
+    private Date relayedAt;
+    
+    public static final String CREATED = "CREATED";
+    public static final String STATUS_CHANGED = "STATUS_CHANGED";
+    
+    public DocumentEvent() {
+    }
+    
+    public DocumentEvent(String type, DocumentRequest documentRequest, String fromStatus, String toStatus) {
+        this.id = new ObjectId().toHexString();
+        this.type = type;
+        this.documentRequestId = documentRequest.getId();
+        this.userId = documentRequest.getUserId();
+        this.documentTypes = documentRequest.getDocumentTypes();
+        this.fromStatus = fromStatus;
+        this.toStatus = toStatus;
+        this.at = new Date();
+    }
+}
@@ -1,7 +1,9 @@
 package com.leoni.models;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.Data;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Version;
 import org.springframework.data.mongodb.core.mapping.Document;
 import java.util.Date;
 import java.util.List;
@@ -23,6 +25,17 @@ public class DocumentRequest {
     private Date createdAt;
     private Date updatedAt;
     
+    // Outbox: events written atomically with the change they describe, moved to document_events by DocumentEventService
+    @JsonIgnore
+    private List<DocumentEvent> pendingEvents;
+    
+    // Set by the escalation job while the request is open and unchanged past its threshold
+    private Integer escalationLevel; // 1 overdue, 2 and 3 after twice and four times the threshold
+    private Date escalatedAt;
+    
+    @Version
+    private Long version; // Optimistic locking, incremented on every write
+    
     // Helper method to get document types (handles both old and new format)
     public List<String> getEffectiveDocumentTypes() {
         if (documentTypes != null && !documentTypes.isEmpty()) {
@@ -0,0 +1,45 @@
+package com.leoni.models;
+
+import lombok.Data;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+@Data
+@Document(collection = "document_rollups")
+public class DocumentRollup {
+    @Id
+    private String id; // Day, yyyy-MM-dd (Europe/Paris)
+    
+    private Date day; // Start of the day
+    
+    // Totals of the day
+    private long created;
+    private long accepted;
+    private long refused;
+    
+    // Counts per owner location, owner department and document type
+    private List<Entry> entries = new ArrayList<>();
+    
+    private Date builtAt;
+    
+    @Data
+    public static class Entry {
+        private String location; // Effective location of the owner when the day was rolled up
+        private String department; // Effective department of the owner when the day was rolled up
+        private String documentType;
+        private String locationKey;
+        private String departmentKey;
+        private long created;
+        private long accepted;
+        private long refused;
+        
+        // Durations of the requests decided that day (see DurationHistogram)
+        private List<Long> pendingHistogram; // "en attente" until "en cours" or the decision
+        private List<Long> inProgressHistogram; // "en cours" until the decision
+        private List<Long> turnaroundHistogram; // Creation until the decision
+    }
+}
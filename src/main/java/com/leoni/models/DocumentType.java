@@ -14,6 +14,7 @@ public class DocumentType {
     private String name;
     private String description;
     private boolean active = true; // To enable/disable document types
+    private Integer escalationThresholdDays; // Days without change before an open request is overdue (null: default)
     private Date createdAt;
     private Date updatedAt;
     
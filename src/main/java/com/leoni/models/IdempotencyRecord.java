@@ -0,0 +1,43 @@
+package com.leoni.models;
+
+import lombok.Data;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+
+@Data
+@Document(collection = "idempotency_keys")
+public class IdempotencyRecord {
+    @Id
+    private String id; // Endpoint scope + ":" + client key
+    
+    private String status; // IN_PROGRESS or COMPLETED
+    private String caller; // Who sent the first request (user ID), null for anonymous endpoints
+    private String requestHash; // SHA-256 of the first request body; a retry must send the same body
+    private Integer httpStatus; // Stored response status (COMPLETED only)
+    private String responseBody; // Stored response body as JSON (COMPLETED only)
+    
+    private Date createdAt; // TTL index: records expire 24h after creation
+    private Date claimedAt; // When the running attempt started; an old IN_PROGRESS claim is taken over
+    private Date completedAt;
+    
+    public static final String IN_PROGRESS = "IN_PROGRESS";
+    public static final String COMPLETED = "COMPLETED";
+    
+    public IdempotencyRecord() {
+    }
+    
+    public IdempotencyRecord(String id, String caller, String requestHash) {
+        this.id = id;
+        this.caller = caller;
+        this.requestHash = requestHash;
+        this.status = IN_PROGRESS;
+        this.createdAt = new Date();
+        this.claimedAt = this.createdAt;
+    }
+    
+    public boolean isCompleted() {
+        return COMPLETED.equals(status);
+    }
+}
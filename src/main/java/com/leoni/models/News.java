@@ -1,10 +1,13 @@
 package com.leoni.models;
 
+import com.leoni.utils.TextNormalizer;
 import lombok.Data;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Version;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.LocalDateTime;
+import java.util.Map;
 
 @Data
 @Document(collection = "news")
@@ -21,6 +24,7 @@ public class News {
     // Image support
     private String imageUrl; // URL or path to the image
     private String imageName; // Original filename
+    private Map<String, String> imageVariants; // Width (px) to URL of smaller copies of the image, filled once generated
     
     private Visibility visibility;
     
@@ -34,10 +38,17 @@ public class News {
     private String targetLocation;
     private String targetDepartment;
     
+    // Normalized filter keys (see TextNormalizer), maintained on every write
+    private String targetLocationKey;
+    private String targetDepartmentKey;
+    
     private LocalDateTime createdAt;
     private LocalDateTime publishedAt;
     private LocalDateTime updatedAt;
     
+    @Version
+    private Long version; // Optimistic locking, incremented on every write
+    
     // Constructors
     public News() {
         this.createdAt = LocalDateTime.now();
@@ -75,6 +86,12 @@ public class News {
         return Boolean.TRUE.equals(isActive);
     }
     
+    // Recompute the normalized filter keys from the current field values
+    public void refreshNormalizedKeys() {
+        this.targetLocationKey = TextNormalizer.key(targetLocation);
+        this.targetDepartmentKey = TextNormalizer.key(targetDepartment);
+    }
+    
     public void publish() {
         this.visibility.setStatus("published");
         this.publishedAt = LocalDateTime.now();
@@ -0,0 +1,26 @@
+package com.leoni.models;
+
+import lombok.Data;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+import java.util.Map;
+
+@Data
+@Document(collection = "stored_images")
+public class StoredImage {
+    @Id
+    private String id; // SHA-256 of the content (hex), also the file name
+    
+    private String path; // Relative to the uploads directory, e.g. news-images/ab/ab12....png
+    private String url; // Public URL, never reused for other content
+    private String contentType; // Detected from the magic bytes
+    private long size;
+    
+    private Map<String, String> variants; // Width (px) to URL of the resized copies, null until generated
+    private Date variantsGeneratedAt;
+    
+    private Date createdAt;
+    private Date lastUploadedAt;
+}
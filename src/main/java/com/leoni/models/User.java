@@ -1,7 +1,10 @@
 package com.leoni.models;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.leoni.utils.TextNormalizer;
 import lombok.Data;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Version;
 import org.springframework.data.mongodb.core.mapping.DBRef;
 import org.springframework.data.mongodb.core.mapping.Document;
 import java.util.ArrayList;
@@ -32,6 +35,24 @@ public class User {
     private String position = "Non spécifié";
     private String status = "approved"; // Default status for existing users
     
+    // Location and department the user belongs to: the referenced department's values, falling back
+    // to the fields above. Resolved when the user or the department is written, so reads never join departments
+    private String effectiveLocation;
+    private String effectiveDepartment;
+    
+    // Normalized filter keys (see TextNormalizer), maintained on every write
+    private String effectiveLocationKey;
+    private String effectiveDepartmentKey;
+    private String statusKey;
+    
+    // Search index fields: folded tokens of names, employee ID and email, and all their prefixes
+    @JsonIgnore
+    private List<String> searchTokens;
+    @JsonIgnore
+    private List<String> searchKeys;
+    
+    public static final int SEARCH_PREFIX_MAX_LENGTH = 20;
+    
     // This creates a reference to the user's documents
     // We'll use manual references instead of DBRef for better control
     private List<String> documentRequestIds = new ArrayList<>();
@@ -39,6 +60,9 @@ public class User {
     private Date createdAt;
     private Date updatedAt;
     
+    @Version
+    private Long version; // Optimistic locking, incremented on every write
+    
     // Helper method to add a document reference
     public void addDocumentRequest(String docId) {
         if (this.documentRequestIds == null) {
@@ -47,6 +71,37 @@ public class User {
         this.documentRequestIds.add(docId);
     }
     
+    // Resolve the effective location and department from the referenced department (null if not found)
+    public void applyEffectiveLocation(Department referencedDepartment) {
+        if (referencedDepartment != null) {
+            this.effectiveDepartment = referencedDepartment.getName();
+            this.effectiveLocation = TextNormalizer.hasKey(referencedDepartment.getLocation())
+                    ? referencedDepartment.getLocation()
+                    : location;
+        } else {
+            this.effectiveDepartment = department;
+            this.effectiveLocation = location;
+        }
+    }
+    
+    // Recompute the normalized filter keys from the current field values
+    public void refreshNormalizedKeys() {
+        if (effectiveLocation == null && effectiveDepartment == null) {
+            applyEffectiveLocation(null); // Not resolved by the writer: the user's own fields
+        }
+        this.effectiveLocationKey = TextNormalizer.key(effectiveLocation);
+        this.effectiveDepartmentKey = TextNormalizer.key(effectiveDepartment);
+        this.statusKey = TextNormalizer.key(status);
+        this.searchTokens = buildSearchTokens(firstName, lastName, employeeId, getAdresse1());
+        this.searchKeys = TextNormalizer.prefixes(searchTokens, SEARCH_PREFIX_MAX_LENGTH);
+    }
+    
+    // Search tokens of an employee (only the local part of the email, the domain is shared by everyone)
+    public static List<String> buildSearchTokens(String firstName, String lastName, String employeeId, String email) {
+        String emailLocalPart = email != null && email.contains("@") ? email.substring(0, email.indexOf('@')) : email;
+        return TextNormalizer.tokens(firstName, lastName, employeeId, emailLocalPart);
+    }
+    
     // Helper method for department name (for backward compatibility)
     public String getDepartmentName() {
         return this.department;
@@ -17,6 +17,13 @@ public interface DepartmentRepository extends MongoRepository<Department, String
      */
     List<Department> findByLocation(String location);
     
+    /**
+     * Find departments by normalized location key (case insensitive lookup)
+     * @param locationKey the location key (see TextNormalizer)
+     * @return List of departments at the specified location
+     */
+    List<Department> findByLocationKey(String locationKey);
+    
     /**
      * Check if department exists by name and location
      * @param name department name
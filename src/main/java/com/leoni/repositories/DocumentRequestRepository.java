@@ -85,12 +85,4 @@ public interface DocumentRequestRepository extends MongoRepository<DocumentReque
      * @return List of document requests for the user ordered by creation date
      */
     List<DocumentRequest> findByUserIdOrderByCreatedAtDesc(String userId);
-    
-    /**
-     * Search document requests by description (case insensitive)
-     * @param searchTerm the term to search for in description
-     * @return List of matching document requests
-     */
-    @Query("{'description': {$regex: ?0, $options: 'i'}}")
-    List<DocumentRequest> searchByDescription(String searchTerm);
 }
\ No newline at end of file
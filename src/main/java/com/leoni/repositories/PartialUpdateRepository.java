@@ -0,0 +1,108 @@
+package com.leoni.repositories;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Repository;
+
+import java.util.Map;
+
+/**
+ * Field-level write operations ($set, $push, $pull, $currentDate)
+ * Used instead of findById + save when only a few fields of a document change
+ * Every write increments the @Version field so concurrent save() calls detect the change
+ */
+@Repository
+public class PartialUpdateRepository {
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    /**
+     * Set the given fields and the updatedAt timestamp
+     * @param id the document ID
+     * @param fields the fields to $set (property name to value)
+     * @param type the entity class
+     * @return the updated document, or null if not found
+     */
+    public <T> T setFields(String id, Map<String, Object> fields, Class<T> type) {
+        return setFieldsIf(id, null, fields, type);
+    }
+    
+    /**
+     * Set the given fields and the updatedAt timestamp, only if the document matches the condition
+     * @param id the document ID
+     * @param condition additional criteria the document must match (optional)
+     * @param fields the fields to $set (property name to value)
+     * @param type the entity class
+     * @return the updated document, or null if not found or the condition did not match
+     */
+    public <T> T setFieldsIf(String id, Criteria condition, Map<String, Object> fields, Class<T> type) {
+        Update update = new Update();
+        fields.forEach(update::set);
+        return update(id, condition, update, type);
+    }
+    
+    /**
+     * Set the given fields and the updatedAt timestamp, only if the document is still at the expected version
+     * @param id the document ID
+     * @param expectedVersion the version the caller read (null matches documents without a version)
+     * @param fields the fields to $set (property name to value)
+     * @param type the entity class
+     * @return the updated document, or null if not found or the version changed
+     */
+    public <T> T setFieldsIfVersion(String id, Long expectedVersion, Map<String, Object> fields, Class<T> type) {
+        return setFieldsIf(id, Criteria.where("version").is(expectedVersion), fields, type);
+    }
+    
+    /**
+     * Apply an update and the updatedAt timestamp atomically, only if the document matches the condition
+     * @param id the document ID
+     * @param condition additional criteria the document must match (optional)
+     * @param update the update operations
+     * @param type the entity class
+     * @return the updated document, or null if not found or the condition did not match
+     */
+    public <T> T update(String id, Criteria condition, Update update, Class<T> type) {
+        update.currentDate("updatedAt").inc("version", 1);
+        return mongoTemplate.findAndModify(byId(id, condition), update,
+                FindAndModifyOptions.options().returnNew(true), type);
+    }
+    
+    /**
+     * Append a value to an array field
+     * @param id the document ID
+     * @param arrayField the array property name
+     * @param value the value to $push
+     * @param type the entity class
+     * @return true if the document was found
+     */
+    public boolean push(String id, String arrayField, Object value, Class<?> type) {
+        return mongoTemplate.updateFirst(byId(id, null), new Update().push(arrayField, value).inc("version", 1), type)
+                .getMatchedCount() > 0;
+    }
+    
+    /**
+     * Remove every occurrence of a value from an array field
+     * @param id the document ID
+     * @param arrayField the array property name
+     * @param value the value to $pull
+     * @param type the entity class
+     * @return true if the document was found
+     */
+    public boolean pull(String id, String arrayField, Object value, Class<?> type) {
+        return mongoTemplate.updateFirst(byId(id, null), new Update().pull(arrayField, value).inc("version", 1), type)
+                .getMatchedCount() > 0;
+    }
+    
+    private Query byId(String id, Criteria condition) {
+        Criteria criteria = Criteria.where("_id").is(id);
+        if (condition != null) {
+            criteria = new Criteria().andOperator(criteria, condition);
+        }
+        return new Query(criteria);
+    }
+}
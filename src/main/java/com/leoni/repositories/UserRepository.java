@@ -91,23 +91,6 @@ public interface UserRepository extends MongoRepository<User, String> {
      */
     boolean existsByEmployeeId(String employeeId);
     
-    /**
-     * Find users by first name and last name (case insensitive)
-     * @param firstName the first name
-     * @param lastName the last name
-     * @return List of matching users
-     */
-    @Query("{'firstName': {$regex: ?0, $options: 'i'}, 'lastName': {$regex: ?1, $options: 'i'}}")
-    List<User> findByFirstNameAndLastNameIgnoreCase(String firstName, String lastName);
-    
-    /**
-     * Search users by name (first or last name contains the search term)
-     * @param searchTerm the term to search for
-     * @return List of matching users
-     */
-    @Query("{'$or': [{'firstName': {$regex: ?0, $options: 'i'}}, {'lastName': {$regex: ?0, $options: 'i'}}]}")
-    List<User> searchByName(String searchTerm);
-    
     /**
      * Find users by status
      * @param status the status to search for
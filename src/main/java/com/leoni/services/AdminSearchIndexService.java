@@ -0,0 +1,493 @@
+package com.leoni.services;
+
+import com.leoni.dto.AdminSearchHit;
+import com.leoni.exceptions.AdminServiceException;
+import com.leoni.models.Admin;
+import com.leoni.models.DocumentRequest;
+import com.leoni.models.News;
+import com.leoni.models.User;
+import com.leoni.repositories.AdminRepository;
+import com.leoni.utils.TextNormalizer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * In-memory inverted index over employees, document requests and news for the admin search box
+ * Text is accent-folded and split into tokens; every token is indexed by its trigrams and by its
+ * one- and two-letter prefixes, so any part of a name, employee ID, description or title is found
+ * with a few set intersections. The index is built at startup and kept current by the services
+ * after each write.
+ */
+@Service
+public class AdminSearchIndexService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(AdminSearchIndexService.class);
+    
+    public static final String EMPLOYEE = "EMPLOYEE";
+    public static final String DOCUMENT = "DOCUMENT";
+    public static final String NEWS = "NEWS";
+    
+    public static final int MAX_HITS = 50;
+    
+    private static final int GRAM_LENGTH = 3;
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    @Autowired
+    private AdminRepository adminRepository;
+    
+    // Indexed entries by "TYPE:id"
+    private final Map<String, Entry> entries = new HashMap<>();
+    
+    // Gram to the entries containing it
+    private final Map<String, Set<Entry>> postings = new HashMap<>();
+    
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    
+    // Writes made while a rebuild reads the database (null entry for a removal), replayed into
+    // the new snapshot before it replaces the live one; null when no rebuild is running
+    private Map<String, Entry> writesDuringRebuild;
+    
+    /**
+     * One searchable item
+     * Employees carry their own scope; documents are scoped by their owner's current entry;
+     * news are scoped by their target (no target location means visible to every admin)
+     */
+    private static final class Entry {
+        String type;
+        String id;
+        String title;
+        String subtitle;
+        List<String> tokens;
+        Set<String> grams;
+        String locationKey;
+        String departmentKey;
+        String ownerId; // Document requests only
+    }
+    
+    /**
+     * Scope of the caller: null keys mean unrestricted
+     */
+    private record Scope(String locationKey, String departmentKey) {
+        boolean unrestricted() {
+            return locationKey == null && departmentKey == null;
+        }
+    }
+    
+    /**
+     * Build the index from the database (only the displayed and searched fields are read)
+     * The live index keeps serving and taking writes meanwhile; those writes are applied again to
+     * the new snapshot, so an item saved during the build is not lost by the swap
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void rebuild() {
+        long start = System.currentTimeMillis();
+        lock.writeLock().lock();
+        try {
+            writesDuringRebuild = new LinkedHashMap<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        try {
+            Map<String, Entry> built = new HashMap<>();
+            
+            Query userQuery = new Query();
+            userQuery.fields().include("firstName", "lastName", "employeeId", "email", "adresse1",
+                    "effectiveLocation", "effectiveLocationKey", "effectiveDepartmentKey");
+            try (Stream<User> users = mongoTemplate.stream(userQuery, User.class)) {
+                users.forEach(user -> put(built, userEntry(user)));
+            }
+            
+            Query documentQuery = new Query();
+            documentQuery.fields().include("userId", "documentTypes", "documentType", "description", "status.current");
+            try (Stream<DocumentRequest> documents = mongoTemplate.stream(documentQuery, DocumentRequest.class)) {
+                documents.forEach(document -> put(built, documentEntry(document)));
+            }
+            
+            Query newsQuery = new Query();
+            newsQuery.fields().include("title", "summary", "category", "authorName", "visibility", "isActive",
+                    "targetLocationKey", "targetDepartmentKey");
+            try (Stream<News> news = mongoTemplate.stream(newsQuery, News.class)) {
+                news.forEach(item -> put(built, newsEntry(item)));
+            }
+            
+            Map<String, Set<Entry>> builtPostings = new HashMap<>();
+            for (Entry entry : built.values()) {
+                link(builtPostings, entry);
+            }
+            
+            lock.writeLock().lock();
+            try {
+                int replayed = writesDuringRebuild.size();
+                writesDuringRebuild.forEach((key, entry) -> {
+                    unlink(builtPostings, entry != null ? built.put(key, entry) : built.remove(key));
+                    if (entry != null) {
+                        link(builtPostings, entry);
+                    }
+                });
+                writesDuringRebuild = null;
+                if (replayed > 0) {
+                    logger.info("Replayed {} admin search index writes made during the rebuild", replayed);
+                }
+                
+                entries.clear();
+                entries.putAll(built);
+                postings.clear();
+                postings.putAll(builtPostings);
+            } finally {
+                lock.writeLock().unlock();
+            }
+            logger.info("Admin search index built: {} entries, {} grams in {} ms",
+                    built.size(), builtPostings.size(), System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            logger.error("Could not build admin search index: {}", e.getMessage());
+            lock.writeLock().lock();
+            try {
+                writesDuringRebuild = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+    
+    /**
+     * Index or re-index an employee
+     * @param user the saved user
+     */
+    public void indexUser(User user) {
+        if (user != null) {
+            replace(userEntry(user));
+        }
+    }
+    
+    /**
+     * Index or re-index a document request
+     * @param documentRequest the saved document request
+     */
+    public void indexDocumentRequest(DocumentRequest documentRequest) {
+        if (documentRequest != null) {
+            replace(documentEntry(documentRequest));
+        }
+    }
+    
+    /**
+     * Index or re-index a news article
+     * @param news the saved news
+     */
+    public void indexNews(News news) {
+        if (news != null) {
+            replace(newsEntry(news));
+        }
+    }
+    
+    /**
+     * Remove an item from the index
+     * @param type EMPLOYEE, DOCUMENT or NEWS
+     * @param id the item ID
+     */
+    public void remove(String type, String id) {
+        lock.writeLock().lock();
+        try {
+            unlink(postings, entries.remove(type + ":" + id));
+            if (writesDuringRebuild != null) {
+                writesDuringRebuild.put(type + ":" + id, null);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Search all indexed items visible to the caller
+     * Every query token must appear in the item (anywhere in a word for three letters or more,
+     * at the start of a word for shorter tokens). Whole-word matches rank first, then word prefixes.
+     * @param query the search text
+     * @param types the types to return (null or empty for all)
+     * @param limit maximum number of hits (capped at MAX_HITS)
+     * @param userRole the role of the requesting user (ADMIN or SUPERADMIN)
+     * @param userId the ID of the requesting user
+     * @return the best hits first
+     * @throws AdminServiceException if the admin or their location cannot be found
+     */
+    public List<AdminSearchHit> search(String query, Collection<String> types, int limit, String userRole, String userId) {
+        Scope scope = resolveScope(userRole, userId);
+        List<String> tokens = TextNormalizer.tokens(query);
+        if (tokens.isEmpty()) {
+            return List.of();
+        }
+        Set<String> wantedTypes = new HashSet<>();
+        if (types != null) {
+            types.forEach(type -> wantedTypes.add(type.trim().toUpperCase()));
+        }
+        int maxHits = Math.max(1, Math.min(limit, MAX_HITS));
+        
+        List<AdminSearchHit> hits = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            Set<Entry> candidates = candidates(tokens);
+            for (Entry entry : candidates) {
+                if (!wantedTypes.isEmpty() && !wantedTypes.contains(entry.type)) {
+                    continue;
+                }
+                int score = score(entry, tokens);
+                if (score > 0 && isVisible(entry, scope)) {
+                    hits.add(new AdminSearchHit(entry.type, entry.id, entry.title, subtitle(entry), score));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        
+        hits.sort(Comparator.comparingInt(AdminSearchHit::getScore).reversed()
+                .thenComparing(hit -> hit.getTitle() != null ? hit.getTitle() : ""));
+        return hits.size() > maxHits ? new ArrayList<>(hits.subList(0, maxHits)) : hits;
+    }
+    
+    /**
+     * Number of indexed items
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Intersect the postings of every query gram, smallest first
+     */
+    private Set<Entry> candidates(List<String> tokens) {
+        List<Set<Entry>> lists = new ArrayList<>();
+        for (String gram : grams(tokens, false)) {
+            Set<Entry> posting = postings.get(gram);
+            if (posting == null) {
+                return Set.of();
+            }
+            lists.add(posting);
+        }
+        lists.sort(Comparator.comparingInt(Set::size));
+        
+        Set<Entry> result = new HashSet<>(lists.get(0));
+        for (int i = 1; i < lists.size() && !result.isEmpty(); i++) {
+            result.retainAll(lists.get(i));
+        }
+        return result;
+    }
+    
+    /**
+     * Rank an entry: 3 per whole-word match, 2 per word prefix, 1 per match inside a word
+     * Returns 0 if a query token is not found (trigram intersections can match scattered grams)
+     */
+    private int score(Entry entry, List<String> queryTokens) {
+        int score = 0;
+        for (String queryToken : queryTokens) {
+            int best = 0;
+            for (String token : entry.tokens) {
+                if (token.equals(queryToken)) {
+                    best = 3;
+                    break;
+                }
+                if (token.startsWith(queryToken)) {
+                    best = Math.max(best, 2);
+                } else if (queryToken.length() >= GRAM_LENGTH && token.contains(queryToken)) {
+                    best = Math.max(best, 1);
+                }
+            }
+            if (best == 0) {
+                return 0;
+            }
+            score += best;
+        }
+        return score;
+    }
+    
+    private boolean isVisible(Entry entry, Scope scope) {
+        if (scope.unrestricted()) {
+            return true;
+        }
+        if (DOCUMENT.equals(entry.type)) {
+            Entry owner = entries.get(EMPLOYEE + ":" + entry.ownerId);
+            return owner != null && inScope(owner, scope);
+        }
+        if (NEWS.equals(entry.type)) {
+            return entry.locationKey == null
+                    || (matches(entry.locationKey, scope.locationKey()) && (entry.departmentKey == null
+                        || matches(entry.departmentKey, scope.departmentKey())));
+        }
+        return inScope(entry, scope);
+    }
+    
+    /**
+     * Same rule as the user filters: the employee's effective location and department
+     */
+    private boolean inScope(Entry employee, Scope scope) {
+        return matches(employee.locationKey, scope.locationKey())
+                && matches(employee.departmentKey, scope.departmentKey());
+    }
+    
+    private boolean matches(String value, String required) {
+        return required == null || required.equals(value);
+    }
+    
+    private Scope resolveScope(String userRole, String userId) {
+        if ("SUPERADMIN".equals(userRole)) {
+            return new Scope(null, null);
+        }
+        Admin admin = adminRepository.findById(userId)
+                .orElseThrow(() -> new AdminServiceException("Admin non trouvé avec l'ID: " + userId, "ADMIN_NOT_FOUND"));
+        if (!StringUtils.hasText(admin.getLocation())) {
+            throw new AdminServiceException("Aucune location assignée à l'admin: " + admin.getUsername(), "ADMIN_SCOPE_MISSING");
+        }
+        return new Scope(TextNormalizer.key(admin.getLocation()), TextNormalizer.key(admin.getDepartment()));
+    }
+    
+    /**
+     * Documents show their owner's name, looked up when the hit is returned so renames are reflected
+     */
+    private String subtitle(Entry entry) {
+        if (DOCUMENT.equals(entry.type)) {
+            Entry owner = entries.get(EMPLOYEE + ":" + entry.ownerId);
+            return owner != null ? owner.title + " - " + entry.subtitle : entry.subtitle;
+        }
+        return entry.subtitle;
+    }
+    
+    private Entry userEntry(User user) {
+        Entry entry = newEntry(EMPLOYEE, user.getId(),
+                join(" ", user.getFirstName(), user.getLastName()),
+                join(" - ", user.getEmployeeId(), user.getEffectiveLocation()),
+                User.buildSearchTokens(user.getFirstName(), user.getLastName(), user.getEmployeeId(), user.getAdresse1()));
+        entry.locationKey = user.getEffectiveLocationKey();
+        entry.departmentKey = user.getEffectiveDepartmentKey();
+        return entry;
+    }
+    
+    private Entry documentEntry(DocumentRequest documentRequest) {
+        List<String> documentTypes = documentRequest.getEffectiveDocumentTypes();
+        String status = documentRequest.getStatus() != null ? documentRequest.getStatus().getCurrent() : null;
+        Entry entry = newEntry(DOCUMENT, documentRequest.getId(),
+                String.join(", ", documentTypes),
+                status,
+                TextNormalizer.tokens(String.join(" ", documentTypes), documentRequest.getDescription()));
+        entry.ownerId = documentRequest.getUserId();
+        return entry;
+    }
+    
+    private Entry newsEntry(News news) {
+        Entry entry = newEntry(NEWS, news.getId(),
+                news.getTitle(),
+                join(" - ", news.getCategory(), news.getVisibility() != null ? news.getVisibility().getStatus() : null),
+                TextNormalizer.tokens(news.getTitle(), news.getSummary(), news.getCategory(), news.getAuthorName()));
+        entry.locationKey = news.getTargetLocationKey();
+        entry.departmentKey = news.getTargetDepartmentKey();
+        return entry;
+    }
+    
+    private Entry newEntry(String type, String id, String title, String subtitle, List<String> tokens) {
+        Entry entry = new Entry();
+        entry.type = type;
+        entry.id = id;
+        entry.title = title;
+        entry.subtitle = subtitle;
+        entry.tokens = tokens;
+        entry.grams = grams(tokens, true);
+        return entry;
+    }
+    
+    /**
+     * Grams of a token: "^" + its first one and two letters, and its trigrams
+     * Query tokens only need their own prefix gram (short tokens) or their trigrams
+     */
+    private static Set<String> grams(List<String> tokens, boolean forIndex) {
+        Set<String> grams = new LinkedHashSet<>();
+        for (String token : tokens) {
+            if (forIndex || token.length() < GRAM_LENGTH) {
+                for (int length = 1; length < GRAM_LENGTH && length <= token.length(); length++) {
+                    if (forIndex || length == token.length()) {
+                        grams.add("^" + token.substring(0, length));
+                    }
+                }
+            }
+            for (int i = 0; i + GRAM_LENGTH <= token.length(); i++) {
+                grams.add(token.substring(i, i + GRAM_LENGTH));
+            }
+        }
+        return grams;
+    }
+    
+    private static String join(String separator, String... values) {
+        List<String> parts = new ArrayList<>();
+        for (String value : values) {
+            if (StringUtils.hasText(value)) {
+                parts.add(value.trim());
+            }
+        }
+        return String.join(separator, parts);
+    }
+    
+    private void put(Map<String, Entry> target, Entry entry) {
+        if (entry.id != null) {
+            target.put(entry.type + ":" + entry.id, entry);
+        }
+    }
+    
+    private void replace(Entry entry) {
+        if (entry.id == null) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            unlink(postings, entries.put(entry.type + ":" + entry.id, entry));
+            link(postings, entry);
+            if (writesDuringRebuild != null) {
+                writesDuringRebuild.put(entry.type + ":" + entry.id, entry);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    private static void link(Map<String, Set<Entry>> postings, Entry entry) {
+        for (String gram : entry.grams) {
+            postings.computeIfAbsent(gram, g -> new HashSet<>()).add(entry);
+        }
+    }
+    
+    private static void unlink(Map<String, Set<Entry>> postings, Entry entry) {
+        if (entry == null) {
+            return;
+        }
+        for (String gram : entry.grams) {
+            Set<Entry> posting = postings.get(gram);
+            if (posting != null) {
+                posting.remove(entry);
+                if (posting.isEmpty()) {
+                    postings.remove(gram);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package com.leoni.services;
+
+import jakarta.annotation.PostConstruct;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Local copies of the uploaded files, so they are served from this node's disk
+ * With the local backend the stored file is used as is. Otherwise a file is downloaded once from the shared
+ * store into app.storage.cache-dir (concurrent requests for it wait for the same download), keeping the
+ * store's date so every node sends the same Last-Modified and ETag. The copies are limited to
+ * app.storage.cache-max-mb, least recently used removed first; uploaded files never change, so a copy is
+ * never stale. Files removed from the store (upload reaper) are recorded in upload_evictions, which every
+ * node reads every app.storage.eviction-poll-ms to drop its copies (on disk and in UploadCache).
+ */
+@Service
+public class BlobCache {
+    
+    private static final Logger logger = LoggerFactory.getLogger(BlobCache.class);
+    
+    public static final String EVICTIONS_COLLECTION = "upload_evictions";
+    
+    // Evictions are kept this long (TTL index), longer than a node is expected to stay down
+    public static final Duration EVICTION_RETENTION = Duration.ofDays(7);
+    
+    // Each poll re-reads this much before the previous one (clock skew between nodes)
+    private static final long EVICTION_OVERLAP_MS = 5000;
+    
+    @Autowired
+    private BlobStore blobStore;
+    
+    @Autowired
+    private UploadCache uploadCache;
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    @Value("${app.storage.cache-dir:}")
+    private String cacheDir;
+    
+    @Value("${app.storage.cache-max-mb:512}")
+    private long cacheMaxMb;
+    
+    private Path root;
+    
+    // Key to size, least recently used first
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(256, 0.75f, true);
+    
+    private long totalBytes;
+    
+    private final Map<String, Object> downloads = new ConcurrentHashMap<>();
+    
+    // Evictions from this time on are not applied yet (all of them at startup: the copies kept on disk
+    // may have been removed from the store while this node was down)
+    private volatile Date evictionsReadUpTo = new Date(0);
+    
+    @PostConstruct
+    public void init() throws IOException {
+        root = (cacheDir == null || cacheDir.isBlank()
+                ? Paths.get(System.getProperty("java.io.tmpdir"), "leoni-blob-cache")
+                : Paths.get(cacheDir)).toAbsolutePath().normalize();
+        if (blobStore.isLocal()) {
+            return; // Files are already local
+        }
+        Files.createDirectories(root);
+        
+        // Copies kept from the previous run, oldest first
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> walk = Files.walk(root)) {
+            walk.filter(Files::isRegularFile).forEach(files::add);
+        }
+        files.sort(Comparator.comparingLong(this::lastAccess));
+        synchronized (entries) {
+            for (Path file : files) {
+                String key = root.relativize(file).toString().replace('\\', '/');
+                if (!BlobStore.isValidKey(key)) {
+                    Files.deleteIfExists(file); // Interrupted download
+                    continue;
+                }
+                long size = Files.size(file);
+                entries.put(key, size);
+                totalBytes += size;
+            }
+            trim();
+        }
+    }
+    
+    /**
+     * The local file of an uploaded file, downloaded from the shared store if needed
+     * @param key a valid key (see BlobStore.isValidKey)
+     * @return the file, or null if there is no such upload
+     */
+    public Path resolve(String key) throws IOException {
+        if (blobStore.isLocal()) {
+            Path local = blobStore.localPath(key);
+            return Files.isRegularFile(local) ? local : null;
+        }
+        Path file = root.resolve(key).normalize();
+        synchronized (entries) {
+            if (entries.get(key) != null && Files.isRegularFile(file)) {
+                return file;
+            }
+        }
+        Object lock = downloads.computeIfAbsent(key, k -> new Object());
+        try {
+            synchronized (lock) {
+                if (Files.isRegularFile(file)) {
+                    register(key, Files.size(file));
+                    return file;
+                }
+                return download(key, file);
+            }
+        } finally {
+            downloads.remove(key, lock);
+        }
+    }
+    
+    /**
+     * Drop the copies of files removed from the store: on this node now, on the others at their next poll
+     * @param keys the removed keys
+     */
+    public void evictEverywhere(Collection<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        Date now = new Date();
+        mongoTemplate.insert(keys.stream().map(key -> new Document("key", key).append("at", now)).toList(),
+                EVICTIONS_COLLECTION);
+        keys.forEach(this::evict);
+    }
+    
+    /**
+     * Apply the evictions recorded by the other nodes since the last poll (re-applying one is harmless)
+     */
+    @Scheduled(fixedDelayString = "${app.storage.eviction-poll-ms:30000}")
+    public void applyEvictions() {
+        Date since = evictionsReadUpTo;
+        Date next = new Date(System.currentTimeMillis() - EVICTION_OVERLAP_MS);
+        try {
+            Query query = new Query(Criteria.where("at").gte(since));
+            query.fields().include("key");
+            for (Document eviction : mongoTemplate.find(query, Document.class, EVICTIONS_COLLECTION)) {
+                if (eviction.get("key") instanceof String key && BlobStore.isValidKey(key)) {
+                    evict(key);
+                }
+            }
+            evictionsReadUpTo = next;
+        } catch (Exception e) {
+            logger.warn("Could not read the upload evictions: {}", e.getMessage());
+        }
+    }
+    
+    /**
+     * Drop this node's copies of a file (deleted from the store or moved away)
+     */
+    public void evict(String key) {
+        uploadCache.evict(key);
+        if (blobStore.isLocal()) {
+            return;
+        }
+        synchronized (entries) {
+            Long size = entries.remove(key);
+            if (size != null) {
+                totalBytes -= size;
+            }
+        }
+        try {
+            Files.deleteIfExists(root.resolve(key).normalize());
+        } catch (IOException e) {
+            logger.warn("Could not remove the cached copy of {}: {}", key, e.getMessage());
+        }
+    }
+    
+    private Path download(String key, Path file) throws IOException {
+        BlobStore.BlobInfo info = blobStore.stat(key);
+        if (info == null) {
+            return null;
+        }
+        Files.createDirectories(file.getParent());
+        Path temp = Files.createTempFile(file.getParent(), ".download-", ".tmp");
+        try {
+            try (InputStream in = blobStore.open(key)) {
+                Files.copy(in, temp, StandardCopyOption.REPLACE_EXISTING);
+            } catch (NoSuchFileException e) {
+                return null; // Deleted meanwhile
+            }
+            Files.setLastModifiedTime(temp, FileTime.fromMillis(info.lastModified()));
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        register(key, Files.size(file));
+        return file;
+    }
+    
+    private void register(String key, long size) {
+        synchronized (entries) {
+            Long previous = entries.put(key, size);
+            totalBytes += size - (previous != null ? previous : 0);
+            trim();
+        }
+    }
+    
+    /**
+     * Remove the least recently used copies beyond the limit (the one just added is kept)
+     */
+    private void trim() {
+        long maxBytes = cacheMaxMb * 1024 * 1024;
+        Iterator<Map.Entry<String, Long>> eldest = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && entries.size() > 1 && eldest.hasNext()) {
+            Map.Entry<String, Long> entry = eldest.next();
+            eldest.remove();
+            totalBytes -= entry.getValue();
+            try {
+                // A request already serving it keeps reading its open file
+                Files.deleteIfExists(root.resolve(entry.getKey()));
+            } catch (IOException e) {
+                logger.warn("Could not remove the cached copy of {}: {}", entry.getKey(), e.getMessage());
+            }
+        }
+    }
+    
+    private long lastAccess(Path file) {
+        try {
+            return Files.readAttributes(file, BasicFileAttributes.class).lastAccessTime().toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.leoni.services;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+
+/**
+ * Storage of the uploaded files, shared by the nodes or not depending on the backend
+ * Keys are paths relative to /uploads (news-images/ab/ab12....jpg). Reads and writes are streamed; a write
+ * becomes visible at once and completely, never half-written. The backend is chosen with app.storage.backend:
+ * "local" (the app.uploads.dir directory, one node) or "gridfs" (the database, any number of nodes).
+ */
+public interface BlobStore {
+    
+    /**
+     * Size, date and type of a stored file
+     */
+    record BlobInfo(String key, long size, long lastModified, String contentType) {
+    }
+    
+    /**
+     * Store a file, replacing the one with the same key
+     * @param key the path under /uploads
+     * @param content read until the end, not closed
+     * @param contentType the MIME type (optional)
+     */
+    void put(String key, InputStream content, String contentType) throws IOException;
+    
+    /**
+     * Read a file
+     * @return the content, to close once read
+     * @throws java.nio.file.NoSuchFileException if there is no such file
+     */
+    InputStream open(String key) throws IOException;
+    
+    /**
+     * @return the file's size and date, or null if there is no such file
+     */
+    BlobInfo stat(String key) throws IOException;
+    
+    /**
+     * Delete a file (nothing happens if there is none)
+     */
+    void delete(String key) throws IOException;
+    
+    /**
+     * Rename a file (nothing happens if there is none)
+     * @param from the current key
+     * @param to the new key, replaced if it exists
+     */
+    void move(String from, String to) throws IOException;
+    
+    /**
+     * Visit the files under a directory, one at a time (memory does not grow with their number)
+     * @param prefix the directory key, e.g. news-images
+     * @param visitor called with each file; it may move or delete it
+     */
+    void list(String prefix, Consumer<BlobInfo> visitor) throws IOException;
+    
+    /**
+     * Whether the files are on this node's disk (nothing to cache)
+     */
+    default boolean isLocal() {
+        return false;
+    }
+    
+    /**
+     * The file itself when the backend keeps it on this node's disk, null otherwise
+     */
+    default Path localPath(String key) {
+        return null;
+    }
+    
+    /**
+     * Whether a key is a plain relative path: no empty, "." or ".." segment, and no hidden file
+     * (files being written are dot-files)
+     */
+    static boolean isValidKey(String key) {
+        if (key == null || key.isEmpty() || key.contains("\\")) {
+            return false;
+        }
+        for (String segment : key.split("/", -1)) {
+            if (segment.isEmpty() || segment.startsWith(".")) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
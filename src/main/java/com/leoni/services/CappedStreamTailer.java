@@ -0,0 +1,134 @@
+package com.leoni.services;
+
+import com.mongodb.CursorType;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Filters;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.mongodb.core.CollectionOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Follow a capped collection with a tailable await cursor on a daemon thread
+ * Every node runs its own tailer, so a document inserted by one node reaches all of them within about a
+ * second. This works on a standalone server (no replica set needed, unlike change streams) and the capped
+ * collection never grows. The documents carry an increasing "seq"; a tailer that loses its cursor resumes
+ * after the last seq it saw, and a new one starts after the newest document.
+ */
+public class CappedStreamTailer {
+    
+    private static final Logger logger = LoggerFactory.getLogger(CappedStreamTailer.class);
+    
+    private static final long AWAIT_MS = 1000;
+    private static final long RETRY_MS = 2000;
+    
+    private final MongoTemplate mongoTemplate;
+    private final String collection;
+    private final long sizeBytes;
+    private final long maxDocuments;
+    private final Consumer<Document> consumer;
+    
+    private volatile boolean running;
+    
+    private Thread thread;
+    
+    /**
+     * @param collection the capped collection (created if missing)
+     * @param sizeBytes the size of the capped collection
+     * @param maxDocuments the maximum number of documents it keeps
+     * @param consumer called on the tailer thread for each new document, must not block
+     */
+    public CappedStreamTailer(MongoTemplate mongoTemplate, String collection, long sizeBytes, long maxDocuments,
+                              Consumer<Document> consumer) {
+        this.mongoTemplate = mongoTemplate;
+        this.collection = collection;
+        this.sizeBytes = sizeBytes;
+        this.maxDocuments = maxDocuments;
+        this.consumer = consumer;
+    }
+    
+    public void start() {
+        running = true;
+        thread = new Thread(this::tail, collection + "-tailer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    public void stop() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+    
+    private void tail() {
+        Long lastSeq = null;
+        while (running) {
+            try {
+                if (lastSeq == null) {
+                    createCollection();
+                    lastSeq = newestSeq();
+                }
+                try (MongoCursor<Document> cursor = mongoTemplate.getCollection(collection)
+                        .find(Filters.gt("seq", lastSeq))
+                        .cursorType(CursorType.TailableAwait)
+                        .maxAwaitTime(AWAIT_MS, TimeUnit.MILLISECONDS)
+                        .iterator()) {
+                    while (running) {
+                        Document document = cursor.tryNext();
+                        if (document == null) {
+                            if (cursor.getServerCursor() == null) {
+                                break; // Dead cursor (empty collection), opened again after a pause
+                            }
+                            continue;
+                        }
+                        if (document.get("seq") instanceof Number seq) {
+                            lastSeq = seq.longValue();
+                        }
+                        consumer.accept(document);
+                    }
+                }
+            } catch (Exception e) {
+                if (running) {
+                    logger.warn("Tailing {} interrupted, resuming: {}", collection, e.getMessage());
+                }
+            }
+            try {
+                Thread.sleep(RETRY_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+    
+    private long newestSeq() {
+        Document newest = mongoTemplate.getCollection(collection)
+                .find()
+                .sort(new Document("$natural", -1))
+                .limit(1)
+                .first();
+        return newest != null && newest.get("seq") instanceof Number seq ? seq.longValue() : 0;
+    }
+    
+    /**
+     * Create the capped collection before anything is written to it (an insert would create a regular one)
+     */
+    private void createCollection() {
+        try {
+            if (!mongoTemplate.collectionExists(collection)) {
+                mongoTemplate.createCollection(collection, CollectionOptions.empty()
+                        .capped()
+                        .size(sizeBytes)
+                        .maxDocuments(maxDocuments));
+            }
+        } catch (Exception e) {
+            // Created by another node meanwhile, or the database is not reachable yet (the tail then fails and retries)
+            logger.warn("Could not create {}: {}", collection, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.leoni.services;
+
+import com.leoni.models.DeletionLogEntry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Tombstones of deleted news, document requests and users, so delta sync clients (and the in-memory
+ * indexes of the other instances) learn about deletions
+ * The entries expire after app.sync.tombstone-retention-days (TTL index); clients whose last sync
+ * is older get a full resync instead.
+ */
+@Service
+public class DeletionLogService {
+    
+    public static final String NEWS = "news";
+    public static final String DOCUMENT_REQUESTS = "document_requests";
+    public static final String USERS = "users";
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    /**
+     * Record a deletion
+     * @param collection NEWS, DOCUMENT_REQUESTS or USERS
+     * @param entityId the deleted ID
+     * @param userId the owner of a document request (null for news and users)
+     */
+    public void record(String collection, String entityId, String userId) {
+        mongoTemplate.insert(new DeletionLogEntry(collection, entityId, userId));
+    }
+    
+    /**
+     * IDs deleted since a time
+     * @param collection NEWS, DOCUMENT_REQUESTS or USERS
+     * @param userId the owner of the document requests (null for news and users)
+     * @param since the earliest deletion time
+     * @return the deleted IDs, oldest deletion first
+     */
+    public List<String> findDeletedIds(String collection, String userId, Date since) {
+        Query query = new Query(Criteria.where("collection").is(collection)
+                .and("userId").is(userId)
+                .and("deletedAt").gte(since))
+                .with(Sort.by("deletedAt"));
+        query.fields().include("entityId");
+        return mongoTemplate.find(query, DeletionLogEntry.class).stream()
+                .map(DeletionLogEntry::getEntityId)
+                .distinct()
+                .collect(Collectors.toList());
+    }
+}
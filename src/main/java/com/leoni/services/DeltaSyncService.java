@@ -0,0 +1,148 @@
+package com.leoni.services;
+
+import com.leoni.dto.DeltaSyncResponse;
+import com.leoni.exceptions.UserNotFoundException;
+import com.leoni.models.News;
+import com.leoni.models.User;
+import com.leoni.utils.TextNormalizer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Date;
+import java.util.HexFormat;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Delta sync for the employee app: the news and document requests of an employee changed since the last sync
+ * Changes are read through the indexed updatedAt fields and deletions through the deletion log, so a client
+ * that is up to date only costs a few index lookups. The token is the server time of the previous sync;
+ * changes are read from a minute before it, so writes stamped by another clock are not missed (the client
+ * may receive a change twice and applies it again). The token also carries a hash of the employee's location
+ * and department: news that became visible through a move did not change, so a moved employee gets a full resync.
+ */
+@Service
+public class DeltaSyncService {
+    
+    // Overlap between two syncs, covers the clock difference between the app instances and MongoDB
+    private static final long OVERLAP_MS = 60 * 1000;
+    
+    private static final String TOKEN_PREFIX = "v2:";
+    
+    @Value("${app.sync.tombstone-retention-days:30}")
+    private int tombstoneRetentionDays;
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    @Autowired
+    private NewsService newsService;
+    
+    @Autowired
+    private DocumentRequestService documentRequestService;
+    
+    @Autowired
+    private DeletionLogService deletionLogService;
+    
+    /**
+     * Decoded sync token (scope is null for tokens without a scope hash)
+     */
+    private record SyncToken(Date time, String scope) {
+    }
+    
+    /**
+     * Get the changes of an employee since the last sync
+     * The news are those of the employee's effective location and department. Without a token, with one
+     * older than the deletion log retention, or with one issued for another location or department,
+     * everything is returned with fullResync set.
+     * @param userId the employee ID
+     * @param token the token of the previous sync (null for the first sync)
+     * @return the changes and the token of this sync
+     * @throws UserNotFoundException if the employee does not exist
+     * @throws IllegalArgumentException if the token is not valid
+     */
+    public DeltaSyncResponse sync(String userId, String token) {
+        Query userQuery = new Query(Criteria.where("_id").is(userId));
+        userQuery.fields().include("effectiveLocation", "effectiveDepartment");
+        User user = mongoTemplate.findOne(userQuery, User.class);
+        if (user == null) {
+            throw new UserNotFoundException(userId);
+        }
+        String location = user.getEffectiveLocation();
+        String department = user.getEffectiveDepartment();
+        
+        String scope = scopeHash(location, department);
+        
+        Date now = new Date();
+        SyncToken previous = decodeToken(token);
+        Date lastSync = previous != null ? previous.time() : null;
+        Date oldestTombstone = new Date(now.getTime() - TimeUnit.DAYS.toMillis(tombstoneRetentionDays));
+        
+        DeltaSyncResponse response = new DeltaSyncResponse();
+        response.setToken(encodeToken(now, scope));
+        
+        if (lastSync == null || lastSync.before(oldestTombstone) || !scope.equals(previous.scope())) {
+            response.setFullResync(true);
+            response.setNews(newsService.getFilteredNews(location, department));
+            response.setDocuments(documentRequestService.getDocumentRequestsByUserId(userId));
+            return response;
+        }
+        
+        Date since = new Date(lastSync.getTime() - OVERLAP_MS);
+        // Changed news no longer shown to the employee (unpublished, retargeted) are removals for the client
+        for (News news : newsService.getNewsChangedSince(since)) {
+            if (newsService.isVisibleTo(news, location, department)) {
+                response.getNews().add(news);
+            } else {
+                response.getRemovedNewsIds().add(news.getId());
+            }
+        }
+        response.getRemovedNewsIds().addAll(deletionLogService.findDeletedIds(DeletionLogService.NEWS, null, since));
+        
+        response.setDocuments(documentRequestService.getDocumentRequestsChangedSince(userId, since));
+        response.setRemovedDocumentIds(
+                deletionLogService.findDeletedIds(DeletionLogService.DOCUMENT_REQUESTS, userId, since));
+        return response;
+    }
+    
+    /**
+     * Short hash of the normalized location and department keys (the news visibility inputs)
+     */
+    private String scopeHash(String location, String department) {
+        try {
+            String keys = TextNormalizer.key(location) + "\n" + TextNormalizer.key(department);
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(keys.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 8);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    private String encodeToken(Date time, String scope) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((TOKEN_PREFIX + time.getTime() + ":" + scope).getBytes(StandardCharsets.UTF_8));
+    }
+    
+    private SyncToken decodeToken(String token) {
+        if (token == null || token.isBlank()) {
+            return null;
+        }
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            String[] parts = decoded.startsWith(TOKEN_PREFIX) ? decoded.substring(TOKEN_PREFIX.length()).split(":") : null;
+            if (parts == null || parts.length != 2) {
+                throw new IllegalArgumentException("Jeton de synchronisation invalide");
+            }
+            return new SyncToken(new Date(Long.parseLong(parts[0])), parts[1]);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Jeton de synchronisation invalide");
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.leoni.services;
+
+import com.leoni.models.DocumentEvent;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Service;
+
+/**
+ * Fan-out of relayed document events to the event streams of every node
+ * The relay (one node at a time, see DocumentEventService) also writes each event to a small capped
+ * collection; every node follows it (CappedStreamTailer) and hands the events to its local SseConnectionRegistry.
+ */
+@Service
+public class DocumentEventBroadcaster {
+    
+    public static final String STREAM_COLLECTION = "document_event_stream";
+    
+    // A few minutes of events at peak; the change feed keeps the history
+    private static final long STREAM_SIZE_BYTES = 16L * 1024 * 1024;
+    private static final long STREAM_MAX_DOCUMENTS = 50000;
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    @Autowired
+    private SseConnectionRegistry sseConnectionRegistry;
+    
+    private CappedStreamTailer tailer;
+    
+    @PostConstruct
+    public void start() {
+        tailer = new CappedStreamTailer(mongoTemplate, STREAM_COLLECTION, STREAM_SIZE_BYTES, STREAM_MAX_DOCUMENTS,
+                document -> sseConnectionRegistry.dispatch(mongoTemplate.getConverter().read(DocumentEvent.class, document)));
+        tailer.start();
+    }
+    
+    @PreDestroy
+    public void stop() {
+        tailer.stop();
+    }
+}
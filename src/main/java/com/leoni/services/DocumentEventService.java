@@ -0,0 +1,260 @@
+package com.leoni.services;
+
+import com.leoni.models.DocumentEvent;
+import com.leoni.models.DocumentRequest;
+import com.mongodb.bulk.BulkWriteError;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Append-only log of document request changes and the change feed read from it
+ * Each change pushes its event onto the request's pendingEvents array in the same update (outbox), so the
+ * event exists if and only if the change was written. The relay moves pending events to document_events,
+ * numbering them from a counter. Only one instance relays at a time (lease in relay_locks) and it inserts
+ * in sequence order, so a consumer that has read up to seq N never sees an event below N appear later.
+ */
+@Service
+public class DocumentEventService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(DocumentEventService.class);
+    
+    public static final int MAX_FEED_SIZE = 500;
+    
+    // Requests with pending events relayed per pass
+    private static final int RELAY_BATCH_SIZE = 200;
+    private static final int MAX_BATCHES_PER_RUN = 50;
+    
+    private static final String COUNTERS_COLLECTION = "counters";
+    private static final String LOCKS_COLLECTION = "relay_locks";
+    private static final String SEQUENCE_ID = "document_events";
+    
+    private static final int DUPLICATE_KEY_CODE = 11000;
+    
+    // A relay that stopped without releasing its lease is replaced after this delay
+    private static final long LEASE_MS = 30 * 1000;
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    private final ReentrantLock relayLock = new ReentrantLock();
+    
+    private final String instanceId = new ObjectId().toHexString();
+    
+    /**
+     * Relay right after a change so the feed is current; changes written while another relay runs
+     * are picked up by the scheduled pass
+     */
+    public void relayNow() {
+        try {
+            relay();
+        } catch (Exception e) {
+            logger.warn("Document event relay failed, retried by the scheduled relay: {}", e.getMessage());
+        }
+    }
+    
+    /**
+     * Move the pending events of the requests to document_events, oldest first
+     */
+    @Scheduled(initialDelayString = "${app.events.relay-interval-ms:2000}",
+            fixedDelayString = "${app.events.relay-interval-ms:2000}")
+    public void relay() {
+        if (!relayLock.tryLock()) {
+            return;
+        }
+        try {
+            if (!acquireLease()) {
+                return;
+            }
+            try {
+                // The lease is renewed before each batch (a fixed number of round trips, well within LEASE_MS);
+                // once it is lost the relaying stops, the instance holding it relays the rest
+                for (int batch = 0; batch < MAX_BATCHES_PER_RUN; batch++) {
+                    if (batch > 0 && !acquireLease()) {
+                        logger.debug("Document event relay lease lost, stopping");
+                        break;
+                    }
+                    Query query = new Query(Criteria.where("pendingEvents._id").exists(true)).limit(RELAY_BATCH_SIZE);
+                    query.fields().include("pendingEvents");
+                    List<DocumentRequest> requests = mongoTemplate.find(query, DocumentRequest.class);
+                    relayEvents(requests);
+                    if (requests.size() < RELAY_BATCH_SIZE) {
+                        break;
+                    }
+                }
+            } finally {
+                releaseLease();
+            }
+        } finally {
+            relayLock.unlock();
+        }
+    }
+    
+    /**
+     * Read the feed after a position
+     * @param since the last seq the consumer processed (0 to start from the oldest retained event)
+     * @param userId only the events of this owner (optional)
+     * @param limit maximum number of events (capped at MAX_FEED_SIZE)
+     * @return events in seq order, nextSince (pass back as since) and hasMore
+     */
+    public Map<String, Object> getChanges(long since, String userId, int limit) {
+        int size = Math.max(1, Math.min(limit, MAX_FEED_SIZE));
+        Criteria criteria = Criteria.where("seq").gt(since);
+        if (userId != null && !userId.isBlank()) {
+            criteria.and("userId").is(userId);
+        }
+        Query query = new Query(criteria).with(Sort.by("seq")).limit(size + 1);
+        List<DocumentEvent> events = new ArrayList<>(mongoTemplate.find(query, DocumentEvent.class));
+        
+        boolean hasMore = events.size() > size;
+        if (hasMore) {
+            events = events.subList(0, size);
+        }
+        
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("events", events);
+        result.put("nextSince", events.isEmpty() ? since : events.get(events.size() - 1).getSeq());
+        result.put("hasMore", hasMore);
+        return result;
+    }
+    
+    /**
+     * Relay the pending events of a batch of requests with a fixed number of round trips: one counter update,
+     * ordered bulk inserts (one more per duplicate), one broadcast insert and one bulk of pulls
+     */
+    private void relayEvents(List<DocumentRequest> requests) {
+        List<DocumentEvent> events = new ArrayList<>();
+        for (DocumentRequest request : requests) {
+            events.addAll(request.getPendingEvents());
+        }
+        if (events.isEmpty()) {
+            return;
+        }
+        events.sort(Comparator.comparing(DocumentEvent::getAt, Comparator.nullsFirst(Comparator.naturalOrder())));
+        
+        // One counter round trip for the whole batch
+        Document counter = mongoTemplate.findAndModify(
+                new Query(Criteria.where("_id").is(SEQUENCE_ID)),
+                new Update().inc("value", (long) events.size()),
+                FindAndModifyOptions.options().returnNew(true).upsert(true),
+                Document.class, COUNTERS_COLLECTION);
+        long seq = ((Number) counter.get("value")).longValue() - events.size();
+        
+        Date now = new Date();
+        for (DocumentEvent event : events) {
+            event.setSeq(++seq);
+            event.setRelayedAt(now);
+        }
+        broadcast(insertInOrder(events));
+        
+        BulkOperations pulls = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, DocumentRequest.class);
+        for (DocumentRequest request : requests) {
+            List<Object> ids = new ArrayList<>();
+            request.getPendingEvents().forEach(event -> ids.addAll(eventIds(event)));
+            if (!ids.isEmpty()) {
+                pulls.updateOne(new Query(Criteria.where("_id").is(request.getId())),
+                        new Update().pull("pendingEvents", new Document("_id", new Document("$in", ids))));
+            }
+        }
+        pulls.execute();
+    }
+    
+    /**
+     * Insert events in seq order; an ordered bulk stops at its first error, so each duplicate (an event
+     * already relayed, the request having been saved back with a stale copy of its outbox) is skipped
+     * and the rest inserted by another bulk
+     * @return the events inserted
+     */
+    private List<DocumentEvent> insertInOrder(List<DocumentEvent> events) {
+        List<DocumentEvent> inserted = new ArrayList<>(events.size());
+        int from = 0;
+        while (from < events.size()) {
+            List<DocumentEvent> rest = events.subList(from, events.size());
+            try {
+                mongoTemplate.bulkOps(BulkOperations.BulkMode.ORDERED, DocumentEvent.class).insert(rest).execute();
+                inserted.addAll(rest);
+                break;
+            } catch (BulkOperationException e) {
+                BulkWriteError error = e.getErrors().get(0);
+                if (error.getCode() != DUPLICATE_KEY_CODE) {
+                    throw e;
+                }
+                inserted.addAll(rest.subList(0, error.getIndex()));
+                from += error.getIndex() + 1;
+            }
+        }
+        return inserted;
+    }
+    
+    /**
+     * Hand the events to the event streams of every node (best effort: clients that miss them resync from the feed)
+     */
+    private void broadcast(List<DocumentEvent> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+        try {
+            mongoTemplate.insert(events, DocumentEventBroadcaster.STREAM_COLLECTION);
+        } catch (Exception e) {
+            logger.warn("Could not broadcast document events {} to {}: {}", events.get(0).getSeq(),
+                    events.get(events.size() - 1).getSeq(), e.getMessage());
+        }
+    }
+    
+    /**
+     * The event ID as stored in the outbox (the mapping may have written it as an ObjectId)
+     */
+    private List<Object> eventIds(DocumentEvent event) {
+        return ObjectId.isValid(event.getId())
+                ? List.of(event.getId(), new ObjectId(event.getId()))
+                : List.of(event.getId());
+    }
+    
+    /**
+     * Take or renew the relay lease (a missing or expired lease is taken, a live one held by another instance is not)
+     */
+    private boolean acquireLease() {
+        Date now = new Date();
+        try {
+            mongoTemplate.upsert(
+                    new Query(new Criteria().andOperator(
+                            Criteria.where("_id").is(SEQUENCE_ID),
+                            new Criteria().orOperator(
+                                    Criteria.where("expiresAt").lt(now),
+                                    Criteria.where("owner").is(instanceId)))),
+                    new Update().set("owner", instanceId).set("expiresAt", new Date(now.getTime() + LEASE_MS)),
+                    LOCKS_COLLECTION);
+            return true;
+        } catch (DuplicateKeyException e) {
+            return false;
+        }
+    }
+    
+    private void releaseLease() {
+        mongoTemplate.updateFirst(
+                new Query(Criteria.where("_id").is(SEQUENCE_ID).and("owner").is(instanceId)),
+                new Update().set("expiresAt", new Date(0)),
+                LOCKS_COLLECTION);
+    }
+}
@@ -1,30 +1,97 @@
 package com.leoni.services;
 
+import com.leoni.dto.DocumentCampaignRequest;
+import com.leoni.dto.DocumentCampaignResult;
 import com.leoni.dto.DocumentRequestDTO;
+import com.leoni.dto.DocumentRequestPage;
 import com.leoni.dto.UpdateStatusRequest;
+import com.leoni.exceptions.AdminServiceException;
 import com.leoni.exceptions.DocumentRequestNotFoundException;
 import com.leoni.exceptions.InvalidStatusException;
 import com.leoni.exceptions.UserNotFoundException;
+import com.leoni.exceptions.VersionConflictException;
+import com.leoni.models.DocumentEvent;
 import com.leoni.models.DocumentRequest;
 import com.leoni.models.User;
 import com.leoni.repositories.DocumentRequestRepository;
+import com.leoni.repositories.PartialUpdateRepository;
 import com.leoni.repositories.UserRepository;
+import com.leoni.utils.TextNormalizer;
+import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.TextCriteria;
+import org.springframework.data.mongodb.core.query.TextQuery;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 @Service
 public class DocumentRequestService {
     
+    // Number of document requests inserted per insertMany during a campaign
+    private static final int CAMPAIGN_CHUNK_SIZE = 1000;
+    
+    // Attempts for a version-conditional update before reporting a conflict
+    private static final int MAX_VERSION_RETRIES = 3;
+    
+    public static final int MAX_PAGE_SIZE = 100;
+    
+    // Language of the description text index (stemming and stop words)
+    public static final String TEXT_SEARCH_LANGUAGE = "french";
+    
+    // Shorter words are not worth stemming: such queries are matched literally
+    private static final int TEXT_SEARCH_MIN_LENGTH = 3;
+    
+    // Filtered counts stop here so the first page stays cheap on a large collection
+    private static final int COUNT_CAP = 10000;
+    
     @Autowired
     private DocumentRequestRepository documentRequestRepository;
     
     @Autowired
     private UserRepository userRepository;
     
+    @Autowired
+    private UserService userService;
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    @Autowired
+    private PartialUpdateRepository partialUpdateRepository;
+    
+    @Autowired
+    private AdminSearchIndexService adminSearchIndexService;
+    
+    @Autowired
+    private DocumentRollupService documentRollupService;
+    
+    @Autowired
+    private DocumentEventService documentEventService;
+    
+    @Autowired
+    private DeletionLogService deletionLogService;
+    
     /**
      * Get all document requests
      * @return List of DocumentRequestDTO
@@ -60,6 +127,18 @@ public class DocumentRequestService {
                 .collect(Collectors.toList());
     }
     
+    /**
+     * Get the document requests of a user created or changed since a time (delta sync)
+     * @param userId the user ID
+     * @param since the earliest updatedAt
+     * @return the changed requests, newest first
+     */
+    public List<DocumentRequestDTO> getDocumentRequestsChangedSince(String userId, Date since) {
+        Query query = new Query(Criteria.where("userId").is(userId).and("updatedAt").gte(since))
+                .with(Sort.by(Sort.Direction.DESC, "createdAt"));
+        return convertToDTOs(mongoTemplate.find(query, DocumentRequest.class));
+    }
+    
     /**
      * Get document requests by status
      * @param status the status to filter by
@@ -72,6 +151,77 @@ public class DocumentRequestService {
                 .collect(Collectors.toList());
     }
     
+    /**
+     * Get one page of document requests, newest first, by keyset pagination on (createdAt, _id)
+     * Each page continues strictly after the last request of the previous one, so the cost of a page
+     * does not depend on how deep it is and requests created meanwhile do not shift the pages.
+     * @param status the current status (optional)
+     * @param documentType a document type the request must contain (optional)
+     * @param userId the owner (optional)
+     * @param from first creation day, inclusive (optional)
+     * @param to last creation day, inclusive (optional)
+     * @param cursor the nextCursor of the previous page (null for the first page)
+     * @param size the page size (capped at MAX_PAGE_SIZE)
+     * @return the page with the cursor of the next one
+     * @throws IllegalArgumentException if the cursor is malformed
+     */
+    public DocumentRequestPage getDocumentRequestPage(String status, String documentType, String userId,
+                                                      LocalDate from, LocalDate to, String cursor, int size) {
+        int pageSize = Math.max(1, Math.min(size, MAX_PAGE_SIZE));
+        
+        Criteria filter = new Criteria();
+        if (status != null && !status.isBlank()) {
+            filter.and("status.current").is(status);
+        }
+        if (documentType != null && !documentType.isBlank()) {
+            filter.and("documentTypes").is(documentType);
+        }
+        if (userId != null && !userId.isBlank()) {
+            filter.and("userId").is(userId);
+        }
+        if (from != null || to != null) {
+            Criteria createdAt = filter.and("createdAt");
+            if (from != null) {
+                createdAt.gte(Date.from(from.atStartOfDay(ZoneId.systemDefault()).toInstant()));
+            }
+            if (to != null) {
+                createdAt.lt(Date.from(to.plusDays(1).atStartOfDay(ZoneId.systemDefault()).toInstant()));
+            }
+        }
+        
+        Query query = new Query(cursor != null && !cursor.isBlank()
+                ? new Criteria().andOperator(filter, PageCursor.decode(cursor).after())
+                : filter);
+        query.with(Sort.by(Sort.Order.desc("createdAt"), Sort.Order.desc("_id")));
+        query.limit(pageSize + 1);
+        List<DocumentRequest> documents = mongoTemplate.find(query, DocumentRequest.class);
+        
+        boolean hasMore = documents.size() > pageSize;
+        if (hasMore) {
+            documents = documents.subList(0, pageSize);
+        }
+        String nextCursor = null;
+        if (hasMore) {
+            DocumentRequest last = documents.get(documents.size() - 1);
+            nextCursor = new PageCursor(last.getCreatedAt(), last.getId()).encode();
+        }
+        
+        // Totals only for the first page: the collection metadata when unfiltered, a capped count otherwise
+        Long estimatedTotal = null;
+        boolean totalCapped = false;
+        if (cursor == null || cursor.isBlank()) {
+            if (filter.getCriteriaObject().isEmpty()) {
+                estimatedTotal = mongoTemplate.estimatedCount(DocumentRequest.class);
+            } else {
+                estimatedTotal = mongoTemplate.count(new Query(filter).limit(COUNT_CAP), DocumentRequest.class);
+                totalCapped = estimatedTotal >= COUNT_CAP;
+            }
+        }
+        
+        return new DocumentRequestPage(convertToDTOs(documents), pageSize, hasMore, nextCursor,
+                estimatedTotal, totalCapped);
+    }
+    
     /**
      * Create a new document request
      * @param documentRequestDTO the document request data
@@ -80,8 +230,9 @@ public class DocumentRequestService {
      */
     public DocumentRequestDTO createDocumentRequest(DocumentRequestDTO documentRequestDTO) {
         // Verify user exists
-        User user = userRepository.findById(documentRequestDTO.getUserId())
-                .orElseThrow(() -> new UserNotFoundException(documentRequestDTO.getUserId()));
+        if (!userRepository.existsById(documentRequestDTO.getUserId())) {
+            throw new UserNotFoundException(documentRequestDTO.getUserId());
+        }
         
         DocumentRequest documentRequest = convertToEntity(documentRequestDTO);
         documentRequest.setCreatedAt(new Date());
@@ -93,44 +244,196 @@ public class DocumentRequestService {
             documentRequest.setStatus(status);
         }
         
+        // The ID is assigned here so the creation event can be stored with the request
+        documentRequest.setId(new ObjectId().toHexString());
+        documentRequest.setPendingEvents(new ArrayList<>(List.of(new DocumentEvent(DocumentEvent.CREATED,
+                documentRequest, null, documentRequest.getStatus().getCurrent()))));
         DocumentRequest savedDocumentRequest = documentRequestRepository.save(documentRequest);
         
-        // Add document reference to user
-        user.addDocumentRequest(savedDocumentRequest.getId());
-        userRepository.save(user);
+        // Add document reference to user ($push, the rest of the user document is untouched)
+        partialUpdateRepository.push(documentRequestDTO.getUserId(), "documentRequestIds",
+                savedDocumentRequest.getId(), User.class);
+        adminSearchIndexService.indexDocumentRequest(savedDocumentRequest);
+        documentEventService.relayNow();
         
         return convertToDTO(savedDocumentRequest);
     }
     
+    /**
+     * Create the same document request for every employee of a location and/or department (HR campaign)
+     * Users are resolved with one query, requests are inserted with insertMany and the
+     * request IDs are pushed onto the users with one unordered bulkWrite per chunk
+     * Only employees within the caller's scope are targeted (an admin's own location and department)
+     * @param campaignRequest the target filters and document types
+     * @param userRole the role of the requesting user (ADMIN or SUPERADMIN)
+     * @param requesterId the ID of the requesting user
+     * @return campaign summary
+     * @throws IllegalArgumentException if no target filter or document type is provided
+     * @throws AdminServiceException if the admin or their location cannot be found
+     */
+    public DocumentCampaignResult createDocumentRequestCampaign(DocumentCampaignRequest campaignRequest,
+                                                                String userRole, String requesterId) {
+        if (!campaignRequest.hasTarget()) {
+            throw new IllegalArgumentException("location ou department est requis");
+        }
+        if (campaignRequest.getDocumentTypes() == null || campaignRequest.getDocumentTypes().isEmpty()) {
+            throw new IllegalArgumentException("documentTypes est requis");
+        }
+        
+        List<String> userIds = userService.findApprovedUserIdsByLocationAndDepartment(
+                campaignRequest.getLocation(), campaignRequest.getDepartment(), userRole, requesterId);
+        
+        int created = 0;
+        for (int start = 0; start < userIds.size(); start += CAMPAIGN_CHUNK_SIZE) {
+            List<String> chunk = userIds.subList(start, Math.min(start + CAMPAIGN_CHUNK_SIZE, userIds.size()));
+            Date now = new Date();
+            
+            List<DocumentRequest> documentRequests = new ArrayList<>(chunk.size());
+            for (String userId : chunk) {
+                DocumentRequest documentRequest = new DocumentRequest();
+                documentRequest.setUserId(userId);
+                documentRequest.setDocumentTypes(campaignRequest.getDocumentTypes());
+                documentRequest.setDescription(campaignRequest.getDescription());
+                documentRequest.setStatus(new DocumentRequest.Status());
+                documentRequest.setCreatedAt(now);
+                documentRequest.setUpdatedAt(now);
+                documentRequest.setId(new ObjectId().toHexString());
+                documentRequest.setPendingEvents(new ArrayList<>(List.of(new DocumentEvent(DocumentEvent.CREATED,
+                        documentRequest, null, documentRequest.getStatus().getCurrent()))));
+                documentRequests.add(documentRequest);
+            }
+            
+            Collection<DocumentRequest> inserted = mongoTemplate.insert(documentRequests, DocumentRequest.class);
+            
+            // Add document references to users
+            BulkOperations userUpdates = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, User.class);
+            for (DocumentRequest documentRequest : inserted) {
+                userUpdates.updateOne(
+                        new Query(Criteria.where("_id").is(documentRequest.getUserId())),
+                        new Update().push("documentRequestIds", documentRequest.getId()).inc("version", 1));
+            }
+            userUpdates.execute();
+            inserted.forEach(adminSearchIndexService::indexDocumentRequest);
+            
+            created += inserted.size();
+        }
+        documentEventService.relayNow();
+        
+        return new DocumentCampaignResult(
+                campaignRequest.getLocation(),
+                campaignRequest.getDepartment(),
+                campaignRequest.getDocumentTypes(),
+                userIds.size(),
+                created);
+    }
+    
     /**
      * Update document request status
+     * The transition is validated against the version that was read and written conditionally on it;
+     * on a concurrent change the request is re-read and re-validated (up to MAX_VERSION_RETRIES attempts)
      * @param updateStatusRequest the status update request
      * @return updated DocumentRequestDTO
      * @throws DocumentRequestNotFoundException if document request not found
      * @throws InvalidStatusException if status transition is invalid
+     * @throws VersionConflictException if the document request was modified concurrently
      */
     public DocumentRequestDTO updateDocumentStatus(UpdateStatusRequest updateStatusRequest) {
-        DocumentRequest documentRequest = documentRequestRepository.findById(updateStatusRequest.getDocumentId())
-                .orElseThrow(() -> new DocumentRequestNotFoundException(updateStatusRequest.getDocumentId()));
-        
-        String currentStatus = documentRequest.getStatus().getCurrent();
-        String newStatus = updateStatusRequest.getNewStatus();
-        
-        // Validate status transition
-        if (!isValidStatusTransition(currentStatus, newStatus)) {
-            throw InvalidStatusException.invalidTransition(currentStatus, newStatus);
+        return convertToDTO(writeStatus(updateStatusRequest.getDocumentId(), updateStatusRequest.getVersion(),
+                updateStatusRequest.getNewStatus(), updateStatusRequest.getComment(), true));
+    }
+    
+    /**
+     * Set the status of a document request from the admin panel shortcuts
+     * Any of the four statuses may be set, whatever the current one; the change is logged like any other
+     * @param id the document request ID
+     * @param newStatus the new status
+     * @return the updated document request
+     * @throws DocumentRequestNotFoundException if document request not found
+     * @throws InvalidStatusException if the status is not one of the four statuses
+     * @throws VersionConflictException if the document request kept being modified concurrently
+     */
+    public DocumentRequest setDocumentStatus(String id, String newStatus) {
+        if (!new UpdateStatusRequest(id, newStatus).isValidStatus()) {
+            throw InvalidStatusException.invalidStatus(newStatus);
         }
+        return writeStatus(id, null, newStatus, null, false);
+    }
+    
+    /**
+     * Write a status change and its event in one conditional update
+     * The change is validated against the version that was read and written conditionally on it;
+     * on a concurrent change the request is re-read and re-validated (up to MAX_VERSION_RETRIES attempts)
+     */
+    private DocumentRequest writeStatus(String id, Long expectedVersion, String newStatus, String comment,
+                                        boolean checkTransition) {
+        for (int attempt = 1; ; attempt++) {
+            DocumentRequest documentRequest = documentRequestRepository.findById(id)
+                    .orElseThrow(() -> new DocumentRequestNotFoundException(id));
+            checkExpectedVersion(documentRequest, expectedVersion);
+            
+            String currentStatus = documentRequest.getStatus().getCurrent();
+            
+            // Validate status transition
+            if (checkTransition && !isValidStatusTransition(currentStatus, newStatus)) {
+                throw InvalidStatusException.invalidTransition(currentStatus, newStatus);
+            }
+            
+            // Update status
+            documentRequest.getStatus().setCurrent(newStatus);
+            
+            // Update progress steps
+            updateProgressSteps(documentRequest, newStatus);
+            
+            // The event is pushed onto the outbox in the same update as the change
+            DocumentEvent event = new DocumentEvent(DocumentEvent.STATUS_CHANGED, documentRequest, currentStatus, newStatus);
+            event.setComment(comment);
+            Update update = new Update()
+                    .set("status", documentRequest.getStatus())
+                    .push("pendingEvents", event);
+            DocumentRequest savedDocumentRequest = partialUpdateRepository.update(id,
+                    Criteria.where("version").is(documentRequest.getVersion()), update, DocumentRequest.class);
+            if (savedDocumentRequest != null) {
+                adminSearchIndexService.indexDocumentRequest(savedDocumentRequest);
+                documentEventService.relayNow();
+                return savedDocumentRequest;
+            }
+            if (attempt >= MAX_VERSION_RETRIES) {
+                throw new VersionConflictException("Demande de document", id);
+            }
+        }
+    }
+    
+    /**
+     * Update the document types and description of a document request
+     * Written conditionally on the version that was read, with the same retry policy as status updates
+     * @param id the document request ID
+     * @param documentTypes the new document types
+     * @param description the new description
+     * @param expectedVersion the version the client edited (optional)
+     * @return the updated document request
+     * @throws DocumentRequestNotFoundException if document request not found
+     * @throws VersionConflictException if the document request was modified concurrently
+     */
+    public DocumentRequest updateDocumentDetails(String id, List<String> documentTypes, String description, Long expectedVersion) {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("documentTypes", documentTypes);
+        fields.put("description", description);
         
-        // Update status
-        documentRequest.getStatus().setCurrent(newStatus);
-        
-        // Update progress steps
-        updateProgressSteps(documentRequest, newStatus);
-        
-        documentRequest.setUpdatedAt(new Date());
-        
-        DocumentRequest savedDocumentRequest = documentRequestRepository.save(documentRequest);
-        return convertToDTO(savedDocumentRequest);
+        for (int attempt = 1; ; attempt++) {
+            DocumentRequest documentRequest = documentRequestRepository.findById(id)
+                    .orElseThrow(() -> new DocumentRequestNotFoundException(id));
+            checkExpectedVersion(documentRequest, expectedVersion);
+            
+            DocumentRequest savedDocumentRequest = partialUpdateRepository.setFieldsIfVersion(id,
+                    documentRequest.getVersion(), fields, DocumentRequest.class);
+            if (savedDocumentRequest != null) {
+                adminSearchIndexService.indexDocumentRequest(savedDocumentRequest);
+                return savedDocumentRequest;
+            }
+            if (attempt >= MAX_VERSION_RETRIES) {
+                throw new VersionConflictException("Demande de document", id);
+            }
+        }
     }
     
     /**
@@ -143,13 +446,14 @@ public class DocumentRequestService {
                 .orElseThrow(() -> new DocumentRequestNotFoundException(id));
         
         // Remove reference from user
-        User user = userRepository.findById(documentRequest.getUserId()).orElse(null);
-        if (user != null && user.getDocumentRequestIds() != null) {
-            user.getDocumentRequestIds().remove(id);
-            userRepository.save(user);
+        if (documentRequest.getUserId() != null) {
+            partialUpdateRepository.pull(documentRequest.getUserId(), "documentRequestIds", id, User.class);
         }
         
+        documentRollupService.markDirty(documentRequest);
         documentRequestRepository.deleteById(id);
+        adminSearchIndexService.remove(AdminSearchIndexService.DOCUMENT, id);
+        deletionLogService.record(DeletionLogService.DOCUMENT_REQUESTS, id, documentRequest.getUserId());
     }
     
     /**
@@ -163,14 +467,32 @@ public class DocumentRequestService {
     
     /**
      * Search document requests by description
+     * Queries with a word of at least TEXT_SEARCH_MIN_LENGTH characters use the French text index
+     * (stemmed words, sorted by relevance); shorter queries such as "CV" are matched literally,
+     * escaped, newest first.
      * @param searchTerm the search term
+     * @param page the page number (0-based)
+     * @param size the page size (capped at MAX_PAGE_SIZE)
      * @return List of matching DocumentRequestDTO
      */
-    public List<DocumentRequestDTO> searchDocumentRequestsByDescription(String searchTerm) {
-        return documentRequestRepository.searchByDescription(searchTerm)
-                .stream()
-                .map(this::convertToDTO)
-                .collect(Collectors.toList());
+    public List<DocumentRequestDTO> searchDocumentRequestsByDescription(String searchTerm, int page, int size) {
+        if (searchTerm == null || searchTerm.isBlank()) {
+            return List.of();
+        }
+        Pageable pageable = PageRequest.of(Math.max(page, 0), Math.max(1, Math.min(size, MAX_PAGE_SIZE)));
+        
+        Query query;
+        boolean hasLongWord = TextNormalizer.tokens(searchTerm).stream()
+                .anyMatch(token -> token.length() >= TEXT_SEARCH_MIN_LENGTH);
+        if (hasLongWord) {
+            query = TextQuery.queryText(TextCriteria.forLanguage(TEXT_SEARCH_LANGUAGE).matching(searchTerm))
+                    .sortByScore();
+        } else {
+            query = new Query(Criteria.where("description").regex(Pattern.quote(searchTerm.trim()), "i"))
+                    .with(Sort.by(Sort.Order.desc("createdAt"), Sort.Order.desc("_id")));
+        }
+        query.with(pageable);
+        return convertToDTOs(mongoTemplate.find(query, DocumentRequest.class));
     }
     
     /**
@@ -185,6 +507,19 @@ public class DocumentRequestService {
                 .collect(Collectors.toList());
     }
     
+    /**
+     * Reject the update if the client edited a version that is no longer current
+     * @param documentRequest the document request as currently stored
+     * @param expectedVersion the version the client read (optional)
+     * @throws VersionConflictException if the versions differ
+     */
+    private void checkExpectedVersion(DocumentRequest documentRequest, Long expectedVersion) {
+        if (expectedVersion != null && !expectedVersion.equals(documentRequest.getVersion())) {
+            throw new VersionConflictException("Demande de document", documentRequest.getId(),
+                    expectedVersion, documentRequest.getVersion());
+        }
+    }
+    
     /**
      * Validate status transition
      * @param currentStatus the current status
@@ -223,12 +558,82 @@ public class DocumentRequestService {
         }
     }
     
+    /**
+     * Position after the last request of a page, sent to the client as an opaque token
+     */
+    record PageCursor(Date createdAt, String id) {
+        
+        /**
+         * The requests sorted after this position (requests without a creation date sort last)
+         */
+        Criteria after() {
+            if (createdAt == null) {
+                return Criteria.where("createdAt").is(null).and("_id").lt(id);
+            }
+            return new Criteria().orOperator(
+                    Criteria.where("createdAt").lt(createdAt),
+                    Criteria.where("createdAt").is(createdAt).and("_id").lt(id),
+                    Criteria.where("createdAt").is(null));
+        }
+        
+        String encode() {
+            String value = (createdAt != null ? createdAt.getTime() : "") + ":" + id;
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+        }
+        
+        static PageCursor decode(String token) {
+            try {
+                String value = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+                int separator = value.indexOf(':');
+                String millis = value.substring(0, separator);
+                return new PageCursor(millis.isEmpty() ? null : new Date(Long.parseLong(millis)),
+                        value.substring(separator + 1));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Curseur de pagination invalide");
+            }
+        }
+    }
+    
+    /**
+     * Convert a page of document requests, loading the display fields of their owners with one query
+     * @param documentRequests the document requests
+     * @return the DTOs, in the same order
+     */
+    private List<DocumentRequestDTO> convertToDTOs(List<DocumentRequest> documentRequests) {
+        List<String> userIds = documentRequests.stream()
+                .map(DocumentRequest::getUserId)
+                .filter(Objects::nonNull)
+                .distinct()
+                .collect(Collectors.toList());
+        Query query = new Query(Criteria.where("_id").in(userIds));
+        query.fields().include("firstName", "lastName", "adresse1", "employeeId");
+        Map<String, User> users = mongoTemplate.find(query, User.class).stream()
+                .collect(Collectors.toMap(User::getId, user -> user));
+        
+        return documentRequests.stream()
+                .map(documentRequest -> convertToDTO(documentRequest, users.get(documentRequest.getUserId())))
+                .collect(Collectors.toList());
+    }
+    
     /**
      * Convert DocumentRequest entity to DocumentRequestDTO
      * @param documentRequest the DocumentRequest entity
      * @return DocumentRequestDTO
      */
     private DocumentRequestDTO convertToDTO(DocumentRequest documentRequest) {
+        User user = documentRequest.getUserId() != null
+                ? userRepository.findById(documentRequest.getUserId()).orElse(null)
+                : null;
+        return convertToDTO(documentRequest, user);
+    }
+    
+    /**
+     * Convert DocumentRequest entity to DocumentRequestDTO with an already loaded owner
+     * @param documentRequest the DocumentRequest entity
+     * @param user the owner (null if unknown)
+     * @return DocumentRequestDTO
+     */
+    private DocumentRequestDTO convertToDTO(DocumentRequest documentRequest, User user) {
         DocumentRequestDTO dto = new DocumentRequestDTO();
         dto.setId(documentRequest.getId());
         dto.setUserId(documentRequest.getUserId());
@@ -236,6 +641,8 @@ public class DocumentRequestService {
         dto.setDescription(documentRequest.getDescription());
         dto.setCreatedAt(documentRequest.getCreatedAt());
         dto.setUpdatedAt(documentRequest.getUpdatedAt());
+        dto.setVersion(documentRequest.getVersion());
+        dto.setEscalationLevel(documentRequest.getEscalationLevel());
         
         // Convert status
         if (documentRequest.getStatus() != null) {
@@ -253,7 +660,6 @@ public class DocumentRequestService {
         }
         
         // Add user information for display
-        User user = userRepository.findById(documentRequest.getUserId()).orElse(null);
         if (user != null) {
             dto.setUserFullName(user.getFirstName() + " " + user.getLastName());
             dto.setUserEmail(user.getAdresse1() != null ? user.getAdresse1() : ""); // Use primary email
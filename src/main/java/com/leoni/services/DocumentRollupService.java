@@ -0,0 +1,628 @@
+package com.leoni.services;
+
+import com.leoni.dto.TrendPoint;
+import com.leoni.dto.TurnaroundStats;
+import com.leoni.exceptions.AdminServiceException;
+import com.leoni.models.Admin;
+import com.leoni.models.DocumentRequest;
+import com.leoni.models.DocumentRollup;
+import com.leoni.models.User;
+import com.leoni.repositories.AdminRepository;
+import com.leoni.utils.DurationHistogram;
+import com.leoni.utils.TextNormalizer;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Daily rollups of document requests for the HR trend charts
+ * A scheduled job recomputes the days touched by the requests changed since its last run (the watermark)
+ * into one document_rollups document per day, holding the created, accepted and refused counts per owner
+ * location, department and document type, and histograms of the durations of the requests decided that day.
+ * Trend and turnaround queries read one small document per day of the range and regroup them in memory
+ * instead of scanning the requests.
+ */
+@Service
+public class DocumentRollupService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(DocumentRollupService.class);
+    
+    // Day boundaries of the rollups (same zone as the JSON dates)
+    public static final ZoneId ZONE = ZoneId.of("Europe/Paris");
+    
+    public static final String DAY = "DAY";
+    public static final String WEEK = "WEEK";
+    public static final String MONTH = "MONTH";
+    
+    public static final String BY_LOCATION = "location";
+    public static final String BY_DEPARTMENT = "department";
+    public static final String BY_TYPE = "type";
+    
+    private static final String IN_PROGRESS = "en cours";
+    private static final String ACCEPTED = "accepté";
+    private static final String REFUSED = "refusé";
+    
+    private static final String REQUESTS_COLLECTION = "document_requests";
+    
+    // Watermark of the job and days to recompute after a deletion
+    private static final String STATE_COLLECTION = "rollup_state";
+    private static final String STATE_ID = "document_rollups";
+    
+    // Version of the rollup layout: the history is rolled up again when it changes
+    private static final int ROLLUP_FORMAT = 2;
+    
+    // Changes are re-read with this overlap so a write committed during the previous run is not missed
+    private static final long WATERMARK_OVERLAP_MS = 60 * 1000;
+    
+    // Contiguous dirty days recomputed with the same queries
+    private static final int MAX_RANGE_DAYS = 31;
+    
+    // Longest range a trend query may cover
+    private static final int MAX_TREND_DAYS = 3 * 366;
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    @Autowired
+    private AdminRepository adminRepository;
+    
+    private final AtomicBoolean running = new AtomicBoolean();
+    
+    /**
+     * Counts of one owner and document type on one day
+     */
+    private record CountKey(String userId, String documentType) {
+    }
+    
+    /**
+     * Roll up the days touched by the requests created or changed since the watermark
+     * The first run (no watermark, or rollups of an older format) rolls up the whole history. Recomputing a day is idempotent,
+     * so overlapping runs on several instances only cost time.
+     */
+    @Scheduled(initialDelayString = "${app.analytics.rollup-initial-delay-ms:60000}",
+            fixedDelayString = "${app.analytics.rollup-interval-ms:300000}")
+    public void refresh() {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            rollUpChanges();
+        } catch (Exception e) {
+            logger.error("Could not refresh document rollups: {}", e.getMessage());
+        } finally {
+            running.set(false);
+        }
+    }
+    
+    /**
+     * Forget the watermark and roll up the whole history again
+     * @return false if a refresh is already running on this instance (nothing is done)
+     */
+    public boolean rebuild() {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        try {
+            mongoTemplate.remove(new Query(Criteria.where("_id").is(STATE_ID)), STATE_COLLECTION);
+            rollUpChanges();
+            return true;
+        } finally {
+            running.set(false);
+        }
+    }
+    
+    /**
+     * One refresh pass (the caller holds the running flag)
+     */
+    private void rollUpChanges() {
+        long start = System.currentTimeMillis();
+        Document state = mongoTemplate.findById(STATE_ID, Document.class, STATE_COLLECTION);
+        Date watermark = state != null && Objects.equals(state.get("format"), ROLLUP_FORMAT)
+                ? state.getDate("watermark")
+                : null;
+        List<String> markedDays = state != null && state.get("dirtyDays") != null
+                ? state.getList("dirtyDays", String.class)
+                : List.of();
+        
+        TreeSet<LocalDate> days = new TreeSet<>();
+        markedDays.forEach(day -> days.add(LocalDate.parse(day)));
+        Query changed = watermark != null
+                ? new Query(Criteria.where("updatedAt").gte(new Date(watermark.getTime() - WATERMARK_OVERLAP_MS)))
+                : new Query();
+        changed.fields().include("createdAt", "status.progress");
+        try (Stream<Document> requests = mongoTemplate.stream(changed, Document.class, REQUESTS_COLLECTION)) {
+            requests.forEach(request -> days.addAll(daysOf(request)));
+        }
+        
+        for (List<LocalDate> range : contiguousRanges(days)) {
+            recompute(range);
+        }
+        
+        Update update = new Update().set("watermark", new Date(start)).set("format", ROLLUP_FORMAT);
+        if (!markedDays.isEmpty()) {
+            update.pullAll("dirtyDays", markedDays.toArray());
+        }
+        mongoTemplate.upsert(new Query(Criteria.where("_id").is(STATE_ID)), update, STATE_COLLECTION);
+        
+        if (!days.isEmpty()) {
+            logger.info("Document rollups refreshed: {} days in {} ms", days.size(), System.currentTimeMillis() - start);
+        }
+    }
+    
+    /**
+     * Have the next run recompute the days a request counted in (call before deleting it,
+     * deleted requests are not seen by the watermark query)
+     * @param documentRequest the request about to be deleted
+     */
+    public void markDirty(DocumentRequest documentRequest) {
+        if (documentRequest == null) {
+            return;
+        }
+        List<Object> days = new ArrayList<>();
+        if (documentRequest.getCreatedAt() != null) {
+            days.add(dayOf(documentRequest.getCreatedAt()).toString());
+        }
+        if (documentRequest.getStatus() != null && documentRequest.getStatus().getProgress() != null) {
+            for (DocumentRequest.ProgressStep step : documentRequest.getStatus().getProgress()) {
+                if (isDecision(step.getStep()) && step.isCompleted() && step.getDate() != null) {
+                    days.add(dayOf(step.getDate()).toString());
+                }
+            }
+        }
+        if (!days.isEmpty()) {
+            mongoTemplate.upsert(new Query(Criteria.where("_id").is(STATE_ID)),
+                    new Update().addToSet("dirtyDays").each(days.toArray()), STATE_COLLECTION);
+        }
+    }
+    
+    /**
+     * Trend of document requests over a date range
+     * With a type filter or grouping, a request with several document types counts once per type.
+     * Admins only see the requests of their own location (and department when they have one).
+     * @param userRole the caller's role
+     * @param userId the caller's ID
+     * @param from first day, inclusive
+     * @param to last day, inclusive
+     * @param granularity DAY, WEEK (starting on Monday) or MONTH
+     * @param groupBy location, department or type (optional)
+     * @param location only this owner location (optional)
+     * @param department only this owner department (optional)
+     * @param documentType only this document type (optional)
+     * @return the points, by period then group, and the time the rollups were last refreshed
+     * @throws IllegalArgumentException if a parameter is invalid
+     * @throws AdminServiceException if the admin is unknown or has no location
+     */
+    public Map<String, Object> getTrends(String userRole, String userId, LocalDate from, LocalDate to,
+                                         String granularity, String groupBy,
+                                         String location, String department, String documentType) {
+        String period = granularity != null ? granularity.toUpperCase() : DAY;
+        if (!List.of(DAY, WEEK, MONTH).contains(period)) {
+            throw new IllegalArgumentException("Granularité invalide: " + granularity);
+        }
+        validateRange(from, to, groupBy);
+        
+        EntryFilter filter = entryFilter(userRole, userId, location, department, documentType, groupBy);
+        boolean filtered = filter.isFiltered() || groupBy != null;
+        
+        Query query = new Query(Criteria.where("day").gte(toDate(from)).lt(toDate(to.plusDays(1))))
+                .with(Sort.by("day"));
+        Map<List<String>, TrendPoint> points = new HashMap<>();
+        for (DocumentRollup rollup : mongoTemplate.find(query, DocumentRollup.class)) {
+            String periodStart = periodStart(LocalDate.parse(rollup.getId()), period).toString();
+            if (!filtered) {
+                add(points, periodStart, null, rollup.getCreated(), rollup.getAccepted(), rollup.getRefused());
+                continue;
+            }
+            for (DocumentRollup.Entry entry : rollup.getEntries()) {
+                if (filter.accepts(entry)) {
+                    add(points, periodStart, groupOf(entry, groupBy), entry.getCreated(), entry.getAccepted(), entry.getRefused());
+                }
+            }
+        }
+        
+        List<TrendPoint> sorted = new ArrayList<>(points.values());
+        sorted.sort(Comparator.comparing(TrendPoint::getPeriod)
+                .thenComparing(TrendPoint::getGroup, Comparator.nullsFirst(String.CASE_INSENSITIVE_ORDER)));
+        
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("from", from.toString());
+        result.put("to", to.toString());
+        result.put("granularity", period);
+        result.put("groupBy", groupBy);
+        result.put("points", sorted);
+        result.put("refreshedAt", refreshedAt());
+        return result;
+    }
+    
+    /**
+     * Time-in-status and turnaround percentiles of the requests decided (accepted or refused) over a date range
+     * Durations are kept as log-scale histograms in the daily rollups, so the percentiles of any range
+     * and grouping are merged from the rollups without reading the requests (estimates within about 12%).
+     * Groups are sorted slowest first (turnaround p90) to show the bottlenecks.
+     * @param userRole the caller's role
+     * @param userId the caller's ID
+     * @param from first decision day, inclusive
+     * @param to last decision day, inclusive
+     * @param groupBy location, department or type (optional)
+     * @param location only this owner location (optional)
+     * @param department only this owner department (optional)
+     * @param documentType only this document type (optional)
+     * @return the statistics per group and the time the rollups were last refreshed
+     * @throws IllegalArgumentException if a parameter is invalid
+     * @throws AdminServiceException if the admin is unknown or has no location
+     */
+    public Map<String, Object> getTurnaround(String userRole, String userId, LocalDate from, LocalDate to,
+                                             String groupBy, String location, String department, String documentType) {
+        validateRange(from, to, groupBy);
+        EntryFilter filter = entryFilter(userRole, userId, location, department, documentType, groupBy);
+        
+        // Group -> merged pending, in progress and turnaround histograms
+        Map<String, long[][]> histograms = new HashMap<>();
+        Map<String, Long> decided = new HashMap<>();
+        Query query = new Query(Criteria.where("day").gte(toDate(from)).lt(toDate(to.plusDays(1))));
+        for (DocumentRollup rollup : mongoTemplate.find(query, DocumentRollup.class)) {
+            for (DocumentRollup.Entry entry : rollup.getEntries()) {
+                if (!filter.accepts(entry) || entry.getTurnaroundHistogram() == null) {
+                    continue;
+                }
+                String group = groupOf(entry, groupBy);
+                long[][] merged = histograms.computeIfAbsent(group,
+                        key -> new long[3][DurationHistogram.BUCKETS]);
+                DurationHistogram.mergeInto(merged[0], entry.getPendingHistogram());
+                DurationHistogram.mergeInto(merged[1], entry.getInProgressHistogram());
+                DurationHistogram.mergeInto(merged[2], entry.getTurnaroundHistogram());
+                decided.merge(group, entry.getAccepted() + entry.getRefused(), Long::sum);
+            }
+        }
+        
+        List<TurnaroundStats> stats = new ArrayList<>();
+        histograms.forEach((group, merged) -> stats.add(new TurnaroundStats(group, decided.get(group),
+                percentiles(merged[0]), percentiles(merged[1]), percentiles(merged[2]))));
+        stats.sort(Comparator.comparing((TurnaroundStats item) -> item.getTurnaround().getP90Hours(),
+                Comparator.nullsLast(Comparator.reverseOrder())));
+        
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("from", from.toString());
+        result.put("to", to.toString());
+        result.put("groupBy", groupBy);
+        result.put("groups", stats);
+        result.put("refreshedAt", refreshedAt());
+        return result;
+    }
+    
+    private TurnaroundStats.Percentiles percentiles(long[] merged) {
+        return new TurnaroundStats.Percentiles(DurationHistogram.count(merged),
+                hours(DurationHistogram.percentile(merged, 0.5)),
+                hours(DurationHistogram.percentile(merged, 0.9)),
+                hours(DurationHistogram.percentile(merged, 0.99)));
+    }
+    
+    private Double hours(Long millis) {
+        return millis != null ? Math.round(millis / 36000.0) / 100.0 : null;
+    }
+    
+    private Date refreshedAt() {
+        Document state = mongoTemplate.findById(STATE_ID, Document.class, STATE_COLLECTION);
+        return state != null ? state.getDate("watermark") : null;
+    }
+    
+    private void validateRange(LocalDate from, LocalDate to, String groupBy) {
+        if (groupBy != null && !List.of(BY_LOCATION, BY_DEPARTMENT, BY_TYPE).contains(groupBy)) {
+            throw new IllegalArgumentException("Regroupement invalide: " + groupBy);
+        }
+        if (from == null || to == null || to.isBefore(from)) {
+            throw new IllegalArgumentException("Période invalide");
+        }
+        if (ChronoUnit.DAYS.between(from, to) >= MAX_TREND_DAYS) {
+            throw new IllegalArgumentException("Période trop longue (maximum " + MAX_TREND_DAYS + " jours)");
+        }
+    }
+    
+    /**
+     * Which rollup entries a query reads
+     * Untyped entries count each request once; typed entries (once per type) are read instead
+     * when the query filters or groups by document type.
+     */
+    private record EntryFilter(String locationKey, String departmentKey, String documentType, boolean byType) {
+        
+        boolean isFiltered() {
+            return locationKey != null || departmentKey != null || byType;
+        }
+        
+        boolean accepts(DocumentRollup.Entry entry) {
+            return byType != (entry.getDocumentType() == null)
+                    && (locationKey == null || locationKey.equals(entry.getLocationKey()))
+                    && (departmentKey == null || departmentKey.equals(entry.getDepartmentKey()))
+                    && (documentType == null || documentType.equalsIgnoreCase(entry.getDocumentType()));
+        }
+    }
+    
+    /**
+     * Build the entry filter; admins are limited to their own location (and department when they have one)
+     */
+    private EntryFilter entryFilter(String userRole, String userId, String location, String department,
+                                    String documentType, String groupBy) {
+        if (!"SUPERADMIN".equals(userRole)) {
+            Admin admin = adminRepository.findById(userId)
+                    .orElseThrow(() -> new AdminServiceException("Admin non trouvé avec l'ID: " + userId, "ADMIN_NOT_FOUND"));
+            if (!TextNormalizer.hasKey(admin.getLocation())) {
+                throw new AdminServiceException("Aucune location assignée à l'admin: " + admin.getUsername(), "ADMIN_SCOPE_MISSING");
+            }
+            location = admin.getLocation();
+            if (TextNormalizer.hasKey(admin.getDepartment())) {
+                department = admin.getDepartment();
+            }
+        }
+        String typeFilter = TextNormalizer.hasKey(documentType) ? documentType.trim() : null;
+        return new EntryFilter(TextNormalizer.key(location), TextNormalizer.key(department), typeFilter,
+                typeFilter != null || BY_TYPE.equals(groupBy));
+    }
+    
+    private String groupOf(DocumentRollup.Entry entry, String groupBy) {
+        if (groupBy == null) {
+            return null;
+        }
+        return BY_LOCATION.equals(groupBy) ? entry.getLocation()
+                : BY_DEPARTMENT.equals(groupBy) ? entry.getDepartment()
+                : entry.getDocumentType();
+    }
+    
+    private void add(Map<List<String>, TrendPoint> points, String period, String group,
+                     long created, long accepted, long refused) {
+        TrendPoint point = points.computeIfAbsent(Stream.of(period, group).collect(Collectors.toList()),
+                key -> new TrendPoint(period, group, 0, 0, 0));
+        point.setCreated(point.getCreated() + created);
+        point.setAccepted(point.getAccepted() + accepted);
+        point.setRefused(point.getRefused() + refused);
+    }
+    
+    /**
+     * Recompute the rollups of contiguous days from the requests created or decided on them
+     */
+    private void recompute(List<LocalDate> range) {
+        Date from = toDate(range.get(0));
+        Date to = toDate(range.get(range.size() - 1).plusDays(1));
+        
+        // Day -> (owner, type) -> counts and durations; a null type counts the request once
+        Map<LocalDate, Map<CountKey, DocumentRollup.Entry>> counts = new TreeMap<>();
+        Set<String> userIds = new TreeSet<>();
+        
+        Query created = new Query(Criteria.where("createdAt").gte(from).lt(to));
+        created.fields().include("userId", "documentTypes", "documentType", "createdAt");
+        try (Stream<Document> requests = mongoTemplate.stream(created, Document.class, REQUESTS_COLLECTION)) {
+            requests.forEach(request -> count(counts, userIds, request, dayOf(request.getDate("createdAt")),
+                    entry -> entry.setCreated(entry.getCreated() + 1)));
+        }
+        
+        Query decided = new Query(Criteria.where("status.progress").elemMatch(Criteria.where("step").in(ACCEPTED, REFUSED)
+                .and("completed").is(true)
+                .and("date").gte(from).lt(to)));
+        decided.fields().include("userId", "documentTypes", "documentType", "createdAt", "status.progress");
+        try (Stream<Document> requests = mongoTemplate.stream(decided, Document.class, REQUESTS_COLLECTION)) {
+            requests.forEach(request -> {
+                Date createdAt = request.getDate("createdAt");
+                Date inProgressAt = null;
+                for (Document step : progressOf(request)) {
+                    if (IN_PROGRESS.equals(step.getString("step")) && Boolean.TRUE.equals(step.getBoolean("completed"))) {
+                        inProgressAt = step.getDate("date");
+                    }
+                }
+                for (Document step : progressOf(request)) {
+                    Date decidedAt = step.getDate("date");
+                    if (!isDecision(step.getString("step")) || !Boolean.TRUE.equals(step.getBoolean("completed"))
+                            || decidedAt == null || decidedAt.before(from) || !decidedAt.before(to)) {
+                        continue;
+                    }
+                    boolean accepted = ACCEPTED.equals(step.getString("step"));
+                    Date startedAt = inProgressAt;
+                    count(counts, userIds, request, dayOf(decidedAt), entry -> {
+                        if (accepted) {
+                            entry.setAccepted(entry.getAccepted() + 1);
+                        } else {
+                            entry.setRefused(entry.getRefused() + 1);
+                        }
+                        recordDurations(entry, createdAt, startedAt, decidedAt);
+                    });
+                }
+            });
+        }
+        
+        Query owners = new Query(Criteria.where("_id").in(userIds));
+        owners.fields().include("effectiveLocation", "effectiveDepartment");
+        Map<String, User> users = mongoTemplate.find(owners, User.class).stream()
+                .collect(Collectors.toMap(User::getId, Function.identity()));
+        
+        Date builtAt = new Date();
+        List<String> emptyDays = new ArrayList<>();
+        for (LocalDate day : range) {
+            Map<CountKey, DocumentRollup.Entry> dayCounts = counts.get(day);
+            if (dayCounts == null) {
+                emptyDays.add(day.toString());
+                continue;
+            }
+            
+            DocumentRollup rollup = new DocumentRollup();
+            rollup.setId(day.toString());
+            rollup.setDay(toDate(day));
+            rollup.setBuiltAt(builtAt);
+            Map<List<String>, DocumentRollup.Entry> entries = new LinkedHashMap<>();
+            dayCounts.forEach((key, values) -> {
+                User user = users.get(key.userId());
+                String location = user != null ? user.getEffectiveLocation() : null;
+                String department = user != null ? user.getEffectiveDepartment() : null;
+                DocumentRollup.Entry entry = entries.computeIfAbsent(
+                        Stream.of(TextNormalizer.key(location), TextNormalizer.key(department), key.documentType())
+                                .collect(Collectors.toList()),
+                        entryKey -> {
+                            DocumentRollup.Entry newEntry = new DocumentRollup.Entry();
+                            newEntry.setLocation(location);
+                            newEntry.setDepartment(department);
+                            newEntry.setLocationKey(entryKey.get(0));
+                            newEntry.setDepartmentKey(entryKey.get(1));
+                            newEntry.setDocumentType(key.documentType());
+                            return newEntry;
+                        });
+                entry.setCreated(entry.getCreated() + values.getCreated());
+                entry.setAccepted(entry.getAccepted() + values.getAccepted());
+                entry.setRefused(entry.getRefused() + values.getRefused());
+                entry.setPendingHistogram(DurationHistogram.merge(entry.getPendingHistogram(), values.getPendingHistogram()));
+                entry.setInProgressHistogram(DurationHistogram.merge(entry.getInProgressHistogram(), values.getInProgressHistogram()));
+                entry.setTurnaroundHistogram(DurationHistogram.merge(entry.getTurnaroundHistogram(), values.getTurnaroundHistogram()));
+                if (key.documentType() == null) {
+                    rollup.setCreated(rollup.getCreated() + values.getCreated());
+                    rollup.setAccepted(rollup.getAccepted() + values.getAccepted());
+                    rollup.setRefused(rollup.getRefused() + values.getRefused());
+                }
+            });
+            rollup.setEntries(new ArrayList<>(entries.values()));
+            mongoTemplate.save(rollup);
+        }
+        if (!emptyDays.isEmpty()) {
+            mongoTemplate.remove(new Query(Criteria.where("_id").in(emptyDays)), DocumentRollup.class);
+        }
+    }
+    
+    /**
+     * Apply a change to the counts of a request: once untyped and once per document type
+     */
+    private void count(Map<LocalDate, Map<CountKey, DocumentRollup.Entry>> counts, Set<String> userIds,
+                       Document request, LocalDate day, Consumer<DocumentRollup.Entry> change) {
+        String userId = request.getString("userId");
+        if (userId != null) {
+            userIds.add(userId);
+        }
+        Map<CountKey, DocumentRollup.Entry> dayCounts = counts.computeIfAbsent(day, key -> new HashMap<>());
+        change.accept(dayCounts.computeIfAbsent(new CountKey(userId, null), key -> new DocumentRollup.Entry()));
+        for (String documentType : documentTypesOf(request)) {
+            change.accept(dayCounts.computeIfAbsent(new CountKey(userId, documentType), key -> new DocumentRollup.Entry()));
+        }
+    }
+    
+    /**
+     * Record the time in each status of a decided request ("en attente" starts at creation)
+     */
+    private void recordDurations(DocumentRollup.Entry entry, Date createdAt, Date inProgressAt, Date decidedAt) {
+        if (createdAt == null) {
+            return;
+        }
+        boolean wasInProgress = inProgressAt != null && !inProgressAt.after(decidedAt);
+        Date pendingEnd = wasInProgress ? inProgressAt : decidedAt;
+        entry.setPendingHistogram(DurationHistogram.record(entry.getPendingHistogram(),
+                pendingEnd.getTime() - createdAt.getTime()));
+        if (wasInProgress) {
+            entry.setInProgressHistogram(DurationHistogram.record(entry.getInProgressHistogram(),
+                    decidedAt.getTime() - inProgressAt.getTime()));
+        }
+        entry.setTurnaroundHistogram(DurationHistogram.record(entry.getTurnaroundHistogram(),
+                decidedAt.getTime() - createdAt.getTime()));
+    }
+    
+    /**
+     * Same fallbacks as DocumentRequest.getEffectiveDocumentTypes()
+     */
+    private List<String> documentTypesOf(Document request) {
+        List<String> documentTypes = request.get("documentTypes") != null
+                ? request.getList("documentTypes", String.class)
+                : List.of();
+        if (!documentTypes.isEmpty()) {
+            return documentTypes.stream().filter(Objects::nonNull).distinct().collect(Collectors.toList());
+        }
+        String documentType = request.getString("documentType");
+        return List.of(documentType != null && !documentType.isEmpty() ? documentType : "Unknown Type");
+    }
+    
+    private List<Document> progressOf(Document request) {
+        Document status = request.get("status", Document.class);
+        return status != null && status.get("progress") != null
+                ? status.getList("progress", Document.class)
+                : List.of();
+    }
+    
+    /**
+     * Days a request counts in: its creation day and the days of its decisions
+     */
+    private List<LocalDate> daysOf(Document request) {
+        List<LocalDate> days = new ArrayList<>();
+        if (request.getDate("createdAt") != null) {
+            days.add(dayOf(request.getDate("createdAt")));
+        }
+        for (Document step : progressOf(request)) {
+            if (isDecision(step.getString("step")) && step.getDate("date") != null) {
+                days.add(dayOf(step.getDate("date")));
+            }
+        }
+        return days;
+    }
+    
+    /**
+     * Split sorted days into runs of consecutive days (at most MAX_RANGE_DAYS each)
+     */
+    private List<List<LocalDate>> contiguousRanges(TreeSet<LocalDate> days) {
+        List<List<LocalDate>> ranges = new ArrayList<>();
+        List<LocalDate> range = new ArrayList<>();
+        for (LocalDate day : days) {
+            if (!range.isEmpty() && (!range.get(range.size() - 1).plusDays(1).equals(day) || range.size() >= MAX_RANGE_DAYS)) {
+                ranges.add(range);
+                range = new ArrayList<>();
+            }
+            range.add(day);
+        }
+        if (!range.isEmpty()) {
+            ranges.add(range);
+        }
+        return ranges;
+    }
+    
+    private boolean isDecision(String step) {
+        return ACCEPTED.equals(step) || REFUSED.equals(step);
+    }
+    
+    private LocalDate periodStart(LocalDate day, String granularity) {
+        switch (granularity) {
+            case WEEK:
+                return day.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+            case MONTH:
+                return day.withDayOfMonth(1);
+            default:
+                return day;
+        }
+    }
+    
+    private static LocalDate dayOf(Date date) {
+        return date.toInstant().atZone(ZONE).toLocalDate();
+    }
+    
+    private static Date toDate(LocalDate day) {
+        return Date.from(day.atStartOfDay(ZONE).toInstant());
+    }
+}
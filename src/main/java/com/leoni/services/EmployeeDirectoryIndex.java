@@ -0,0 +1,412 @@
+package com.leoni.services;
+
+import com.leoni.models.User;
+import com.leoni.utils.TextNormalizer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * In-memory bitmap index of employees by location, department and status
+ * Every user gets a small integer ordinal; each distinct (normalized) location, department and status
+ * is interned to an integer ID holding a bitmap of the ordinals that have it. A filter is an OR of the
+ * bitmaps of the selected values within a dimension and an AND across dimensions, so filters, counts
+ * and facet counts never touch MongoDB. The index is built at startup and kept current by UserService
+ * after each write; writes made by the other instances are read back every app.directory.refresh-ms
+ * (users changed since the last refresh, by updatedAt, and the user tombstones of the deletion log).
+ * Ordinals are dense (freed ones are reused), so plain java.util.BitSet bitmaps cost one bit per user and
+ * value (about 1.2 MB for 100,000 users and 100 distinct values); compressed bitmaps would only pay off for
+ * sparse ordinals or far more values.
+ */
+@Service
+public class EmployeeDirectoryIndex {
+    
+    private static final Logger logger = LoggerFactory.getLogger(EmployeeDirectoryIndex.class);
+    
+    public static final String LOCATION = "location";
+    public static final String DEPARTMENT = "department";
+    public static final String STATUS = "status";
+    
+    // Each refresh re-reads this much before the previous one (clock skew between instances, slow writes)
+    private static final long REFRESH_OVERLAP_MS = 5000;
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    @Autowired
+    private DeletionLogService deletionLogService;
+    
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    
+    private State state = new State();
+    
+    private volatile boolean ready;
+    
+    // Changes from this time on are not in the index yet
+    private volatile Date refreshedUpTo;
+    
+    // Writes made while a rebuild reads the database, replayed in order into the new state before
+    // it replaces the live one; null when no rebuild is running (guarded by the write lock)
+    private List<Consumer<State>> writesDuringRebuild;
+    
+    /**
+     * The indexed users: replaced as a whole by rebuild(), modified in place by the write hooks
+     */
+    private static final class State {
+        final Dimension locations = new Dimension();
+        final Dimension departments = new Dimension();
+        final Dimension statuses = new Dimension();
+        
+        // User ID <-> ordinal; freed ordinals are reused so the bitmaps stay dense
+        final Map<String, Integer> ordinalById = new HashMap<>();
+        final List<String> idByOrdinal = new ArrayList<>();
+        final Deque<Integer> freeOrdinals = new ArrayDeque<>();
+        final BitSet live = new BitSet();
+        
+        /**
+         * Set the values of a user (effective location and department, status)
+         */
+        void put(User user) {
+            Integer ordinal = ordinalById.get(user.getId());
+            if (ordinal == null) {
+                ordinal = freeOrdinals.isEmpty() ? idByOrdinal.size() : freeOrdinals.pop();
+                if (ordinal == idByOrdinal.size()) {
+                    idByOrdinal.add(user.getId());
+                } else {
+                    idByOrdinal.set(ordinal, user.getId());
+                }
+                ordinalById.put(user.getId(), ordinal);
+                live.set(ordinal);
+            }
+            
+            locations.set(ordinal, user.getEffectiveLocation());
+            departments.set(ordinal, user.getEffectiveDepartment());
+            statuses.set(ordinal, user.getStatus());
+        }
+        
+        void remove(String userId) {
+            Integer ordinal = ordinalById.remove(userId);
+            if (ordinal != null) {
+                locations.clear(ordinal);
+                departments.clear(ordinal);
+                statuses.clear(ordinal);
+                live.clear(ordinal);
+                idByOrdinal.set(ordinal, null);
+                freeOrdinals.push(ordinal);
+            }
+        }
+        
+        /**
+         * AND of the selections of every filtered dimension
+         */
+        BitSet match(Collection<String> locationValues, Collection<String> departmentValues,
+                     Collection<String> statusValues) {
+            BitSet result = (BitSet) live.clone();
+            for (BitSet selection : new BitSet[] {
+                    locations.select(locationValues),
+                    departments.select(departmentValues),
+                    statuses.select(statusValues)}) {
+                if (selection != null) {
+                    result.and(selection);
+                }
+            }
+            return result;
+        }
+    }
+    
+    /**
+     * Values of one dimension: interned keys, display labels and one bitmap per value
+     */
+    private static final class Dimension {
+        final Map<String, Integer> idByKey = new HashMap<>();
+        final List<String> labels = new ArrayList<>();
+        final List<BitSet> bitmaps = new ArrayList<>();
+        final List<Integer> valueByOrdinal = new ArrayList<>(); // -1 when the user has no value
+        
+        int intern(String key, String label) {
+            Integer id = idByKey.get(key);
+            if (id == null) {
+                id = labels.size();
+                idByKey.put(key, id);
+                labels.add(label != null ? label.trim() : key);
+                bitmaps.add(new BitSet());
+            }
+            return id;
+        }
+        
+        void set(int ordinal, String label) {
+            clear(ordinal);
+            String key = TextNormalizer.key(label);
+            int value = key != null ? intern(key, label) : -1;
+            while (valueByOrdinal.size() <= ordinal) {
+                valueByOrdinal.add(-1);
+            }
+            valueByOrdinal.set(ordinal, value);
+            if (value >= 0) {
+                bitmaps.get(value).set(ordinal);
+            }
+        }
+        
+        void clear(int ordinal) {
+            if (ordinal < valueByOrdinal.size() && valueByOrdinal.get(ordinal) >= 0) {
+                bitmaps.get(valueByOrdinal.get(ordinal)).clear(ordinal);
+                valueByOrdinal.set(ordinal, -1);
+            }
+        }
+        
+        /**
+         * OR of the bitmaps of the selected values, or null when the dimension is not filtered
+         */
+        BitSet select(Collection<String> values) {
+            if (values == null || values.stream().noneMatch(TextNormalizer::hasKey)) {
+                return null;
+            }
+            BitSet result = new BitSet();
+            for (String value : values) {
+                Integer id = idByKey.get(TextNormalizer.key(value));
+                if (id != null) {
+                    result.or(bitmaps.get(id));
+                }
+            }
+            return result;
+        }
+    }
+    
+    /**
+     * Build the index from the database (only the filter fields are read)
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void rebuild() {
+        long start = System.currentTimeMillis();
+        lock.writeLock().lock();
+        try {
+            writesDuringRebuild = new ArrayList<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        try {
+            State built = new State();
+            Date since = new Date(start - REFRESH_OVERLAP_MS);
+            Query query = new Query();
+            query.fields().include("effectiveLocation", "effectiveDepartment", "status");
+            try (Stream<User> users = mongoTemplate.stream(query, User.class)) {
+                users.forEach(built::put);
+            }
+            
+            lock.writeLock().lock();
+            try {
+                int replayed = writesDuringRebuild.size();
+                writesDuringRebuild.forEach(write -> write.accept(built));
+                writesDuringRebuild = null;
+                if (replayed > 0) {
+                    logger.info("Replayed {} employee directory index writes made during the rebuild", replayed);
+                }
+                
+                state = built;
+                refreshedUpTo = since;
+                ready = true;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            logger.info("Employee directory index built: {} users, {} locations, {} departments in {} ms",
+                    built.ordinalById.size(), built.locations.labels.size(), built.departments.labels.size(),
+                    System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            logger.error("Could not build employee directory index: {}", e.getMessage());
+            lock.writeLock().lock();
+            try {
+                writesDuringRebuild = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+    
+    /**
+     * Apply the users written or deleted since the last refresh, by this or any other instance
+     * (re-applying a change this instance already indexed is harmless)
+     */
+    @Scheduled(initialDelayString = "${app.directory.refresh-ms:30000}",
+            fixedDelayString = "${app.directory.refresh-ms:30000}")
+    public synchronized void refresh() {
+        Date since = refreshedUpTo;
+        if (!ready || since == null) {
+            return;
+        }
+        Date next = new Date(System.currentTimeMillis() - REFRESH_OVERLAP_MS);
+        try {
+            Query query = new Query(Criteria.where("updatedAt").gte(since));
+            query.fields().include("effectiveLocation", "effectiveDepartment", "status");
+            List<User> changed = mongoTemplate.find(query, User.class);
+            List<String> deleted = deletionLogService.findDeletedIds(DeletionLogService.USERS, null, since);
+            
+            lock.writeLock().lock();
+            try {
+                changed.forEach(state::put);
+                deleted.forEach(state::remove);
+                refreshedUpTo = next;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            if (!changed.isEmpty() || !deleted.isEmpty()) {
+                logger.debug("Employee directory index refreshed: {} changed, {} deleted", changed.size(), deleted.size());
+            }
+        } catch (Exception e) {
+            logger.error("Could not refresh employee directory index: {}", e.getMessage());
+        }
+    }
+    
+    /**
+     * Whether the index has been built and can answer queries
+     */
+    public boolean isReady() {
+        return ready;
+    }
+    
+    /**
+     * Index or re-index a user
+     * @param user the saved user
+     */
+    public void index(User user) {
+        if (user == null || user.getId() == null) {
+            return;
+        }
+        apply(indexed -> indexed.put(user));
+    }
+    
+    /**
+     * Change the status of several users (bulk approval)
+     * @param userIds the user IDs (unknown IDs are ignored)
+     * @param status the new status
+     */
+    public void setStatus(Collection<String> userIds, String status) {
+        List<String> ids = List.copyOf(userIds);
+        apply(indexed -> {
+            for (String userId : ids) {
+                Integer ordinal = indexed.ordinalById.get(userId);
+                if (ordinal != null) {
+                    indexed.statuses.set(ordinal, status);
+                }
+            }
+        });
+    }
+    
+    /**
+     * Remove a user from the index
+     * @param userId the user ID
+     */
+    public void remove(String userId) {
+        apply(indexed -> indexed.remove(userId));
+    }
+    
+    /**
+     * Find the users matching a filter
+     * Within a dimension the values are alternatives (OR); dimensions are combined with AND.
+     * A null or empty value list does not filter that dimension.
+     * @param locationValues the accepted locations (case insensitive)
+     * @param departmentValues the accepted departments (case insensitive)
+     * @param statusValues the accepted statuses (case insensitive)
+     * @return the IDs of the matching users
+     */
+    public List<String> findIds(Collection<String> locationValues, Collection<String> departmentValues,
+                                Collection<String> statusValues) {
+        lock.readLock().lock();
+        try {
+            BitSet matches = state.match(locationValues, departmentValues, statusValues);
+            List<String> ids = new ArrayList<>(matches.cardinality());
+            for (int ordinal = matches.nextSetBit(0); ordinal >= 0; ordinal = matches.nextSetBit(ordinal + 1)) {
+                ids.add(state.idByOrdinal.get(ordinal));
+            }
+            return ids;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Count the users matching a filter (same rules as findIds)
+     * @return the number of matching users
+     */
+    public int count(Collection<String> locationValues, Collection<String> departmentValues,
+                     Collection<String> statusValues) {
+        lock.readLock().lock();
+        try {
+            return state.match(locationValues, departmentValues, statusValues).cardinality();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Count the users per value of each dimension, for the filter dropdowns
+     * The counts of a dimension apply the filters of the other dimensions only, so every
+     * option shows how many users selecting it would return
+     * @param locationValues the selected locations (optional)
+     * @param departmentValues the selected departments (optional)
+     * @param statusValues the selected statuses (optional)
+     * @return dimension name to (value label to count), values sorted by label, empty values omitted
+     */
+    public Map<String, Map<String, Integer>> facets(Collection<String> locationValues, Collection<String> departmentValues,
+                                                    Collection<String> statusValues) {
+        lock.readLock().lock();
+        try {
+            Map<String, Map<String, Integer>> facets = new LinkedHashMap<>();
+            facets.put(LOCATION, counts(state.locations, state.match(null, departmentValues, statusValues)));
+            facets.put(DEPARTMENT, counts(state.departments, state.match(locationValues, null, statusValues)));
+            facets.put(STATUS, counts(state.statuses, state.match(locationValues, departmentValues, null)));
+            return facets;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Apply a write to the live state, and to the one being built if a rebuild is running
+     */
+    private void apply(Consumer<State> write) {
+        lock.writeLock().lock();
+        try {
+            write.accept(state);
+            if (writesDuringRebuild != null) {
+                writesDuringRebuild.add(write);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    private Map<String, Integer> counts(Dimension dimension, BitSet filter) {
+        Map<String, Integer> counts = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (int value = 0; value < dimension.labels.size(); value++) {
+            BitSet bitmap = (BitSet) dimension.bitmaps.get(value).clone();
+            bitmap.and(filter);
+            int count = bitmap.cardinality();
+            if (count > 0) {
+                counts.merge(dimension.labels.get(value), count, Integer::sum);
+            }
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,116 @@
+package com.leoni.services;
+
+import com.leoni.models.User;
+import com.leoni.utils.TextNormalizer;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationExpression;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Employee search on the indexed searchKeys field (prefixes of the folded name, employee ID and email tokens)
+ * Every query token must be a prefix of one of the employee's tokens; results are ranked by the number of
+ * query tokens that match a whole token, then by name
+ */
+@Service
+public class EmployeeSearchService {
+    
+    public static final int MAX_PAGE_SIZE = 100;
+    public static final int MAX_SUGGESTIONS = 20;
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    /**
+     * Search employees, ranked and paginated
+     * @param text the search text (any words of the names, employee ID or email)
+     * @param page the page number (0-based)
+     * @param size the page size (capped at MAX_PAGE_SIZE)
+     * @return the users of the requested page, best matches first
+     */
+    public List<User> search(String text, int page, int size) {
+        List<String> tokens = queryTokens(text);
+        if (tokens.isEmpty()) {
+            return List.of();
+        }
+        int pageSize = Math.max(1, Math.min(size, MAX_PAGE_SIZE));
+        
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(matchCriteria(tokens)),
+                Aggregation.addFields().addField("searchScore").withValue(exactTokenMatches(tokens)).build(),
+                Aggregation.sort(Sort.by(Sort.Order.desc("searchScore"), Sort.Order.asc("lastName"),
+                        Sort.Order.asc("firstName"), Sort.Order.asc("_id"))),
+                Aggregation.skip((long) Math.max(page, 0) * pageSize),
+                Aggregation.limit(pageSize)
+        );
+        return mongoTemplate.aggregate(aggregation, "users", User.class).getMappedResults();
+    }
+    
+    /**
+     * Count the employees matching the search text
+     * @param text the search text
+     * @return number of matching employees
+     */
+    public long count(String text) {
+        List<String> tokens = queryTokens(text);
+        if (tokens.isEmpty()) {
+            return 0;
+        }
+        return mongoTemplate.count(new Query(matchCriteria(tokens)), User.class);
+    }
+    
+    /**
+     * Suggest employees while typing (only the fields needed to display a suggestion are loaded)
+     * @param text the text typed so far
+     * @param limit maximum number of suggestions (capped at MAX_SUGGESTIONS)
+     * @return the best matching users
+     */
+    public List<User> autocomplete(String text, int limit) {
+        List<String> tokens = queryTokens(text);
+        if (tokens.isEmpty()) {
+            return List.of();
+        }
+        
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(matchCriteria(tokens)),
+                Aggregation.project("firstName", "lastName", "employeeId", "effectiveLocation", "effectiveDepartment", "searchTokens"),
+                Aggregation.addFields().addField("searchScore").withValue(exactTokenMatches(tokens)).build(),
+                Aggregation.sort(Sort.by(Sort.Order.desc("searchScore"), Sort.Order.asc("lastName"),
+                        Sort.Order.asc("firstName"), Sort.Order.asc("_id"))),
+                Aggregation.limit(Math.max(1, Math.min(limit, MAX_SUGGESTIONS)))
+        );
+        return mongoTemplate.aggregate(aggregation, "users", User.class).getMappedResults();
+    }
+    
+    /**
+     * Fold and split the search text; tokens longer than the stored prefixes are cut to match them
+     */
+    private List<String> queryTokens(String text) {
+        return TextNormalizer.tokens(text).stream()
+                .map(token -> token.length() > User.SEARCH_PREFIX_MAX_LENGTH
+                        ? token.substring(0, User.SEARCH_PREFIX_MAX_LENGTH)
+                        : token)
+                .distinct()
+                .collect(Collectors.toList());
+    }
+    
+    private Criteria matchCriteria(List<String> tokens) {
+        return Criteria.where("searchKeys").all(tokens);
+    }
+    
+    /**
+     * Number of query tokens equal to a whole token of the employee
+     */
+    private AggregationExpression exactTokenMatches(List<String> tokens) {
+        return context -> new Document("$size", new Document("$setIntersection",
+                List.of(new Document("$ifNull", List.of("$searchTokens", List.of())), tokens)));
+    }
+}
@@ -0,0 +1,262 @@
+package com.leoni.services;
+
+import com.leoni.exceptions.AdminServiceException;
+import com.leoni.models.Admin;
+import com.leoni.models.DocumentRequest;
+import com.leoni.models.DocumentType;
+import com.leoni.models.User;
+import com.leoni.repositories.AdminRepository;
+import com.leoni.utils.TextNormalizer;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.BasicQuery;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Flags document requests left "en attente" or "en cours" without any change past the threshold of their type
+ * The job only reads the open requests older than a threshold through the partial {status.current, updatedAt}
+ * index, and only the flagged ones through the partial escalationLevel index, so its cost follows the number
+ * of overdue requests rather than the size of the history. Flagging does not touch updatedAt, so the age of a
+ * request keeps growing until somebody changes it; any later write clears the flag on the next run.
+ * The flag is derived data for the admins (getOverdueCounts), not a change of the request: setting or clearing
+ * it leaves version alone too, so a client editing the request meanwhile does not get a version conflict, and
+ * it does not show up in the delta sync or the rollups, which follow updatedAt.
+ * Requests saved before documentTypes existed only have documentType, and get that type's threshold.
+ */
+@Service
+public class EscalationService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(EscalationService.class);
+    
+    public static final List<String> OPEN_STATUSES = List.of("en attente", "en cours");
+    
+    // Level L is reached after threshold * 2^(L-1)
+    public static final int MAX_LEVEL = 3;
+    
+    // Requests flagged per updateMany
+    private static final int BATCH_SIZE = 500;
+    
+    @Value("${app.escalation.default-threshold-days:7}")
+    private int defaultThresholdDays;
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    @Autowired
+    private AdminRepository adminRepository;
+    
+    private final AtomicBoolean running = new AtomicBoolean();
+    
+    /**
+     * Clear the flags of requests that changed, then raise the level of the overdue ones
+     */
+    @Scheduled(initialDelayString = "${app.escalation.initial-delay-ms:120000}",
+            fixedDelayString = "${app.escalation.interval-ms:900000}")
+    public void run() {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        try {
+            Date now = new Date(start);
+            long cleared = clearResolved();
+            
+            // Types with their own threshold; every other type uses the default
+            Map<String, Integer> thresholds = new TreeMap<>();
+            Query typesQuery = new Query(Criteria.where("escalationThresholdDays").gt(0));
+            for (DocumentType documentType : mongoTemplate.find(typesQuery, DocumentType.class)) {
+                thresholds.put(documentType.getName(), documentType.getEscalationThresholdDays());
+            }
+            
+            long escalated = 0;
+            // Highest level first, so a request overdue for long goes straight to its level
+            for (int level = MAX_LEVEL; level >= 1; level--) {
+                for (Map.Entry<String, Integer> threshold : thresholds.entrySet()) {
+                    escalated += escalate(typeIs(threshold.getKey()), threshold.getValue(), level, now);
+                }
+                escalated += escalate(typeNotIn(thresholds.keySet()), defaultThresholdDays, level, now);
+            }
+            
+            if (cleared > 0 || escalated > 0) {
+                logger.info("Escalation: {} requests escalated, {} cleared in {} ms",
+                        escalated, cleared, System.currentTimeMillis() - start);
+            }
+        } catch (Exception e) {
+            logger.error("Escalation run failed: {}", e.getMessage());
+        } finally {
+            running.set(false);
+        }
+    }
+    
+    /**
+     * Overdue request counts of the admins, by escalation level
+     * A request counts for an admin when its owner is in the admin's location (and department when set).
+     * Super admins get every admin and the overall total; an admin only gets their own counts.
+     * @param userRole the caller's role
+     * @param userId the caller's ID
+     * @return total, and per admin: adminId, username, location, department, overdue, byLevel
+     * @throws AdminServiceException if the admin is unknown
+     */
+    public Map<String, Object> getOverdueCounts(String userRole, String userId) {
+        List<Admin> admins;
+        if ("SUPERADMIN".equals(userRole)) {
+            admins = adminRepository.findAll();
+        } else {
+            admins = List.of(adminRepository.findById(userId)
+                    .orElseThrow(() -> new AdminServiceException("Admin non trouvé avec l'ID: " + userId, "ADMIN_NOT_FOUND")));
+        }
+        
+        // Only the flagged open requests are read (partial escalationLevel index)
+        Query overdueQuery = new Query(Criteria.where("escalationLevel").gte(1).and("status.current").in(OPEN_STATUSES));
+        overdueQuery.fields().include("userId", "escalationLevel");
+        List<DocumentRequest> overdue = mongoTemplate.find(overdueQuery, DocumentRequest.class);
+        
+        Query ownersQuery = new Query(Criteria.where("_id").in(overdue.stream()
+                .map(DocumentRequest::getUserId)
+                .distinct()
+                .collect(Collectors.toList())));
+        ownersQuery.fields().include("effectiveLocationKey", "effectiveDepartmentKey");
+        Map<String, User> owners = mongoTemplate.find(ownersQuery, User.class).stream()
+                .collect(Collectors.toMap(User::getId, Function.identity()));
+        
+        List<Map<String, Object>> counts = new ArrayList<>();
+        for (Admin admin : admins) {
+            String locationKey = TextNormalizer.key(admin.getLocation());
+            String departmentKey = TextNormalizer.key(admin.getDepartment());
+            long[] byLevel = new long[MAX_LEVEL + 1];
+            if (locationKey != null) {
+                for (DocumentRequest request : overdue) {
+                    User owner = owners.get(request.getUserId());
+                    if (owner != null && locationKey.equals(owner.getEffectiveLocationKey())
+                            && (departmentKey == null || departmentKey.equals(owner.getEffectiveDepartmentKey()))) {
+                        byLevel[Math.min(request.getEscalationLevel(), MAX_LEVEL)]++;
+                    }
+                }
+            }
+            
+            Map<String, Object> levels = new LinkedHashMap<>();
+            long total = 0;
+            for (int level = 1; level <= MAX_LEVEL; level++) {
+                levels.put(String.valueOf(level), byLevel[level]);
+                total += byLevel[level];
+            }
+            Map<String, Object> adminCounts = new LinkedHashMap<>();
+            adminCounts.put("adminId", admin.getId());
+            adminCounts.put("username", admin.getUsername());
+            adminCounts.put("location", admin.getLocation());
+            adminCounts.put("department", admin.getDepartment());
+            adminCounts.put("overdue", total);
+            adminCounts.put("byLevel", levels);
+            counts.add(adminCounts);
+        }
+        
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("total", "SUPERADMIN".equals(userRole) ? overdue.size() : counts.get(0).get("overdue"));
+        result.put("admins", counts);
+        return result;
+    }
+    
+    /**
+     * Raise to a level the open requests of some types unchanged for threshold * 2^(level-1) days
+     * The candidates are read through a cursor (IDs only) and flagged one batch at a time.
+     * @return number of requests escalated
+     */
+    private long escalate(Criteria typeCriteria, int thresholdDays, int level, Date now) {
+        long ageMillis = TimeUnit.DAYS.toMillis((long) thresholdDays << (level - 1));
+        Criteria candidates = new Criteria().andOperator(
+                Criteria.where("status.current").in(OPEN_STATUSES)
+                        .and("updatedAt").lt(new Date(now.getTime() - ageMillis)),
+                typeCriteria,
+                Criteria.where("escalationLevel").not().gte(level));
+        Query query = new Query(candidates);
+        query.fields().include("_id");
+        
+        long escalated = 0;
+        List<String> batch = new ArrayList<>(BATCH_SIZE);
+        try (Stream<DocumentRequest> requests = mongoTemplate.stream(query, DocumentRequest.class)) {
+            for (DocumentRequest request : (Iterable<DocumentRequest>) requests::iterator) {
+                batch.add(request.getId());
+                if (batch.size() == BATCH_SIZE) {
+                    escalated += flag(batch, candidates, level, now);
+                    batch.clear();
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            escalated += flag(batch, candidates, level, now);
+        }
+        return escalated;
+    }
+    
+    /**
+     * Flag a batch, re-checking the conditions in case a request changed since it was read
+     * (updatedAt and version are left alone: the request keeps ageing and is not changed for its clients)
+     */
+    private long flag(List<String> ids, Criteria candidates, int level, Date now) {
+        Query query = new Query(new Criteria().andOperator(Criteria.where("_id").in(ids), candidates));
+        Update update = new Update()
+                .set("escalationLevel", level)
+                .set("escalatedAt", now);
+        return mongoTemplate.updateMulti(query, update, DocumentRequest.class).getModifiedCount();
+    }
+    
+    /**
+     * Clear the flag of requests closed or changed since they were flagged (version left alone, as when flagging)
+     * @return number of requests cleared
+     */
+    private long clearResolved() {
+        Document filter = new Document("escalationLevel", new Document("$exists", true))
+                .append("$expr", new Document("$or", List.of(
+                        new Document("$not", List.of(new Document("$in", List.of("$status.current", OPEN_STATUSES)))),
+                        new Document("$gt", List.of("$updatedAt", "$escalatedAt")))));
+        Update update = new Update()
+                .unset("escalationLevel")
+                .unset("escalatedAt");
+        return mongoTemplate.updateMulti(new BasicQuery(filter), update, DocumentRequest.class).getModifiedCount();
+    }
+    
+    /**
+     * Requests of a type: in documentTypes, or as the legacy documentType of requests without the list
+     */
+    static Criteria typeIs(String type) {
+        return new Criteria().orOperator(
+                Criteria.where("documentTypes").is(type),
+                new Criteria().andOperator(withoutTypeList(), Criteria.where("documentType").is(type)));
+    }
+    
+    /**
+     * Requests of none of some types (same two fields as typeIs)
+     */
+    static Criteria typeNotIn(Collection<String> types) {
+        return new Criteria().orOperator(
+                new Criteria().andOperator(Criteria.where("documentTypes.0").exists(true),
+                        Criteria.where("documentTypes").nin(types)),
+                new Criteria().andOperator(withoutTypeList(), Criteria.where("documentType").nin(types)));
+    }
+    
+    // documentTypes missing, null or empty
+    private static Criteria withoutTypeList() {
+        return Criteria.where("documentTypes.0").exists(false);
+    }
+}
@@ -0,0 +1,123 @@
+package com.leoni.services;
+
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.gridfs.GridFSBucket;
+import com.mongodb.client.gridfs.GridFSBuckets;
+import com.mongodb.client.gridfs.model.GridFSFile;
+import com.mongodb.client.gridfs.model.GridFSUploadOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Sorts;
+import jakarta.annotation.PostConstruct;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * Uploaded files in GridFS (bucket "uploads"), shared by every node
+ * A write is a new revision of the key, visible once all its chunks are written; the older revisions are
+ * removed afterwards. Reads always get the newest complete revision.
+ */
+@Service
+@ConditionalOnProperty(name = "app.storage.backend", havingValue = "gridfs")
+public class GridFsBlobStore implements BlobStore {
+    
+    public static final String BUCKET = "uploads";
+    
+    private static final int CHUNK_SIZE = 255 * 1024;
+    
+    private static final int LIST_BATCH_SIZE = 500;
+    
+    // Escaped one by one rather than with \Q...\E, which the server cannot turn into index bounds
+    private static final Pattern REGEX_SPECIAL = Pattern.compile("[\\\\^$.|?*+()\\[\\]{}-]");
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    private GridFSBucket bucket;
+    
+    @PostConstruct
+    public void init() {
+        bucket = GridFSBuckets.create(mongoTemplate.getDb(), BUCKET).withChunkSizeBytes(CHUNK_SIZE);
+    }
+    
+    @Override
+    public void put(String key, InputStream content, String contentType) throws IOException {
+        GridFSUploadOptions options = new GridFSUploadOptions();
+        if (contentType != null) {
+            options.metadata(new Document("contentType", contentType));
+        }
+        try {
+            ObjectId id = bucket.uploadFromStream(key, content, options);
+            List<ObjectId> older = new ArrayList<>();
+            bucket.find(Filters.and(Filters.eq("filename", key), Filters.ne("_id", id)))
+                    .forEach(file -> older.add(file.getObjectId()));
+            older.forEach(bucket::delete);
+        } catch (RuntimeException e) {
+            throw new IOException("Could not store " + key + ": " + e.getMessage(), e);
+        }
+    }
+    
+    @Override
+    public InputStream open(String key) throws IOException {
+        GridFSFile file = newest(key);
+        if (file == null) {
+            throw new NoSuchFileException(key);
+        }
+        return bucket.openDownloadStream(file.getObjectId());
+    }
+    
+    @Override
+    public BlobInfo stat(String key) {
+        GridFSFile file = newest(key);
+        if (file == null) {
+            return null;
+        }
+        String contentType = file.getMetadata() != null ? file.getMetadata().getString("contentType") : null;
+        return new BlobInfo(key, file.getLength(), file.getUploadDate().getTime(), contentType);
+    }
+    
+    @Override
+    public void delete(String key) {
+        List<ObjectId> revisions = new ArrayList<>();
+        bucket.find(Filters.eq("filename", key)).forEach(file -> revisions.add(file.getObjectId()));
+        revisions.forEach(bucket::delete);
+    }
+    
+    @Override
+    public void move(String from, String to) {
+        delete(to);
+        List<ObjectId> revisions = new ArrayList<>();
+        bucket.find(Filters.eq("filename", from)).forEach(file -> revisions.add(file.getObjectId()));
+        revisions.forEach(id -> bucket.rename(id, to));
+    }
+    
+    @Override
+    public void list(String prefix, Consumer<BlobInfo> visitor) {
+        // Cursor over the files collection by name prefix (anchored regex, uses the filename index)
+        String pattern = "^" + REGEX_SPECIAL.matcher(prefix + "/").replaceAll("\\\\$0");
+        try (MongoCursor<GridFSFile> cursor = bucket.find(Filters.regex("filename", pattern))
+                .batchSize(LIST_BATCH_SIZE)
+                .iterator()) {
+            while (cursor.hasNext()) {
+                GridFSFile file = cursor.next();
+                String contentType = file.getMetadata() != null ? file.getMetadata().getString("contentType") : null;
+                visitor.accept(new BlobInfo(file.getFilename(), file.getLength(), file.getUploadDate().getTime(), contentType));
+            }
+        }
+    }
+    
+    private GridFSFile newest(String key) {
+        return bucket.find(Filters.eq("filename", key)).sort(Sorts.descending("uploadDate")).limit(1).first();
+    }
+}
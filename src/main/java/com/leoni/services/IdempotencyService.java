@@ -0,0 +1,266 @@
+package com.leoni.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.leoni.exceptions.IdempotencyKeyInProgressException;
+import com.leoni.exceptions.IdempotencyKeyMismatchException;
+import com.leoni.models.IdempotencyRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Replays the stored response when a create request is retried with the same Idempotency-Key
+ * Completed responses are kept in the idempotency_keys collection (TTL 24h, shared by all instances)
+ * and in a small in-memory cache so most retries are answered without a database round trip.
+ * A key belongs to the caller and the request body of its first use: reusing it for anything else is
+ * rejected. A claim left IN_PROGRESS by a node that died is taken over after STALE_CLAIM_MS.
+ */
+@Service
+public class IdempotencyService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(IdempotencyService.class);
+    
+    public static final String HEADER = "Idempotency-Key";
+    public static final String REPLAYED_HEADER = "Idempotent-Replayed";
+    
+    // Lifetime of the records (TTL index on createdAt), and of the cached responses
+    public static final Duration RECORD_TTL = Duration.ofHours(24);
+    
+    private static final int MAX_KEY_LENGTH = 255;
+    
+    // Completed responses kept in memory (least recently used are evicted)
+    private static final int MAX_CACHED_RESPONSES = 10000;
+    
+    // A create runs in well under this; an older IN_PROGRESS claim is from a node that died
+    private static final long STALE_CLAIM_MS = 10000;
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    @Autowired
+    private ObjectMapper objectMapper;
+    
+    private final Map<String, IdempotencyRecord> completedCache = Collections.synchronizedMap(
+            new LinkedHashMap<String, IdempotencyRecord>(256, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, IdempotencyRecord> eldest) {
+                    return size() > MAX_CACHED_RESPONSES;
+                }
+            });
+    
+    // Keys whose first attempt is running on this instance
+    private final Map<String, Boolean> inFlight = new ConcurrentHashMap<>();
+    
+    /**
+     * Run a create action at most once per key
+     * Without a key the action simply runs. With a key, the first request runs the action and stores
+     * its response; later requests with the same key, from the same caller and with the same body, get the
+     * stored response back. Only successful responses are stored: errors (expired token, validation, 5xx)
+     * release the key so the client can retry.
+     * @param scope the endpoint the key belongs to (e.g. "documents:create")
+     * @param key the Idempotency-Key header value (optional)
+     * @param caller the user sending the request (optional, null for anonymous endpoints)
+     * @param request the request body, compared with the first request's
+     * @param action the request handler
+     * @return the response of the action, or the replayed response
+     * @throws IllegalArgumentException if the key is too long
+     * @throws IdempotencyKeyInProgressException if the first request with this key is still running
+     * @throws IdempotencyKeyMismatchException if the key was first used by another caller or with another body
+     */
+    @SuppressWarnings("unchecked")
+    public <T> ResponseEntity<T> execute(String scope, String key, String caller, Object request,
+                                         Supplier<ResponseEntity<T>> action) {
+        if (key == null || key.trim().isEmpty()) {
+            return action.get();
+        }
+        if (key.length() > MAX_KEY_LENGTH) {
+            throw new IllegalArgumentException(HEADER + " ne doit pas dépasser " + MAX_KEY_LENGTH + " caractères");
+        }
+        
+        String id = scope + ":" + key.trim();
+        String requestHash = hash(request);
+        
+        // Fast path: response already known on this instance (and not yet expired in the database)
+        IdempotencyRecord cached = completedCache.get(id);
+        if (cached != null && isExpired(cached)) {
+            completedCache.remove(id);
+            cached = null;
+        }
+        if (cached != null) {
+            checkSameRequest(cached, key, caller, requestHash);
+            return (ResponseEntity<T>) replay(cached);
+        }
+        
+        if (inFlight.putIfAbsent(id, Boolean.TRUE) != null) {
+            throw new IdempotencyKeyInProgressException(key);
+        }
+        
+        try {
+            IdempotencyRecord claim = claim(id, key, caller, requestHash);
+            if (claim.isCompleted()) {
+                completedCache.put(id, claim);
+                return (ResponseEntity<T>) replay(claim);
+            }
+            
+            ResponseEntity<T> response;
+            try {
+                response = action.get();
+            } catch (RuntimeException e) {
+                release(id);
+                throw e;
+            }
+            
+            if (response.getStatusCode().is2xxSuccessful()) {
+                store(claim, response);
+            } else {
+                release(id);
+            }
+            return response;
+        } finally {
+            inFlight.remove(id);
+        }
+    }
+    
+    /**
+     * Claim the key for all instances: a new record, or a stale IN_PROGRESS one taken over
+     * @return the claim, or the completed record to replay
+     */
+    private IdempotencyRecord claim(String id, String key, String caller, String requestHash) {
+        IdempotencyRecord claim = new IdempotencyRecord(id, caller, requestHash);
+        try {
+            return mongoTemplate.insert(claim);
+        } catch (DuplicateKeyException e) {
+            IdempotencyRecord existing = mongoTemplate.findById(id, IdempotencyRecord.class);
+            if (existing == null) {
+                throw new IdempotencyKeyInProgressException(key); // Released meanwhile, the client retries
+            }
+            checkSameRequest(existing, key, caller, requestHash);
+            if (existing.isCompleted()) {
+                return existing;
+            }
+            
+            // The claim of a node that died while running the action
+            Date staleBefore = new Date(System.currentTimeMillis() - STALE_CLAIM_MS);
+            IdempotencyRecord takenOver = mongoTemplate.findAndModify(
+                    new Query(Criteria.where("_id").is(id)
+                            .and("status").is(IdempotencyRecord.IN_PROGRESS)
+                            .orOperator(Criteria.where("claimedAt").lt(staleBefore),
+                                    Criteria.where("claimedAt").exists(false).and("createdAt").lt(staleBefore))),
+                    new Update().set("claimedAt", new Date()),
+                    FindAndModifyOptions.options().returnNew(true),
+                    IdempotencyRecord.class);
+            if (takenOver == null) {
+                throw new IdempotencyKeyInProgressException(key);
+            }
+            logger.warn("Took over stale idempotency claim {} from {}", id, existing.getClaimedAt());
+            return takenOver;
+        }
+    }
+    
+    /**
+     * Reject a key reused by another caller or for another body
+     */
+    private void checkSameRequest(IdempotencyRecord record, String key, String caller, String requestHash) {
+        if (!Objects.equals(record.getCaller(), caller)
+                || (record.getRequestHash() != null && !record.getRequestHash().equals(requestHash))) {
+            throw new IdempotencyKeyMismatchException(key);
+        }
+    }
+    
+    /**
+     * Save the response so later requests with the same key can replay it
+     */
+    private void store(IdempotencyRecord claim, ResponseEntity<?> response) {
+        String id = claim.getId();
+        try {
+            String body = response.getBody() != null ? objectMapper.writeValueAsString(response.getBody()) : null;
+            Date completedAt = new Date();
+            
+            mongoTemplate.updateFirst(
+                    new Query(Criteria.where("_id").is(id)),
+                    new Update()
+                            .set("status", IdempotencyRecord.COMPLETED)
+                            .set("httpStatus", response.getStatusCode().value())
+                            .set("responseBody", body)
+                            .set("completedAt", completedAt),
+                    IdempotencyRecord.class);
+            
+            claim.setStatus(IdempotencyRecord.COMPLETED);
+            claim.setHttpStatus(response.getStatusCode().value());
+            claim.setResponseBody(body);
+            claim.setCompletedAt(completedAt);
+            completedCache.put(id, claim);
+        } catch (Exception e) {
+            // The request itself succeeded; a lost record only means a retry is executed again
+            logger.warn("Could not store idempotent response for {}: {}", id, e.getMessage());
+            release(id);
+        }
+    }
+    
+    /**
+     * Forget a key so the request can be executed again
+     */
+    private void release(String id) {
+        try {
+            mongoTemplate.remove(new Query(Criteria.where("_id").is(id)
+                    .and("status").is(IdempotencyRecord.IN_PROGRESS)), IdempotencyRecord.class);
+        } catch (Exception e) {
+            logger.warn("Could not release idempotency key {}: {}", id, e.getMessage());
+        }
+    }
+    
+    /**
+     * Whether the database has expired (or is about to expire) the record
+     */
+    private boolean isExpired(IdempotencyRecord record) {
+        return record.getCreatedAt() == null
+                || record.getCreatedAt().getTime() + RECORD_TTL.toMillis() <= System.currentTimeMillis();
+    }
+    
+    /**
+     * SHA-256 of the request body as JSON
+     */
+    private String hash(Object request) {
+        try {
+            byte[] json = objectMapper.writeValueAsBytes(request);
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(json));
+        } catch (Exception e) {
+            throw new IllegalStateException("Impossible de calculer l'empreinte de la requête", e);
+        }
+    }
+    
+    /**
+     * Rebuild the stored response
+     */
+    private ResponseEntity<Object> replay(IdempotencyRecord record) {
+        try {
+            Object body = record.getResponseBody() != null
+                    ? objectMapper.readValue(record.getResponseBody(), Object.class)
+                    : null;
+            return ResponseEntity.status(record.getHttpStatus())
+                    .header(REPLAYED_HEADER, "true")
+                    .body(body);
+        } catch (Exception e) {
+            throw new IllegalStateException("Réponse enregistrée illisible pour la clé " + record.getId(), e);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.leoni.services;
+
+import com.leoni.exceptions.InvalidImageException;
+import com.leoni.models.StoredImage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Date;
+import java.util.HexFormat;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Content-addressed storage of the news images
+ * The upload is read and written once: it is streamed into the BlobStore under incoming/ (not served) while its
+ * SHA-256 is computed, then renamed to news-images/{first 2 hex}/{sha256}.{ext}. The same content always gets
+ * the same URL, so a re-uploaded logo is stored once and its URL never changes meaning (safe to cache forever).
+ * The format is detected from the magic bytes, whatever the client claims. Images no news uses any more are
+ * found by the UploadReaperService from the news themselves (stored_images keeps when each was last uploaded).
+ */
+@Service
+public class ImageStorageService {
+    
+    public static final String NEWS_IMAGES = "news-images";
+    
+    // Uploads being written, before their hash (their final key) is known
+    public static final String INCOMING = "incoming";
+    
+    public static final long MAX_SIZE_BYTES = 5 * 1024 * 1024;
+    
+    // Longest signature checked (WebP: RIFF....WEBP)
+    private static final int HEADER_LENGTH = 12;
+    
+    private static final Pattern IMAGE_URL = Pattern.compile("/" + NEWS_IMAGES + "/[0-9a-f]{2}/([0-9a-f]{64})\\.[a-z]+$");
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    @Autowired
+    private BlobStore blobStore;
+    
+    /**
+     * Detected image format
+     */
+    private record Format(String contentType, String extension) {
+    }
+    
+    /**
+     * Store an uploaded image, or find the identical one already stored
+     * @param file the uploaded file
+     * @return the stored image
+     * @throws InvalidImageException if the content is not a supported image or is too large
+     */
+    public StoredImage store(MultipartFile file) throws IOException {
+        String incomingKey = INCOMING + "/" + UUID.randomUUID();
+        try (InputStream upload = file.getInputStream()) {
+            byte[] header = upload.readNBytes(HEADER_LENGTH);
+            Format format = detect(header, header.length);
+            if (format == null) {
+                throw InvalidImageException.unsupportedFormat();
+            }
+            
+            MessageDigest digest = sha256();
+            SizeLimitedInputStream content = new SizeLimitedInputStream(new DigestInputStream(
+                    new SequenceInputStream(new ByteArrayInputStream(header), upload), digest), MAX_SIZE_BYTES);
+            blobStore.put(incomingKey, content, format.contentType());
+            
+            String hash = HexFormat.of().formatHex(digest.digest());
+            String relativePath = NEWS_IMAGES + "/" + hash.substring(0, 2) + "/" + hash + format.extension();
+            // Same content already stored (a concurrent upload of it writes the same bytes)
+            if (blobStore.stat(relativePath) == null) {
+                blobStore.move(incomingKey, relativePath);
+            }
+            
+            Date now = new Date();
+            Update update = new Update()
+                    .setOnInsert("path", relativePath)
+                    .setOnInsert("url", "/uploads/" + relativePath)
+                    .setOnInsert("contentType", format.contentType())
+                    .setOnInsert("size", content.count)
+                    .setOnInsert("createdAt", now)
+                    .set("lastUploadedAt", now);
+            return mongoTemplate.findAndModify(new Query(Criteria.where("_id").is(hash)), update,
+                    FindAndModifyOptions.options().upsert(true).returnNew(true), StoredImage.class);
+        } finally {
+            // Nothing left once renamed
+            blobStore.delete(incomingKey);
+        }
+    }
+    
+    /**
+     * Find a stored image by its URL
+     * @param imageUrl the image URL of a news
+     * @return the stored image, or null for other URLs
+     */
+    public StoredImage findByUrl(String imageUrl) {
+        String hash = hashOf(imageUrl);
+        return hash != null ? mongoTemplate.findById(hash, StoredImage.class) : null;
+    }
+    
+    /**
+     * The content hash of a stored image URL (absolute or relative), null for other URLs
+     */
+    public static String hashOf(String imageUrl) {
+        if (imageUrl == null) {
+            return null;
+        }
+        Matcher matcher = IMAGE_URL.matcher(imageUrl);
+        return matcher.find() ? matcher.group(1) : null;
+    }
+    
+    private Format detect(byte[] header, int length) {
+        if (length >= 3 && (header[0] & 0xFF) == 0xFF && (header[1] & 0xFF) == 0xD8 && (header[2] & 0xFF) == 0xFF) {
+            return new Format("image/jpeg", ".jpg");
+        }
+        if (length >= 8 && (header[0] & 0xFF) == 0x89 && header[1] == 'P' && header[2] == 'N' && header[3] == 'G'
+                && header[4] == 0x0D && header[5] == 0x0A && header[6] == 0x1A && header[7] == 0x0A) {
+            return new Format("image/png", ".png");
+        }
+        if (length >= 6 && header[0] == 'G' && header[1] == 'I' && header[2] == 'F' && header[3] == '8'
+                && (header[4] == '7' || header[4] == '9') && header[5] == 'a') {
+            return new Format("image/gif", ".gif");
+        }
+        if (length >= 12 && header[0] == 'R' && header[1] == 'I' && header[2] == 'F' && header[3] == 'F'
+                && header[8] == 'W' && header[9] == 'E' && header[10] == 'B' && header[11] == 'P') {
+            return new Format("image/webp", ".webp");
+        }
+        return null;
+    }
+    
+    /**
+     * Counts the bytes read and rejects the upload past the size limit
+     */
+    private static final class SizeLimitedInputStream extends FilterInputStream {
+        private final long maxBytes;
+        private long count;
+        
+        SizeLimitedInputStream(InputStream in, long maxBytes) {
+            super(in);
+            this.maxBytes = maxBytes;
+        }
+        
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                counted(1);
+            }
+            return b;
+        }
+        
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                counted(read);
+            }
+            return read;
+        }
+        
+        private void counted(int read) {
+            count += read;
+            if (count > maxBytes) {
+                throw InvalidImageException.tooLarge(maxBytes);
+            }
+        }
+    }
+    
+    private MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
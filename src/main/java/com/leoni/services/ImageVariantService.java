@@ -0,0 +1,261 @@
+package com.leoni.services;
+
+import com.leoni.models.News;
+import com.leoni.models.StoredImage;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Smaller copies of the news images, generated in the background after upload
+ * Each image gets a copy at every width of WIDTHS below its own, stored next to the original
+ * ({sha256}_w{width}.jpg, or .png when the image has transparency), so the URLs are as immutable as the
+ * original's. The JDK has no WebP encoder, so the copies are JPEG or PNG. The work runs on a small pool with
+ * a bounded queue; when it is full (or the node stops first) the image is picked up again by the periodic
+ * pass over the images still without variants. The original is
+ * decoded with subsampling down to about twice the largest width, so a 5MB photo does not need a full-size
+ * bitmap. Once done, the variants are recorded on the stored image and on the news using it.
+ */
+@Service
+public class ImageVariantService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(ImageVariantService.class);
+    
+    // Feed thumbnail, card and detail widths, smallest first
+    public static final int[] WIDTHS = {160, 480, 960};
+    
+    private static final float JPEG_QUALITY = 0.8f;
+    
+    // Larger images are not decoded (decompression bombs)
+    private static final long MAX_PIXELS = 50_000_000L;
+    
+    private static final int WORKERS = 2;
+    private static final int QUEUE_SIZE = 100;
+    
+    // GIF (possibly animated) and WebP (no JDK decoder) are served as uploaded
+    private static final Set<String> RESIZABLE_TYPES = Set.of("image/jpeg", "image/png");
+    
+    @Autowired
+    private BlobStore blobStore;
+    
+    @Autowired
+    private BlobCache blobCache;
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    // Images uploaded more recently are left to the upload's own generation
+    private static final long RETRY_MIN_AGE_MS = 60 * 1000;
+    
+    private final Set<String> inProgress = ConcurrentHashMap.newKeySet();
+    
+    private final ThreadPoolExecutor workers = new ThreadPoolExecutor(WORKERS, WORKERS, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(QUEUE_SIZE), runnable -> {
+                Thread thread = new Thread(runnable, "image-variants");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            });
+    
+    /**
+     * Queue the generation of the variants of an image, unless they exist or are being generated
+     * @param image the stored image
+     */
+    public void generateAsync(StoredImage image) {
+        if (image == null || image.getVariants() != null || !RESIZABLE_TYPES.contains(image.getContentType())
+                || !inProgress.add(image.getId())) {
+            return;
+        }
+        try {
+            workers.execute(() -> {
+                try {
+                    generate(image);
+                } catch (Exception e) {
+                    logger.warn("Could not generate the variants of image {}: {}", image.getId(), e.getMessage());
+                } finally {
+                    inProgress.remove(image.getId());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inProgress.remove(image.getId());
+            logger.warn("Image variant queue full, variants of {} skipped", image.getId());
+        }
+    }
+    
+    /**
+     * Queue the images that still have no variants (queue was full, node stopped, generation failed)
+     * Only as many as the queue can take are read; the rest wait for the next pass
+     */
+    @Scheduled(initialDelayString = "${app.uploads.variants.retry-ms:600000}",
+            fixedDelayString = "${app.uploads.variants.retry-ms:600000}")
+    public void generateMissing() {
+        int capacity = workers.getQueue().remainingCapacity();
+        if (capacity == 0) {
+            return;
+        }
+        try {
+            Query query = new Query(Criteria.where("variants").is(null)
+                    .and("contentType").in(RESIZABLE_TYPES)
+                    .and("lastUploadedAt").lt(new Date(System.currentTimeMillis() - RETRY_MIN_AGE_MS)))
+                    .with(Sort.by(Sort.Direction.DESC, "lastUploadedAt"))
+                    .limit(capacity);
+            query.fields().include("path", "url", "contentType");
+            mongoTemplate.find(query, StoredImage.class).forEach(this::generateAsync);
+        } catch (Exception e) {
+            logger.warn("Could not queue the images without variants: {}", e.getMessage());
+        }
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+    
+    private void generate(StoredImage image) throws IOException {
+        long start = System.currentTimeMillis();
+        Path original = blobCache.resolve(image.getPath());
+        if (original == null) {
+            throw new IOException("Image file missing: " + image.getPath());
+        }
+        Decoded decoded = decode(original, WIDTHS[WIDTHS.length - 1]);
+        
+        boolean alpha = decoded.image().getColorModel().hasAlpha();
+        String extension = alpha ? ".png" : ".jpg";
+        String basePath = image.getPath().substring(0, image.getPath().lastIndexOf('.'));
+        Map<String, String> variants = new LinkedHashMap<>();
+        for (int width : WIDTHS) {
+            if (width >= decoded.originalWidth()) {
+                break; // Never enlarged: the original is served instead
+            }
+            String relativePath = basePath + "_w" + width + extension;
+            write(resize(decoded.image(), width, alpha), relativePath, alpha);
+            variants.put(String.valueOf(width), "/uploads/" + relativePath);
+        }
+        
+        mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(image.getId())),
+                new Update().set("variants", variants).set("variantsGeneratedAt", new Date()), StoredImage.class);
+        // Seen by delta sync (updatedAt), but derived data: the version is kept so an admin editing the news
+        // meanwhile gets no conflict; a save from an older copy puts the variants back (NewsService)
+        mongoTemplate.updateMulti(new Query(Criteria.where("imageUrl").is(image.getUrl())),
+                new Update().set("imageVariants", variants).currentDate("updatedAt"), News.class);
+        logger.info("Generated {} variants of image {} in {} ms", variants.size(), image.getId(),
+                System.currentTimeMillis() - start);
+    }
+    
+    private record Decoded(BufferedImage image, int originalWidth) {
+    }
+    
+    /**
+     * Decode an image, subsampled to no less than twice the given width
+     */
+    private Decoded decode(Path source, int maxWidth) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(source.toFile())) {
+            Iterator<ImageReader> readers = in != null ? ImageIO.getImageReaders(in) : null;
+            if (readers == null || !readers.hasNext()) {
+                throw new IOException("No decoder for " + source.getFileName());
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                if ((long) width * height > MAX_PIXELS) {
+                    throw new IOException("Image too large to resize: " + width + "x" + height);
+                }
+                ImageReadParam param = reader.getDefaultReadParam();
+                int subsampling = Math.max(1, width / (maxWidth * 2));
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                return new Decoded(reader.read(0, param), width);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+    
+    /**
+     * Scale down by halves, then to the exact width (bilinear steps keep the quality close to bicubic, faster)
+     */
+    private BufferedImage resize(BufferedImage source, int width, boolean alpha) {
+        int height = Math.max(1, Math.round((float) source.getHeight() * width / source.getWidth()));
+        BufferedImage current = source;
+        do {
+            int stepWidth = Math.max(width, current.getWidth() / 2);
+            int stepHeight = stepWidth == width ? height : Math.max(height, current.getHeight() / 2);
+            BufferedImage step = new BufferedImage(stepWidth, stepHeight,
+                    alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+            Graphics2D graphics = step.createGraphics();
+            try {
+                graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                graphics.drawImage(current, 0, 0, stepWidth, stepHeight, null);
+            } finally {
+                graphics.dispose();
+            }
+            current = step;
+        } while (current.getWidth() > width);
+        return current;
+    }
+    
+    /**
+     * Encode to a temporary file then store it, so a half-written variant is never served
+     */
+    private void write(BufferedImage image, String key, boolean png) throws IOException {
+        Path temp = Files.createTempFile("variant-", ".tmp");
+        try {
+            if (png) {
+                ImageIO.write(image, "png", temp.toFile());
+            } else {
+                ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+                try (ImageOutputStream out = ImageIO.createImageOutputStream(temp.toFile())) {
+                    ImageWriteParam param = writer.getDefaultWriteParam();
+                    param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                    param.setCompressionQuality(JPEG_QUALITY);
+                    param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+                    writer.setOutput(out);
+                    writer.write(null, new IIOImage(image, null, null), param);
+                } finally {
+                    writer.dispose();
+                }
+            }
+            try (InputStream in = Files.newInputStream(temp)) {
+                blobStore.put(key, in, png ? "image/png" : "image/jpeg");
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
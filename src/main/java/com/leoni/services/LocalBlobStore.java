@@ -0,0 +1,135 @@
+package com.leoni.services;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.function.Consumer;
+
+/**
+ * Uploaded files in the app.uploads.dir directory of this node (single node deployments)
+ * A file is written to a hidden temporary file in its directory, then renamed over its key.
+ */
+@Service
+@ConditionalOnProperty(name = "app.storage.backend", havingValue = "local", matchIfMissing = true)
+public class LocalBlobStore implements BlobStore {
+    
+    @Value("${app.uploads.dir:uploads}")
+    private String uploadsDir;
+    
+    @Override
+    public void put(String key, InputStream content, String contentType) throws IOException {
+        Path target = resolve(key);
+        Files.createDirectories(target.getParent());
+        Path temp = Files.createTempFile(target.getParent(), ".blob-", ".tmp");
+        try {
+            Files.copy(content, temp, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+    
+    @Override
+    public InputStream open(String key) throws IOException {
+        return Files.newInputStream(resolve(key));
+    }
+    
+    @Override
+    public BlobInfo stat(String key) throws IOException {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(resolve(key), BasicFileAttributes.class);
+            if (!attributes.isRegularFile()) {
+                return null;
+            }
+            return new BlobInfo(key, attributes.size(), attributes.lastModifiedTime().toMillis(), null);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+    
+    @Override
+    public void delete(String key) throws IOException {
+        Files.deleteIfExists(resolve(key));
+    }
+    
+    @Override
+    public void move(String from, String to) throws IOException {
+        Path target = resolve(to);
+        Files.createDirectories(target.getParent());
+        try {
+            Files.move(resolve(from), target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (NoSuchFileException e) {
+            // Already moved or deleted
+        }
+    }
+    
+    @Override
+    public void list(String prefix, Consumer<BlobInfo> visitor) throws IOException {
+        Path directory = resolve(prefix);
+        if (Files.isDirectory(directory)) {
+            visit(directory, prefix, visitor);
+        }
+    }
+    
+    /**
+     * Depth first, with one DirectoryStream open per level (entries are read lazily, never listed at once)
+     */
+    private void visit(Path directory, String prefix, Consumer<BlobInfo> visitor) throws IOException {
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            for (Path entry : entries) {
+                String name = entry.getFileName().toString();
+                if (name.startsWith(".")) {
+                    continue; // Being written
+                }
+                String key = prefix + "/" + name;
+                BasicFileAttributes attributes;
+                try {
+                    attributes = Files.readAttributes(entry, BasicFileAttributes.class);
+                } catch (NoSuchFileException e) {
+                    continue; // Removed meanwhile
+                }
+                if (attributes.isDirectory()) {
+                    visit(entry, key, visitor);
+                } else if (attributes.isRegularFile()) {
+                    visitor.accept(new BlobInfo(key, attributes.size(), attributes.lastModifiedTime().toMillis(), null));
+                }
+            }
+        }
+    }
+    
+    @Override
+    public boolean isLocal() {
+        return true;
+    }
+    
+    @Override
+    public Path localPath(String key) {
+        return resolve(key);
+    }
+    
+    /**
+     * The directory the files are kept in
+     */
+    public Path getRoot() {
+        return Paths.get(uploadsDir).toAbsolutePath().normalize();
+    }
+    
+    private Path resolve(String key) {
+        Path root = getRoot();
+        Path file = root.resolve(key).normalize();
+        if (!BlobStore.isValidKey(key) || !file.startsWith(root)) {
+            throw new IllegalArgumentException("Invalid upload path: " + key);
+        }
+        return file;
+    }
+}
@@ -0,0 +1,300 @@
+package com.leoni.services;
+
+import com.leoni.models.News;
+import com.leoni.utils.TextNormalizer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Push of published news to the employees' devices, by Server-Sent Events or long polling
+ * Subscribers are indexed in memory by topic, the normalized (location, department) they gave, "*" standing for
+ * a missing value. A news targeted at (L, D) goes to the topics (L, D), (L, *), (*, D) and (*, *): exactly the
+ * subscribers whose /api/news/public query would list it, without scanning the others. Each publication goes
+ * through a capped collection followed by every node (CappedStreamTailer), so subscribers on any node get it.
+ * Urgent news use the priority lane of the streams and are returned first by the long poll.
+ */
+@Service
+public class NewsBroadcastService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(NewsBroadcastService.class);
+    
+    public static final String STREAM_COLLECTION = "news_stream";
+    
+    public static final String URGENT = "urgent";
+    
+    public static final long MAX_POLL_MS = 30000;
+    
+    // Publications kept for reconnecting streams; older Last-Event-IDs get a resync
+    private static final long STREAM_SIZE_BYTES = 4L * 1024 * 1024;
+    private static final long STREAM_MAX_DOCUMENTS = 2000;
+    
+    private static final String COUNTERS_COLLECTION = "counters";
+    private static final String SEQUENCE_ID = "news_stream";
+    
+    private static final String ANY = "*";
+    
+    // News returned at once by a poll that is behind
+    private static final int MAX_POLL_RESULTS = 50;
+    
+    private static final long STREAM_TIMEOUT_MS = 30 * 60 * 1000;
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    @Autowired
+    private SseSender senders;
+    
+    private final Map<String, Set<Subscriber>> subscribersByTopic = new ConcurrentHashMap<>();
+    
+    private CappedStreamTailer tailer;
+    
+    /**
+     * A stream or a pending poll, told about each news of its topic
+     */
+    private interface Subscriber {
+        void deliver(News news, long seq);
+    }
+    
+    @PostConstruct
+    public void start() {
+        tailer = new CappedStreamTailer(mongoTemplate, STREAM_COLLECTION, STREAM_SIZE_BYTES, STREAM_MAX_DOCUMENTS,
+                document -> dispatch(toNews(document), ((Number) document.get("seq")).longValue()));
+        tailer.start();
+    }
+    
+    @PreDestroy
+    public void stop() {
+        tailer.stop();
+        subscribersByTopic.clear();
+    }
+    
+    /**
+     * Announce a visible news to the subscribers of its target, on every node (best effort)
+     * @param news the saved news
+     */
+    public void publish(News news) {
+        try {
+            Document counter = mongoTemplate.findAndModify(
+                    new Query(Criteria.where("_id").is(SEQUENCE_ID)),
+                    new Update().inc("value", 1L),
+                    FindAndModifyOptions.options().returnNew(true).upsert(true),
+                    Document.class, COUNTERS_COLLECTION);
+            Document newsDocument = new Document();
+            mongoTemplate.getConverter().write(news, newsDocument);
+            mongoTemplate.insert(new Document("seq", ((Number) counter.get("value")).longValue())
+                    .append("news", newsDocument)
+                    .append("at", new Date()), STREAM_COLLECTION);
+        } catch (Exception e) {
+            logger.warn("Could not broadcast news {}: {}", news.getId(), e.getMessage());
+        }
+    }
+    
+    /**
+     * Open a news stream for a location and department
+     * Each news is sent as a "news" event whose id is its position in the broadcast; with lastEventId the
+     * publications missed since are sent first, or a "resync" event when they are no longer kept.
+     * @param location the employee's location (optional)
+     * @param department the employee's department (optional)
+     * @param lastEventId the Last-Event-ID sent by the client when reconnecting (optional)
+     * @return the emitter to return from the controller
+     */
+    public SseEmitter subscribe(String location, String department, Long lastEventId) {
+        String topic = topic(TextNormalizer.key(location), TextNormalizer.key(department));
+        StreamSubscriber subscriber = new StreamSubscriber();
+        subscriber.connection = new SseConnection(STREAM_TIMEOUT_MS, senders, closed -> unsubscribe(topic, subscriber));
+        subscribersByTopic.computeIfAbsent(topic, key -> ConcurrentHashMap.newKeySet()).add(subscriber);
+        
+        subscriber.connection.offer(SseEmitter.event().comment("connected"));
+        if (lastEventId != null) {
+            replay(topic, lastEventId, subscriber);
+        }
+        return subscriber.connection.getEmitter();
+    }
+    
+    /**
+     * Wait for the next news of a location and department (long poll)
+     * News changed after since are returned at once, urgent first; otherwise the result completes with the
+     * next publication, or empty after the timeout.
+     * @param location the employee's location (optional)
+     * @param department the employee's department (optional)
+     * @param since the since of the previous poll (optional: only wait for new publications)
+     * @param timeoutMs how long to wait (capped at MAX_POLL_MS)
+     * @return a result with news (list) and since (pass back on the next poll)
+     */
+    public DeferredResult<Map<String, Object>> poll(String location, String department, Long since, long timeoutMs) {
+        String locationKey = TextNormalizer.key(location);
+        String departmentKey = TextNormalizer.key(department);
+        String topic = topic(locationKey, departmentKey);
+        long nextSince = since != null ? since : System.currentTimeMillis();
+        
+        long timeout = Math.max(1000, Math.min(timeoutMs, MAX_POLL_MS));
+        DeferredResult<Map<String, Object>> result = new DeferredResult<>(timeout, pollResult(List.of(), nextSince));
+        Subscriber subscriber = (news, seq) -> result.setResult(pollResult(List.of(news), Math.max(nextSince, updatedAtMillis(news))));
+        
+        // Registered before reading the missed news, so a publication in between is not lost
+        subscribersByTopic.computeIfAbsent(topic, key -> ConcurrentHashMap.newKeySet()).add(subscriber);
+        result.onCompletion(() -> unsubscribe(topic, subscriber));
+        result.onTimeout(() -> unsubscribe(topic, subscriber));
+        
+        if (since != null) {
+            List<News> missed = findChangedSince(locationKey, departmentKey, new Date(since));
+            if (!missed.isEmpty()) {
+                long latest = missed.stream().mapToLong(this::updatedAtMillis).max().orElse(since);
+                result.setResult(pollResult(missed, Math.max(since, latest)));
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Number of streams and pending polls on this node
+     */
+    public int getSubscriberCount() {
+        return subscribersByTopic.values().stream().mapToInt(Set::size).sum();
+    }
+    
+    @Scheduled(fixedDelayString = "${app.sse.heartbeat-ms:15000}")
+    public void heartbeat() {
+        for (Set<Subscriber> subscribers : subscribersByTopic.values()) {
+            for (Subscriber subscriber : subscribers) {
+                if (subscriber instanceof StreamSubscriber stream) {
+                    stream.connection.heartbeat();
+                }
+            }
+        }
+    }
+    
+    private final class StreamSubscriber implements Subscriber {
+        SseConnection connection;
+        
+        @Override
+        public void deliver(News news, long seq) {
+            connection.offer(toSseEvent(news, seq), URGENT.equals(news.getPriority()));
+        }
+    }
+    
+    /**
+     * Hand a publication to the local subscribers of the topics it targets
+     */
+    private void dispatch(News news, long seq) {
+        if (!Boolean.TRUE.equals(news.getIsActive())) {
+            return;
+        }
+        for (String topic : topicsOf(news)) {
+            Set<Subscriber> subscribers = subscribersByTopic.get(topic);
+            if (subscribers != null) {
+                subscribers.forEach(subscriber -> subscriber.deliver(news, seq));
+            }
+        }
+    }
+    
+    /**
+     * Send a reconnecting stream the publications of its topic it missed, from the capped collection
+     */
+    private void replay(String topic, long lastEventId, StreamSubscriber subscriber) {
+        List<Document> publications = mongoTemplate.find(
+                new Query(Criteria.where("seq").gt(lastEventId)).with(Sort.by("seq")), Document.class, STREAM_COLLECTION);
+        if (!publications.isEmpty() && ((Number) publications.get(0).get("seq")).longValue() > lastEventId + 1) {
+            // The oldest missed publications were already dropped from the capped collection
+            subscriber.connection.requestResync();
+        }
+        for (Document publication : publications) {
+            News news = toNews(publication);
+            if (Boolean.TRUE.equals(news.getIsActive()) && topicsOf(news).contains(topic)) {
+                subscriber.deliver(news, ((Number) publication.get("seq")).longValue());
+            }
+        }
+    }
+    
+    /**
+     * Visible news of a topic changed after a time, urgent first then oldest first
+     */
+    private List<News> findChangedSince(String locationKey, String departmentKey, Date since) {
+        Query query = new Query(Criteria.where("isActive").is(true).and("updatedAt").gt(since));
+        if (locationKey != null) {
+            query.addCriteria(Criteria.where("targetLocationKey").is(locationKey));
+        }
+        if (departmentKey != null) {
+            query.addCriteria(Criteria.where("targetDepartmentKey").is(departmentKey));
+        }
+        query.with(Sort.by("updatedAt")).limit(MAX_POLL_RESULTS);
+        List<News> news = new ArrayList<>(mongoTemplate.find(query, News.class));
+        news.sort(Comparator.comparing((News item) -> !URGENT.equals(item.getPriority())));
+        return news;
+    }
+    
+    /**
+     * Topics whose subscribers see a news: its target, or any value in each dimension
+     */
+    private List<String> topicsOf(News news) {
+        String locationKey = TextNormalizer.key(news.getTargetLocation());
+        String departmentKey = TextNormalizer.key(news.getTargetDepartment());
+        List<String> topics = new ArrayList<>(4);
+        for (String location : locationKey != null ? List.of(locationKey, ANY) : List.of(ANY)) {
+            for (String department : departmentKey != null ? List.of(departmentKey, ANY) : List.of(ANY)) {
+                topics.add(location + "|" + department);
+            }
+        }
+        return topics;
+    }
+    
+    private String topic(String locationKey, String departmentKey) {
+        return (locationKey != null ? locationKey : ANY) + "|" + (departmentKey != null ? departmentKey : ANY);
+    }
+    
+    private void unsubscribe(String topic, Subscriber subscriber) {
+        subscribersByTopic.computeIfPresent(topic, (key, subscribers) -> {
+            subscribers.remove(subscriber);
+            return subscribers.isEmpty() ? null : subscribers;
+        });
+    }
+    
+    private News toNews(Document publication) {
+        return mongoTemplate.getConverter().read(News.class, (Document) publication.get("news"));
+    }
+    
+    private long updatedAtMillis(News news) {
+        return news.getUpdatedAt() != null
+                ? news.getUpdatedAt().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()
+                : 0;
+    }
+    
+    private Map<String, Object> pollResult(List<News> news, long since) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("news", news);
+        result.put("since", since);
+        return result;
+    }
+    
+    private SseEmitter.SseEventBuilder toSseEvent(News news, long seq) {
+        return SseEmitter.event()
+                .id(String.valueOf(seq))
+                .name("news")
+                .data(news, MediaType.APPLICATION_JSON);
+    }
+}
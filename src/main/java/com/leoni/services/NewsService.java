@@ -1,21 +1,37 @@
 package com.leoni.services;
 
+import com.leoni.exceptions.VersionConflictException;
+import com.leoni.exceptions.VersionRequiredException;
 import com.leoni.models.News;
 import com.leoni.models.Admin;
+import com.leoni.models.StoredImage;
 import com.leoni.models.SuperAdmin;
 import com.leoni.repositories.NewsRepository;
 import com.leoni.repositories.AdminRepository;
+import com.leoni.repositories.PartialUpdateRepository;
 import com.leoni.repositories.SuperAdminRepository;
+import com.leoni.utils.TextNormalizer;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 
 @Service
 public class NewsService {
     
+    // Attempts for a version-checked save before reporting a conflict
+    private static final int MAX_VERSION_RETRIES = 3;
+    
     @Autowired
     private NewsRepository newsRepository;
     
@@ -25,6 +41,24 @@ public class NewsService {
     @Autowired
     private SuperAdminRepository superAdminRepository;
     
+    @Autowired
+    private PartialUpdateRepository partialUpdateRepository;
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    @Autowired
+    private AdminSearchIndexService adminSearchIndexService;
+    
+    @Autowired
+    private DeletionLogService deletionLogService;
+    
+    @Autowired
+    private NewsBroadcastService newsBroadcastService;
+    
+    @Autowired
+    private ImageStorageService imageStorageService;
+    
     /**
      * Create a new news article
      */
@@ -53,7 +87,20 @@ public class NewsService {
         news.setCreatedAt(LocalDateTime.now());
         news.setUpdatedAt(LocalDateTime.now());
         
-        return newsRepository.save(news);
+        StoredImage image = imageStorageService.findByUrl(news.getImageUrl());
+        if (image != null) {
+            news.setImageVariants(image.getVariants());
+        }
+        
+        News savedNews = newsRepository.save(news);
+        adminSearchIndexService.indexNews(savedNews);
+        if (image != null) {
+            savedNews = withGeneratedVariants(savedNews);
+        }
+        if (Boolean.TRUE.equals(savedNews.getIsActive())) {
+            newsBroadcastService.publish(savedNews);
+        }
+        return savedNews;
     }
     
     /**
@@ -104,63 +151,140 @@ public class NewsService {
     
     /**
      * Update news
+     * The news sent must carry the version it was read at. Only the fields it changes from that version
+     * are applied, and save() is version-checked: if someone saved the news in between without touching
+     * those fields, the edit is re-applied on the new version (a bounded number of times); if they
+     * changed one of them, the edit is rejected instead of overwriting it.
+     * @throws VersionRequiredException if the version is missing
+     * @throws VersionConflictException if the edited fields were modified since that version
      */
     public News updateNews(String newsId, News updatedNews) {
         Optional<News> existingNews = newsRepository.findById(newsId);
-        if (existingNews.isPresent()) {
-            News news = existingNews.get();
-            news.setTitle(updatedNews.getTitle());
-            news.setContent(updatedNews.getContent());
-            news.setSummary(updatedNews.getSummary());
-            news.setCategory(updatedNews.getCategory());
-            news.setPriority(updatedNews.getPriority());
-            news.setUpdatedAt(LocalDateTime.now());
-            
-            // Allow updating target location/department for superadmin
-            if (updatedNews.getTargetLocation() != null) {
-                news.setTargetLocation(updatedNews.getTargetLocation());
+        if (!existingNews.isPresent()) {
+            return null;
+        }
+        
+        News news = existingNews.get();
+        if (updatedNews.getVersion() == null) {
+            throw new VersionRequiredException("Actualité", newsId);
+        }
+        if (!updatedNews.getVersion().equals(news.getVersion())) {
+            throw new VersionConflictException("Actualité", newsId, updatedNews.getVersion(), news.getVersion());
+        }
+        
+        // Fields this edit changes, relative to the version the client read
+        Map<String, String> baseFields = editableFields(news);
+        Map<String, String> editedFields = new HashMap<>();
+        editableFields(updatedNews).forEach((field, value) -> {
+            // Target location/department are only changed when sent (superadmin)
+            boolean sent = value != null || !(field.equals("targetLocation") || field.equals("targetDepartment"));
+            if (sent && !Objects.equals(value, baseFields.get(field))) {
+                editedFields.put(field, value);
             }
-            if (updatedNews.getTargetDepartment() != null) {
-                news.setTargetDepartment(updatedNews.getTargetDepartment());
+        });
+        
+        for (int attempt = 1; ; attempt++) {
+            applyEditableFields(news, editedFields);
+            news.setUpdatedAt(LocalDateTime.now());
+            try {
+                News savedNews = withGeneratedVariants(newsRepository.save(news));
+                adminSearchIndexService.indexNews(savedNews);
+                return savedNews;
+            } catch (OptimisticLockingFailureException e) {
+                // Saved by someone else between the read and the write: merge only if they left the edited fields alone
+                News latestNews = newsRepository.findById(newsId).orElse(null);
+                if (latestNews == null) {
+                    return null;
+                }
+                Map<String, String> latestFields = editableFields(latestNews);
+                boolean editedByOthers = editedFields.keySet().stream()
+                        .anyMatch(field -> !Objects.equals(latestFields.get(field), baseFields.get(field)));
+                if (editedByOthers || attempt >= MAX_VERSION_RETRIES) {
+                    throw new VersionConflictException("Actualité", newsId, updatedNews.getVersion(), latestNews.getVersion());
+                }
+                news = latestNews;
             }
-            
-            return newsRepository.save(news);
         }
-        return null;
+    }
+    
+    /**
+     * Variants finished while the news was saved: the generator only updated the copy stored then (without
+     * changing its version), which the save replaced
+     */
+    private News withGeneratedVariants(News savedNews) {
+        if (savedNews.getImageVariants() != null) {
+            return savedNews;
+        }
+        StoredImage generated = imageStorageService.findByUrl(savedNews.getImageUrl());
+        if (generated != null && generated.getVariants() != null) {
+            return partialUpdateRepository.setFields(savedNews.getId(),
+                    Map.of("imageVariants", generated.getVariants()), News.class);
+        }
+        return savedNews;
+    }
+    
+    // Fields an update may change, keyed by field name
+    private static Map<String, String> editableFields(News news) {
+        Map<String, String> fields = new HashMap<>();
+        fields.put("title", news.getTitle());
+        fields.put("content", news.getContent());
+        fields.put("summary", news.getSummary());
+        fields.put("category", news.getCategory());
+        fields.put("priority", news.getPriority());
+        fields.put("targetLocation", news.getTargetLocation());
+        fields.put("targetDepartment", news.getTargetDepartment());
+        return fields;
+    }
+    
+    private static void applyEditableFields(News news, Map<String, String> fields) {
+        fields.forEach((field, value) -> {
+            switch (field) {
+                case "title" -> news.setTitle(value);
+                case "content" -> news.setContent(value);
+                case "summary" -> news.setSummary(value);
+                case "category" -> news.setCategory(value);
+                case "priority" -> news.setPriority(value);
+                case "targetLocation" -> news.setTargetLocation(value);
+                case "targetDepartment" -> news.setTargetDepartment(value);
+                default -> throw new IllegalArgumentException("Not an editable field: " + field);
+            }
+        });
     }
     
     /**
      * Publish news
      */
     public News publishNews(String newsId) {
-        Optional<News> existingNews = newsRepository.findById(newsId);
-        if (existingNews.isPresent()) {
-            News news = existingNews.get();
-            news.publish();
-            return newsRepository.save(news);
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("visibility.status", "published");
+        fields.put("publishedAt", LocalDateTime.now());
+        News savedNews = partialUpdateRepository.setFields(newsId, fields, News.class);
+        adminSearchIndexService.indexNews(savedNews);
+        // Pushed to the employees only if the public listing shows it (legacy isActive flag)
+        if (savedNews != null && Boolean.TRUE.equals(savedNews.getIsActive())) {
+            newsBroadcastService.publish(savedNews);
         }
-        return null;
+        return savedNews;
     }
     
     /**
      * Archive news
      */
     public News archiveNews(String newsId) {
-        Optional<News> existingNews = newsRepository.findById(newsId);
-        if (existingNews.isPresent()) {
-            News news = existingNews.get();
-            news.archive();
-            return newsRepository.save(news);
-        }
-        return null;
+        News savedNews = partialUpdateRepository.setFields(newsId, Map.of("visibility.status", "archived"), News.class);
+        adminSearchIndexService.indexNews(savedNews);
+        return savedNews;
     }
     
     /**
      * Delete news
      */
     public boolean deleteNews(String newsId) {
-        if (newsRepository.existsById(newsId)) {
+        Optional<News> news = newsRepository.findById(newsId);
+        if (news.isPresent()) {
             newsRepository.deleteById(newsId);
+            adminSearchIndexService.remove(AdminSearchIndexService.NEWS, newsId);
+            deletionLogService.record(DeletionLogService.NEWS, newsId, null);
             return true;
         }
         return false;
@@ -181,27 +305,34 @@ public class NewsService {
         System.out.println("Location filter: '" + location + "'");
         System.out.println("Department filter: '" + department + "'");
         
-        // Start with all active news
-        List<News> news = newsRepository.findAllActiveNews();
-        System.out.println("Total active news found: " + news.size());
-        
-        // Apply location filter if provided
-        if (location != null && !location.trim().isEmpty()) {
-            news = news.stream()
-                .filter(n -> location.equalsIgnoreCase(n.getTargetLocation()))
-                .toList();
-            System.out.println("After location filter: " + news.size());
+        // Active news, filtered on the normalized target keys by MongoDB
+        Query query = new Query(Criteria.where("isActive").is(true));
+        if (TextNormalizer.hasKey(location)) {
+            query.addCriteria(Criteria.where("targetLocationKey").is(TextNormalizer.key(location)));
         }
-        
-        // Apply department filter if provided
-        if (department != null && !department.trim().isEmpty()) {
-            news = news.stream()
-                .filter(n -> department.equalsIgnoreCase(n.getTargetDepartment()))
-                .toList();
-            System.out.println("After department filter: " + news.size());
+        if (TextNormalizer.hasKey(department)) {
+            query.addCriteria(Criteria.where("targetDepartmentKey").is(TextNormalizer.key(department)));
         }
+        List<News> news = mongoTemplate.find(query, News.class);
         
         System.out.println("Final filtered news count: " + news.size());
         return news;
     }
+    
+    /**
+     * Get the news created or changed since a time, whatever their status and target (delta sync)
+     * @param since the earliest updatedAt
+     */
+    public List<News> getNewsChangedSince(Date since) {
+        return mongoTemplate.find(new Query(Criteria.where("updatedAt").gte(since)), News.class);
+    }
+    
+    /**
+     * Whether getFilteredNews lists a news for a location and department
+     */
+    public boolean isVisibleTo(News news, String location, String department) {
+        return Boolean.TRUE.equals(news.getIsActive())
+                && (!TextNormalizer.hasKey(location) || TextNormalizer.key(location).equals(news.getTargetLocationKey()))
+                && (!TextNormalizer.hasKey(department) || TextNormalizer.key(department).equals(news.getTargetDepartmentKey()));
+    }
 }
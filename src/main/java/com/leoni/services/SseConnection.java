@@ -0,0 +1,201 @@
+package com.leoni.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * One open Server-Sent Events stream and the events waiting to be written to it
+ * Events are never written by the thread that offers them: the queues are drained by the SseSender pool, one
+ * send at a time per connection. Urgent events have their own lane, drained first. A client that falls more than
+ * BUFFER_SIZE events behind loses its queues and gets a "resync" event instead, and one whose socket takes no
+ * bytes for SseSender.SEND_TIMEOUT_MS is closed, so a slow phone cannot hold memory or block the others.
+ */
+public class SseConnection {
+    
+    private static final Logger logger = LoggerFactory.getLogger(SseConnection.class);
+    
+    // Events queued per lane before the client is told to resync
+    public static final int BUFFER_SIZE = 32;
+    
+    public static final String RESYNC = "resync";
+    
+    private final SseEmitter emitter;
+    private final SseSender senders;
+    private final Consumer<SseConnection> onClose;
+    
+    private final ArrayBlockingQueue<SseEmitter.SseEventBuilder> urgentQueue = new ArrayBlockingQueue<>(BUFFER_SIZE);
+    private final ArrayBlockingQueue<SseEmitter.SseEventBuilder> queue = new ArrayBlockingQueue<>(BUFFER_SIZE);
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private volatile boolean overflowed;
+    private volatile boolean closed;
+    
+    // Start of the send in progress (0 when none), and whether the sender gave up on it (guarded by this)
+    private long sendStartedAt;
+    private boolean stalled;
+    
+    /**
+     * @param timeoutMs the stream is closed after this (EventSource reconnects on its own)
+     * @param senders the pool writing the events
+     * @param onClose called once when the stream is closed, whatever the reason
+     */
+    public SseConnection(long timeoutMs, SseSender senders, Consumer<SseConnection> onClose) {
+        this.emitter = new SseEmitter(timeoutMs);
+        this.senders = senders;
+        this.onClose = onClose;
+        emitter.onCompletion(this::close);
+        emitter.onTimeout(this::close);
+        emitter.onError(e -> close());
+    }
+    
+    public SseEmitter getEmitter() {
+        return emitter;
+    }
+    
+    public boolean isClosed() {
+        return closed;
+    }
+    
+    /**
+     * Queue an event (never blocks)
+     */
+    public void offer(SseEmitter.SseEventBuilder event) {
+        offer(event, false);
+    }
+    
+    /**
+     * Queue an event, ahead of the normal ones when urgent (never blocks)
+     */
+    public void offer(SseEmitter.SseEventBuilder event, boolean urgent) {
+        if (closed) {
+            return;
+        }
+        if (!(urgent ? urgentQueue : queue).offer(event)) {
+            // Too far behind: what is queued is dropped, the client catches up on its own
+            urgentQueue.clear();
+            queue.clear();
+            overflowed = true;
+        }
+        schedule();
+    }
+    
+    /**
+     * Tell the client it missed events (sent before anything still queued)
+     */
+    public void requestResync() {
+        overflowed = true;
+        schedule();
+    }
+    
+    /**
+     * Heartbeat comment when nothing is waiting, so proxies keep the stream open and dead ones are detected
+     */
+    public void heartbeat() {
+        if (urgentQueue.isEmpty() && queue.isEmpty()) {
+            offer(SseEmitter.event().comment("heartbeat"));
+        }
+    }
+    
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        urgentQueue.clear();
+        queue.clear();
+        onClose.accept(this);
+        try {
+            emitter.complete();
+        } catch (Exception e) {
+            // Already completed by the container
+        }
+    }
+    
+    synchronized long getSendStartedAt() {
+        return sendStartedAt;
+    }
+    
+    /**
+     * Give up on the send in progress: the stream is closed without complete(), which would wait for it
+     * @return false if the send had already finished or was already given up
+     */
+    boolean markStalled() {
+        synchronized (this) {
+            if (sendStartedAt == 0 || stalled) {
+                return false;
+            }
+            stalled = true;
+        }
+        if (!closed) {
+            closed = true;
+            urgentQueue.clear();
+            queue.clear();
+            onClose.accept(this);
+        }
+        return true;
+    }
+    
+    private void schedule() {
+        if (draining.compareAndSet(false, true)) {
+            senders.execute(this::drain);
+        }
+    }
+    
+    private void drain() {
+        try {
+            while (!closed) {
+                SseEmitter.SseEventBuilder event;
+                if (overflowed) {
+                    overflowed = false;
+                    event = SseEmitter.event().name(RESYNC).data(Map.of("reason", "buffer"), MediaType.APPLICATION_JSON);
+                } else {
+                    event = urgentQueue.poll();
+                    if (event == null) {
+                        event = queue.poll();
+                    }
+                }
+                if (event == null) {
+                    break;
+                }
+                send(event);
+            }
+        } catch (IOException | IllegalStateException e) {
+            logger.debug("Event stream closed: {}", e.getMessage());
+            close();
+        } finally {
+            draining.set(false);
+        }
+        // An event offered between the last poll and the reset of the flag
+        if (!closed && (overflowed || !urgentQueue.isEmpty() || !queue.isEmpty())) {
+            schedule();
+        }
+    }
+    
+    private void send(SseEmitter.SseEventBuilder event) throws IOException {
+        synchronized (this) {
+            sendStartedAt = System.currentTimeMillis();
+        }
+        senders.sendStarted(this);
+        boolean gaveUp;
+        try {
+            emitter.send(event);
+        } finally {
+            synchronized (this) {
+                sendStartedAt = 0;
+                gaveUp = stalled;
+            }
+            senders.sendFinished(this, gaveUp);
+        }
+        if (gaveUp) {
+            // The write went through late: end the stream the sender already closed, the client reconnects
+            emitter.complete();
+        }
+    }
+}
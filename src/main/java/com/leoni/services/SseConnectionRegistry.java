@@ -0,0 +1,120 @@
+package com.leoni.services;
+
+import com.leoni.models.DocumentEvent;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import jakarta.annotation.PreDestroy;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Server-Sent Events streams of the employees' document request changes on this node
+ * Dispatching only queues the event on the owner's streams (see SseConnection for the bounded buffers);
+ * a client told to resync reads what it missed from the change feed or the delta sync.
+ */
+@Service
+public class SseConnectionRegistry {
+    
+    // Oldest connections of a user are closed beyond this (tabs, reconnects that did not close)
+    public static final int MAX_CONNECTIONS_PER_USER = 5;
+    
+    // Clients reconnect after this (EventSource does it on its own, passing Last-Event-ID)
+    private static final long TIMEOUT_MS = 30 * 60 * 1000;
+    
+    @Autowired
+    private DocumentEventService documentEventService;
+    
+    @Autowired
+    private SseSender senders;
+    
+    private final Map<String, Queue<SseConnection>> connectionsByUser = new ConcurrentHashMap<>();
+    
+    /**
+     * Open a stream for an employee
+     * With lastEventId (the seq of the last event the client received) the missed events are sent first;
+     * an event may then arrive twice, clients ignore an id they have already seen.
+     * @param userId the employee ID
+     * @param lastEventId the Last-Event-ID sent by the client when reconnecting (optional)
+     * @return the emitter to return from the controller
+     */
+    public SseEmitter open(String userId, Long lastEventId) {
+        SseConnection connection = new SseConnection(TIMEOUT_MS, senders, closed -> unregister(userId, closed));
+        
+        // Registered before the replay so nothing relayed meanwhile is missed
+        Queue<SseConnection> connections = connectionsByUser.compute(userId, (id, existing) -> {
+            Queue<SseConnection> userConnections = existing != null ? existing : new ConcurrentLinkedQueue<>();
+            userConnections.add(connection);
+            return userConnections;
+        });
+        while (connections.size() > MAX_CONNECTIONS_PER_USER) {
+            SseConnection oldest = connections.peek();
+            if (oldest == null || oldest == connection) {
+                break;
+            }
+            oldest.close();
+        }
+        
+        connection.offer(SseEmitter.event().comment("connected"));
+        if (lastEventId != null) {
+            Map<String, Object> missed = documentEventService.getChanges(lastEventId, userId, SseConnection.BUFFER_SIZE);
+            @SuppressWarnings("unchecked")
+            List<DocumentEvent> events = (List<DocumentEvent>) missed.get("events");
+            events.forEach(event -> connection.offer(toSseEvent(event)));
+            if (Boolean.TRUE.equals(missed.get("hasMore"))) {
+                connection.requestResync();
+            }
+        }
+        return connection.getEmitter();
+    }
+    
+    /**
+     * Queue an event on the streams of its owner (never blocks)
+     * @param event the relayed event
+     */
+    public void dispatch(DocumentEvent event) {
+        Queue<SseConnection> connections = connectionsByUser.get(event.getUserId());
+        if (connections == null) {
+            return;
+        }
+        // One builder per connection: a builder is consumed when it is sent
+        connections.forEach(connection -> connection.offer(toSseEvent(event)));
+    }
+    
+    /**
+     * Number of open streams on this node
+     */
+    public int getConnectionCount() {
+        return connectionsByUser.values().stream().mapToInt(Queue::size).sum();
+    }
+    
+    @Scheduled(fixedDelayString = "${app.sse.heartbeat-ms:15000}")
+    public void heartbeat() {
+        connectionsByUser.values().forEach(connections -> connections.forEach(SseConnection::heartbeat));
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        connectionsByUser.values().forEach(connections -> List.copyOf(connections).forEach(SseConnection::close));
+    }
+    
+    private void unregister(String userId, SseConnection connection) {
+        connectionsByUser.computeIfPresent(userId, (id, connections) -> {
+            connections.remove(connection);
+            return connections.isEmpty() ? null : connections;
+        });
+    }
+    
+    private SseEmitter.SseEventBuilder toSseEvent(DocumentEvent event) {
+        return SseEmitter.event()
+                .id(String.valueOf(event.getSeq()))
+                .name(event.getType())
+                .data(event, MediaType.APPLICATION_JSON);
+    }
+}
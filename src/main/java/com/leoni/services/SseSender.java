@@ -0,0 +1,85 @@
+package com.leoni.services;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Threads writing the events of every Server-Sent Events stream of this node (document and news streams)
+ * A send blocks until the client's socket takes the bytes. One still running after SEND_TIMEOUT_MS is written
+ * off: its connection is closed, so nothing more is queued for it, and the pool gets one more thread until the
+ * stuck write returns (it fails on the container's write timeout). A few stalled phones cannot starve the others.
+ */
+@Component
+public class SseSender {
+    
+    private static final Logger logger = LoggerFactory.getLogger(SseSender.class);
+    
+    public static final long SEND_TIMEOUT_MS = 10000;
+    
+    private static final int SENDER_THREADS = 4;
+    
+    // Threads added at most for stalled sends; beyond this they wait for the container's write timeout
+    private static final int MAX_REPLACEMENT_THREADS = 60;
+    
+    private final ThreadPoolExecutor pool = new ThreadPoolExecutor(
+            SENDER_THREADS, SENDER_THREADS + MAX_REPLACEMENT_THREADS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+            runnable -> {
+                Thread thread = new Thread(runnable, "sse-sender");
+                thread.setDaemon(true);
+                return thread;
+            });
+    
+    // Connections with a send in progress
+    private final Set<SseConnection> sending = ConcurrentHashMap.newKeySet();
+    
+    // Stalled sends still holding a thread
+    private int stalledSends;
+    
+    public void execute(Runnable drain) {
+        pool.execute(drain);
+    }
+    
+    void sendStarted(SseConnection connection) {
+        sending.add(connection);
+    }
+    
+    /**
+     * @param stalled whether the send had been written off, its replacement thread is then released
+     */
+    void sendFinished(SseConnection connection, boolean stalled) {
+        sending.remove(connection);
+        if (stalled) {
+            resize(-1);
+        }
+    }
+    
+    @Scheduled(fixedDelayString = "${app.sse.send-check-ms:1000}")
+    public void closeStalledSends() {
+        long now = System.currentTimeMillis();
+        for (SseConnection connection : sending) {
+            if (now - connection.getSendStartedAt() > SEND_TIMEOUT_MS && connection.markStalled()) {
+                logger.debug("Event stream closed: no write progress for {} ms", SEND_TIMEOUT_MS);
+                resize(1);
+            }
+        }
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+    
+    private synchronized void resize(int delta) {
+        stalledSends += delta;
+        pool.setCorePoolSize(SENDER_THREADS + Math.min(stalledSends, MAX_REPLACEMENT_THREADS));
+    }
+}
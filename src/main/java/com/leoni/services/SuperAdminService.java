@@ -5,6 +5,7 @@ import com.leoni.models.Admin;
 import com.leoni.models.User;
 import com.leoni.repositories.SuperAdminRepository;
 import com.leoni.repositories.AdminRepository;
+import com.leoni.repositories.PartialUpdateRepository;
 import com.leoni.repositories.UserRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -13,6 +14,7 @@ import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 @Service
@@ -29,6 +31,9 @@ public class SuperAdminService {
     @Autowired
     private UserRepository userRepository;
     
+    @Autowired
+    private PartialUpdateRepository partialUpdateRepository;
+    
     /**
      * Create a new superadmin
      */
@@ -51,11 +56,10 @@ public class SuperAdminService {
             Optional<SuperAdmin> superAdmin = superAdminRepository.findByUsernameAndActiveTrue(username);
             
             if (superAdmin.isPresent() && superAdmin.get().getPassword().equals(password)) {
-                SuperAdmin admin = superAdmin.get();
-                admin.updateLastLogin();
-                superAdminRepository.save(admin);
+                SuperAdmin admin = partialUpdateRepository.setFields(superAdmin.get().getId(),
+                        Map.of("lastLoginAt", LocalDateTime.now()), SuperAdmin.class);
                 logger.info("SuperAdmin {} authenticated successfully", username);
-                return superAdmin;
+                return admin != null ? Optional.of(admin) : superAdmin;
             }
             
             logger.warn("Failed authentication attempt for SuperAdmin: {}", username);
@@ -0,0 +1,202 @@
+package com.leoni.services;
+
+import com.leoni.models.Department;
+import com.leoni.utils.TextNormalizer;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Location -> departments tree, built with one aggregation and served from memory
+ * The tree is rebuilt on first use after invalidate() (department create, update, delete, reseed)
+ * and at most every REFRESH_INTERVAL_MS so changes made by another instance are picked up.
+ * Every build gets a new version number, usable as an ETag by the endpoints.
+ */
+@Service
+public class TaxonomyService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(TaxonomyService.class);
+    
+    // Maximum age of the cached tree
+    private static final long REFRESH_INTERVAL_MS = 10 * 60 * 1000;
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    // Starts from the clock so versions (and ETags) are not reused after a restart
+    private final AtomicLong versions = new AtomicLong(System.currentTimeMillis());
+    
+    // Incremented by invalidate(), so a build that raced with a write is not cached
+    private final AtomicLong invalidations = new AtomicLong();
+    
+    private volatile Taxonomy current;
+    
+    /**
+     * Immutable snapshot of the taxonomy
+     */
+    public static final class Taxonomy {
+        private final long version;
+        private final long builtAt;
+        private final List<String> locations;
+        private final List<String> departmentNames;
+        private final List<Department> departments;
+        private final Map<String, List<Department>> departmentsByLocationKey;
+        
+        private Taxonomy(long version, List<String> locations, List<String> departmentNames,
+                         List<Department> departments, Map<String, List<Department>> departmentsByLocationKey) {
+            this.version = version;
+            this.builtAt = System.currentTimeMillis();
+            this.locations = locations;
+            this.departmentNames = departmentNames;
+            this.departments = departments;
+            this.departmentsByLocationKey = departmentsByLocationKey;
+        }
+        
+        public long getVersion() {
+            return version;
+        }
+        
+        /**
+         * Quoted version, for the ETag header
+         */
+        public String getETag() {
+            return "\"taxonomy-" + version + "\"";
+        }
+        
+        /**
+         * Distinct location names, sorted
+         */
+        public List<String> getLocations() {
+            return locations;
+        }
+        
+        /**
+         * Distinct department names across all locations, sorted
+         */
+        public List<String> getDepartmentNames() {
+            return departmentNames;
+        }
+        
+        /**
+         * All departments, grouped by location
+         */
+        public List<Department> getDepartments() {
+            return departments;
+        }
+        
+        /**
+         * Departments of a location (case insensitive), sorted by name
+         */
+        public List<Department> getDepartmentsByLocation(String location) {
+            return departmentsByLocationKey.getOrDefault(TextNormalizer.key(location), List.of());
+        }
+        
+        /**
+         * Department names per location name, in location order
+         */
+        public Map<String, List<String>> getDepartmentNamesByLocation() {
+            Map<String, List<String>> names = new LinkedHashMap<>();
+            for (String location : locations) {
+                names.put(location, getDepartmentsByLocation(location).stream()
+                        .map(Department::getName)
+                        .filter(TextNormalizer::hasKey)
+                        .distinct()
+                        .collect(Collectors.toList()));
+            }
+            return names;
+        }
+    }
+    
+    /**
+     * Get the current taxonomy, building it if it was invalidated or is too old
+     * @return the taxonomy snapshot
+     */
+    public Taxonomy current() {
+        Taxonomy taxonomy = current;
+        if (taxonomy == null || System.currentTimeMillis() - taxonomy.builtAt > REFRESH_INTERVAL_MS) {
+            synchronized (this) {
+                taxonomy = current;
+                if (taxonomy == null || System.currentTimeMillis() - taxonomy.builtAt > REFRESH_INTERVAL_MS) {
+                    long invalidation = invalidations.get();
+                    taxonomy = build();
+                    if (invalidations.get() == invalidation) {
+                        current = taxonomy;
+                    }
+                }
+            }
+        }
+        return taxonomy;
+    }
+    
+    /**
+     * Drop the cached taxonomy after departments were written
+     */
+    public void invalidate() {
+        invalidations.incrementAndGet();
+        current = null;
+    }
+    
+    /**
+     * Group the departments by normalized location in one aggregation
+     */
+    private Taxonomy build() {
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.sort(Sort.by("name")),
+                Aggregation.group("locationKey")
+                        .first("location").as("location")
+                        .push(new Document("_id", "$_id").append("name", "$name").append("location", "$location")
+                                .append("nameKey", "$nameKey").append("locationKey", "$locationKey"))
+                        .as("departments"),
+                Aggregation.sort(Sort.by("location"))
+        );
+        List<Document> groups = mongoTemplate.aggregate(aggregation, "departments", Document.class).getMappedResults();
+        
+        List<String> locations = new ArrayList<>();
+        TreeSet<String> departmentNames = new TreeSet<>();
+        List<Department> departments = new ArrayList<>();
+        Map<String, List<Department>> departmentsByLocationKey = new LinkedHashMap<>();
+        for (Document group : groups) {
+            List<Department> groupDepartments = new ArrayList<>();
+            for (Document item : group.getList("departments", Document.class)) {
+                Department department = new Department(item.getString("name"), item.getString("location"));
+                department.setId(item.get("_id") != null ? item.get("_id").toString() : null);
+                department.setNameKey(item.getString("nameKey"));
+                department.setLocationKey(item.getString("locationKey"));
+                groupDepartments.add(department);
+                if (TextNormalizer.hasKey(department.getName())) {
+                    departmentNames.add(department.getName());
+                }
+            }
+            departments.addAll(groupDepartments);
+            
+            String locationKey = group.getString("_id");
+            String location = group.getString("location");
+            if (locationKey != null && TextNormalizer.hasKey(location)) {
+                locations.add(location);
+                departmentsByLocationKey.put(locationKey, Collections.unmodifiableList(groupDepartments));
+            }
+        }
+        
+        long version = versions.incrementAndGet();
+        logger.debug("Taxonomy version {} built: {} locations, {} departments", version, locations.size(), departments.size());
+        return new Taxonomy(version,
+                Collections.unmodifiableList(locations),
+                List.copyOf(departmentNames),
+                Collections.unmodifiableList(departments),
+                departmentsByLocationKey);
+    }
+}
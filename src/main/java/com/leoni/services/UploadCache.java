@@ -0,0 +1,58 @@
+package com.leoni.services;
+
+import org.springframework.stereotype.Service;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Small LRU cache of uploaded files, for the thumbnails every feed render asks for
+ * Only files up to MAX_ENTRY_BYTES are kept, within MAX_TOTAL_BYTES overall. Uploaded files are never
+ * rewritten (content-addressed or unique names), so entries only leave on eviction or deletion.
+ */
+@Service
+public class UploadCache {
+    
+    public static final int MAX_ENTRY_BYTES = 64 * 1024;
+    
+    private static final long MAX_TOTAL_BYTES = 16L * 1024 * 1024;
+    
+    /**
+     * A cached file with the headers it is served with
+     */
+    public record Entry(byte[] content, String etag, String contentType, long lastModified) {
+    }
+    
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    
+    private long totalBytes;
+    
+    public synchronized Entry get(String path) {
+        return entries.get(path);
+    }
+    
+    public synchronized void put(String path, Entry entry) {
+        if (entry.content().length > MAX_ENTRY_BYTES) {
+            return;
+        }
+        Entry previous = entries.put(path, entry);
+        totalBytes += entry.content().length - (previous != null ? previous.content().length : 0);
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while (totalBytes > MAX_TOTAL_BYTES && eldest.hasNext()) {
+            totalBytes -= eldest.next().getValue().content().length;
+            eldest.remove();
+        }
+    }
+    
+    /**
+     * Forget a file (deleted or moved away)
+     * @param path the path relative to the uploads directory
+     */
+    public synchronized void evict(String path) {
+        Entry removed = entries.remove(path);
+        if (removed != null) {
+            totalBytes -= removed.content().length;
+        }
+    }
+}
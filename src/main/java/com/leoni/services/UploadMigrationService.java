@@ -0,0 +1,86 @@
+package com.leoni.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Copy of the news images kept on this node's disk (app.uploads.dir/news-images) into the configured store
+ * Files already in the store with the same size are skipped, so the migration can be run again after an
+ * interruption, and on each node that received uploads before the switch. The local files are left in place.
+ */
+@Service
+public class UploadMigrationService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(UploadMigrationService.class);
+    
+    @Value("${app.uploads.dir:uploads}")
+    private String uploadsDir;
+    
+    @Autowired
+    private BlobStore blobStore;
+    
+    /**
+     * Copy the local news images missing from the store
+     * @return counts of migrated, skipped (already there) and failed files
+     */
+    public Map<String, Object> migrateLocalUploads() throws IOException {
+        Map<String, Object> result = new LinkedHashMap<>();
+        if (blobStore.isLocal()) {
+            result.put("migrated", 0);
+            result.put("skipped", 0);
+            result.put("failed", 0);
+            result.put("message", "Le stockage local est déjà utilisé, rien à migrer");
+            return result;
+        }
+        
+        Path root = Paths.get(uploadsDir).toAbsolutePath().normalize();
+        Path directory = root.resolve(ImageStorageService.NEWS_IMAGES);
+        int migrated = 0;
+        int skipped = 0;
+        int failed = 0;
+        if (Files.isDirectory(directory)) {
+            List<Path> files;
+            try (Stream<Path> walk = Files.walk(directory)) {
+                files = walk.filter(Files::isRegularFile).toList();
+            }
+            for (Path file : files) {
+                String key = root.relativize(file).toString().replace('\\', '/');
+                if (!BlobStore.isValidKey(key)) {
+                    continue; // Temporary file of an interrupted upload
+                }
+                try {
+                    BlobStore.BlobInfo existing = blobStore.stat(key);
+                    if (existing != null && existing.size() == Files.size(file)) {
+                        skipped++;
+                        continue;
+                    }
+                    try (InputStream in = Files.newInputStream(file)) {
+                        blobStore.put(key, in, Files.probeContentType(file));
+                    }
+                    migrated++;
+                } catch (IOException e) {
+                    failed++;
+                    logger.warn("Could not migrate {}: {}", key, e.getMessage());
+                }
+            }
+        }
+        logger.info("Upload migration: {} migrated, {} skipped, {} failed", migrated, skipped, failed);
+        result.put("migrated", migrated);
+        result.put("skipped", skipped);
+        result.put("failed", failed);
+        return result;
+    }
+}
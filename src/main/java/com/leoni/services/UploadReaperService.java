@@ -0,0 +1,422 @@
+package com.leoni.services;
+
+import com.leoni.models.News;
+import com.leoni.models.StoredImage;
+import com.leoni.utils.LongHashSet;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Removal of the uploaded news images no news uses any more (deleted news, or uploads never attached)
+ * Mark: the image URLs of every news are read from a cursor into a LongHashSet of 64-bit ids (the first 16 hex
+ * of the content hash, or a hash of the path for older uploads), together with the images uploaded during the
+ * grace period. Sweep: the news-images files are visited one at a time (BlobStore.list, a DirectoryStream per
+ * directory on disk); unmarked files older than the grace period are removed in batches, each batch after
+ * marking again the news changed and the images uploaded since, so a news saved during the run keeps its image.
+ * Memory follows the number of news, not the number of files. An id collision can only keep a file.
+ * Removed files are moved to quarantine/{date}/ (not served) and deleted app.uploads.reaper.quarantine-days
+ * later, or deleted at once with app.uploads.reaper.mode=delete. The record of an image goes after its file,
+ * and the file is put back if the image was uploaded again meanwhile. Every node drops its cached copies of
+ * the removed files (BlobCache.evictEverywhere). Only one node reaps at a time (lease in relay_locks).
+ */
+@Service
+public class UploadReaperService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(UploadReaperService.class);
+    
+    public static final String QUARANTINE = "quarantine";
+    
+    // {sha256}.ext, or {sha256}_w{width}.ext for a variant
+    private static final Pattern HASHED_NAME = Pattern.compile("^([0-9a-f]{64})(_w\\d+)?\\.[a-z]+$");
+    
+    private static final Pattern HEX_HASH = Pattern.compile("^[0-9a-f]{64}$");
+    
+    private static final String UPLOADS_PATH = "/uploads/";
+    
+    // Files removed at a time, after marking again what changed meanwhile
+    private static final int BATCH_SIZE = 500;
+    
+    private static final int CURSOR_BATCH_SIZE = 1000;
+    
+    private static final String LOCKS_COLLECTION = "relay_locks";
+    private static final String LOCK_ID = "upload_reaper";
+    
+    // Renewed before each batch; a node that stopped without releasing it is replaced after this delay
+    private static final long LEASE_MS = 10 * 60 * 1000;
+    
+    @Value("${app.uploads.reaper.grace-hours:24}")
+    private long graceHours;
+    
+    @Value("${app.uploads.reaper.mode:quarantine}")
+    private String mode;
+    
+    @Value("${app.uploads.reaper.quarantine-days:7}")
+    private long quarantineDays;
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    @Autowired
+    private BlobStore blobStore;
+    
+    @Autowired
+    private BlobCache blobCache;
+    
+    private final AtomicBoolean running = new AtomicBoolean();
+    
+    private final String instanceId = new ObjectId().toHexString();
+    
+    @Scheduled(initialDelayString = "${app.uploads.reaper.initial-delay-ms:600000}",
+            fixedDelayString = "${app.uploads.reaper.interval-ms:86400000}")
+    public void scheduledRun() {
+        try {
+            reap(false);
+        } catch (Exception e) {
+            logger.error("Upload reaper run failed: {}", e.getMessage());
+        }
+    }
+    
+    /**
+     * Remove the unused images, and purge the quarantine
+     * @param dryRun only count what would be removed (removed and purged are then what a run would remove)
+     * @return the report (scanned, referenced, recent, removed, removedBytes, purged, reclaimedBytes, failed...),
+     *         or null when a run is already in progress on this or another node
+     */
+    public Map<String, Object> reap(boolean dryRun) throws IOException {
+        if (!running.compareAndSet(false, true)) {
+            return null;
+        }
+        if (!acquireLease()) {
+            running.set(false);
+            return null;
+        }
+        long start = System.currentTimeMillis();
+        try {
+            Sweep sweep = new Sweep(dryRun, new Date(start - graceHours * 3600 * 1000));
+            sweep.mark();
+            blobStore.list(ImageStorageService.NEWS_IMAGES, sweep::visit);
+            sweep.flush();
+            renewLease();
+            purgeQuarantine(sweep);
+            
+            Map<String, Object> report = new LinkedHashMap<>();
+            report.put("dryRun", dryRun);
+            report.put("mode", isDeleteMode() ? "delete" : QUARANTINE);
+            report.put("scanned", sweep.scanned);
+            report.put("scannedBytes", sweep.scannedBytes);
+            report.put("referenced", sweep.referenced);
+            report.put("recent", sweep.recent);
+            report.put("removed", sweep.removed);
+            report.put("removedBytes", sweep.removedBytes);
+            report.put("purged", sweep.purged);
+            report.put("reclaimedBytes", sweep.reclaimedBytes);
+            report.put("failed", sweep.failed);
+            report.put("markedImages", sweep.marks.size());
+            report.put("durationMs", System.currentTimeMillis() - start);
+            if (sweep.removed > 0 || sweep.purged > 0 || sweep.failed > 0) {
+                logger.info("Upload reaper{}: {} of {} files removed ({} bytes), {} purged from quarantine, {} bytes reclaimed, {} failed in {} ms",
+                        dryRun ? " (dry run)" : "", sweep.removed, sweep.scanned, sweep.removedBytes, sweep.purged,
+                        sweep.reclaimedBytes, sweep.failed, report.get("durationMs"));
+            }
+            return report;
+        } finally {
+            releaseLease();
+            running.set(false);
+        }
+    }
+    
+    /**
+     * State of one run
+     */
+    private final class Sweep {
+        final boolean dryRun;
+        final Date graceCutoff;
+        final LongHashSet marks = new LongHashSet();
+        final List<BlobStore.BlobInfo> batch = new ArrayList<>(BATCH_SIZE);
+        final List<String> evicted = new ArrayList<>(BATCH_SIZE);
+        final String quarantineDate = LocalDate.now().toString();
+        Date markedAt;
+        
+        long scanned;
+        long scannedBytes;
+        long referenced;
+        long recent;
+        long removed;
+        long removedBytes;
+        long purged;
+        long reclaimedBytes;
+        long failed;
+        
+        Sweep(boolean dryRun, Date graceCutoff) {
+            this.dryRun = dryRun;
+            this.graceCutoff = graceCutoff;
+        }
+        
+        /**
+         * Mark the images of every news and the ones uploaded during the grace period
+         */
+        void mark() {
+            markedAt = new Date();
+            markNews(new Document());
+            markUploadedSince(graceCutoff);
+        }
+        
+        /**
+         * Mark what changed since the last marking (indexed on news.updatedAt)
+         */
+        void remark() {
+            Date since = markedAt;
+            markedAt = new Date();
+            markNews(Filters.gte("updatedAt", since));
+            markUploadedSince(since);
+        }
+        
+        void visit(BlobStore.BlobInfo file) {
+            scanned++;
+            scannedBytes += file.size();
+            if (file.lastModified() >= graceCutoff.getTime()) {
+                recent++;
+            } else if (marks.contains(idOfKey(file.key()))) {
+                referenced++;
+            } else {
+                batch.add(file);
+                if (batch.size() >= BATCH_SIZE) {
+                    flush();
+                }
+            }
+        }
+        
+        void flush() {
+            if (batch.isEmpty()) {
+                return;
+            }
+            renewLease();
+            remark();
+            try {
+                for (BlobStore.BlobInfo file : batch) {
+                    if (marks.contains(idOfKey(file.key()))) {
+                        referenced++;
+                        continue;
+                    }
+                    try {
+                        remove(file);
+                    } catch (IOException e) {
+                        failed++;
+                        logger.warn("Could not remove unused upload {}: {}", file.key(), e.getMessage());
+                    }
+                }
+            } finally {
+                batch.clear();
+                blobCache.evictEverywhere(evicted);
+                evicted.clear();
+            }
+        }
+        
+        private void remove(BlobStore.BlobInfo file) throws IOException {
+            Matcher matcher = HASHED_NAME.matcher(fileName(file.key()));
+            String hash = matcher.matches() && matcher.group(2) == null ? matcher.group(1) : null;
+            if (hash != null && mongoTemplate.exists(new Query(Criteria.where("_id").is(hash)
+                    .and("lastUploadedAt").gte(graceCutoff)), StoredImage.class)) {
+                referenced++; // Uploaded again since the marking
+                return;
+            }
+            if (dryRun) {
+                removed++;
+                removedBytes += file.size();
+                return;
+            }
+            
+            // Moved away first (also in delete mode), so it can be put back while the record still exists
+            String quarantineKey = QUARANTINE + "/" + quarantineDate + "/" + file.key();
+            blobStore.move(file.key(), quarantineKey);
+            if (hash != null) {
+                // The record goes after the original (the same content uploaded again is then stored again),
+                // unless the image was uploaded again meanwhile: its file is restored
+                long deleted = mongoTemplate.remove(new Query(Criteria.where("_id").is(hash)
+                        .and("lastUploadedAt").lt(graceCutoff)), StoredImage.class).getDeletedCount();
+                if (deleted == 0 && mongoTemplate.exists(new Query(Criteria.where("_id").is(hash)), StoredImage.class)) {
+                    blobStore.move(quarantineKey, file.key());
+                    referenced++;
+                    return;
+                }
+            }
+            removed++;
+            removedBytes += file.size();
+            evicted.add(file.key());
+            if (isDeleteMode()) {
+                blobStore.delete(quarantineKey);
+                reclaimedBytes += file.size();
+            }
+        }
+        
+        private void markNews(Bson filter) {
+            try (MongoCursor<Document> cursor = mongoTemplate.getCollection(mongoTemplate.getCollectionName(News.class))
+                    .find(filter)
+                    .projection(Projections.include("imageUrl"))
+                    .batchSize(CURSOR_BATCH_SIZE)
+                    .iterator()) {
+                while (cursor.hasNext()) {
+                    if (cursor.next().get("imageUrl") instanceof String imageUrl) {
+                        int index = imageUrl.indexOf(UPLOADS_PATH);
+                        if (index >= 0) {
+                            marks.add(idOfKey(stripQuery(imageUrl.substring(index + UPLOADS_PATH.length()))));
+                        }
+                    }
+                }
+            }
+        }
+        
+        private void markUploadedSince(Date since) {
+            try (MongoCursor<Document> cursor = mongoTemplate.getCollection(mongoTemplate.getCollectionName(StoredImage.class))
+                    .find(Filters.gte("lastUploadedAt", since))
+                    .projection(Projections.include("_id"))
+                    .batchSize(CURSOR_BATCH_SIZE)
+                    .iterator()) {
+                while (cursor.hasNext()) {
+                    if (cursor.next().get("_id") instanceof String hash && HEX_HASH.matcher(hash).matches()) {
+                        marks.add(idOfHash(hash));
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * Delete the quarantined files older than the quarantine period
+     */
+    private void purgeQuarantine(Sweep sweep) throws IOException {
+        LocalDate oldestKept = LocalDate.now().minusDays(quarantineDays);
+        blobStore.list(QUARANTINE, file -> {
+            String[] segments = file.key().split("/", 3);
+            LocalDate quarantinedOn;
+            try {
+                quarantinedOn = LocalDate.parse(segments[1]);
+            } catch (DateTimeParseException | ArrayIndexOutOfBoundsException e) {
+                return; // Not put there by the reaper
+            }
+            if (!quarantinedOn.isBefore(oldestKept)) {
+                return;
+            }
+            sweep.purged++;
+            if (sweep.dryRun) {
+                return;
+            }
+            try {
+                blobStore.delete(file.key());
+                sweep.reclaimedBytes += file.size();
+            } catch (IOException e) {
+                sweep.failed++;
+                logger.warn("Could not purge {}: {}", file.key(), e.getMessage());
+            }
+        });
+    }
+    
+    /**
+     * Take the reaper lease (a missing or expired lease is taken, a live one held by another node is not)
+     */
+    private boolean acquireLease() {
+        Date now = new Date();
+        try {
+            mongoTemplate.upsert(
+                    new Query(new Criteria().andOperator(
+                            Criteria.where("_id").is(LOCK_ID),
+                            new Criteria().orOperator(
+                                    Criteria.where("expiresAt").lt(now),
+                                    Criteria.where("owner").is(instanceId)))),
+                    new Update().set("owner", instanceId).set("expiresAt", new Date(now.getTime() + LEASE_MS)),
+                    LOCKS_COLLECTION);
+            return true;
+        } catch (DuplicateKeyException e) {
+            return false;
+        }
+    }
+    
+    /**
+     * Extend the lease before more work; a run whose lease was taken over stops
+     */
+    private void renewLease() {
+        if (!acquireLease()) {
+            throw new IllegalStateException("Upload reaper lease taken over by another node");
+        }
+    }
+    
+    private void releaseLease() {
+        try {
+            mongoTemplate.updateFirst(
+                    new Query(Criteria.where("_id").is(LOCK_ID).and("owner").is(instanceId)),
+                    new Update().set("expiresAt", new Date(0)),
+                    LOCKS_COLLECTION);
+        } catch (Exception e) {
+            logger.warn("Could not release the upload reaper lease: {}", e.getMessage());
+        }
+    }
+    
+    private boolean isDeleteMode() {
+        return "delete".equalsIgnoreCase(mode);
+    }
+    
+    /**
+     * Id of a file: the first 64 bits of its content hash when its name has one (shared by its variants),
+     * otherwise a 64-bit FNV-1a hash of its path
+     */
+    private static long idOfKey(String key) {
+        Matcher matcher = HASHED_NAME.matcher(fileName(key));
+        if (matcher.matches()) {
+            return idOfHash(matcher.group(1));
+        }
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+    
+    private static long idOfHash(String hash) {
+        return Long.parseUnsignedLong(hash.substring(0, 16), 16);
+    }
+    
+    private static String fileName(String key) {
+        return key.substring(key.lastIndexOf('/') + 1);
+    }
+    
+    private static String stripQuery(String path) {
+        int end = path.length();
+        int query = path.indexOf('?');
+        int fragment = path.indexOf('#');
+        if (query >= 0) {
+            end = query;
+        }
+        if (fragment >= 0 && fragment < end) {
+            end = fragment;
+        }
+        return path.substring(0, end);
+    }
+}
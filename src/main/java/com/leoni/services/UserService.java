@@ -1,26 +1,52 @@
 package com.leoni.services;
 
+import com.leoni.dto.BulkUserActionRequest;
+import com.leoni.dto.BulkUserActionResult;
+import com.leoni.dto.EmployeeSearchResult;
 import com.leoni.dto.UserDTO;
+import com.leoni.exceptions.AdminServiceException;
 import com.leoni.exceptions.DuplicateUserException;
 import com.leoni.exceptions.UserNotFoundException;
+import com.leoni.exceptions.VersionConflictException;
+import com.leoni.exceptions.VersionRequiredException;
 import com.leoni.models.Admin;
 import com.leoni.models.Department;
 import com.leoni.models.User;
 import com.leoni.repositories.AdminRepository;
 import com.leoni.repositories.DepartmentRepository;
+import com.leoni.repositories.PartialUpdateRepository;
 import com.leoni.repositories.UserRepository;
+import com.leoni.utils.TextNormalizer;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 public class UserService {
     
+    // Maximum number of IDs sent in a single updateMany/deleteMany
+    private static final int BULK_CHUNK_SIZE = 500;
+    
+    // Attempts for a version-conditional update before reporting a conflict
+    private static final int MAX_VERSION_RETRIES = 3;
+    
     @Autowired
     private UserRepository userRepository;
     
@@ -30,6 +56,27 @@ public class UserService {
     @Autowired
     private AdminRepository adminRepository;
     
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    @Autowired
+    private PartialUpdateRepository partialUpdateRepository;
+    
+    @Autowired
+    private EmployeeSearchService employeeSearchService;
+    
+    @Autowired
+    private AdminSearchIndexService adminSearchIndexService;
+    
+    @Autowired
+    private DeletionLogService deletionLogService;
+    
+    @Autowired
+    private EmployeeDirectoryIndex employeeDirectoryIndex;
+    
+    @Autowired
+    private TaxonomyService taxonomyService;
+    
     /**
      * Get all users
      * @return List of UserDTO
@@ -97,23 +144,40 @@ public class UserService {
         User user = convertToEntity(userDTO);
         user.setCreatedAt(new Date());
         user.setUpdatedAt(new Date());
+        user.applyEffectiveLocation(findReferencedDepartment(user));
         
         User savedUser = userRepository.save(user);
+        adminSearchIndexService.indexUser(savedUser);
+        employeeDirectoryIndex.index(savedUser);
         return convertToDTO(savedUser);
     }
     
     /**
      * Update an existing user
+     * The DTO must carry the version it was read at. Only the fields it changes from that version are
+     * written, conditionally on the current version: if someone saved the user in between without
+     * touching those fields, the edit is re-applied on the new version (a bounded number of times);
+     * if they changed one of them, the edit is rejected instead of silently overwriting it.
      * @param id the user ID
-     * @param userDTO the updated user data
+     * @param userDTO the updated user data, with the version that was read
      * @return updated UserDTO
      * @throws UserNotFoundException if user not found
      * @throws DuplicateUserException if email or employee ID conflicts with another user
+     * @throws VersionRequiredException if the version is missing
+     * @throws VersionConflictException if the edited fields were modified since that version
      */
     public UserDTO updateUser(String id, UserDTO userDTO) {
         User existingUser = userRepository.findById(id)
                 .orElseThrow(() -> new UserNotFoundException(id));
         
+        // The client edited an older version: the fields it saw are unknown, so nothing can be merged
+        if (userDTO.getVersion() == null) {
+            throw new VersionRequiredException("Utilisateur", id);
+        }
+        if (!userDTO.getVersion().equals(existingUser.getVersion())) {
+            throw new VersionConflictException("Utilisateur", id, userDTO.getVersion(), existingUser.getVersion());
+        }
+        
         // Check for duplicate primary email (excluding current user)
         Optional<User> userWithAdresse1 = userRepository.findByAdresse1(userDTO.getAdresse1());
         if (userWithAdresse1.isPresent() && !userWithAdresse1.get().getId().equals(id)) {
@@ -126,25 +190,98 @@ public class UserService {
             throw new DuplicateUserException("employeeId", userDTO.getEmployeeId());
         }
         
-        // Update fields
-        existingUser.setFirstName(userDTO.getFirstName());
-        existingUser.setLastName(userDTO.getLastName());
-        existingUser.setAdresse1(userDTO.getAdresse1());
-        existingUser.setAdresse2(userDTO.getAdresse2());
-        existingUser.setPhoneNumber(userDTO.getPhoneNumber());
-        existingUser.setEmployeeId(userDTO.getEmployeeId());
-        existingUser.setDepartmentId(userDTO.getDepartmentId());
-        existingUser.setPosition(userDTO.getPosition() != null ? userDTO.getPosition() : "Non spécifié");
+        // Fields this edit changes, relative to the version the client read
+        Map<String, Object> baseFields = editableFields(existingUser);
+        Map<String, Object> editedFields = new HashMap<>();
+        requestedFields(userDTO).forEach((field, value) -> {
+            if (!Objects.equals(value, baseFields.get(field))) {
+                editedFields.put(field, value);
+            }
+        });
         
-        // Update location field if provided
+        User currentUser = existingUser;
+        for (int attempt = 1; ; attempt++) {
+            applyEditableFields(currentUser, editedFields);
+            
+            // Resolve the effective location/department and search fields on the merged user
+            currentUser.applyEffectiveLocation(findReferencedDepartment(currentUser));
+            Map<String, Object> fields = new HashMap<>(editedFields);
+            fields.put("effectiveLocation", currentUser.getEffectiveLocation());
+            fields.put("effectiveDepartment", currentUser.getEffectiveDepartment());
+            fields.put("effectiveLocationKey", TextNormalizer.key(currentUser.getEffectiveLocation()));
+            fields.put("effectiveDepartmentKey", TextNormalizer.key(currentUser.getEffectiveDepartment()));
+            List<String> searchTokens = User.buildSearchTokens(currentUser.getFirstName(), currentUser.getLastName(),
+                    currentUser.getEmployeeId(), currentUser.getAdresse1());
+            fields.put("searchTokens", searchTokens);
+            fields.put("searchKeys", TextNormalizer.prefixes(searchTokens, User.SEARCH_PREFIX_MAX_LENGTH));
+            
+            User savedUser = partialUpdateRepository.setFieldsIfVersion(id, currentUser.getVersion(), fields, User.class);
+            if (savedUser != null) {
+                adminSearchIndexService.indexUser(savedUser);
+                employeeDirectoryIndex.index(savedUser);
+                return convertToDTO(savedUser);
+            }
+            
+            // Saved by someone else between the read and the write: merge only if they left the edited fields alone
+            User latestUser = userRepository.findById(id).orElseThrow(() -> new UserNotFoundException(id));
+            Map<String, Object> latestFields = editableFields(latestUser);
+            boolean editedByOthers = editedFields.keySet().stream()
+                    .anyMatch(field -> !Objects.equals(latestFields.get(field), baseFields.get(field)));
+            if (editedByOthers || attempt >= MAX_VERSION_RETRIES) {
+                throw new VersionConflictException("Utilisateur", id, userDTO.getVersion(), latestUser.getVersion());
+            }
+            currentUser = latestUser;
+        }
+    }
+    
+    // Editable fields of a stored user, keyed by the stored field name
+    private static Map<String, Object> editableFields(User user) {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("firstName", user.getFirstName());
+        fields.put("lastName", user.getLastName());
+        fields.put("adresse1", user.getAdresse1());
+        fields.put("adresse2", user.getAdresse2());
+        fields.put("phoneNumber", user.getPhoneNumber());
+        fields.put("employeeId", user.getEmployeeId());
+        fields.put("departmentId", user.getDepartmentId());
+        fields.put("position", user.getPosition());
+        fields.put("location", user.getLocation());
+        return fields;
+    }
+    
+    // Editable fields sent by an update (the location only when provided)
+    private static Map<String, Object> requestedFields(UserDTO userDTO) {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("firstName", userDTO.getFirstName());
+        fields.put("lastName", userDTO.getLastName());
+        fields.put("adresse1", userDTO.getAdresse1());
+        fields.put("adresse2", userDTO.getAdresse2());
+        fields.put("phoneNumber", userDTO.getPhoneNumber());
+        fields.put("employeeId", userDTO.getEmployeeId());
+        fields.put("departmentId", userDTO.getDepartmentId());
+        fields.put("position", userDTO.getPosition() != null ? userDTO.getPosition() : "Non spécifié");
         if (userDTO.getLocationName() != null && !userDTO.getLocationName().trim().isEmpty()) {
-            existingUser.setLocation(userDTO.getLocationName());
+            fields.put("location", userDTO.getLocationName());
         }
-        
-        existingUser.setUpdatedAt(new Date());
-        
-        User savedUser = userRepository.save(existingUser);
-        return convertToDTO(savedUser);
+        return fields;
+    }
+    
+    private static void applyEditableFields(User user, Map<String, Object> fields) {
+        fields.forEach((field, value) -> {
+            String text = (String) value;
+            switch (field) {
+                case "firstName" -> user.setFirstName(text);
+                case "lastName" -> user.setLastName(text);
+                case "adresse1" -> user.setAdresse1(text);
+                case "adresse2" -> user.setAdresse2(text);
+                case "phoneNumber" -> user.setPhoneNumber(text);
+                case "employeeId" -> user.setEmployeeId(text);
+                case "departmentId" -> user.setDepartmentId(text);
+                case "position" -> user.setPosition(text);
+                case "location" -> user.setLocation(text);
+                default -> throw new IllegalArgumentException("Not an editable field: " + field);
+            }
+        });
     }
     
     /**
@@ -157,20 +294,60 @@ public class UserService {
             throw new UserNotFoundException(id);
         }
         userRepository.deleteById(id);
+        deletionLogService.record(DeletionLogService.USERS, id, null);
+        adminSearchIndexService.remove(AdminSearchIndexService.EMPLOYEE, id);
+        employeeDirectoryIndex.remove(id);
     }
     
     /**
-     * Search users by name
+     * Search users by name, employee ID or email (best matches first, at most one page)
      * @param searchTerm the search term
      * @return List of matching UserDTO
      */
     public List<UserDTO> searchUsersByName(String searchTerm) {
-        return userRepository.searchByName(searchTerm)
+        return employeeSearchService.search(searchTerm, 0, EmployeeSearchService.MAX_PAGE_SIZE)
                 .stream()
                 .map(this::convertToDTO)
                 .collect(Collectors.toList());
     }
     
+    /**
+     * Search employees, ranked and paginated
+     * @param query the search text (words of the names, employee ID or email, prefixes allowed)
+     * @param page the page number (0-based)
+     * @param size the page size
+     * @return the page of results and the total number of matches
+     */
+    public EmployeeSearchResult searchEmployees(String query, int page, int size) {
+        int pageSize = Math.max(1, Math.min(size, EmployeeSearchService.MAX_PAGE_SIZE));
+        List<UserDTO> results = employeeSearchService.search(query, page, pageSize)
+                .stream()
+                .map(this::convertToDTO)
+                .collect(Collectors.toList());
+        return new EmployeeSearchResult(query, Math.max(page, 0), pageSize, employeeSearchService.count(query), results);
+    }
+    
+    /**
+     * Suggest employees while typing
+     * @param query the text typed so far
+     * @param limit maximum number of suggestions
+     * @return suggestions (id, fullName, employeeId, location, department)
+     */
+    public List<Map<String, Object>> autocompleteEmployees(String query, int limit) {
+        return employeeSearchService.autocomplete(query, limit)
+                .stream()
+                .map(user -> {
+                    Map<String, Object> suggestion = new HashMap<>();
+                    suggestion.put("id", user.getId());
+                    suggestion.put("fullName", user.getFirstName() + " " + user.getLastName());
+                    suggestion.put("employeeId", user.getEmployeeId());
+                    suggestion.put("location", user.getEffectiveLocation());
+                    suggestion.put("department", user.getEffectiveDepartment());
+                    return suggestion;
+                })
+                .collect(Collectors.toList());
+    }
+    
     /**
      * Get users by department ID
      * @param departmentId the department ID
@@ -246,38 +423,19 @@ public class UserService {
         
         dto.setEmployeeId(user.getEmployeeId() != null ? user.getEmployeeId() : "");
         
-        // Set department information
+        // Set department information (resolved when the user or department was written)
         dto.setDepartmentId(user.getDepartmentId());
-        if (user.getDepartmentId() != null) {
-            Optional<Department> department = departmentRepository.findById(user.getDepartmentId());
-            if (department.isPresent()) {
-                Department dept = department.get();
-                dto.setDepartmentName(dept.getName() != null ? dept.getName() : "");
-                
-                // Get location information - prioritize new structure
-                if (dept.getLocation() != null && !dept.getLocation().trim().isEmpty()) {
-                    // Use new location field from department
-                    dto.setLocationName(dept.getLocation());
-                } else {
-                    // Fallback to user's direct location field
-                    dto.setLocationName(user.getLocation() != null ? user.getLocation() : "");
-                }
-            } else {
-                // Department ID not found, use direct user fields
-                dto.setDepartmentName(user.getDepartment() != null ? user.getDepartment() : "");
-                dto.setLocationName(user.getLocation() != null ? user.getLocation() : "");
-            }
-        } else {
-            // No departmentId, use direct user fields
-            dto.setDepartmentName(user.getDepartment() != null ? user.getDepartment() : "");
-            dto.setLocationName(user.getLocation() != null ? user.getLocation() : "");
-        }
+        String departmentName = user.getEffectiveDepartment() != null ? user.getEffectiveDepartment() : user.getDepartment();
+        String locationName = user.getEffectiveLocation() != null ? user.getEffectiveLocation() : user.getLocation();
+        dto.setDepartmentName(departmentName != null ? departmentName : "");
+        dto.setLocationName(locationName != null ? locationName : "");
         
         dto.setPosition(user.getPosition() != null ? user.getPosition() : "Non spécifié");
         dto.setStatus(user.getStatus() != null ? user.getStatus() : "approved");
         dto.setDocumentRequestIds(user.getDocumentRequestIds() != null ? user.getDocumentRequestIds() : new ArrayList<>());
         dto.setCreatedAt(user.getCreatedAt());
         dto.setUpdatedAt(user.getUpdatedAt());
+        dto.setVersion(user.getVersion());
         return dto;
     }
     
@@ -323,20 +481,33 @@ public class UserService {
      * @throws UserNotFoundException if user not found
      */
     public UserDTO approveUser(String userId) {
-        User user = userRepository.findById(userId)
-                .orElseThrow(() -> new UserNotFoundException(userId));
+        // Only switch the status if the user is still pending
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("status", "approved");
+        fields.put("statusKey", "approved");
+        User savedUser = partialUpdateRepository.setFieldsIf(userId, Criteria.where("status").is("pending"), fields, User.class);
         
-        if (!"pending".equals(user.getStatus())) {
+        if (savedUser == null) {
+            if (!userRepository.existsById(userId)) {
+                throw new UserNotFoundException(userId);
+            }
             throw new IllegalStateException("User is not in pending status");
         }
+        employeeDirectoryIndex.index(savedUser);
         
-        user.setStatus("approved");
-        user.setUpdatedAt(new Date());
-        
-        User savedUser = userRepository.save(user);
         return convertToDTO(savedUser);
     }
 
+    /**
+     * Remove a document request reference from a user
+     * @param userId the user ID
+     * @param documentRequestId the document request ID
+     * @return true if the user was found
+     */
+    public boolean removeDocumentRequestReference(String userId, String documentRequestId) {
+        return partialUpdateRepository.pull(userId, "documentRequestIds", documentRequestId, User.class);
+    }
+    
     /**
      * Reject a pending user (delete their account)
      * @param userId the user ID
@@ -351,6 +522,457 @@ public class UserService {
         }
         
         userRepository.deleteById(userId);
+        deletionLogService.record(DeletionLogService.USERS, userId, null);
+        adminSearchIndexService.remove(AdminSearchIndexService.EMPLOYEE, userId);
+        employeeDirectoryIndex.remove(userId);
+    }
+    
+    /**
+     * Approve pending users in bulk, selected by IDs and/or a filter, within the caller's scope
+     * @param request the user IDs and/or filter (location, department, createdAt range)
+     * @param userRole the role of the requesting user (ADMIN or SUPERADMIN)
+     * @param userId the ID of the requesting user
+     * @return per-ID results and the remaining pending count
+     */
+    public BulkUserActionResult bulkApproveUsers(BulkUserActionRequest request, String userRole, String userId) {
+        return applyBulkAction(request, userRole, userId, "approve");
+    }
+    
+    /**
+     * Reject pending users in bulk (delete their accounts), selected by IDs and/or a filter, within the caller's scope
+     * @param request the user IDs and/or filter (location, department, createdAt range)
+     * @param userRole the role of the requesting user (ADMIN or SUPERADMIN)
+     * @param userId the ID of the requesting user
+     * @return per-ID results and the remaining pending count
+     */
+    public BulkUserActionResult bulkRejectUsers(BulkUserActionRequest request, String userRole, String userId) {
+        return applyBulkAction(request, userRole, userId, "reject");
+    }
+    
+    /**
+     * Resolve the selected pending users with one query, then approve or delete them
+     * with one updateMany/deleteMany per chunk of IDs
+     */
+    private BulkUserActionResult applyBulkAction(BulkUserActionRequest request, String userRole, String userId, String action) {
+        if (request == null || (!request.hasUserIds() && !request.hasFilter())) {
+            throw new IllegalArgumentException("userIds ou un filtre (location, department, createdFrom, createdTo) est requis");
+        }
+        
+        Criteria scope = buildScopeCriteria(userRole, userId);
+        
+        List<Criteria> selection = new ArrayList<>();
+        selection.add(Criteria.where("status").is("pending"));
+        selection.add(scope);
+        if (request.hasFilter()) {
+            selection.add(buildLocationDepartmentCriteria(request.getLocation(), request.getDepartment()));
+            if (request.getCreatedFrom() != null || request.getCreatedTo() != null) {
+                Criteria createdAt = Criteria.where("createdAt");
+                if (request.getCreatedFrom() != null) {
+                    createdAt = createdAt.gte(request.getCreatedFrom());
+                }
+                if (request.getCreatedTo() != null) {
+                    createdAt = createdAt.lte(request.getCreatedTo());
+                }
+                selection.add(createdAt);
+            }
+        }
+        if (request.hasUserIds()) {
+            selection.add(Criteria.where("_id").in(request.getUserIds()));
+        }
+        
+        Query eligibleQuery = new Query(new Criteria().andOperator(selection.toArray(new Criteria[0])));
+        eligibleQuery.fields().include("_id");
+        List<String> eligibleIds = mongoTemplate.find(eligibleQuery, User.class).stream()
+                .map(User::getId)
+                .collect(Collectors.toList());
+        
+        BulkUserActionResult result = new BulkUserActionResult(action);
+        result.setMatched(eligibleIds.size());
+        String outcome = "approve".equals(action) ? BulkUserActionResult.APPROVED : BulkUserActionResult.REJECTED;
+        
+        // Explain why explicitly requested IDs were skipped
+        if (request.hasUserIds()) {
+            Query requestedQuery = new Query(Criteria.where("_id").in(request.getUserIds()));
+            requestedQuery.fields().include("_id").include("status");
+            Map<String, String> statusById = new HashMap<>();
+            for (User user : mongoTemplate.find(requestedQuery, User.class)) {
+                statusById.put(user.getId(), user.getStatus());
+            }
+            Set<String> eligible = new HashSet<>(eligibleIds);
+            for (String id : request.getUserIds()) {
+                if (!statusById.containsKey(id)) {
+                    result.getResults().put(id, BulkUserActionResult.NOT_FOUND);
+                } else if (!"pending".equals(statusById.get(id))) {
+                    result.getResults().put(id, BulkUserActionResult.NOT_PENDING);
+                } else if (!eligible.contains(id)) {
+                    result.getResults().put(id, BulkUserActionResult.OUT_OF_SCOPE);
+                } else {
+                    result.getResults().put(id, outcome);
+                }
+            }
+        } else {
+            eligibleIds.forEach(id -> result.getResults().put(id, outcome));
+        }
+        
+        long processed = 0;
+        for (int start = 0; start < eligibleIds.size(); start += BULK_CHUNK_SIZE) {
+            List<String> chunk = eligibleIds.subList(start, Math.min(start + BULK_CHUNK_SIZE, eligibleIds.size()));
+            // Re-check the pending status so concurrent single approvals are not applied twice
+            Query chunkQuery = new Query(Criteria.where("_id").in(chunk).and("status").is("pending"));
+            if ("approve".equals(action)) {
+                Update update = new Update().set("status", "approved").set("statusKey", "approved").set("updatedAt", new Date()).inc("version", 1);
+                long modified = mongoTemplate.updateMulti(chunkQuery, update, User.class).getModifiedCount();
+                processed += modified;
+                indexApproved(chunk, modified);
+            } else {
+                processed += mongoTemplate.remove(chunkQuery, User.class).getDeletedCount();
+                removeDeletedFromIndexes(chunk);
+            }
+        }
+        result.setProcessed(processed);
+        
+        Query pendingQuery = new Query(new Criteria().andOperator(Criteria.where("status").is("pending"), scope));
+        result.setPendingCount(mongoTemplate.count(pendingQuery, User.class));
+        
+        return result;
+    }
+    
+    /**
+     * Mark the users of an approved chunk approved in the directory index, but only those that are
+     * (a user rejected or deleted concurrently is not): the whole chunk when the update changed every
+     * user of it, otherwise the approved ones are read back
+     */
+    private void indexApproved(List<String> chunk, long modified) {
+        if (modified == 0) {
+            return;
+        }
+        List<String> approved = chunk;
+        if (modified < chunk.size()) {
+            Query approvedQuery = new Query(Criteria.where("_id").in(chunk).and("status").is("approved"));
+            approvedQuery.fields().include("_id");
+            approved = mongoTemplate.find(approvedQuery, User.class).stream()
+                    .map(User::getId)
+                    .collect(Collectors.toList());
+        }
+        employeeDirectoryIndex.setStatus(approved, "approved");
+    }
+    
+    /**
+     * Drop the users of a rejected chunk that no longer exist from the in-memory indexes
+     * (a user approved concurrently is not deleted and stays indexed)
+     */
+    private void removeDeletedFromIndexes(List<String> chunk) {
+        Query remainingQuery = new Query(Criteria.where("_id").in(chunk));
+        remainingQuery.fields().include("_id");
+        Set<String> remaining = mongoTemplate.find(remainingQuery, User.class).stream()
+                .map(User::getId)
+                .collect(Collectors.toSet());
+        chunk.stream()
+                .filter(id -> !remaining.contains(id))
+                .forEach(id -> {
+                    deletionLogService.record(DeletionLogService.USERS, id, null);
+                    adminSearchIndexService.remove(AdminSearchIndexService.EMPLOYEE, id);
+                    employeeDirectoryIndex.remove(id);
+                });
+    }
+    
+    /**
+     * Find the IDs of approved users matching a location and department within the caller's scope, with one query
+     * @param location the location name (optional)
+     * @param department the department name (optional)
+     * @param userRole the role of the requesting user (ADMIN or SUPERADMIN)
+     * @param userId the ID of the requesting user
+     * @return List of matching user IDs
+     * @throws AdminServiceException if the admin or their location cannot be found
+     */
+    public List<String> findApprovedUserIdsByLocationAndDepartment(String location, String department,
+                                                                   String userRole, String userId) {
+        Query query = new Query(new Criteria().andOperator(
+                Criteria.where("status").ne("pending"),
+                buildScopeCriteria(userRole, userId),
+                buildLocationDepartmentCriteria(location, department)
+        ));
+        query.fields().include("_id");
+        return mongoTemplate.find(query, User.class).stream()
+                .map(User::getId)
+                .collect(Collectors.toList());
+    }
+    
+    /**
+     * Build the criteria restricting users to the caller's scope
+     * SuperAdmins see every user, admins only users of their location and department
+     * @param userRole the role of the requesting user (ADMIN or SUPERADMIN)
+     * @param userId the ID of the requesting user
+     * @return scope criteria
+     * @throws AdminServiceException if the admin cannot be found
+     */
+    private Criteria buildScopeCriteria(String userRole, String userId) {
+        if ("SUPERADMIN".equals(userRole)) {
+            return new Criteria();
+        }
+        
+        Admin admin = adminRepository.findById(userId)
+                .orElseThrow(() -> new AdminServiceException("Admin non trouvé avec l'ID: " + userId, "ADMIN_NOT_FOUND"));
+        if (admin.getLocation() == null || admin.getLocation().trim().isEmpty()) {
+            throw new AdminServiceException("Aucune location assignée à l'admin: " + admin.getUsername(), "ADMIN_SCOPE_MISSING");
+        }
+        return buildLocationDepartmentCriteria(admin.getLocation(), admin.getDepartment());
+    }
+    
+    /**
+     * Build criteria matching users by effective location and department (case insensitive, on the normalized keys)
+     * Users without an effective location yet (written by an older instance, resolved by the DataSeeder backfill
+     * on the next start) are matched on their own location/department keys, but only those that reference no
+     * department: their own fields are what the backfill will resolve them to. Users referencing a department
+     * take its values, which a query cannot resolve, so they only match once backfilled.
+     * @param location the location name (optional)
+     * @param department the department name (optional)
+     * @return location/department criteria
+     */
+    private Criteria buildLocationDepartmentCriteria(String location, String department) {
+        Criteria effective = new Criteria();
+        Criteria legacy = Criteria.where("effectiveLocation").exists(false)
+                .and("effectiveDepartment").exists(false)
+                .and("departmentId").is(null)
+                .and("departmentRef").is(null);
+        if (TextNormalizer.hasKey(location)) {
+            effective.and("effectiveLocationKey").is(TextNormalizer.key(location));
+            legacy.and("locationKey").is(TextNormalizer.key(location));
+        }
+        if (TextNormalizer.hasKey(department)) {
+            effective.and("effectiveDepartmentKey").is(TextNormalizer.key(department));
+            legacy.and("departmentKey").is(TextNormalizer.key(department));
+        }
+        if (!TextNormalizer.hasKey(location) && !TextNormalizer.hasKey(department)) {
+            return effective;
+        }
+        return new Criteria().orOperator(effective, legacy);
+    }
+    
+    /**
+     * Department a user references (departmentId, or the legacy departmentRef)
+     * @return the department, or null if none is referenced or it no longer exists
+     */
+    private Department findReferencedDepartment(User user) {
+        String departmentId = user.getDepartmentId() != null ? user.getDepartmentId() : user.getDepartmentRef();
+        return departmentId != null ? departmentRepository.findById(departmentId).orElse(null) : null;
+    }
+    
+    /**
+     * Propagate a department rename or move to the users that reference it, with one updateMany
+     * A department without a location leaves each user in their own location (same rule as
+     * User.applyEffectiveLocation); the users are then updated one by one in unordered bulk batches,
+     * since their location keys differ
+     * @param department the saved department
+     * @return number of users updated
+     */
+    public long applyDepartmentChange(Department department) {
+        Criteria references = departmentReferences(department.getId());
+        
+        long updated;
+        if (TextNormalizer.hasKey(department.getLocation())) {
+            Update update = new Update()
+                    .set("effectiveDepartment", department.getName())
+                    .set("effectiveDepartmentKey", TextNormalizer.key(department.getName()))
+                    .set("effectiveLocation", department.getLocation())
+                    .set("effectiveLocationKey", TextNormalizer.key(department.getLocation()));
+            update.currentDate("updatedAt").inc("version", 1);
+            updated = mongoTemplate.updateMulti(new Query(references), update, User.class).getModifiedCount();
+        } else {
+            updated = applyDepartmentChangeToOwnLocations(department, references);
+        }
+        
+        // Refresh the in-memory indexes of the moved users
+        if (updated > 0) {
+            try (Stream<User> users = mongoTemplate.stream(new Query(references), User.class)) {
+                users.forEach(user -> {
+                    adminSearchIndexService.indexUser(user);
+                    employeeDirectoryIndex.index(user);
+                });
+            }
+        }
+        return updated;
+    }
+    
+    /**
+     * Detach a deleted department from the users that referenced it: each falls back to their own department
+     * and location (same rule as User.applyEffectiveLocation without a department), in unordered bulk batches
+     * @param departmentId the deleted department
+     * @return number of users updated
+     */
+    public long applyDepartmentRemoval(String departmentId) {
+        Criteria references = departmentReferences(departmentId);
+        Query query = new Query(references);
+        query.fields().include("location").include("department");
+        
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, User.class);
+        List<String> batch = new ArrayList<>();
+        long updated = 0;
+        try (Stream<User> users = mongoTemplate.stream(query, User.class)) {
+            Iterator<User> iterator = users.iterator();
+            while (iterator.hasNext()) {
+                User user = iterator.next();
+                Update update = new Update()
+                        .unset("departmentId")
+                        .unset("departmentRef")
+                        .set("effectiveDepartment", user.getDepartment())
+                        .set("effectiveDepartmentKey", TextNormalizer.key(user.getDepartment()))
+                        .set("effectiveLocation", user.getLocation())
+                        .set("effectiveLocationKey", TextNormalizer.key(user.getLocation()))
+                        .currentDate("updatedAt")
+                        .inc("version", 1);
+                // Still referencing the department with the same own fields when the batch runs
+                bulk.updateOne(new Query(new Criteria().andOperator(
+                        Criteria.where("_id").is(user.getId()),
+                        Criteria.where("location").is(user.getLocation()),
+                        Criteria.where("department").is(user.getDepartment()),
+                        references)), update);
+                batch.add(user.getId());
+                
+                if (batch.size() == BULK_CHUNK_SIZE) {
+                    updated += executeAndReindex(bulk, batch);
+                    bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, User.class);
+                    batch.clear();
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            updated += executeAndReindex(bulk, batch);
+        }
+        return updated;
+    }
+    
+    // Run a batch of user updates, then refresh the in-memory indexes of those users
+    private long executeAndReindex(BulkOperations bulk, List<String> userIds) {
+        long updated = bulk.execute().getModifiedCount();
+        if (updated > 0) {
+            mongoTemplate.find(new Query(Criteria.where("_id").in(userIds)), User.class).forEach(user -> {
+                adminSearchIndexService.indexUser(user);
+                employeeDirectoryIndex.index(user);
+            });
+        }
+        return updated;
+    }
+    
+    // Users referencing a department: by departmentId, or by the legacy departmentRef when they have none
+    private static Criteria departmentReferences(String departmentId) {
+        return new Criteria().orOperator(
+                Criteria.where("departmentId").is(departmentId),
+                new Criteria().andOperator(
+                        Criteria.where("departmentId").is(null),
+                        Criteria.where("departmentRef").is(departmentId)));
+    }
+    
+    /**
+     * Set the department of the referencing users, each keeping their own location as effective location
+     * @return number of users updated
+     */
+    private long applyDepartmentChangeToOwnLocations(Department department, Criteria references) {
+        Query query = new Query(references);
+        query.fields().include("location");
+        
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, User.class);
+        int batched = 0;
+        long updated = 0;
+        try (Stream<User> users = mongoTemplate.stream(query, User.class)) {
+            Iterator<User> iterator = users.iterator();
+            while (iterator.hasNext()) {
+                User user = iterator.next();
+                Update update = new Update()
+                        .set("effectiveDepartment", department.getName())
+                        .set("effectiveDepartmentKey", TextNormalizer.key(department.getName()))
+                        .set("effectiveLocation", user.getLocation())
+                        .set("effectiveLocationKey", TextNormalizer.key(user.getLocation()))
+                        .currentDate("updatedAt")
+                        .inc("version", 1);
+                // Still referencing the department and in the same location when the batch runs
+                bulk.updateOne(new Query(new Criteria().andOperator(
+                        Criteria.where("_id").is(user.getId()),
+                        Criteria.where("location").is(user.getLocation()),
+                        references)), update);
+                
+                if (++batched == BULK_CHUNK_SIZE) {
+                    updated += bulk.execute().getModifiedCount();
+                    bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, User.class);
+                    batched = 0;
+                }
+            }
+        }
+        if (batched > 0) {
+            updated += bulk.execute().getModifiedCount();
+        }
+        return updated;
+    }
+    
+    /**
+     * Find users by location, department and status
+     * The IDs come from the in-memory directory index once it is built (one _id lookup);
+     * until then the filter runs as one indexed query
+     * @param location the location name (optional)
+     * @param department the department name (optional)
+     * @param status the status (optional)
+     * @return List of matching UserDTO
+     */
+    private List<UserDTO> findUsersMatching(String location, String department, String status) {
+        if (employeeDirectoryIndex.isReady()) {
+            // Resolve the matching IDs in memory, then load only those users
+            List<String> ids = employeeDirectoryIndex.findIds(filterValues(location), filterValues(department),
+                    filterValues(status));
+            if (ids.isEmpty()) {
+                return List.of();
+            }
+            return mongoTemplate.find(new Query(Criteria.where("_id").in(ids)), User.class).stream()
+                    .map(this::convertToDTO)
+                    .collect(Collectors.toList());
+        }
+        
+        List<Criteria> criteria = new ArrayList<>();
+        if (TextNormalizer.hasKey(location) || TextNormalizer.hasKey(department)) {
+            criteria.add(buildLocationDepartmentCriteria(location, department));
+        }
+        if (TextNormalizer.hasKey(status)) {
+            criteria.add(Criteria.where("statusKey").is(TextNormalizer.key(status)));
+        }
+        
+        Query query = criteria.isEmpty()
+                ? new Query()
+                : new Query(new Criteria().andOperator(criteria.toArray(new Criteria[0])));
+        return mongoTemplate.find(query, User.class).stream()
+                .map(this::convertToDTO)
+                .collect(Collectors.toList());
+    }
+    
+    private List<String> filterValues(String value) {
+        return TextNormalizer.hasKey(value) ? List.of(value) : null;
+    }
+    
+    /**
+     * Count employees per location, department and status for the filter dropdowns, within the caller's scope
+     * Served from the in-memory directory index; an admin's own location and department are always applied
+     * @param userRole the role of the requesting user (ADMIN or SUPERADMIN)
+     * @param userId the ID of the requesting user
+     * @param location the selected locations (optional, superadmin only)
+     * @param department the selected departments (optional, superadmin only)
+     * @param status the selected statuses (optional)
+     * @return the facet counts and the number of employees matching all the selections
+     * @throws AdminServiceException if the admin or their location cannot be found
+     */
+    public Map<String, Object> getEmployeeFacets(String userRole, String userId,
+                                                 List<String> location, List<String> department, List<String> status) {
+        if (!"SUPERADMIN".equals(userRole)) {
+            Admin admin = adminRepository.findById(userId)
+                    .orElseThrow(() -> new AdminServiceException("Admin non trouvé avec l'ID: " + userId, "ADMIN_NOT_FOUND"));
+            if (!TextNormalizer.hasKey(admin.getLocation())) {
+                throw new AdminServiceException("Aucune location assignée à l'admin: " + admin.getUsername(), "ADMIN_SCOPE_MISSING");
+            }
+            location = List.of(admin.getLocation());
+            department = filterValues(admin.getDepartment());
+        }
+        
+        Map<String, Object> result = new HashMap<>();
+        result.put("facets", employeeDirectoryIndex.facets(location, department, status));
+        result.put("total", employeeDirectoryIndex.count(location, department, status));
+        return result;
     }
     
     /**
@@ -392,49 +1014,10 @@ public class UserService {
             return List.of(); // Empty list if no location assigned
         }
         
-        // Get all users and filter by location and department
-        List<User> allUsers = userRepository.findAll();
-        System.out.println("Total users in database: " + allUsers.size());
-        
-        List<User> filteredUsers = allUsers.stream()
-                .filter(user -> {
-                    // Use direct location and department fields from user
-                    String userLocation = user.getLocation();
-                    String userDepartment = user.getDepartment();
-                    
-                    // If user has departmentId, get location from department (new structure only)
-                    if (user.getDepartmentId() != null && !user.getDepartmentId().trim().isEmpty()) {
-                        Optional<Department> dept = departmentRepository.findById(user.getDepartmentId());
-                        if (dept.isPresent()) {
-                            Department department = dept.get();
-                            // Use new location field from department
-                            if (department.getLocation() != null && !department.getLocation().trim().isEmpty()) {
-                                userLocation = department.getLocation();
-                                userDepartment = department.getName();
-                            }
-                        }
-                    }
-                    
-                    boolean locationMatch = adminLocation.equalsIgnoreCase(userLocation);
-                    boolean departmentMatch = adminDepartment == null || 
-                                            adminDepartment.trim().isEmpty() || 
-                                            adminDepartment.equalsIgnoreCase(userDepartment);
-                    
-                    System.out.println("User " + user.getEmployeeId() + 
-                                     " - Location: '" + userLocation + "'" +
-                                     " - Department: '" + userDepartment + "'" +
-                                     " - LocationMatch: " + locationMatch +
-                                     " - DepartmentMatch: " + departmentMatch);
-                    
-                    return locationMatch && departmentMatch;
-                })
-                .collect(Collectors.toList());
-        
+        List<UserDTO> filteredUsers = findUsersMatching(adminLocation, adminDepartment, null);
         System.out.println("Filtered users count: " + filteredUsers.size());
         
-        return filteredUsers.stream()
-                .map(this::convertToDTO)
-                .collect(Collectors.toList());
+        return filteredUsers;
     }
     
     /**
@@ -486,39 +1069,18 @@ public class UserService {
         
         if ("SUPERADMIN".equals(userRole)) {
             // SuperAdmin sees all users with optional filtering
-            users = getAllUsers();
-            
-            // Apply filters if provided
-            if (filterLocation != null && !filterLocation.trim().isEmpty()) {
-                users = users.stream()
-                    .filter(user -> filterLocation.equalsIgnoreCase(user.getLocation()))
-                    .collect(Collectors.toList());
-            }
-            
-            if (filterDepartment != null && !filterDepartment.trim().isEmpty()) {
-                users = users.stream()
-                    .filter(user -> filterDepartment.equalsIgnoreCase(user.getDepartment()))
-                    .collect(Collectors.toList());
-            }
-            
-            if (filterStatus != null && !filterStatus.trim().isEmpty()) {
-                users = users.stream()
-                    .filter(user -> filterStatus.equalsIgnoreCase(user.getStatus()))
-                    .collect(Collectors.toList());
-            }
+            users = getAllUsersWithFilters(filterLocation, filterDepartment, filterStatus);
             
         } else {
             // Admin sees only users from their location and department
             Optional<Admin> adminOpt = adminRepository.findById(userId);
             if (adminOpt.isPresent()) {
                 Admin admin = adminOpt.get();
-                users = getFilteredUsersByLocationAndDepartment(admin.getLocation(), admin.getDepartment());
-                
-                // Apply status filter if provided
-                if (filterStatus != null && !filterStatus.trim().isEmpty()) {
-                    users = users.stream()
-                        .filter(user -> filterStatus.equalsIgnoreCase(user.getStatus()))
-                        .collect(Collectors.toList());
+                if (TextNormalizer.hasKey(admin.getLocation())) {
+                    users = findUsersMatching(admin.getLocation(), admin.getDepartment(), filterStatus);
+                } else {
+                    System.out.println("Admin location is null/empty - returning empty list");
+                    users = List.of();
                 }
             } else {
                 System.out.println("Admin not found with ID: " + userId);
@@ -538,27 +1100,7 @@ public class UserService {
      * @return List of filtered UserDTO
      */
     public List<UserDTO> getAllUsersWithFilters(String location, String department, String status) {
-        List<UserDTO> users = getAllUsers();
-        
-        if (location != null && !location.trim().isEmpty()) {
-            users = users.stream()
-                .filter(user -> location.equalsIgnoreCase(user.getLocation()))
-                .collect(Collectors.toList());
-        }
-        
-        if (department != null && !department.trim().isEmpty()) {
-            users = users.stream()
-                .filter(user -> department.equalsIgnoreCase(user.getDepartment()))
-                .collect(Collectors.toList());
-        }
-        
-        if (status != null && !status.trim().isEmpty()) {
-            users = users.stream()
-                .filter(user -> status.equalsIgnoreCase(user.getStatus()))
-                .collect(Collectors.toList());
-        }
-        
-        return users;
+        return findUsersMatching(location, department, status);
     }
 
     /**
@@ -567,9 +1109,7 @@ public class UserService {
      * @return List of departments in that location
      */
     public List<Department> getDepartmentsByLocation(String locationName) {
-        return departmentRepository.findAll().stream()
-                .filter(dept -> locationName.equalsIgnoreCase(dept.getLocation()))
-                .collect(Collectors.toList());
+        return taxonomyService.current().getDepartmentsByLocation(locationName);
     }
     
     /**
@@ -577,12 +1117,7 @@ public class UserService {
      * @return List of unique location names
      */
     public List<String> getAllLocations() {
-        return departmentRepository.findAll().stream()
-                .map(Department::getLocation)
-                .filter(location -> location != null && !location.trim().isEmpty())
-                .distinct()
-                .sorted()
-                .collect(Collectors.toList());
+        return taxonomyService.current().getLocations();
     }
     
     /**
@@ -590,11 +1125,6 @@ public class UserService {
      * @return List of unique department names
      */
     public List<String> getAllDepartments() {
-        return departmentRepository.findAll().stream()
-                .map(Department::getName)
-                .filter(name -> name != null && !name.trim().isEmpty())
-                .distinct()
-                .sorted()
-                .collect(Collectors.toList());
+        return taxonomyService.current().getDepartmentNames();
     }
 }
\ No newline at end of file
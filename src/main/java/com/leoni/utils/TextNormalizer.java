@@ -0,0 +1,93 @@
+package com.leoni.utils;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Normalization of free-text values used as filter keys
+ * Stored values vary in case and spacing ("Mateur", "mateur ", "Quality  Control"); the normalized
+ * key is stored next to the original value so filters are exact-match index lookups
+ */
+public final class TextNormalizer {
+    
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+    private static final Pattern TOKEN_SEPARATORS = Pattern.compile("[^a-z0-9]+");
+    
+    private TextNormalizer() {
+    }
+    
+    /**
+     * Build the filter key of a value: trimmed, inner whitespace collapsed, lower case
+     * @param value the raw value (may be null)
+     * @return the normalized key, or null if the value is null or blank
+     */
+    public static String key(String value) {
+        if (value == null) {
+            return null;
+        }
+        String key = value.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+        return key.isEmpty() ? null : key;
+    }
+    
+    /**
+     * Check whether a filter value was provided
+     * @param value the raw filter value (may be null)
+     * @return true if the value has a non-blank key
+     */
+    public static boolean hasKey(String value) {
+        return key(value) != null;
+    }
+    
+    /**
+     * Fold a value for search: accents removed, lower case ("Hélène" -> "helene")
+     * @param value the raw value (may be null)
+     * @return the folded value, or an empty string if the value is null
+     */
+    public static String fold(String value) {
+        if (value == null) {
+            return "";
+        }
+        String decomposed = Normalizer.normalize(value, Normalizer.Form.NFD);
+        return DIACRITICS.matcher(decomposed).replaceAll("").toLowerCase(Locale.ROOT);
+    }
+    
+    /**
+     * Split values into distinct folded search tokens (letters and digits only)
+     * @param values the raw values (null values are ignored)
+     * @return the tokens in order of first appearance
+     */
+    public static List<String> tokens(String... values) {
+        Set<String> tokens = new LinkedHashSet<>();
+        for (String value : values) {
+            for (String token : TOKEN_SEPARATORS.split(fold(value))) {
+                if (!token.isEmpty()) {
+                    tokens.add(token);
+                }
+            }
+        }
+        return new ArrayList<>(tokens);
+    }
+    
+    /**
+     * Expand tokens into all their prefixes, for prefix matching with an exact-match index
+     * @param tokens the search tokens
+     * @param maxLength longest prefix kept (longer query tokens must be cut to this length)
+     * @return the distinct prefixes
+     */
+    public static List<String> prefixes(Collection<String> tokens, int maxLength) {
+        Set<String> prefixes = new LinkedHashSet<>();
+        for (String token : tokens) {
+            int length = Math.min(token.length(), maxLength);
+            for (int i = 1; i <= length; i++) {
+                prefixes.add(token.substring(0, i));
+            }
+        }
+        return new ArrayList<>(prefixes);
+    }
+}
@@ -0,0 +1,93 @@
+package com.leoni.controllers;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UploadsControllerTest {
+
+    private static final String ETAG = "\"abc\"";
+    private static final long LAST_MODIFIED = 1_700_000_000_123L;
+
+    @Test
+    void parseRangeReturnsClosedRange() {
+        assertEquals(new UploadsController.ByteRange(0, 99), UploadsController.parseRange("bytes=0-99", 1000));
+        assertEquals(new UploadsController.ByteRange(5, 5), UploadsController.parseRange(" bytes=5-5 ", 1000));
+    }
+
+    @Test
+    void parseRangeClipsLastByteToFile() {
+        assertEquals(new UploadsController.ByteRange(900, 999), UploadsController.parseRange("bytes=900-5000", 1000));
+        assertEquals(new UploadsController.ByteRange(0, 999),
+                UploadsController.parseRange("bytes=0-99999999999999999999", 1000));
+    }
+
+    @Test
+    void parseRangeOpenEnded() {
+        assertEquals(new UploadsController.ByteRange(500, 999), UploadsController.parseRange("bytes=500-", 1000));
+    }
+
+    @Test
+    void parseRangeSuffix() {
+        assertEquals(new UploadsController.ByteRange(900, 999), UploadsController.parseRange("bytes=-100", 1000));
+        assertEquals(new UploadsController.ByteRange(0, 999), UploadsController.parseRange("bytes=-5000", 1000));
+    }
+
+    @Test
+    void parseRangeUnsatisfiable() {
+        assertSame(UploadsController.UNSATISFIABLE, UploadsController.parseRange("bytes=1000-", 1000));
+        assertSame(UploadsController.UNSATISFIABLE, UploadsController.parseRange("bytes=2000-3000", 1000));
+        assertSame(UploadsController.UNSATISFIABLE, UploadsController.parseRange("bytes=-0", 1000));
+        assertSame(UploadsController.UNSATISFIABLE, UploadsController.parseRange("bytes=99999999999999999999-", 1000));
+        assertSame(UploadsController.UNSATISFIABLE, UploadsController.parseRange("bytes=-10", 0));
+    }
+
+    @Test
+    void parseRangeIgnoresInvalidHeaders() {
+        assertNull(UploadsController.parseRange(null, 1000));
+        assertNull(UploadsController.parseRange("bytes=5-3", 1000));
+        assertNull(UploadsController.parseRange("bytes=-", 1000));
+        assertNull(UploadsController.parseRange("bytes=0-1,5-9", 1000));
+        assertNull(UploadsController.parseRange("items=0-9", 1000));
+        assertNull(UploadsController.parseRange("bytes=a-b", 1000));
+    }
+
+    @Test
+    void notModifiedMatchesEtags() {
+        assertTrue(UploadsController.notModified(ETAG, -1, ETAG, LAST_MODIFIED));
+        assertTrue(UploadsController.notModified("W/\"abc\"", -1, ETAG, LAST_MODIFIED));
+        assertTrue(UploadsController.notModified("\"other\", \"abc\"", -1, ETAG, LAST_MODIFIED));
+        assertTrue(UploadsController.notModified("*", -1, ETAG, LAST_MODIFIED));
+        assertFalse(UploadsController.notModified("\"other\"", -1, ETAG, LAST_MODIFIED));
+    }
+
+    @Test
+    void notModifiedPrefersIfNoneMatchOverDate() {
+        assertFalse(UploadsController.notModified("\"other\"", LAST_MODIFIED, ETAG, LAST_MODIFIED));
+    }
+
+    @Test
+    void notModifiedComparesDatesToTheSecond() {
+        long header = LAST_MODIFIED / 1000 * 1000; // HTTP dates have no milliseconds
+        assertTrue(UploadsController.notModified(null, header, ETAG, LAST_MODIFIED));
+        assertTrue(UploadsController.notModified(null, header + 60_000, ETAG, LAST_MODIFIED));
+        assertFalse(UploadsController.notModified(null, header - 1000, ETAG, LAST_MODIFIED));
+        assertFalse(UploadsController.notModified(null, -1, ETAG, LAST_MODIFIED));
+    }
+
+    @Test
+    void ifRangeMatchesCurrentVersionOnly() {
+        long header = LAST_MODIFIED / 1000 * 1000;
+        assertTrue(UploadsController.ifRangeMatches(null, -1, ETAG, LAST_MODIFIED));
+        assertTrue(UploadsController.ifRangeMatches(ETAG, -1, ETAG, LAST_MODIFIED));
+        assertFalse(UploadsController.ifRangeMatches("\"other\"", -1, ETAG, LAST_MODIFIED));
+        assertFalse(UploadsController.ifRangeMatches("W/\"abc\"", -1, ETAG, LAST_MODIFIED));
+        assertTrue(UploadsController.ifRangeMatches("Tue, 14 Nov 2023 22:13:20 GMT", header, ETAG, LAST_MODIFIED));
+        assertFalse(UploadsController.ifRangeMatches("Tue, 14 Nov 2023 22:13:19 GMT", header - 1000, ETAG, LAST_MODIFIED));
+        assertFalse(UploadsController.ifRangeMatches("garbage", -1, ETAG, LAST_MODIFIED));
+    }
+}
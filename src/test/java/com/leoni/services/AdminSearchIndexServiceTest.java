@@ -0,0 +1,123 @@
+package com.leoni.services;
+
+import com.leoni.dto.AdminSearchHit;
+import com.leoni.models.DocumentRequest;
+import com.leoni.models.News;
+import com.leoni.models.User;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class AdminSearchIndexServiceTest {
+
+    private MongoTemplate mongoTemplate;
+    private AdminSearchIndexService index;
+
+    @BeforeEach
+    void setUp() {
+        mongoTemplate = mock(MongoTemplate.class);
+        index = new AdminSearchIndexService();
+        ReflectionTestUtils.setField(index, "mongoTemplate", mongoTemplate);
+        when(mongoTemplate.stream(any(Query.class), eq(DocumentRequest.class))).thenAnswer(invocation -> Stream.empty());
+        when(mongoTemplate.stream(any(Query.class), eq(News.class))).thenAnswer(invocation -> Stream.empty());
+    }
+
+    @Test
+    void wholeWordsRankBeforePrefixesAndInnerMatches() {
+        index.indexUser(user("1", "Martin", "Dupont"));
+        index.indexUser(user("2", "Martine", "Durand"));
+        index.indexUser(user("3", "Sami", "Lamartine"));
+
+        List<AdminSearchHit> hits = search("martin");
+
+        assertEquals(List.of("1", "2", "3"), hits.stream().map(AdminSearchHit::getId).toList());
+        assertEquals(List.of(3, 2, 1), hits.stream().map(AdminSearchHit::getScore).toList());
+    }
+
+    @Test
+    void everyQueryTokenMustMatchAndScoresAdd() {
+        index.indexUser(user("1", "Martin", "Dupont"));
+        index.indexUser(user("2", "Martin", "Durand"));
+
+        List<AdminSearchHit> hits = search("Martin Dup");
+
+        assertEquals(1, hits.size());
+        assertEquals("1", hits.get(0).getId());
+        assertEquals(5, hits.get(0).getScore()); // Whole word + prefix
+    }
+
+    @Test
+    void shortTokensOnlyMatchWordStartsAndAccentsAreFolded() {
+        index.indexUser(user("1", "Élodie", "Ben Ali"));
+        index.indexUser(user("2", "Mélodie", "Trabelsi"));
+
+        assertEquals(List.of("1"), search("el").stream().map(AdminSearchHit::getId).toList());
+        assertEquals(List.of("1", "2"), search("elodie").stream().map(AdminSearchHit::getId).toList());
+    }
+
+    @Test
+    void trigramsFoundInDifferentWordsAreNotAMatch() {
+        // Every trigram of "annabil" is in "anna" or "nabil", but no word contains it
+        index.indexUser(user("1", "Anna", "Nabil"));
+
+        assertTrue(search("annabil").isEmpty());
+        assertEquals(List.of("1"), search("nabil").stream().map(AdminSearchHit::getId).toList());
+    }
+
+    @Test
+    void writesDuringARebuildAreReplayedIntoTheNewSnapshot() {
+        index.indexUser(user("gone", "Ancien", "Employe"));
+        // The rebuild reads the users while an employee is saved and another deleted
+        when(mongoTemplate.stream(any(Query.class), eq(User.class))).thenAnswer(invocation -> {
+            index.indexUser(user("new", "Nouvel", "Employe"));
+            index.indexUser(user("1", "Martin", "Renomme"));
+            index.remove(AdminSearchIndexService.EMPLOYEE, "2");
+            return Stream.of(user("1", "Martin", "Dupont"), user("2", "Sonia", "Dupont"));
+        });
+
+        index.rebuild();
+
+        assertEquals(2, index.size());
+        assertEquals(List.of("new"), search("nouvel").stream().map(AdminSearchHit::getId).toList());
+        assertEquals(List.of("1"), search("renomme").stream().map(AdminSearchHit::getId).toList());
+        assertTrue(search("dupont").isEmpty());
+        assertTrue(search("ancien").isEmpty());
+    }
+
+    @Test
+    void writesAfterARebuildAreNotRecorded() {
+        when(mongoTemplate.stream(any(Query.class), eq(User.class)))
+                .thenAnswer(invocation -> Stream.of(user("1", "Martin", "Dupont")));
+        index.rebuild();
+
+        index.remove(AdminSearchIndexService.EMPLOYEE, "1");
+        index.rebuild();
+
+        // The second rebuild reads the user again: no removal from the earlier write is replayed
+        assertEquals(List.of("1"), search("martin").stream().map(AdminSearchHit::getId).toList());
+    }
+
+    private List<AdminSearchHit> search(String query) {
+        return index.search(query, null, AdminSearchIndexService.MAX_HITS, "SUPERADMIN", null);
+    }
+
+    private static User user(String id, String firstName, String lastName) {
+        User user = new User();
+        user.setId(id);
+        user.setFirstName(firstName);
+        user.setLastName(lastName);
+        return user;
+    }
+}
@@ -0,0 +1,188 @@
+package com.leoni.services;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+class BlobCacheTest {
+
+    private static final int KB = 1024;
+    private static final long STORED_AT = 1_700_000_000_000L;
+
+    @TempDir
+    Path cacheDir;
+
+    private final SharedStore store = new SharedStore();
+    private final UploadCache uploadCache = mock(UploadCache.class);
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    private BlobCache cache;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        cache = newCache();
+    }
+
+    @Test
+    void aFileIsDownloadedOnceWithTheStoreDate() throws IOException {
+        store.files.put("news-images/ab/ab12.png", new byte[] {1, 2, 3});
+
+        Path file = cache.resolve("news-images/ab/ab12.png");
+
+        assertArrayEquals(new byte[] {1, 2, 3}, Files.readAllBytes(file));
+        assertEquals(STORED_AT, Files.getLastModifiedTime(file).toMillis());
+        assertEquals(file, cache.resolve("news-images/ab/ab12.png"));
+        assertEquals(1, store.opened);
+    }
+
+    @Test
+    void missingUploadsResolveToNull() throws IOException {
+        assertNull(cache.resolve("news-images/none.png"));
+        assertEquals(0, store.opened);
+    }
+
+    @Test
+    void leastRecentlyUsedCopiesAreRemovedBeyondTheLimit() throws IOException {
+        ReflectionTestUtils.setField(cache, "cacheMaxMb", 1L);
+        store.files.put("a", new byte[400 * KB]);
+        store.files.put("b", new byte[400 * KB]);
+        store.files.put("c", new byte[400 * KB]);
+
+        cache.resolve("a");
+        cache.resolve("b");
+        cache.resolve("a"); // b is now the least recently used
+        cache.resolve("c");
+
+        assertTrue(Files.exists(cacheDir.resolve("a")));
+        assertFalse(Files.exists(cacheDir.resolve("b")));
+        assertTrue(Files.exists(cacheDir.resolve("c")));
+        cache.resolve("b");
+        assertEquals(4, store.opened);
+    }
+
+    @Test
+    void copiesKeptOnDiskAreReusedAndInterruptedDownloadsRemoved() throws IOException {
+        store.files.put("news-images/ab/ab12.png", new byte[] {1});
+        cache.resolve("news-images/ab/ab12.png");
+        Path interrupted = cacheDir.resolve("news-images/ab/.download-1.tmp");
+        Files.write(interrupted, new byte[] {9});
+
+        BlobCache restarted = newCache();
+
+        assertFalse(Files.exists(interrupted));
+        assertEquals(cacheDir.resolve("news-images/ab/ab12.png"), restarted.resolve("news-images/ab/ab12.png"));
+        assertEquals(1, store.opened);
+    }
+
+    @Test
+    void evictionsDropTheCopyHereAndAreRecordedForTheOtherNodes() throws IOException {
+        store.files.put("news-images/ab/ab12.png", new byte[] {1});
+        Path file = cache.resolve("news-images/ab/ab12.png");
+
+        cache.evictEverywhere(List.of("news-images/ab/ab12.png"));
+
+        assertFalse(Files.exists(file));
+        verify(uploadCache).evict("news-images/ab/ab12.png");
+        verify(mongoTemplate).insert(anyList(), eq(BlobCache.EVICTIONS_COLLECTION));
+    }
+
+    @Test
+    void theLocalBackendIsNotCopied(@TempDir Path uploadsDir) throws IOException {
+        LocalBlobStore local = new LocalBlobStore();
+        ReflectionTestUtils.setField(local, "uploadsDir", uploadsDir.toString());
+        local.put("news-images/ab/ab12.png", new ByteArrayInputStream(new byte[] {1}), "image/png");
+        BlobCache localCache = new BlobCache();
+        ReflectionTestUtils.setField(localCache, "blobStore", local);
+        ReflectionTestUtils.setField(localCache, "cacheDir", cacheDir.toString());
+        localCache.init();
+
+        assertEquals(local.localPath("news-images/ab/ab12.png"), localCache.resolve("news-images/ab/ab12.png"));
+        assertNull(localCache.resolve("news-images/none.png"));
+        try (Stream<Path> files = Files.list(cacheDir)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    private BlobCache newCache() throws IOException {
+        BlobCache blobCache = new BlobCache();
+        ReflectionTestUtils.setField(blobCache, "blobStore", store);
+        ReflectionTestUtils.setField(blobCache, "uploadCache", uploadCache);
+        ReflectionTestUtils.setField(blobCache, "mongoTemplate", mongoTemplate);
+        ReflectionTestUtils.setField(blobCache, "cacheDir", cacheDir.toString());
+        ReflectionTestUtils.setField(blobCache, "cacheMaxMb", 512L);
+        blobCache.init();
+        return blobCache;
+    }
+
+    /**
+     * Store shared by the nodes, counting the downloads
+     */
+    private static class SharedStore implements BlobStore {
+
+        final Map<String, byte[]> files = new HashMap<>();
+        int opened;
+
+        @Override
+        public void put(String key, InputStream content, String contentType) throws IOException {
+            files.put(key, content.readAllBytes());
+        }
+
+        @Override
+        public InputStream open(String key) throws IOException {
+            byte[] content = files.get(key);
+            if (content == null) {
+                throw new NoSuchFileException(key);
+            }
+            opened++;
+            return new ByteArrayInputStream(content);
+        }
+
+        @Override
+        public BlobInfo stat(String key) {
+            byte[] content = files.get(key);
+            return content != null ? new BlobInfo(key, content.length, STORED_AT, null) : null;
+        }
+
+        @Override
+        public void delete(String key) {
+            files.remove(key);
+        }
+
+        @Override
+        public void move(String from, String to) {
+            byte[] content = files.remove(from);
+            if (content != null) {
+                files.put(to, content);
+            }
+        }
+
+        @Override
+        public void list(String prefix, Consumer<BlobInfo> visitor) {
+            files.keySet().stream().filter(key -> key.startsWith(prefix + "/")).sorted()
+                    .forEach(key -> visitor.accept(stat(key)));
+        }
+    }
+}
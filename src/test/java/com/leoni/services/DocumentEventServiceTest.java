@@ -0,0 +1,139 @@
+package com.leoni.services;
+
+import com.leoni.models.DocumentEvent;
+import com.leoni.models.DocumentRequest;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.RETURNS_SELF;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class DocumentEventServiceTest {
+    
+    private MongoTemplate mongoTemplate;
+    private DocumentEventService documentEventService;
+    
+    // Events passed to each ordered bulk insert, in call order
+    private final List<List<String>> insertedBatches = new ArrayList<>();
+    
+    @BeforeEach
+    void setUp() {
+        mongoTemplate = mock(MongoTemplate.class);
+        documentEventService = new DocumentEventService();
+        ReflectionTestUtils.setField(documentEventService, "mongoTemplate", mongoTemplate);
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(Document.class), eq("counters"))).thenReturn(new Document("value", 103L));
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, DocumentRequest.class))
+                .thenReturn(mock(BulkOperations.class, RETURNS_SELF));
+    }
+    
+    @Test
+    void relaysABatchWithOneInsertAndOnePullBulk() {
+        BulkOperations inserts = insertBulk(null);
+        relay(request("r1", event("e1", 1), event("e3", 3)), request("r2", event("e2", 2)));
+        
+        assertEquals(List.of(List.of("e1", "e2", "e3")), insertedBatches);
+        verify(inserts, times(1)).execute();
+        assertEquals(List.of(101L, 102L, 103L), broadcastSeqs());
+        BulkOperations pulls = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, DocumentRequest.class);
+        verify(pulls, times(2)).updateOne(any(Query.class), any(Update.class));
+        verify(pulls).execute();
+    }
+    
+    @Test
+    void duplicatesAreSkippedInOrder() {
+        insertBulk(duplicateAt(1));
+        relay(request("r1", event("e1", 1), event("e2", 2), event("e3", 3)));
+        
+        // The first bulk stops at e2 (already relayed), the rest is inserted after it
+        assertEquals(List.of(List.of("e1", "e2", "e3"), List.of("e3")), insertedBatches);
+        assertEquals(List.of(101L, 103L), broadcastSeqs());
+    }
+    
+    @Test
+    void otherInsertErrorsStopTheBatch() {
+        BulkWriteError error = new BulkWriteError(121, "validation failed", new BsonDocument(), 0);
+        insertBulk(new BulkOperationException("failed", new MongoBulkWriteException(
+                BulkWriteResult.unacknowledged(), List.of(error), null, new ServerAddress(), Set.of())));
+        
+        assertThrows(BulkOperationException.class, () -> relay(request("r1", event("e1", 1))));
+        verify(mongoTemplate, times(0)).insert(anyList(), anyString());
+    }
+    
+    private void relay(DocumentRequest... requests) {
+        ReflectionTestUtils.invokeMethod(documentEventService, "relayEvents", List.of(requests));
+    }
+    
+    /**
+     * Ordered insert bulks recording their events; the first execute throws the given error (if any)
+     */
+    @SuppressWarnings("unchecked")
+    private BulkOperations insertBulk(RuntimeException firstError) {
+        BulkOperations bulk = mock(BulkOperations.class, RETURNS_SELF);
+        when(bulk.insert(anyList())).thenAnswer(invocation -> {
+            List<DocumentEvent> events = invocation.getArgument(0);
+            insertedBatches.add(events.stream().map(DocumentEvent::getId).toList());
+            return bulk;
+        });
+        if (firstError != null) {
+            when(bulk.execute()).thenThrow(firstError).thenReturn(null);
+        }
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.ORDERED, DocumentEvent.class)).thenReturn(bulk);
+        return bulk;
+    }
+    
+    private static BulkOperationException duplicateAt(int index) {
+        BulkWriteError error = new BulkWriteError(11000, "duplicate key", new BsonDocument(), index);
+        return new BulkOperationException("duplicate", new MongoBulkWriteException(
+                BulkWriteResult.unacknowledged(), List.of(error), null, new ServerAddress(), Set.of()));
+    }
+    
+    @SuppressWarnings("unchecked")
+    private List<Long> broadcastSeqs() {
+        ArgumentCaptor<List<DocumentEvent>> captor = ArgumentCaptor.forClass(List.class);
+        verify(mongoTemplate).insert(captor.capture(), eq(DocumentEventBroadcaster.STREAM_COLLECTION));
+        return captor.getValue().stream().map(DocumentEvent::getSeq).toList();
+    }
+    
+    private static DocumentRequest request(String id, DocumentEvent... events) {
+        DocumentRequest request = new DocumentRequest();
+        request.setId(id);
+        request.setPendingEvents(new ArrayList<>(List.of(events)));
+        return request;
+    }
+    
+    private static DocumentEvent event(String id, long at) {
+        DocumentEvent event = new DocumentEvent();
+        event.setId(id);
+        event.setAt(new Date(at));
+        return event;
+    }
+}
@@ -0,0 +1,127 @@
+package com.leoni.services;
+
+import com.leoni.dto.DocumentCampaignRequest;
+import com.leoni.dto.DocumentCampaignResult;
+import com.leoni.models.DocumentEvent;
+import com.leoni.models.DocumentRequest;
+import com.leoni.models.User;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class DocumentRequestCampaignTest {
+
+    @Mock
+    private UserService userService;
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private AdminSearchIndexService adminSearchIndexService;
+
+    @Mock
+    private DocumentEventService documentEventService;
+
+    @Mock
+    private BulkOperations userUpdates;
+
+    @InjectMocks
+    private DocumentRequestService documentRequestService;
+
+    @Test
+    void aTargetAndDocumentTypesAreRequired() {
+        DocumentCampaignRequest noTarget = campaign(null, List.of("Attestation"));
+        DocumentCampaignRequest noTypes = campaign("Sousse", List.of());
+
+        assertThrows(IllegalArgumentException.class,
+                () -> documentRequestService.createDocumentRequestCampaign(noTarget, "SUPERADMIN", null));
+        assertThrows(IllegalArgumentException.class,
+                () -> documentRequestService.createDocumentRequestCampaign(noTypes, "SUPERADMIN", null));
+        verify(mongoTemplate, never()).insert(anyCollection(), eq(DocumentRequest.class));
+    }
+
+    @Test
+    void everyTargetedEmployeeGetsOneRequest() {
+        when(userService.findApprovedUserIdsByLocationAndDepartment("Sousse", null, "ADMIN", "admin1"))
+                .thenReturn(List.of("u1", "u2", "u3"));
+        mockWrites();
+
+        DocumentCampaignResult result = documentRequestService.createDocumentRequestCampaign(
+                campaign("Sousse", List.of("Attestation", "Bulletin")), "ADMIN", "admin1");
+
+        assertEquals(3, result.getTargetedUsers());
+        assertEquals(3, result.getCreatedRequests());
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<Collection<DocumentRequest>> inserted = ArgumentCaptor.forClass(Collection.class);
+        verify(mongoTemplate).insert(inserted.capture(), eq(DocumentRequest.class));
+        List<DocumentRequest> requests = new ArrayList<>(inserted.getValue());
+        assertEquals(List.of("u1", "u2", "u3"), requests.stream().map(DocumentRequest::getUserId).toList());
+        assertEquals(3, requests.stream().map(DocumentRequest::getId).distinct().count());
+        for (DocumentRequest request : requests) {
+            assertEquals(List.of("Attestation", "Bulletin"), request.getDocumentTypes());
+            // The change events go out through the outbox like a single creation
+            assertEquals(List.of(DocumentEvent.CREATED),
+                    request.getPendingEvents().stream().map(DocumentEvent::getType).toList());
+        }
+        verify(userUpdates, times(3)).updateOne(any(Query.class), any(Update.class));
+        verify(userUpdates).execute();
+        verify(adminSearchIndexService, times(3)).indexDocumentRequest(any());
+        verify(documentEventService).relayNow();
+    }
+
+    @Test
+    void largeCampaignsAreWrittenInChunks() {
+        List<String> userIds = IntStream.range(0, 1001).mapToObj(i -> "u" + i).collect(Collectors.toList());
+        when(userService.findApprovedUserIdsByLocationAndDepartment(null, "IT", "SUPERADMIN", null)).thenReturn(userIds);
+        mockWrites();
+
+        DocumentCampaignRequest request = campaign(null, List.of("Attestation"));
+        request.setDepartment("IT");
+        DocumentCampaignResult result = documentRequestService.createDocumentRequestCampaign(request, "SUPERADMIN", null);
+
+        assertEquals(1001, result.getCreatedRequests());
+        verify(mongoTemplate, times(2)).insert(anyCollection(), eq(DocumentRequest.class));
+        verify(userUpdates, times(2)).execute();
+        verify(documentEventService).relayNow();
+    }
+
+    private void mockWrites() {
+        when(mongoTemplate.insert(anyCollection(), eq(DocumentRequest.class)))
+                .thenAnswer(invocation -> new ArrayList<>(invocation.<Collection<DocumentRequest>>getArgument(0)));
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, User.class)).thenReturn(userUpdates);
+    }
+
+    private static DocumentCampaignRequest campaign(String location, List<String> documentTypes) {
+        DocumentCampaignRequest request = new DocumentCampaignRequest();
+        request.setLocation(location);
+        request.setDocumentTypes(documentTypes);
+        request.setDescription("Campagne annuelle");
+        return request;
+    }
+}
@@ -0,0 +1,244 @@
+package com.leoni.services;
+
+import com.leoni.dto.TrendPoint;
+import com.leoni.dto.TurnaroundStats;
+import com.leoni.models.DocumentRollup;
+import com.leoni.models.User;
+import com.leoni.utils.DurationHistogram;
+import com.leoni.utils.TextNormalizer;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class DocumentRollupServiceTest {
+
+    private static final long HOUR = 3_600_000;
+
+    private MongoTemplate mongoTemplate;
+    private DocumentRollupService service;
+
+    @BeforeEach
+    void setUp() {
+        mongoTemplate = mock(MongoTemplate.class);
+        service = new DocumentRollupService();
+        ReflectionTestUtils.setField(service, "mongoTemplate", mongoTemplate);
+        when(mongoTemplate.findById(anyString(), eq(Document.class), anyString())).thenReturn(null);
+    }
+
+    @Test
+    void weeksStartOnMonday() {
+        // 2026-03-01 is a Sunday: it closes the week of 2026-02-23
+        rollups(day("2026-03-01", 1, 0, 0), day("2026-03-02", 2, 1, 0), day("2026-03-08", 4, 0, 1));
+
+        List<TrendPoint> points = trends(LocalDate.parse("2026-03-01"), LocalDate.parse("2026-03-08"),
+                DocumentRollupService.WEEK, null, null);
+
+        assertEquals(List.of(new TrendPoint("2026-02-23", null, 1, 0, 0), new TrendPoint("2026-03-02", null, 6, 1, 1)),
+                points);
+    }
+
+    @Test
+    void monthsStartOnTheFirst() {
+        rollups(day("2026-02-28", 1, 0, 0), day("2026-03-01", 2, 0, 0), day("2026-03-31", 3, 0, 0));
+
+        List<TrendPoint> points = trends(LocalDate.parse("2026-02-28"), LocalDate.parse("2026-03-31"),
+                "month", null, null);
+
+        assertEquals(List.of(new TrendPoint("2026-02-01", null, 1, 0, 0), new TrendPoint("2026-03-01", null, 5, 0, 0)),
+                points);
+    }
+
+    @Test
+    void typeGroupsReadTheTypedEntriesOnly() {
+        DocumentRollup rollup = day("2026-03-02", 1, 0, 0);
+        // One request for two document types: counted once untyped, once per type
+        rollup.getEntries().add(entry("Sousse", "IT", null, 1, 0, 0));
+        rollup.getEntries().add(entry("Sousse", "IT", "Attestation", 1, 0, 0));
+        rollup.getEntries().add(entry("Sousse", "IT", "Bulletin", 1, 0, 0));
+        rollups(rollup);
+
+        LocalDate day = LocalDate.parse("2026-03-02");
+        assertEquals(List.of(new TrendPoint("2026-03-02", "Attestation", 1, 0, 0),
+                        new TrendPoint("2026-03-02", "Bulletin", 1, 0, 0)),
+                trends(day, day, DocumentRollupService.DAY, DocumentRollupService.BY_TYPE, null));
+        assertEquals(List.of(new TrendPoint("2026-03-02", null, 1, 0, 0)),
+                trends(day, day, DocumentRollupService.DAY, null, "sousse"));
+    }
+
+    @Test
+    void invalidRangesAreRefused() {
+        LocalDate day = LocalDate.parse("2026-03-02");
+        assertThrows(IllegalArgumentException.class,
+                () -> trends(day, day.minusDays(1), DocumentRollupService.DAY, null, null));
+        assertThrows(IllegalArgumentException.class,
+                () -> trends(day, day.plusYears(4), DocumentRollupService.MONTH, null, null));
+        assertThrows(IllegalArgumentException.class,
+                () -> trends(day, day, "YEAR", null, null));
+    }
+
+    @Test
+    void turnaroundMergesTheHistogramsOfEveryDaySlowestGroupFirst() {
+        DocumentRollup first = day("2026-03-02", 0, 0, 0);
+        first.getEntries().add(decided("Sousse", 1, HOUR));
+        first.getEntries().add(decided("Tunis", 1, 48 * HOUR));
+        DocumentRollup second = day("2026-03-03", 0, 0, 0);
+        second.getEntries().add(decided("Sousse", 3, 10 * HOUR));
+        rollups(first, second);
+
+        @SuppressWarnings("unchecked")
+        List<TurnaroundStats> groups = (List<TurnaroundStats>) service.getTurnaround("SUPERADMIN", null,
+                LocalDate.parse("2026-03-02"), LocalDate.parse("2026-03-03"),
+                DocumentRollupService.BY_LOCATION, null, null, null).get("groups");
+
+        assertEquals(List.of("Tunis", "Sousse"), groups.stream().map(TurnaroundStats::getGroup).toList());
+        TurnaroundStats sousse = groups.get(1);
+        assertEquals(4, sousse.getDecided());
+        assertEquals(4, sousse.getTurnaround().getCount());
+        assertEquals(hours(10 * HOUR), sousse.getTurnaround().getP50Hours()); // Rank 2 of 4
+        assertEquals(hours(10 * HOUR), sousse.getTurnaround().getP90Hours());
+        assertEquals(0, sousse.getInProgress().getCount());
+    }
+
+    @Test
+    void rebuildCountsEachRequestOnTheParisDaysItWasCreatedAndDecided() {
+        // Created on 2 March, in progress two hours later, accepted the next day; two document types
+        Document first = request("u1", List.of("Attestation", "Bulletin"), "2026-03-02T09:00:00Z",
+                step("en cours", "2026-03-02T11:00:00Z"), step("accepté", "2026-03-03T09:00:00Z"));
+        // 23:30 UTC is already 3 March in Paris; refused without going through "en cours", legacy single type
+        Document second = request("u2", null, "2026-03-02T23:30:00Z", step("refusé", "2026-03-03T01:30:00Z"));
+        second.append("documentType", "Bulletin");
+        when(mongoTemplate.stream(any(Query.class), eq(Document.class), eq("document_requests")))
+                .thenAnswer(invocation -> Stream.of(first, second));
+        when(mongoTemplate.find(any(Query.class), eq(User.class)))
+                .thenReturn(List.of(owner("u1", "Sousse", "IT"), owner("u2", "Tunis", "RH")));
+
+        service.rebuild();
+
+        ArgumentCaptor<DocumentRollup> saved = ArgumentCaptor.forClass(DocumentRollup.class);
+        verify(mongoTemplate, times(2)).save(saved.capture());
+        DocumentRollup march2 = saved.getAllValues().get(0);
+        DocumentRollup march3 = saved.getAllValues().get(1);
+
+        assertEquals("2026-03-02", march2.getId());
+        assertEquals(List.of(1L, 0L, 0L), List.of(march2.getCreated(), march2.getAccepted(), march2.getRefused()));
+        assertEquals(3, march2.getEntries().size()); // Untyped, Attestation, Bulletin
+        assertEquals("2026-03-03", march3.getId());
+        assertEquals(List.of(1L, 1L, 1L), List.of(march3.getCreated(), march3.getAccepted(), march3.getRefused()));
+
+        DocumentRollup.Entry sousse = entry(march3, "sousse", null);
+        assertEquals(List.of(0L, 1L, 0L), List.of(sousse.getCreated(), sousse.getAccepted(), sousse.getRefused()));
+        assertEquals(histogram(2 * HOUR), sousse.getPendingHistogram());
+        assertEquals(histogram(22 * HOUR), sousse.getInProgressHistogram());
+        assertEquals(histogram(24 * HOUR), sousse.getTurnaroundHistogram());
+
+        DocumentRollup.Entry tunis = entry(march3, "tunis", "Bulletin");
+        assertEquals("RH", tunis.getDepartment());
+        assertEquals(List.of(1L, 0L, 1L), List.of(tunis.getCreated(), tunis.getAccepted(), tunis.getRefused()));
+        assertEquals(histogram(2 * HOUR), tunis.getPendingHistogram());
+        assertNull(tunis.getInProgressHistogram());
+    }
+
+    private static DocumentRollup.Entry entry(DocumentRollup rollup, String locationKey, String documentType) {
+        return rollup.getEntries().stream()
+                .filter(entry -> locationKey.equals(entry.getLocationKey()) && Objects.equals(documentType, entry.getDocumentType()))
+                .findFirst().orElseThrow();
+    }
+
+    private static List<Long> histogram(long millis) {
+        return DurationHistogram.record(null, millis);
+    }
+
+    private static Document request(String userId, List<String> documentTypes, String createdAt, Document... progress) {
+        return new Document("userId", userId).append("documentTypes", documentTypes)
+                .append("createdAt", Date.from(Instant.parse(createdAt)))
+                .append("status", new Document("progress", List.of(progress)));
+    }
+
+    private static Document step(String step, String date) {
+        return new Document("step", step).append("completed", true).append("date", Date.from(Instant.parse(date)));
+    }
+
+    private static User owner(String id, String location, String department) {
+        User user = new User();
+        user.setId(id);
+        user.setEffectiveLocation(location);
+        user.setEffectiveDepartment(department);
+        return user;
+    }
+
+    private void rollups(DocumentRollup... rollups) {
+        when(mongoTemplate.find(any(Query.class), eq(DocumentRollup.class))).thenReturn(List.of(rollups));
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<TrendPoint> trends(LocalDate from, LocalDate to, String granularity, String groupBy, String location) {
+        return (List<TrendPoint>) service.getTrends("SUPERADMIN", null, from, to, granularity, groupBy,
+                location, null, null).get("points");
+    }
+
+    // Estimate of a single recorded duration, as returned by the service
+    private static Double hours(long millis) {
+        long[] merged = new long[DurationHistogram.BUCKETS];
+        DurationHistogram.mergeInto(merged, DurationHistogram.record(null, millis));
+        return Math.round(DurationHistogram.percentile(merged, 0.5) / 36000.0) / 100.0;
+    }
+
+    private static DocumentRollup day(String day, long created, long accepted, long refused) {
+        DocumentRollup rollup = new DocumentRollup();
+        rollup.setId(day);
+        rollup.setCreated(created);
+        rollup.setAccepted(accepted);
+        rollup.setRefused(refused);
+        rollup.setEntries(new ArrayList<>());
+        return rollup;
+    }
+
+    private static DocumentRollup.Entry entry(String location, String department, String documentType,
+                                              long created, long accepted, long refused) {
+        DocumentRollup.Entry entry = new DocumentRollup.Entry();
+        entry.setLocation(location);
+        entry.setLocationKey(TextNormalizer.key(location));
+        entry.setDepartment(department);
+        entry.setDepartmentKey(TextNormalizer.key(department));
+        entry.setDocumentType(documentType);
+        entry.setCreated(created);
+        entry.setAccepted(accepted);
+        entry.setRefused(refused);
+        return entry;
+    }
+
+    // Untyped entry of requests accepted after the same time pending
+    private static DocumentRollup.Entry decided(String location, int requests, long turnaround) {
+        DocumentRollup.Entry entry = entry(location, null, null, 0, requests, 0);
+        List<Long> histogram = null;
+        for (int i = 0; i < requests; i++) {
+            histogram = DurationHistogram.record(histogram, turnaround);
+        }
+        entry.setPendingHistogram(histogram);
+        entry.setTurnaroundHistogram(new ArrayList<>(histogram));
+        return entry;
+    }
+}
@@ -0,0 +1,129 @@
+package com.leoni.services;
+
+import com.leoni.models.User;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class EmployeeDirectoryIndexTest {
+    
+    private MongoTemplate mongoTemplate;
+    private EmployeeDirectoryIndex index;
+    
+    @BeforeEach
+    void setUp() {
+        mongoTemplate = mock(MongoTemplate.class);
+        index = new EmployeeDirectoryIndex();
+        ReflectionTestUtils.setField(index, "mongoTemplate", mongoTemplate);
+    }
+    
+    @Test
+    void filtersAreOrWithinAndAcrossDimensions() {
+        build(user("1", "Sousse", "IT", "approved"),
+                user("2", "sousse ", "RH", "approved"),
+                user("3", "Tunis", "IT", "pending"),
+                user("4", "Tunis", "IT", "approved"));
+        
+        assertEquals(Set.of("1", "2"), Set.copyOf(index.findIds(List.of("SOUSSE"), null, null)));
+        assertEquals(Set.of("1", "3", "4"), Set.copyOf(index.findIds(null, List.of("it"), null)));
+        assertEquals(Set.of("1", "4"), Set.copyOf(index.findIds(List.of("Sousse", "Tunis"), List.of("IT"), List.of("approved"))));
+        assertEquals(4, index.count(null, List.of(""), null)); // A blank value does not filter
+        assertEquals(0, index.count(List.of("Sfax"), null, null));
+    }
+    
+    @Test
+    void facetsApplyTheOtherDimensionsOnly() {
+        build(user("1", "Sousse", "IT", "approved"),
+                user("2", "Sousse", "RH", "pending"),
+                user("3", "Tunis", "IT", "approved"));
+        
+        Map<String, Map<String, Integer>> facets = index.facets(List.of("Sousse"), null, List.of("approved"));
+        
+        assertEquals(Map.of("Sousse", 1, "Tunis", 1), facets.get(EmployeeDirectoryIndex.LOCATION));
+        assertEquals(Map.of("IT", 1), facets.get(EmployeeDirectoryIndex.DEPARTMENT));
+        assertEquals(Map.of("approved", 1, "pending", 1), facets.get(EmployeeDirectoryIndex.STATUS));
+    }
+    
+    @Test
+    void writeHooksUpdateTheIndex() {
+        build(user("1", "Sousse", "IT", "pending"), user("2", "Sousse", "IT", "pending"));
+        
+        index.setStatus(List.of("1", "unknown"), "approved");
+        index.index(user("3", "Tunis", "RH", "approved"));
+        index.remove("2");
+        
+        assertEquals(Set.of("1", "3"), Set.copyOf(index.findIds(null, null, List.of("approved"))));
+        assertEquals(2, index.count(null, null, null));
+        assertFalse(index.findIds(null, null, null).contains("2"));
+    }
+    
+    @Test
+    void freedOrdinalsAreReused() {
+        build(user("1", "Sousse", "IT", "approved"));
+        index.remove("1");
+        index.index(user("2", "Tunis", "RH", "approved"));
+        
+        assertEquals(List.of("2"), index.findIds(null, null, null));
+        assertEquals(0, index.count(List.of("Sousse"), null, null));
+    }
+    
+    @Test
+    void rebuildReplaysWritesMadeWhileReading() {
+        build(user("1", "Sousse", "IT", "pending"), user("2", "Sousse", "IT", "pending"));
+        
+        // The users are read before these writes and replaced by the rebuild: the writes must survive it
+        Stream<User> stored = Stream.of(user("1", "Sousse", "IT", "pending"), user("2", "Sousse", "IT", "pending"))
+                .peek(user -> {
+                    if (user.getId().equals("2")) {
+                        index.setStatus(List.of("1"), "approved");
+                        index.remove("2");
+                        index.index(user("3", "Tunis", "RH", "approved"));
+                    }
+                });
+        when(mongoTemplate.stream(any(Query.class), eq(User.class))).thenReturn(stored);
+        index.rebuild();
+        
+        assertEquals(Set.of("1", "3"), Set.copyOf(index.findIds(null, null, null)));
+        assertEquals(Set.of("1", "3"), Set.copyOf(index.findIds(null, null, List.of("approved"))));
+    }
+    
+    @Test
+    void writesAfterARebuildAreNotRecorded() {
+        build(user("1", "Sousse", "IT", "approved"));
+        index.index(user("2", "Tunis", "RH", "approved"));
+        
+        assertTrue(index.isReady());
+        assertEquals(2, index.count(null, null, null));
+        assertNull(ReflectionTestUtils.getField(index, "writesDuringRebuild"));
+    }
+    
+    private void build(User... users) {
+        when(mongoTemplate.stream(any(Query.class), eq(User.class))).thenReturn(Stream.of(users));
+        index.rebuild();
+    }
+    
+    private static User user(String id, String location, String department, String status) {
+        User user = new User();
+        user.setId(id);
+        user.setEffectiveLocation(location);
+        user.setEffectiveDepartment(department);
+        user.setStatus(status);
+        return user;
+    }
+}
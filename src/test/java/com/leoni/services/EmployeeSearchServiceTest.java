@@ -0,0 +1,67 @@
+package com.leoni.services;
+
+import com.leoni.models.User;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class EmployeeSearchServiceTest {
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @InjectMocks
+    private EmployeeSearchService employeeSearchService;
+
+    @Test
+    void everyQueryTokenMustBeAStoredPrefix() {
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        when(mongoTemplate.count(query.capture(), eq(User.class))).thenReturn(2L);
+
+        assertEquals(2, employeeSearchService.count("Hélène  ben-ali hélène"));
+
+        assertEquals(new Document("searchKeys", new Document("$all", List.of("helene", "ben", "ali"))),
+                query.getValue().getQueryObject());
+    }
+
+    @Test
+    void longTokensAreCutToTheStoredPrefixLength() {
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        when(mongoTemplate.count(query.capture(), eq(User.class))).thenReturn(0L);
+
+        employeeSearchService.count("a".repeat(User.SEARCH_PREFIX_MAX_LENGTH + 5));
+
+        assertEquals(new Document("searchKeys", new Document("$all", List.of("a".repeat(User.SEARCH_PREFIX_MAX_LENGTH)))),
+                query.getValue().getQueryObject());
+    }
+
+    @Test
+    void blankSearchesReadNothing() {
+        assertEquals(0, employeeSearchService.count(" - "));
+        assertTrue(employeeSearchService.search(null, 0, 20).isEmpty());
+        assertTrue(employeeSearchService.autocomplete("", 5).isEmpty());
+        verifyNoInteractions(mongoTemplate);
+    }
+
+    @Test
+    void storedTokensUseOnlyTheLocalPartOfTheEmail() {
+        assertEquals(List.of("sami", "trabelsi", "e123", "s", "trabelsi2"),
+                User.buildSearchTokens("Sami", "Trabelsi", "E123", "s.trabelsi2@leoni.com"));
+    }
+}
@@ -0,0 +1,86 @@
+package com.leoni.services;
+
+import com.leoni.models.DocumentRequest;
+import com.leoni.models.DocumentType;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class EscalationServiceTest {
+    
+    @Test
+    void typeIsMatchesTheListOrTheLegacyField() {
+        Document criteria = EscalationService.typeIs("Attestation").getCriteriaObject();
+        
+        assertEquals(new Document("$or", List.of(
+                new Document("documentTypes", "Attestation"),
+                new Document("$and", List.of(
+                        new Document("documentTypes.0", new Document("$exists", false)),
+                        new Document("documentType", "Attestation"))))), criteria);
+    }
+    
+    @Test
+    void typeNotInExcludesLegacyRequestsOfThoseTypes() {
+        Document criteria = EscalationService.typeNotIn(List.of("Attestation")).getCriteriaObject();
+        
+        assertEquals(new Document("$or", List.of(
+                new Document("$and", List.of(
+                        new Document("documentTypes.0", new Document("$exists", true)),
+                        new Document("documentTypes", new Document("$nin", List.of("Attestation"))))),
+                new Document("$and", List.of(
+                        new Document("documentTypes.0", new Document("$exists", false)),
+                        new Document("documentType", new Document("$nin", List.of("Attestation"))))))), criteria);
+    }
+    
+    @Test
+    void flaggingAndClearingLeaveVersionAndUpdatedAtAlone() {
+        MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+        EscalationService escalationService = new EscalationService();
+        ReflectionTestUtils.setField(escalationService, "mongoTemplate", mongoTemplate);
+        ReflectionTestUtils.setField(escalationService, "defaultThresholdDays", 7);
+        
+        DocumentType attestation = new DocumentType();
+        attestation.setName("Attestation");
+        attestation.setEscalationThresholdDays(3);
+        when(mongoTemplate.find(any(Query.class), eq(DocumentType.class))).thenReturn(List.of(attestation));
+        DocumentRequest overdue = new DocumentRequest();
+        overdue.setId("r1");
+        when(mongoTemplate.stream(any(Query.class), eq(DocumentRequest.class)))
+                .thenAnswer(invocation -> Stream.of(overdue));
+        when(mongoTemplate.updateMulti(any(Query.class), any(Update.class), eq(DocumentRequest.class)))
+                .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+        
+        escalationService.run();
+        
+        ArgumentCaptor<Update> updates = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate, atLeastOnce()).updateMulti(any(Query.class), updates.capture(), eq(DocumentRequest.class));
+        // One clear, then one flag per level and threshold (the type's and the default)
+        assertEquals(1 + 2 * EscalationService.MAX_LEVEL, updates.getAllValues().size());
+        for (Update update : updates.getAllValues()) {
+            Document document = update.getUpdateObject();
+            assertFalse(document.containsKey("$inc"), document.toJson());
+            assertFalse(document.toJson().contains("updatedAt"), document.toJson());
+        }
+        Map<String, Object> flag = updates.getAllValues().get(1).getUpdateObject().get("$set", Document.class);
+        assertTrue(flag.containsKey("escalationLevel"));
+    }
+}
@@ -0,0 +1,154 @@
+package com.leoni.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.leoni.exceptions.IdempotencyKeyInProgressException;
+import com.leoni.exceptions.IdempotencyKeyMismatchException;
+import com.leoni.models.IdempotencyRecord;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class IdempotencyServiceTest {
+
+    private static final String SCOPE = "documents:create";
+    private static final Map<String, String> BODY = Map.of("documentType", "Attestation");
+
+    private MongoTemplate mongoTemplate;
+    private IdempotencyService idempotencyService;
+    private final AtomicInteger runs = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() {
+        mongoTemplate = mock(MongoTemplate.class);
+        idempotencyService = new IdempotencyService();
+        ReflectionTestUtils.setField(idempotencyService, "mongoTemplate", mongoTemplate);
+        ReflectionTestUtils.setField(idempotencyService, "objectMapper", new ObjectMapper());
+        when(mongoTemplate.insert(any(IdempotencyRecord.class))).thenAnswer(invocation -> invocation.getArgument(0));
+    }
+
+    @Test
+    void withoutAKeyTheActionAlwaysRuns() {
+        execute(null, "u1", BODY, created());
+        execute(" ", "u1", BODY, created());
+
+        assertEquals(2, runs.get());
+        verifyNoInteractions(mongoTemplate);
+    }
+
+    @Test
+    void overlongKeysAreRefused() {
+        assertThrows(IllegalArgumentException.class, () -> execute("k".repeat(256), "u1", BODY, created()));
+        assertEquals(0, runs.get());
+    }
+
+    @Test
+    void aRetryReplaysTheStoredResponse() {
+        ResponseEntity<Object> first = execute("key-1", "u1", BODY, created());
+        ResponseEntity<Object> retry = execute("key-1", "u1", BODY, created());
+
+        assertEquals(1, runs.get());
+        assertEquals(HttpStatus.CREATED, retry.getStatusCode());
+        assertEquals(first.getBody(), retry.getBody());
+        assertEquals("true", retry.getHeaders().getFirst(IdempotencyService.REPLAYED_HEADER));
+        assertNull(first.getHeaders().getFirst(IdempotencyService.REPLAYED_HEADER));
+        verify(mongoTemplate).insert(any(IdempotencyRecord.class));
+        verify(mongoTemplate).updateFirst(any(Query.class), any(Update.class), eq(IdempotencyRecord.class));
+    }
+
+    @Test
+    void aKeyReusedByAnotherCallerOrBodyIsRejected() {
+        execute("key-1", "u1", BODY, created());
+
+        assertThrows(IdempotencyKeyMismatchException.class, () -> execute("key-1", "u2", BODY, created()));
+        assertThrows(IdempotencyKeyMismatchException.class,
+                () -> execute("key-1", "u1", Map.of("documentType", "Bulletin"), created()));
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    void failedRequestsReleaseTheKey() {
+        execute("key-1", "u1", BODY, () -> ResponseEntity.badRequest().build());
+        assertThrows(IllegalStateException.class, () -> execute("key-1", "u1", BODY, () -> {
+            throw new IllegalStateException("Erreur");
+        }));
+        execute("key-1", "u1", BODY, created());
+
+        assertEquals(3, runs.get());
+        verify(mongoTemplate, times(2)).remove(any(Query.class), eq(IdempotencyRecord.class));
+    }
+
+    @Test
+    void aResponseStoredByAnotherInstanceIsReplayed() {
+        IdempotencyRecord stored = new IdempotencyRecord(SCOPE + ":key-1", "u1", null);
+        stored.setStatus(IdempotencyRecord.COMPLETED);
+        stored.setHttpStatus(201);
+        stored.setResponseBody("{\"id\":\"d1\"}");
+        when(mongoTemplate.insert(any(IdempotencyRecord.class))).thenThrow(new DuplicateKeyException("E11000"));
+        when(mongoTemplate.findById(SCOPE + ":key-1", IdempotencyRecord.class)).thenReturn(stored);
+
+        ResponseEntity<Object> response = execute("key-1", "u1", BODY, created());
+
+        assertEquals(0, runs.get());
+        assertEquals(Map.of("id", "d1"), response.getBody());
+    }
+
+    @Test
+    void aRunningClaimIsNotTakenOver() {
+        when(mongoTemplate.insert(any(IdempotencyRecord.class))).thenThrow(new DuplicateKeyException("E11000"));
+        when(mongoTemplate.findById(SCOPE + ":key-1", IdempotencyRecord.class))
+                .thenReturn(new IdempotencyRecord(SCOPE + ":key-1", "u1", null));
+
+        assertThrows(IdempotencyKeyInProgressException.class, () -> execute("key-1", "u1", BODY, created()));
+        assertEquals(0, runs.get());
+        verify(mongoTemplate, never()).remove(any(Query.class), eq(IdempotencyRecord.class));
+    }
+
+    @Test
+    void aStaleClaimIsTakenOver() {
+        IdempotencyRecord claim = new IdempotencyRecord(SCOPE + ":key-1", "u1", null);
+        when(mongoTemplate.insert(any(IdempotencyRecord.class))).thenThrow(new DuplicateKeyException("E11000"));
+        when(mongoTemplate.findById(SCOPE + ":key-1", IdempotencyRecord.class)).thenReturn(claim);
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(IdempotencyRecord.class))).thenReturn(claim);
+
+        execute("key-1", "u1", BODY, created());
+
+        assertEquals(1, runs.get());
+        assertEquals(IdempotencyRecord.COMPLETED, claim.getStatus());
+    }
+
+    private Supplier<ResponseEntity<Object>> created() {
+        return () -> ResponseEntity.status(HttpStatus.CREATED).body(Map.of("id", "d" + runs.get()));
+    }
+
+    private ResponseEntity<Object> execute(String key, String caller, Object body,
+                                           Supplier<ResponseEntity<Object>> action) {
+        return idempotencyService.execute(SCOPE, key, caller, body, () -> {
+            runs.incrementAndGet();
+            return action.get();
+        });
+    }
+}
@@ -0,0 +1,111 @@
+package com.leoni.services;
+
+import com.leoni.exceptions.InvalidImageException;
+import com.leoni.models.StoredImage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ImageStorageServiceTest {
+
+    private static final byte[] PNG_HEADER = {(byte) 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A};
+
+    @TempDir
+    Path uploads;
+
+    private ImageStorageService imageStorageService;
+
+    @BeforeEach
+    void setUp() {
+        LocalBlobStore blobStore = new LocalBlobStore();
+        ReflectionTestUtils.setField(blobStore, "uploadsDir", uploads.toString());
+        MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class), eq(StoredImage.class)))
+                .thenReturn(new StoredImage());
+
+        imageStorageService = new ImageStorageService();
+        ReflectionTestUtils.setField(imageStorageService, "blobStore", blobStore);
+        ReflectionTestUtils.setField(imageStorageService, "mongoTemplate", mongoTemplate);
+    }
+
+    @Test
+    void storesUnderTheContentHash() throws Exception {
+        byte[] content = png(100_000);
+
+        imageStorageService.store(new MockMultipartFile("file", "logo.png", "image/png", content));
+
+        String hash = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        Path stored = uploads.resolve(ImageStorageService.NEWS_IMAGES).resolve(hash.substring(0, 2)).resolve(hash + ".png");
+        assertArrayEquals(content, Files.readAllBytes(stored));
+        assertEquals(0, filesUnder(ImageStorageService.INCOMING));
+    }
+
+    @Test
+    void sameContentIsStoredOnce() throws Exception {
+        byte[] content = png(1000);
+
+        imageStorageService.store(new MockMultipartFile("file", "a.png", "image/png", content));
+        imageStorageService.store(new MockMultipartFile("file", "b.jpg", "image/jpeg", content));
+
+        assertEquals(1, filesUnder(ImageStorageService.NEWS_IMAGES));
+        assertEquals(0, filesUnder(ImageStorageService.INCOMING));
+    }
+
+    @Test
+    void rejectsOtherFormatsWithoutWriting() throws Exception {
+        MockMultipartFile file = new MockMultipartFile("file", "page.png", "image/png", "<html></html>".getBytes());
+
+        assertThrows(InvalidImageException.class, () -> imageStorageService.store(file));
+        assertEquals(0, filesUnder(""));
+    }
+
+    @Test
+    void rejectsTooLargeUploadsAndRemovesThePartialCopy() throws Exception {
+        MockMultipartFile file = new MockMultipartFile("file", "big.png", "image/png",
+                png((int) ImageStorageService.MAX_SIZE_BYTES + 1));
+
+        assertThrows(InvalidImageException.class, () -> imageStorageService.store(file));
+        assertEquals(0, filesUnder(""));
+    }
+
+    private static byte[] png(int size) {
+        byte[] content = new byte[size];
+        for (int i = 0; i < size; i++) {
+            content[i] = (byte) (i * 31);
+        }
+        System.arraycopy(PNG_HEADER, 0, content, 0, PNG_HEADER.length);
+        return content;
+    }
+
+    // Regular files under a directory of the uploads, hidden temporary files included
+    private long filesUnder(String directory) throws Exception {
+        Path root = uploads.resolve(directory);
+        if (!Files.exists(root)) {
+            return 0;
+        }
+        try (Stream<Path> files = Files.walk(root)) {
+            return files.filter(Files::isRegularFile).count();
+        }
+    }
+}
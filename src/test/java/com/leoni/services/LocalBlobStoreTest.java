@@ -0,0 +1,110 @@
+package com.leoni.services;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LocalBlobStoreTest {
+
+    @TempDir
+    Path root;
+
+    private LocalBlobStore store;
+
+    @BeforeEach
+    void setUp() {
+        store = new LocalBlobStore();
+        ReflectionTestUtils.setField(store, "uploadsDir", root.toString());
+    }
+
+    @Test
+    void putReplacesTheFileWithoutLeavingTemporaryFiles() throws IOException {
+        put("news-images/ab/ab12.png", "first");
+        put("news-images/ab/ab12.png", "second");
+
+        assertEquals("second", read("news-images/ab/ab12.png"));
+        assertEquals(6, store.stat("news-images/ab/ab12.png").size());
+        try (Stream<Path> files = Files.list(root.resolve("news-images/ab"))) {
+            assertEquals(List.of("ab12.png"), files.map(file -> file.getFileName().toString()).toList());
+        }
+    }
+
+    @Test
+    void missingFiles() throws IOException {
+        assertNull(store.stat("news-images/none.png"));
+        assertThrows(NoSuchFileException.class, () -> store.open("news-images/none.png"));
+        store.delete("news-images/none.png");
+        store.move("incoming/none", "news-images/none.png");
+        assertNull(store.stat("news-images/none.png"));
+    }
+
+    @Test
+    void moveRenamesOverTheTarget() throws IOException {
+        put("incoming/upload", "new");
+        put("news-images/ab/ab12.png", "old");
+
+        store.move("incoming/upload", "news-images/ab/ab12.png");
+
+        assertEquals("new", read("news-images/ab/ab12.png"));
+        assertNull(store.stat("incoming/upload"));
+    }
+
+    @Test
+    void listVisitsNestedFilesAndSkipsFilesBeingWritten() throws IOException {
+        put("news-images/ab/ab12.png", "a");
+        put("news-images/cd/cd34.png", "b");
+        put("incoming/upload", "c");
+        Files.writeString(root.resolve("news-images/ab/.blob-1.tmp"), "partial");
+
+        List<String> keys = new ArrayList<>();
+        store.list("news-images", info -> keys.add(info.key()));
+        store.list("missing", info -> keys.add(info.key()));
+
+        assertEquals(List.of("news-images/ab/ab12.png", "news-images/cd/cd34.png"), keys.stream().sorted().toList());
+    }
+
+    @Test
+    void keysCannotLeaveTheUploadsDirectory() {
+        for (String key : List.of("../secret", "news-images/../../secret", "news-images//a.png", ".hidden", "a\\b", "")) {
+            assertFalse(BlobStore.isValidKey(key), key);
+            assertThrows(IllegalArgumentException.class, () -> store.stat(key), key);
+        }
+        assertTrue(BlobStore.isValidKey("news-images/ab/ab12.png"));
+    }
+
+    @Test
+    void localPathIsTheStoredFile() throws IOException {
+        put("news-images/ab/ab12.png", "a");
+        assertTrue(store.isLocal());
+        assertEquals(root.resolve("news-images/ab/ab12.png").toAbsolutePath().normalize(),
+                store.localPath("news-images/ab/ab12.png"));
+    }
+
+    private void put(String key, String content) throws IOException {
+        store.put(key, new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)), "image/png");
+    }
+
+    private String read(String key) throws IOException {
+        try (InputStream in = store.open(key)) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
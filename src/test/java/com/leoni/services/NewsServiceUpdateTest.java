@@ -0,0 +1,132 @@
+package com.leoni.services;
+
+import com.leoni.exceptions.VersionConflictException;
+import com.leoni.exceptions.VersionRequiredException;
+import com.leoni.models.News;
+import com.leoni.models.StoredImage;
+import com.leoni.repositories.NewsRepository;
+import com.leoni.repositories.PartialUpdateRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.OptimisticLockingFailureException;
+
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class NewsServiceUpdateTest {
+
+    private static final String ID = "n1";
+
+    @Mock
+    private NewsRepository newsRepository;
+
+    @Mock
+    private AdminSearchIndexService adminSearchIndexService;
+
+    @Mock
+    private ImageStorageService imageStorageService;
+
+    @Mock
+    private PartialUpdateRepository partialUpdateRepository;
+
+    @InjectMocks
+    private NewsService newsService;
+
+    @Test
+    void missingVersionIsRequired() {
+        when(newsRepository.findById(ID)).thenReturn(Optional.of(news(1L, "Titre", "Contenu")));
+        News edit = news(null, "Nouveau titre", "Contenu");
+
+        assertThrows(VersionRequiredException.class, () -> newsService.updateNews(ID, edit));
+        verify(newsRepository, never()).save(any());
+    }
+
+    @Test
+    void staleVersionIsRejectedWithoutSaving() {
+        when(newsRepository.findById(ID)).thenReturn(Optional.of(news(2L, "Titre", "Contenu")));
+
+        assertThrows(VersionConflictException.class, () -> newsService.updateNews(ID, news(1L, "Nouveau titre", "Contenu")));
+        verify(newsRepository, never()).save(any());
+    }
+
+    @Test
+    void concurrentEditOfAnotherFieldIsMerged() {
+        when(newsRepository.findById(ID))
+                .thenReturn(Optional.of(news(1L, "Titre", "Contenu")))
+                .thenReturn(Optional.of(news(2L, "Titre", "Contenu corrigé")));
+        when(newsRepository.save(any()))
+                .thenThrow(new OptimisticLockingFailureException("version 1"))
+                .thenAnswer(invocation -> invocation.getArgument(0));
+
+        News saved = newsService.updateNews(ID, news(1L, "Nouveau titre", "Contenu"));
+
+        assertEquals("Nouveau titre", saved.getTitle());
+        assertEquals("Contenu corrigé", saved.getContent()); // The concurrent content change is kept
+        assertEquals(2L, saved.getVersion());
+    }
+
+    @Test
+    void concurrentEditOfTheSameFieldConflicts() {
+        when(newsRepository.findById(ID))
+                .thenReturn(Optional.of(news(1L, "Titre", "Contenu")))
+                .thenReturn(Optional.of(news(2L, "Autre titre", "Contenu")));
+        when(newsRepository.save(any())).thenThrow(new OptimisticLockingFailureException("version 1"));
+
+        assertThrows(VersionConflictException.class, () -> newsService.updateNews(ID, news(1L, "Nouveau titre", "Contenu")));
+        verify(newsRepository, times(1)).save(any());
+    }
+
+    @Test
+    void unsentTargetsAreKept() {
+        News stored = news(1L, "Titre", "Contenu");
+        stored.setTargetLocation("Sousse");
+        when(newsRepository.findById(ID)).thenReturn(Optional.of(stored));
+        when(newsRepository.save(any())).thenAnswer(invocation -> invocation.getArgument(0));
+
+        newsService.updateNews(ID, news(1L, "Nouveau titre", "Contenu"));
+
+        ArgumentCaptor<News> captor = ArgumentCaptor.forClass(News.class);
+        verify(newsRepository).save(captor.capture());
+        assertEquals("Sousse", captor.getValue().getTargetLocation());
+    }
+
+    private static News news(Long version, String title, String content) {
+        News news = new News(title, content, "Résumé", "general", "normal");
+        news.setId(ID);
+        news.setVersion(version);
+        return news;
+    }
+
+    @Test
+    void variantsGeneratedDuringTheSaveArePutBack() {
+        // The news was read before its variants were stored, without a version change: the save replaces them
+        News stored = news(1L, "Titre", "Contenu");
+        stored.setImageUrl("/uploads/news-images/ab/ab.png");
+        when(newsRepository.findById(ID)).thenReturn(Optional.of(stored));
+        when(newsRepository.save(any())).thenAnswer(invocation -> invocation.getArgument(0));
+        StoredImage image = new StoredImage();
+        image.setVariants(Map.of("320", "/uploads/news-images/ab/ab_w320.png"));
+        when(imageStorageService.findByUrl(stored.getImageUrl())).thenReturn(image);
+        News withVariants = news(2L, "Nouveau titre", "Contenu");
+        withVariants.setImageVariants(image.getVariants());
+        when(partialUpdateRepository.setFields(ID, Map.of("imageVariants", image.getVariants()), News.class))
+                .thenReturn(withVariants);
+
+        News saved = newsService.updateNews(ID, news(1L, "Nouveau titre", "Contenu"));
+
+        assertEquals(image.getVariants(), saved.getImageVariants());
+    }
+}
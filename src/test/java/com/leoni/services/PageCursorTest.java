@@ -0,0 +1,66 @@
+package com.leoni.services;
+
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PageCursorTest {
+
+    private static final String ID = "65a1f0c2e4b0a1b2c3d4e5f6";
+
+    @Test
+    void roundTripKeepsDateAndId() {
+        DocumentRequestService.PageCursor cursor = new DocumentRequestService.PageCursor(new Date(1_700_000_000_123L), ID);
+        assertEquals(cursor, DocumentRequestService.PageCursor.decode(cursor.encode()));
+    }
+
+    @Test
+    void roundTripWithoutCreationDate() {
+        DocumentRequestService.PageCursor cursor = new DocumentRequestService.PageCursor(null, ID);
+        assertEquals(cursor, DocumentRequestService.PageCursor.decode(cursor.encode()));
+    }
+
+    @Test
+    void encodedCursorIsUrlSafe() {
+        String token = new DocumentRequestService.PageCursor(new Date(Long.MAX_VALUE), ID).encode();
+        assertTrue(token.matches("[A-Za-z0-9_-]+"), token);
+    }
+
+    @Test
+    void malformedCursorsAreRejected() {
+        for (String token : List.of("not base64!", encode("no-separator"), encode("abc:" + ID))) {
+            assertThrows(IllegalArgumentException.class, () -> DocumentRequestService.PageCursor.decode(token), token);
+        }
+    }
+
+    @Test
+    void afterContinuesBehindTheLastRequest() {
+        Date createdAt = new Date(1_700_000_000_123L);
+        Document after = new DocumentRequestService.PageCursor(createdAt, ID).after().getCriteriaObject();
+        List<?> branches = (List<?>) after.get("$or");
+        assertEquals(3, branches.size());
+        assertEquals(new Document("createdAt", new Document("$lt", createdAt)), branches.get(0));
+        assertEquals(new Document("createdAt", createdAt).append("_id", new Document("$lt", ID)), branches.get(1));
+        assertEquals(new Document("createdAt", null), branches.get(2));
+    }
+
+    @Test
+    void afterWithoutCreationDateStaysAmongUndatedRequests() {
+        Document after = new DocumentRequestService.PageCursor(null, ID).after().getCriteriaObject();
+        assertFalse(after.containsKey("$or"));
+        assertEquals(new Document("createdAt", null).append("_id", new Document("$lt", ID)), after);
+    }
+
+    private static String encode(String value) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+}
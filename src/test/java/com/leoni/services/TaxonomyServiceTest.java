@@ -0,0 +1,107 @@
+package com.leoni.services;
+
+import com.leoni.models.Department;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationResults;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class TaxonomyServiceTest {
+
+    private MongoTemplate mongoTemplate;
+    private TaxonomyService taxonomyService;
+
+    @BeforeEach
+    void setUp() {
+        mongoTemplate = mock(MongoTemplate.class);
+        taxonomyService = new TaxonomyService();
+        ReflectionTestUtils.setField(taxonomyService, "mongoTemplate", mongoTemplate);
+        when(mongoTemplate.aggregate(any(Aggregation.class), eq("departments"), eq(Document.class)))
+                .thenAnswer(invocation -> groups());
+    }
+
+    @Test
+    void theTreeIsBuiltOnceAndServedFromMemory() {
+        TaxonomyService.Taxonomy first = taxonomyService.current();
+        TaxonomyService.Taxonomy second = taxonomyService.current();
+
+        assertSame(first, second);
+        assertEquals(first.getETag(), second.getETag());
+        verify(mongoTemplate, times(1)).aggregate(any(Aggregation.class), eq("departments"), eq(Document.class));
+    }
+
+    @Test
+    void invalidateGivesANewVersion() {
+        TaxonomyService.Taxonomy before = taxonomyService.current();
+
+        taxonomyService.invalidate();
+        TaxonomyService.Taxonomy after = taxonomyService.current();
+
+        assertNotEquals(before.getETag(), after.getETag());
+        verify(mongoTemplate, times(2)).aggregate(any(Aggregation.class), eq("departments"), eq(Document.class));
+    }
+
+    @Test
+    void aBuildRacingWithAWriteIsNotCached() {
+        when(mongoTemplate.aggregate(any(Aggregation.class), eq("departments"), eq(Document.class)))
+                .thenAnswer(invocation -> {
+                    taxonomyService.invalidate(); // A department saved while the tree was read
+                    return groups();
+                })
+                .thenAnswer(invocation -> groups());
+
+        TaxonomyService.Taxonomy raced = taxonomyService.current();
+        TaxonomyService.Taxonomy next = taxonomyService.current();
+
+        assertNotEquals(raced.getETag(), next.getETag());
+        assertSame(next, taxonomyService.current());
+        verify(mongoTemplate, times(2)).aggregate(any(Aggregation.class), eq("departments"), eq(Document.class));
+    }
+
+    @Test
+    void departmentsAreGroupedByLocationKey() {
+        TaxonomyService.Taxonomy taxonomy = taxonomyService.current();
+
+        assertEquals(List.of("Sousse", "Tunis"), taxonomy.getLocations());
+        assertEquals(List.of("IT", "Qualité", "RH"), taxonomy.getDepartmentNames());
+        assertEquals(List.of("d1", "d2"), taxonomy.getDepartmentsByLocation(" SOUSSE ").stream()
+                .map(Department::getId).toList());
+        assertEquals(List.of(), taxonomy.getDepartmentsByLocation("Sfax"));
+        // A department without a location is listed, but under no location
+        assertEquals(4, taxonomy.getDepartments().size());
+        assertEquals(Map.of("Sousse", List.of("IT", "RH"), "Tunis", List.of("IT")),
+                taxonomy.getDepartmentNamesByLocation());
+    }
+
+    private static AggregationResults<Document> groups() {
+        return new AggregationResults<>(List.of(
+                group(null, null, department("d4", "Qualité", null)),
+                group("sousse", "Sousse", department("d1", "IT", "Sousse"), department("d2", "RH", "Sousse")),
+                group("tunis", "Tunis", department("d3", "IT", "Tunis"))), new Document());
+    }
+
+    private static Document group(String locationKey, String location, Document... departments) {
+        return new Document("_id", locationKey).append("location", location).append("departments", List.of(departments));
+    }
+
+    private static Document department(String id, String name, String location) {
+        return new Document("_id", id).append("name", name).append("location", location)
+                .append("nameKey", name.toLowerCase()).append("locationKey", location != null ? location.toLowerCase() : null);
+    }
+}
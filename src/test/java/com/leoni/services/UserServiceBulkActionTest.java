@@ -0,0 +1,126 @@
+package com.leoni.services;
+
+import com.leoni.dto.BulkUserActionRequest;
+import com.leoni.dto.BulkUserActionResult;
+import com.leoni.models.User;
+import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.UpdateResult;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class UserServiceBulkActionTest {
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private DeletionLogService deletionLogService;
+
+    @Mock
+    private AdminSearchIndexService adminSearchIndexService;
+
+    @Mock
+    private EmployeeDirectoryIndex employeeDirectoryIndex;
+
+    @InjectMocks
+    private UserService userService;
+
+    @Test
+    void anIdOrAFilterIsRequired() {
+        assertThrows(IllegalArgumentException.class,
+                () -> userService.bulkApproveUsers(new BulkUserActionRequest(), "SUPERADMIN", null));
+        verify(mongoTemplate, never()).find(any(Query.class), eq(User.class));
+    }
+
+    @Test
+    void eachRequestedIdGetsItsOutcome() {
+        // The selection query keeps a; b is approved already, c is pending elsewhere, d does not exist
+        when(mongoTemplate.find(any(Query.class), eq(User.class))).thenReturn(
+                List.of(user("a", "pending")),
+                List.of(user("a", "pending"), user("b", "approved"), user("c", "pending")));
+        when(mongoTemplate.updateMulti(any(Query.class), any(Update.class), eq(User.class)))
+                .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+        when(mongoTemplate.count(any(Query.class), eq(User.class))).thenReturn(7L);
+
+        BulkUserActionResult result = userService.bulkApproveUsers(request("a", "b", "c", "d"), "SUPERADMIN", null);
+
+        Map<String, String> expected = new LinkedHashMap<>();
+        expected.put("a", BulkUserActionResult.APPROVED);
+        expected.put("b", BulkUserActionResult.NOT_PENDING);
+        expected.put("c", BulkUserActionResult.OUT_OF_SCOPE);
+        expected.put("d", BulkUserActionResult.NOT_FOUND);
+        assertEquals(expected, result.getResults());
+        assertEquals(1, result.getMatched());
+        assertEquals(1, result.getProcessed());
+        assertEquals(7, result.getPendingCount());
+        verify(employeeDirectoryIndex).setStatus(List.of("a"), "approved");
+    }
+
+    @Test
+    void usersRejectedMeanwhileAreNotMarkedApproved() {
+        // b was rejected between the selection and the update: only a is read back as approved
+        when(mongoTemplate.find(any(Query.class), eq(User.class))).thenReturn(
+                List.of(user("a", "pending"), user("b", "pending")),
+                List.of(user("a", "pending"), user("b", "pending")),
+                List.of(user("a", "approved")));
+        when(mongoTemplate.updateMulti(any(Query.class), any(Update.class), eq(User.class)))
+                .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+
+        BulkUserActionResult result = userService.bulkApproveUsers(request("a", "b"), "SUPERADMIN", null);
+
+        assertEquals(1, result.getProcessed());
+        verify(employeeDirectoryIndex).setStatus(List.of("a"), "approved");
+    }
+
+    @Test
+    void rejectedUsersStillPresentStayIndexed() {
+        // b was approved by someone else before the delete ran
+        when(mongoTemplate.find(any(Query.class), eq(User.class))).thenReturn(
+                List.of(user("a", "pending"), user("b", "pending")),
+                List.of(user("a", "pending"), user("b", "pending")),
+                List.of(user("b", "approved")));
+        when(mongoTemplate.remove(any(Query.class), eq(User.class))).thenReturn(DeleteResult.acknowledged(1));
+
+        BulkUserActionResult result = userService.bulkRejectUsers(request("a", "b"), "SUPERADMIN", null);
+
+        assertEquals(1, result.getProcessed());
+        verify(employeeDirectoryIndex).remove("a");
+        verify(adminSearchIndexService).remove(AdminSearchIndexService.EMPLOYEE, "a");
+        verify(deletionLogService).record(DeletionLogService.USERS, "a", null);
+        verify(employeeDirectoryIndex, never()).remove("b");
+        verify(adminSearchIndexService, never()).remove(anyString(), eq("b"));
+    }
+
+    private static BulkUserActionRequest request(String... userIds) {
+        BulkUserActionRequest request = new BulkUserActionRequest();
+        request.setUserIds(List.of(userIds));
+        return request;
+    }
+
+    private static User user(String id, String status) {
+        User user = new User();
+        user.setId(id);
+        user.setStatus(status);
+        return user;
+    }
+}
@@ -0,0 +1,174 @@
+package com.leoni.services;
+
+import com.leoni.config.GlobalExceptionHandler;
+import com.leoni.dto.UserDTO;
+import com.leoni.exceptions.VersionConflictException;
+import com.leoni.exceptions.VersionRequiredException;
+import com.leoni.models.User;
+import com.leoni.repositories.DepartmentRepository;
+import com.leoni.repositories.PartialUpdateRepository;
+import com.leoni.repositories.UserRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.web.context.request.WebRequest;
+
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class UserServiceUpdateTest {
+
+    private static final String ID = "u1";
+
+    @Mock
+    private UserRepository userRepository;
+
+    @Mock
+    private DepartmentRepository departmentRepository;
+
+    @Mock
+    private PartialUpdateRepository partialUpdateRepository;
+
+    @Mock
+    private AdminSearchIndexService adminSearchIndexService;
+
+    @Mock
+    private EmployeeDirectoryIndex employeeDirectoryIndex;
+
+    @InjectMocks
+    private UserService userService;
+
+    @Test
+    void missingVersionIsRequired() {
+        when(userRepository.findById(ID)).thenReturn(Optional.of(user(1L, "Amine", "111")));
+        UserDTO edit = edit(user(1L, "Amine", "111"));
+        edit.setVersion(null);
+
+        VersionRequiredException e = assertThrows(VersionRequiredException.class, () -> userService.updateUser(ID, edit));
+        verify(partialUpdateRepository, never()).setFieldsIfVersion(any(), any(), anyMap(), any());
+        assertEquals(428, new GlobalExceptionHandler()
+                .handleVersionRequiredException(e, mock(WebRequest.class)).getStatusCode().value());
+    }
+
+    @Test
+    void staleVersionIsRejectedWithoutWriting() {
+        when(userRepository.findById(ID)).thenReturn(Optional.of(user(2L, "Amine", "111")));
+        UserDTO edit = edit(user(1L, "Sami", "111"));
+
+        assertThrows(VersionConflictException.class, () -> userService.updateUser(ID, edit));
+        verify(partialUpdateRepository, never()).setFieldsIfVersion(any(), any(), anyMap(), any());
+    }
+
+    @Test
+    void onlyEditedFieldsAreWritten() {
+        when(userRepository.findById(ID)).thenReturn(Optional.of(user(1L, "Amine", "111")));
+        when(partialUpdateRepository.setFieldsIfVersion(eq(ID), eq(1L), anyMap(), eq(User.class)))
+                .thenReturn(user(2L, "Sami", "111"));
+
+        UserDTO saved = userService.updateUser(ID, edit(user(1L, "Sami", "111")));
+
+        assertEquals("Sami", saved.getFirstName());
+        Map<String, Object> fields = writtenFields(1);
+        assertEquals("Sami", fields.get("firstName"));
+        assertFalse(fields.containsKey("phoneNumber"));
+        assertFalse(fields.containsKey("lastName"));
+    }
+
+    @Test
+    void concurrentEditOfAnotherFieldIsMerged() {
+        when(userRepository.findById(ID))
+                .thenReturn(Optional.of(user(1L, "Amine", "111")))
+                .thenReturn(Optional.of(user(2L, "Amine", "222")));
+        when(partialUpdateRepository.setFieldsIfVersion(eq(ID), anyLong(), anyMap(), eq(User.class)))
+                .thenReturn(null)
+                .thenReturn(user(3L, "Sami", "222"));
+
+        UserDTO saved = userService.updateUser(ID, edit(user(1L, "Sami", "111")));
+
+        assertEquals("222", saved.getPhoneNumber());
+        verify(partialUpdateRepository).setFieldsIfVersion(eq(ID), eq(1L), anyMap(), eq(User.class));
+        verify(partialUpdateRepository).setFieldsIfVersion(eq(ID), eq(2L), anyMap(), eq(User.class));
+        Map<String, Object> retried = writtenFields(2);
+        assertEquals("Sami", retried.get("firstName"));
+        assertFalse(retried.containsKey("phoneNumber")); // The concurrent phone change is kept
+    }
+
+    @Test
+    void concurrentEditOfTheSameFieldConflicts() {
+        when(userRepository.findById(ID))
+                .thenReturn(Optional.of(user(1L, "Amine", "111")))
+                .thenReturn(Optional.of(user(2L, "Karim", "111")));
+
+        VersionConflictException e = assertThrows(VersionConflictException.class,
+                () -> userService.updateUser(ID, edit(user(1L, "Sami", "111"))));
+        assertEquals("VERSION_CONFLICT", e.getErrorCode());
+        assertEquals(409, new GlobalExceptionHandler()
+                .handleVersionConflictException(e, mock(WebRequest.class)).getStatusCode().value());
+        verify(partialUpdateRepository, times(1)).setFieldsIfVersion(any(), any(), anyMap(), any());
+    }
+
+    @Test
+    void retriesAreBounded() {
+        when(userRepository.findById(ID))
+                .thenReturn(Optional.of(user(1L, "Amine", "111")))
+                .thenReturn(Optional.of(user(2L, "Amine", "222")))
+                .thenReturn(Optional.of(user(3L, "Amine", "333")))
+                .thenReturn(Optional.of(user(4L, "Amine", "444")));
+
+        assertThrows(VersionConflictException.class, () -> userService.updateUser(ID, edit(user(1L, "Sami", "111"))));
+        verify(partialUpdateRepository, times(3)).setFieldsIfVersion(any(), any(), anyMap(), any());
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> writtenFields(int calls) {
+        ArgumentCaptor<Map<String, Object>> captor = ArgumentCaptor.forClass(Map.class);
+        verify(partialUpdateRepository, times(calls)).setFieldsIfVersion(eq(ID), any(), captor.capture(), eq(User.class));
+        return captor.getValue();
+    }
+
+    private static User user(Long version, String firstName, String phoneNumber) {
+        User user = new User();
+        user.setId(ID);
+        user.setFirstName(firstName);
+        user.setLastName("Ben Ali");
+        user.setEmail("amine@leoni.com");
+        user.setPhoneNumber(phoneNumber);
+        user.setEmployeeId("E1");
+        user.setPosition("Technicien");
+        user.setLocation("Sousse");
+        user.setVersion(version);
+        return user;
+    }
+
+    // What a client sends back after editing the given user
+    private static UserDTO edit(User user) {
+        UserDTO dto = new UserDTO();
+        dto.setFirstName(user.getFirstName());
+        dto.setLastName(user.getLastName());
+        dto.setAdresse1(user.getAdresse1());
+        dto.setAdresse2(user.getAdresse2());
+        dto.setPhoneNumber(user.getPhoneNumber());
+        dto.setEmployeeId(user.getEmployeeId());
+        dto.setPosition(user.getPosition());
+        dto.setLocationName(user.getLocation());
+        dto.setVersion(user.getVersion());
+        return dto;
+    }
+}
@@ -0,0 +1,88 @@
+package com.leoni.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DurationHistogramTest {
+
+    private static final long MINUTE = 60_000;
+
+    @Test
+    void bucketUpperBoundsAreInclusive() {
+        assertEquals(0, bucketOf(0));
+        assertEquals(0, bucketOf(MINUTE));
+        assertEquals(1, bucketOf(MINUTE + 1));
+        assertEquals(1, bucketOf(75_000)); // One minute * 1.25
+        assertEquals(2, bucketOf(75_001));
+        assertEquals(2, bucketOf(93_750)); // One minute * 1.25^2
+        assertEquals(3, bucketOf(93_751));
+    }
+
+    @Test
+    void longDurationsGoToTheLastBucket() {
+        assertEquals(DurationHistogram.BUCKETS - 1, bucketOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    void negativeDurationsAreIgnored() {
+        assertNull(DurationHistogram.record(null, -1));
+        List<Long> histogram = DurationHistogram.record(null, 0);
+        assertEquals(List.of(1L), DurationHistogram.record(histogram, -5));
+    }
+
+    @Test
+    void mergeAddsBucketByBucket() {
+        List<Long> shorter = List.of(1L, 2L);
+        List<Long> longer = List.of(0L, 1L, 0L, 4L);
+
+        assertEquals(List.of(1L, 3L, 0L, 4L), DurationHistogram.merge(shorter, longer));
+        assertEquals(List.of(1L, 3L, 0L, 4L), DurationHistogram.merge(longer, shorter));
+        assertEquals(shorter, DurationHistogram.merge(shorter, null));
+        assertNull(DurationHistogram.merge(null, null));
+
+        long[] merged = new long[DurationHistogram.BUCKETS];
+        DurationHistogram.mergeInto(merged, shorter);
+        DurationHistogram.mergeInto(merged, longer);
+        DurationHistogram.mergeInto(merged, null);
+        assertEquals(8, DurationHistogram.count(merged));
+        assertEquals(4, merged[3]);
+    }
+
+    @Test
+    void percentileIsTheGeometricMiddleOfItsBucket() {
+        long[] merged = new long[DurationHistogram.BUCKETS];
+        merged[0] = 9;
+        merged[1] = 1;
+
+        assertEquals(MINUTE / 2, DurationHistogram.percentile(merged, 0));
+        assertEquals(MINUTE / 2, DurationHistogram.percentile(merged, 0.9)); // Rank 9 of 10
+        assertEquals(Math.round(MINUTE * Math.sqrt(1.25)), DurationHistogram.percentile(merged, 0.91)); // Rank 10
+        assertEquals(Math.round(MINUTE * Math.sqrt(1.25)), DurationHistogram.percentile(merged, 1));
+    }
+
+    @Test
+    void percentileOfAnEmptyHistogramIsNull() {
+        assertNull(DurationHistogram.percentile(new long[DurationHistogram.BUCKETS], 0.5));
+    }
+
+    @Test
+    void estimatesStayWithinTwelvePercent() {
+        for (long millis = MINUTE + 1; millis < 365L * 24 * 60 * MINUTE; millis = millis * 11 / 10 + 7) {
+            long[] merged = new long[DurationHistogram.BUCKETS];
+            DurationHistogram.mergeInto(merged, DurationHistogram.record(null, millis));
+            double error = Math.abs(DurationHistogram.percentile(merged, 0.5) - millis) / (double) millis;
+            assertTrue(error <= 0.12, millis + " ms estimated with an error of " + error);
+        }
+    }
+
+    private static int bucketOf(long millis) {
+        List<Long> histogram = DurationHistogram.record(new ArrayList<>(), millis);
+        return histogram.size() - 1;
+    }
+}
@@ -0,0 +1,103 @@
+package com.leoni.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LongHashSetTest {
+
+    @Test
+    void addReportsNewValuesOnly() {
+        LongHashSet set = new LongHashSet();
+        assertTrue(set.add(42));
+        assertFalse(set.add(42));
+        assertTrue(set.contains(42));
+        assertFalse(set.contains(43));
+        assertEquals(1, set.size());
+    }
+
+    @Test
+    void zeroIsAValue() {
+        LongHashSet set = new LongHashSet();
+        assertFalse(set.contains(0));
+        assertTrue(set.add(0));
+        assertFalse(set.add(0));
+        assertTrue(set.contains(0));
+        assertEquals(1, set.size());
+
+        set.add(7);
+        assertEquals(2, set.size());
+    }
+
+    @Test
+    void negativeAndExtremeValues() {
+        LongHashSet set = new LongHashSet();
+        for (long value : new long[] {-1, Long.MIN_VALUE, Long.MAX_VALUE}) {
+            assertTrue(set.add(value));
+        }
+        assertTrue(set.contains(-1));
+        assertTrue(set.contains(Long.MIN_VALUE));
+        assertTrue(set.contains(Long.MAX_VALUE));
+        assertFalse(set.contains(1));
+        assertEquals(3, set.size());
+    }
+
+    @Test
+    void valuesSharingTheirLowBitsAreKeptApart() {
+        LongHashSet set = new LongHashSet();
+        for (long i = 1; i <= 400; i++) {
+            assertTrue(set.add(i << 40));
+        }
+        for (long i = 1; i <= 400; i++) {
+            assertTrue(set.contains(i << 40));
+            assertFalse(set.contains((i << 40) + 1));
+        }
+        assertEquals(400, set.size());
+    }
+
+    @Test
+    void collidingSlotsAreProbed() {
+        // Far more values than slots at the start: many share a slot and are found by probing
+        LongHashSet set = new LongHashSet();
+        Set<Long> expected = new HashSet<>();
+        Random random = new Random(1);
+        while (expected.size() < 500) {
+            long value = random.nextLong();
+            assertEquals(expected.add(value), set.add(value));
+        }
+        for (long value : expected) {
+            assertTrue(set.contains(value));
+        }
+        assertEquals(expected.size(), set.size());
+    }
+
+    @Test
+    void growKeepsEveryValue() {
+        LongHashSet set = new LongHashSet();
+        Set<Long> expected = new HashSet<>();
+        Random random = new Random(2);
+        while (expected.size() < 100_000) {
+            long value = random.nextLong();
+            expected.add(value);
+            set.add(value);
+        }
+        assertEquals(expected.size(), set.size());
+        for (long value : expected) {
+            assertTrue(set.contains(value));
+        }
+        int absentFound = 0;
+        for (int i = 0; i < 10_000; i++) {
+            long value = random.nextLong();
+            if (!expected.contains(value) && set.contains(value)) {
+                absentFound++;
+            }
+        }
+        assertEquals(0, absentFound);
+    }
+}
@@ -0,0 +1,40 @@
+package com.leoni.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TextNormalizerTest {
+
+    @Test
+    void keysAreTrimmedCollapsedAndLowerCase() {
+        assertEquals("ressources humaines", TextNormalizer.key("  Ressources   Humaines "));
+        assertNull(TextNormalizer.key("   "));
+        assertNull(TextNormalizer.key(null));
+        assertFalse(TextNormalizer.hasKey(" "));
+        assertTrue(TextNormalizer.hasKey("IT"));
+    }
+
+    @Test
+    void foldRemovesAccents() {
+        assertEquals("helene cote", TextNormalizer.fold("Hélène Côté"));
+        assertEquals("", TextNormalizer.fold(null));
+    }
+
+    @Test
+    void tokensAreFoldedSplitAndDistinct() {
+        assertEquals(List.of("jean", "pierre", "m", "bappe", "emp", "0042"),
+                TextNormalizer.tokens("Jean-Pierre M'Bappé", null, "EMP 0042", "jean"));
+        assertEquals(List.of(), TextNormalizer.tokens(" - ", null));
+    }
+
+    @Test
+    void prefixesStopAtTheMaximumLength() {
+        assertEquals(List.of("a", "an", "ann", "b", "be"), TextNormalizer.prefixes(List.of("anna", "ann", "be"), 3));
+    }
+}